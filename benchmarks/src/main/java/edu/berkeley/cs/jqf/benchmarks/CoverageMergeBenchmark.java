@@ -0,0 +1,124 @@
+/*
+ * Copyright (c) 2017-2018 The Regents of the University of California
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.berkeley.cs.jqf.benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import edu.berkeley.cs.jqf.fuzz.util.Counter;
+import edu.berkeley.cs.jqf.fuzz.util.Coverage;
+import org.eclipse.collections.api.list.primitive.IntList;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the per-trial cost of merging a run's coverage into
+ * the cumulative coverage, as done when checking whether to save
+ * an input.
+ *
+ * <p>The <code>denseScan</code> benchmark replicates the previous
+ * implementation of {@link Coverage#updateBits}, which visited every
+ * slot of the coverage map regardless of how much the run covered.</p>
+ *
+ * <p>Run with: <code>mvn package -Pbenchmarks -pl benchmarks -am -DskipTests
+ * &amp;&amp; java -jar benchmarks/target/benchmarks.jar CoverageMergeBenchmark</code></p>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CoverageMergeBenchmark {
+
+    /** Number of edges covered by a single run. */
+    @Param({"50", "500", "5000"})
+    public int runEdges;
+
+    /** Number of edges covered by all runs so far. */
+    @Param({"10000"})
+    public int totalEdges;
+
+    private Coverage runCoverage;
+    private Coverage totalCoverage;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Random random = new Random(42);
+        totalCoverage = new Coverage();
+        for (int i = 0; i < totalEdges; i++) {
+            totalCoverage.setCount(random.nextInt(totalCoverage.size()), 1);
+        }
+        runCoverage = new Coverage();
+        for (int i = 0; i < runEdges; i++) {
+            runCoverage.setCount(random.nextInt(runCoverage.size()), 1 + random.nextInt(8));
+        }
+    }
+
+    @Benchmark
+    public boolean updateBits() {
+        return totalCoverage.updateBits(runCoverage);
+    }
+
+    @Benchmark
+    public int savingCriteria() {
+        int before = totalCoverage.getNonZeroCount();
+        IntList newCoverage = runCoverage.computeNewCoverage(totalCoverage);
+        totalCoverage.updateBits(runCoverage);
+        return totalCoverage.getNonZeroCount() - before + newCoverage.size();
+    }
+
+    @Benchmark
+    public boolean denseScan() {
+        Counter total = totalCoverage.getCounter();
+        Counter run = runCoverage.getCounter();
+        boolean changed = false;
+        if (run.hasNonZeros()) {
+            for (int idx = 0; idx < totalCoverage.size(); idx++) {
+                int before = total.getAtIndex(idx);
+                int after = before | Integer.highestOneBit(run.getAtIndex(idx));
+                if (after != before) {
+                    total.setAtIndex(idx, after);
+                    changed = true;
+                }
+            }
+        }
+        return changed;
+    }
+}
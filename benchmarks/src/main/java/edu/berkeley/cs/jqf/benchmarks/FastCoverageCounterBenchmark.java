@@ -0,0 +1,139 @@
+/*
+ * Copyright (c) 2017-2018 The Regents of the University of California
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.berkeley.cs.jqf.benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import edu.berkeley.cs.jqf.fuzz.util.FastNonCollidingCoverage;
+import edu.berkeley.cs.jqf.fuzz.util.ThreadLocalCoverage;
+import janala.instrument.FastCoverageListener;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the cost of logging fast coverage probes during a trial,
+ * including merging the probes into the run coverage at its end.
+ *
+ * <p>The <code>shared</code> storage counts probes directly in a
+ * {@link FastNonCollidingCoverage}, whose counter is synchronized;
+ * <code>hash</code> and <code>dense</code> use a {@link ThreadLocalCoverage}.
+ * The <code>contended</code> benchmark runs trials in 4 threads that log
+ * into the same listener, as a multi-threaded target would.</p>
+ *
+ * <p>Run with: <code>mvn package -Pbenchmarks -pl benchmarks -am -DskipTests
+ * &amp;&amp; java -jar benchmarks/target/benchmarks.jar FastCoverageCounterBenchmark</code></p>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FastCoverageCounterBenchmark {
+
+    /** Number of probes executed by a single trial. */
+    public static final int PROBES_PER_TRIAL = 100_000;
+
+    /** Number of distinct probe ids in the program under test. */
+    public static final int NUM_PROBE_IDS = 4096;
+
+    @State(Scope.Benchmark)
+    public static class Listener {
+        @Param({"shared", "hash", "dense"})
+        public String storage;
+
+        FastCoverageListener listener;
+        ThreadLocalCoverage local;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            if (storage.equals("shared")) {
+                listener = new FastNonCollidingCoverage();
+            } else {
+                local = new ThreadLocalCoverage(ThreadLocalCoverage.Storage.valueOf(storage.toUpperCase()));
+                listener = local;
+            }
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Trial {
+        final int[] probes = new int[PROBES_PER_TRIAL];
+        final FastNonCollidingCoverage runCoverage = new FastNonCollidingCoverage();
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            // Skewed towards a few hot probes, like loops in real code
+            Random random = new Random(42);
+            for (int i = 0; i < probes.length; i++) {
+                int range = random.nextBoolean() ? 64 : NUM_PROBE_IDS;
+                probes[i] = 1 + random.nextInt(range);
+            }
+        }
+    }
+
+    private static int runTrial(Listener l, Trial t) {
+        FastCoverageListener listener = l.listener;
+        for (int probe : t.probes) {
+            listener.logJump(probe, 0);
+        }
+        if (l.local != null) {
+            t.runCoverage.clear();
+            l.local.mergeCurrentThreadInto(t.runCoverage);
+            return t.runCoverage.getNonZeroCount();
+        } else {
+            FastNonCollidingCoverage shared = (FastNonCollidingCoverage) listener;
+            int count = shared.getNonZeroCount();
+            shared.clear();
+            return count;
+        }
+    }
+
+    @Benchmark
+    public int uncontended(Listener l, Trial t) {
+        return runTrial(l, t);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public int contended(Listener l, Trial t) {
+        return runTrial(l, t);
+    }
+}
@@ -32,6 +32,8 @@
 #include <stdlib.h>
 #include <unistd.h>
 #include <stdarg.h>
+#include <string.h>
+#include <sys/mman.h>
 #include <sys/shm.h>
 #include <sys/stat.h>
 #include <sys/types.h>
@@ -50,6 +52,10 @@
 * This proxy is general and can be used to exchange information
 * from any external utility writing in the command-line pipes.
 *
+* If JQF_SHM_FILE is set, inputs and feedback are instead exchanged
+* through a file mapped by both sides, and only 4-byte control
+* words go through the pipes.
+*
 * author: Caroline Lemieux
 * author: Rohan Padhye
 */
@@ -159,6 +165,29 @@ int main(int argc, char** argv) {
 
   log_to_file(0, log_file_name, "opened from java fifo %s\n", from_java_str);
 
+  /* map the region shared with Java, if any */
+  u8* jqf_shm = NULL;
+  char * jqf_shm_str = getenv(JQF_SHM_ENV_VAR);
+  char * input_file_str = getenv(JQF_INPUT_ENV_VAR);
+  if (jqf_shm_str != NULL) {
+    if (input_file_str == NULL) {
+      log_to_file(1, log_file_name, "%s is set but %s is not\n", JQF_SHM_ENV_VAR, JQF_INPUT_ENV_VAR);
+    }
+    int jqf_shm_fd = open(jqf_shm_str, O_RDWR | O_CREAT, 0600);
+    if (jqf_shm_fd < 0 || ftruncate(jqf_shm_fd, JQF_SHM_SIZE) != 0) {
+      log_to_file(1, log_file_name, "Failed to open shared memory file %s\n", jqf_shm_str);
+    }
+    jqf_shm = mmap(NULL, JQF_SHM_SIZE, PROT_READ | PROT_WRITE, MAP_SHARED, jqf_shm_fd, 0);
+    if (jqf_shm == MAP_FAILED) {
+      log_to_file(1, log_file_name, "Failed to map shared memory file %s\n", jqf_shm_str);
+    }
+    close(jqf_shm_fd);
+    /* Java maps the file before opening the fifos, so the name is no longer needed */
+    unlink(jqf_shm_str);
+
+    log_to_file(0, log_file_name, "mapped shared memory file %s\n", jqf_shm_str);
+  }
+
   /* set up the trace bits */
   char * shm_str = getenv(SHM_ENV_VAR);
   if (shm_str == NULL){
@@ -197,6 +226,24 @@ int main(int argc, char** argv) {
       log_to_file(0, log_file_name, "Said hello to AFL (in loop).\n");
     }
 
+    if (jqf_shm != NULL) {
+      /* Copy the input to where Java reads it */
+      int input_fd = open(input_file_str, O_RDONLY);
+      if (input_fd < 0) {
+        log_to_file(1, log_file_name, "Failed to open input file %s\n", input_file_str);
+      }
+      u32 input_len = 0;
+      ssize_t n;
+      while (input_len < MAX_FILE &&
+             (n = read(input_fd, jqf_shm + JQF_INPUT_OFFSET + input_len, MAX_FILE - input_len)) > 0) {
+        input_len += n;
+      }
+      close(input_fd);
+      memcpy(jqf_shm + JQF_INPUT_LEN_OFFSET, &input_len, 4);
+
+      log_to_file(0, log_file_name, "Copied %u bytes of input.\n", input_len);
+    }
+
     /* Say hello to Java */
     if ((comm_bytes = fwrite(&helo, 1, 4, to_java_fd)) < 4) {
       log_to_file(1, log_file_name, 
@@ -207,33 +254,50 @@ int main(int argc, char** argv) {
 
     log_to_file(0, log_file_name, "Said hello to Java.\n");
 
-    /* Get return code from Java */
-    if ((comm_bytes = fread((void *) &status, 1 , 4, from_java_fd)) < 4) {
-      log_to_file(1, log_file_name, 
-        "Something went wrong getting return status from Java: read %d bytes.\n", comm_bytes);
-    }
+    if (jqf_shm != NULL) {
+      /* Wait for Java to finish writing feedback to shared memory */
+      if ((comm_bytes = fread((void *) &buf, 1 , 4, from_java_fd)) < 4) {
+        log_to_file(1, log_file_name, 
+          "Something went wrong getting done signal from Java: read %d bytes.\n", comm_bytes);
+      }
+      memcpy(&status, jqf_shm + JQF_STATUS_OFFSET, 4);
+      memcpy(trace_bits, jqf_shm + JQF_TRACE_OFFSET, MAP_SIZE);
+#ifdef PERF_SIZE
+      if (use_perf_map) {
+        memcpy(perf_bits, jqf_shm + JQF_PERF_OFFSET, PERF_SIZE * 4);
+      }
+#endif
 
-    log_to_file(0, log_file_name, "Got return status from Java.\n");
+      log_to_file(0, log_file_name, "Got feedback from Java through shared memory.\n");
+    } else {
+      /* Get return code from Java */
+      if ((comm_bytes = fread((void *) &status, 1 , 4, from_java_fd)) < 4) {
+        log_to_file(1, log_file_name, 
+          "Something went wrong getting return status from Java: read %d bytes.\n", comm_bytes);
+      }
 
-    /* Get trace bits from Java */
-    if ((comm_bytes = fread( trace_bits, 1, MAP_SIZE, from_java_fd)) < MAP_SIZE) {
-      log_to_file(1, log_file_name, 
-        "Something went wrong getting trace_bits from Java: read %d bytes.\n", comm_bytes);
-    }
+      log_to_file(0, log_file_name, "Got return status from Java.\n");
 
-    log_to_file(0, log_file_name, "Got trace bits from java.\n");
-    
-#ifdef PERF_SIZE
-    if (use_perf_map) {
-      /* Get perf bits from Java */
-      if ((comm_bytes = fread( perf_bits, 4, PERF_SIZE, from_java_fd)) < PERF_SIZE) {
+      /* Get trace bits from Java */
+      if ((comm_bytes = fread( trace_bits, 1, MAP_SIZE, from_java_fd)) < MAP_SIZE) {
         log_to_file(1, log_file_name, 
-          "Something went wrong getting perf_bits from Java: read %d bytes.\n", comm_bytes);
+          "Something went wrong getting trace_bits from Java: read %d bytes.\n", comm_bytes);
       }
 
-      log_to_file(0, log_file_name, "Got perf bits from java.\n");
-    }
+      log_to_file(0, log_file_name, "Got trace bits from java.\n");
+      
+#ifdef PERF_SIZE
+      if (use_perf_map) {
+        /* Get perf bits from Java */
+        if ((comm_bytes = fread( perf_bits, 4, PERF_SIZE, from_java_fd)) < PERF_SIZE) {
+          log_to_file(1, log_file_name, 
+            "Something went wrong getting perf_bits from Java: read %d bytes.\n", comm_bytes);
+        }
+
+        log_to_file(0, log_file_name, "Got perf bits from java.\n");
+      }
 #endif
+    }
 
     if (!run_once) {
       /* Tell AFL we got the return */
@@ -22,5 +22,23 @@ typedef uint32_t u32;
 
 #define SHM_ENV_VAR    "__AFL_SHM_ID"
 #define FORKSRV_FD      198
+#define MAX_FILE        (1 << 20)
+
+/*
+ Layout of the file that is mapped by both the proxy and Java
+ (see AFLSharedMemory.java) if JQF_SHM_FILE is set. The
+ header holds the length of the current input and the status
+ of the last run; multi-byte values are little-endian.
+*/
+
+#define JQF_SHM_ENV_VAR       "JQF_SHM_FILE"
+#define JQF_INPUT_ENV_VAR     "JQF_INPUT_FILE"
+#define JQF_INPUT_LEN_OFFSET  0
+#define JQF_STATUS_OFFSET     4
+#define JQF_HEADER_SIZE       8
+#define JQF_TRACE_OFFSET      JQF_HEADER_SIZE
+#define JQF_PERF_OFFSET       (JQF_TRACE_OFFSET + MAP_SIZE)
+#define JQF_INPUT_OFFSET      (JQF_PERF_OFFSET + PERF_SIZE * 4)
+#define JQF_SHM_SIZE          (JQF_INPUT_OFFSET + MAX_FILE)
 
 #endif // PROXY_H
@@ -38,8 +38,8 @@ import edu.berkeley.cs.jqf.fuzz.junit.GuidedFuzzing;
 public class AFLDriver {
 
     public static void main(String[] args) {
-        if (args.length != 5){
-            System.err.println("Usage: java " + AFLDriver.class + " TEST_CLASS TEST_METHOD TEST_INPUT_FILE AFL_TO_JAVA_PIPE JAVA_TO_AFL_PIPE");
+        if (args.length != 5 && args.length != 6){
+            System.err.println("Usage: java " + AFLDriver.class + " TEST_CLASS TEST_METHOD TEST_INPUT_FILE AFL_TO_JAVA_PIPE JAVA_TO_AFL_PIPE [SHARED_MEMORY_FILE]");
             System.exit(1);
         }
 
@@ -49,10 +49,11 @@ public class AFLDriver {
         String testInputFile  = args[2];
         String a2jPipe  = args[3];
         String j2aPipe  = args[4];
+        String shmFile  = args.length > 5 ? args[5] : null;
 
         try {
             // Load the guidance
-            Guidance guidance = new AFLGuidance(testInputFile, a2jPipe, j2aPipe);
+            Guidance guidance = new AFLGuidance(testInputFile, a2jPipe, j2aPipe, shmFile);
 
             // Run the Junit test
             GuidedFuzzing.run(testClassName, testMethodName, guidance, System.out);
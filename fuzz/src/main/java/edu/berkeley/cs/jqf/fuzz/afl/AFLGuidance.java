@@ -41,14 +41,14 @@ import java.nio.Buffer;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.util.Arrays;
-import java.util.Date;
 import java.util.function.Consumer;
 
 import edu.berkeley.cs.jqf.fuzz.guidance.Guidance;
 import edu.berkeley.cs.jqf.fuzz.guidance.GuidanceException;
 import edu.berkeley.cs.jqf.fuzz.guidance.Result;
-import edu.berkeley.cs.jqf.fuzz.guidance.TimeoutException;
 import edu.berkeley.cs.jqf.fuzz.util.Hashing;
+import edu.berkeley.cs.jqf.fuzz.util.TrialWatchdog;
+import edu.berkeley.cs.jqf.instrument.tracing.PrimitiveTraceListener;
 import edu.berkeley.cs.jqf.instrument.tracing.events.BranchEvent;
 import edu.berkeley.cs.jqf.instrument.tracing.events.CallEvent;
 import edu.berkeley.cs.jqf.instrument.tracing.events.TraceEvent;
@@ -63,6 +63,11 @@ import edu.berkeley.cs.jqf.instrument.tracing.events.TraceEvent;
  * helps populate the shared memory coverage buffer that the JVM cannot
  * access.
  *
+ * <p>Inputs and feedback are either sent through the pipes, or, if a
+ * shared-memory file is given, exchanged through an
+ * {@link AFLSharedMemory} region that is mapped by both the JVM and the
+ * proxy, in which case only 4-byte control words go through the pipes.
+ *
  * @author Rohan Padhye and Caroline Lemieux
  */
 public class AFLGuidance implements Guidance {
@@ -76,6 +81,9 @@ public class AFLGuidance implements Guidance {
     /** The communication channel from us to the AFL proxy. */
     protected final OutputStream proxyOutput;
 
+    /** The region shared with the AFL proxy, or <code>null</code> if feedback is sent through the pipes. */
+    protected final AFLSharedMemory sharedMemory;
+
     /** The size of the "coverage" map that will be sent to AFL. */
     protected static final int COVERAGE_MAP_SIZE = 1 << 16;
 
@@ -94,18 +102,18 @@ public class AFLGuidance implements Guidance {
     /** Timeout for an individual run. */
     private long singleRunTimeoutMillis;
 
-    /** Date when last run was started. */
-    private Date runStart;
-
-    /** Number of conditional jumps since last run was started. */
-    private long branchCount;
+    /** Whether branch and call events can be handled without allocating them. */
+    private final boolean primitiveEvents = !overridesHandleEvent(getClass());
 
-    /** Flag that is set if the current run exceeds time limit. */
-    private volatile boolean timeoutHasOccurred;
+    /** Stops runs that exceed the time limit. */
+    private final TrialWatchdog watchdog = new TrialWatchdog();
 
     private static final int FEEDBACK_BUFFER_SIZE = 1 << 17;
     private static final byte[] FEEDBACK_ZEROS = new byte[FEEDBACK_BUFFER_SIZE];
 
+    /** Tells the AFL proxy that the feedback in shared memory is ready. */
+    private static final byte[] DONE = {'D', 'O', 'N', 'E'};
+
     /**
      * Creates an instance of an AFLGuidance given file handles for I/O.
      *
@@ -115,7 +123,24 @@ public class AFLGuidance implements Guidance {
      * @throws IOException  if any file or pipe could not be opened
      */
     public AFLGuidance(File inputFile, File inPipe, File outPipe) throws IOException {
+        this(inputFile, inPipe, outPipe, null);
+    }
+
+    /**
+     * Creates an instance of an AFLGuidance given file handles for I/O
+     * and a file to share inputs and feedback through.
+     *
+     * @param inputFile  the file that AFL will write inputs to
+     * @param inPipe     a FIFO-like pipe for receiving messages from the AFL proxy
+     * @param outPipe    a FIFO-like pipe for sending messages to the AFL proxy
+     * @param sharedMemoryFile a file that the AFL proxy maps too, or
+     *                   <code>null</code> to send everything through the pipes
+     * @throws IOException  if any file or pipe could not be opened
+     */
+    public AFLGuidance(File inputFile, File inPipe, File outPipe, File sharedMemoryFile) throws IOException {
         this.inputFile = inputFile;
+        // Map the region before the pipes are opened, since the proxy removes the file once they are
+        this.sharedMemory = sharedMemoryFile == null ? null : new AFLSharedMemory(sharedMemoryFile);
         this.proxyInput = new BufferedInputStream(new FileInputStream(inPipe));
         this.proxyOutput = new BufferedOutputStream(new FileOutputStream(outPipe));
         this.feedback = ByteBuffer.allocate(FEEDBACK_BUFFER_SIZE);
@@ -145,6 +170,23 @@ public class AFLGuidance implements Guidance {
         this(new File(inputFileName), new File(inPipeName), new File(outPipeName));
     }
 
+    /**
+     * Creates an instance of an AFLGuidance given file names for I/O
+     * and a file to share inputs and feedback through.
+     *
+     * @param inputFileName  the file that AFL will write inputs to
+     * @param inPipeName     a FIFO-like pipe for receiving messages from the AFL proxy
+     * @param outPipeName    a FIFO-like pipe for sending messages to the AFL proxy
+     * @param sharedMemoryFileName a file that the AFL proxy maps too, or
+     *                       <code>null</code> to send everything through the pipes
+     * @throws IOException  if any file or pipe could not be opened
+     */
+    public AFLGuidance(String inputFileName, String inPipeName, String outPipeName,
+                       String sharedMemoryFileName) throws IOException {
+        this(new File(inputFileName), new File(inPipeName), new File(outPipeName),
+                sharedMemoryFileName == null ? null : new File(sharedMemoryFileName));
+    }
+
     /**
      * Closes the pipes used to communicate with the AFL proxy.
      */
@@ -170,7 +212,8 @@ public class AFLGuidance implements Guidance {
 
     /**
      * Returns an input stream containing the bytes that AFL
-     * has written to.
+     * has written to, which the proxy has copied into shared
+     * memory if there is any.
      *
      * @return  a stream of bytes to be used by the input generator(s)
      * @throws IllegalStateException if the last {@link #hasInput()}
@@ -185,10 +228,14 @@ public class AFLGuidance implements Guidance {
         }
 
         try {
-            this.inputFileStream = new BufferedInputStream(new FileInputStream(this.inputFile));
-            this.runStart = new Date();
-            this.branchCount = 0;
-            this.timeoutHasOccurred = false;
+            if (sharedMemory != null) {
+                this.inputFileStream = sharedMemory.getInput();
+            } else {
+                this.inputFileStream = new BufferedInputStream(new FileInputStream(this.inputFile));
+            }
+            if (this.singleRunTimeoutMillis > 0) {
+                watchdog.arm(this.singleRunTimeoutMillis);
+            }
             return this.inputFileStream;
         } catch (IOException e) {
             throw new GuidanceException(e);
@@ -230,7 +277,8 @@ public class AFLGuidance implements Guidance {
      *
      * <p>This method also sends coverage information back to the AFL
      * proxy, which is responsible for updating the shared memory
-     * region used by afl-fuzz.
+     * region used by afl-fuzz. Subclasses can send more feedback in
+     * {@link #addFeedback()}.
      *
      * <p>If the trial resulted in an assumption violation, we do not
      * mark it is a crash, but we also do not send any coverage feedback
@@ -242,11 +290,8 @@ public class AFLGuidance implements Guidance {
      */
     @Override
     public void handleResult(Result result, Throwable error) {
-        // Stop timeout handling
-        this.runStart = null;
-
-        // Change result if timeout has occurred
-        if (timeoutHasOccurred) {
+        // Stop timeout handling, and change result if timeout has occurred
+        if (watchdog.disarm()) {
             result = Result.TIMEOUT;
         }
 
@@ -311,18 +356,25 @@ public class AFLGuidance implements Guidance {
             }
         }
 
-        // Send the status value to AFL
-        feedback.putInt(status);
-
-        // Send trace-bits to AFL as a contiguous array
-        for (int i = 0; i < COVERAGE_MAP_SIZE; i++) {
-            feedback.put(traceBits[i]);
+        if (sharedMemory != null) {
+            // Put the status value and trace-bits where the proxy will look
+            sharedMemory.putStatus(status);
+            sharedMemory.putTraceBits(traceBits);
+        } else {
+            // Send the status value and trace-bits to AFL as a contiguous array
+            feedback.putInt(status);
+            feedback.put(traceBits);
+            sendToProxy(feedback.array(), feedback.position());
         }
 
+        // Let subclasses send more feedback
+        addFeedback();
 
-        // Send feedback to AFL
+        // Tell the proxy that the feedback is complete
+        if (sharedMemory != null) {
+            sendToProxy(DONE, DONE.length);
+        }
         try {
-            proxyOutput.write(feedback.array(), 0, feedback.position());
             proxyOutput.flush();
         } catch (IOException e) {
             everything_ok = false;
@@ -330,6 +382,40 @@ public class AFLGuidance implements Guidance {
 
     }
 
+    /**
+     * Adds feedback that the proxy expects after the trace-bits,
+     * using {@link #sendPerfBits(byte[], int)}.
+     *
+     * <p>This is called at the end of every run, before the proxy is
+     * told that the feedback is complete. By default, it does nothing.
+     */
+    protected void addFeedback() {
+        return;
+    }
+
+    /**
+     * Sends the performance map that the proxy reads after the
+     * trace-bits if <code>JQF_PERF_MAP</code> is set.
+     *
+     * @param perfBits the performance map, in little-endian byte order
+     * @param length   the number of bytes to send
+     */
+    protected void sendPerfBits(byte[] perfBits, int length) {
+        if (sharedMemory != null) {
+            sharedMemory.putPerfBits(perfBits, length);
+        } else {
+            sendToProxy(perfBits, length);
+        }
+    }
+
+    private void sendToProxy(byte[] bytes, int length) {
+        try {
+            proxyOutput.write(bytes, 0, length);
+        } catch (IOException e) {
+            everything_ok = false;
+        }
+    }
+
     @Override
     public void setBlind(boolean blind) {
         return;
@@ -343,11 +429,50 @@ public class AFLGuidance implements Guidance {
      * hence the feedback is not guaranteed to be reliable
      * when multiple threads are used.</p>
      *
+     * <p>Branch and call events are not allocated unless a subclass
+     * overrides {@link #handleEvent(TraceEvent)}, which then receives
+     * every event as before.</p>
+     *
      * @param thread the thread whose events to handle
      * @return a callback to handle trace events
      */
     public Consumer<TraceEvent> generateCallBack(Thread thread) {
-        return this::handleEvent;
+        return primitiveEvents ? new TraceCallback() : this::handleEvent;
+    }
+
+    /* Returns whether a subclass overrides handleEvent, which must then see every event. */
+    private static boolean overridesHandleEvent(Class<?> cls) {
+        for (Class<?> c = cls; c != AFLGuidance.class; c = c.getSuperclass()) {
+            try {
+                c.getDeclaredMethod("handleEvent", TraceEvent.class);
+                return true;
+            } catch (NoSuchMethodException e) {
+                // Look further up
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Forwards trace events to {@link #handleEvent(TraceEvent)}, and
+     * branch and call events to {@link #handleBranch(int, int)} and
+     * {@link #handleCall(int)} without allocating them.
+     */
+    private class TraceCallback implements Consumer<TraceEvent>, PrimitiveTraceListener {
+        @Override
+        public void accept(TraceEvent e) {
+            handleEvent(e);
+        }
+
+        @Override
+        public void onBranch(int iid, int arm) {
+            handleBranch(iid, arm);
+        }
+
+        @Override
+        public void onCall(int iid) {
+            handleCall(iid);
+        }
     }
 
     /**
@@ -360,24 +485,40 @@ public class AFLGuidance implements Guidance {
     protected void handleEvent(TraceEvent e) {
         if (e instanceof BranchEvent) {
             BranchEvent b = (BranchEvent) e;
-            // Map branch IID to [1, MAP_SIZE); the odd bound also reduces collisions
-            int edgeId = 1 + Hashing.hash1(b.getIid(), b.getArm(), COVERAGE_MAP_SIZE-1);
-
-            // Increment the 8-bit branch counter
-            incrementTraceBits(edgeId);
+            handleBranch(b.getIid(), b.getArm());
+        } else if (e instanceof CallEvent) {
+            handleCall(e.getIid());
+        }
 
-            // Check for possible timeouts every so often
-            checkForTimeouts();
+    }
 
-        } else if (e instanceof CallEvent) {
+    /**
+     * Handles a branch event by incrementing the branch-specific
+     * counter in the tracebits map.
+     *
+     * @param iid  the instruction id of the branch
+     * @param arm  the arm taken
+     */
+    protected void handleBranch(int iid, int arm) {
+        // Map branch IID to [1, MAP_SIZE); the odd bound also reduces collisions
+        int edgeId = 1 + Hashing.hash1(iid, arm, COVERAGE_MAP_SIZE-1);
 
-            // Map IID to [1, MAP_SIZE]; the odd bound also reduces collisions
-            int edgeId = 1 + Hashing.hash(e.getIid(), COVERAGE_MAP_SIZE-1);
+        // Increment the 8-bit branch counter
+        incrementTraceBits(edgeId);
+    }
 
-            // Increment the 8-bit branch counter
-            incrementTraceBits(edgeId);
-        }
+    /**
+     * Handles a call event by incrementing the call-site-specific
+     * counter in the tracebits map.
+     *
+     * @param iid  the instruction id of the call site
+     */
+    protected void handleCall(int iid) {
+        // Map IID to [1, MAP_SIZE]; the odd bound also reduces collisions
+        int edgeId = 1 + Hashing.hash(iid, COVERAGE_MAP_SIZE-1);
 
+        // Increment the 8-bit branch counter
+        incrementTraceBits(edgeId);
     }
 
     /**
@@ -402,16 +543,4 @@ public class AFLGuidance implements Guidance {
         ((Buffer) feedback).rewind();
     }
 
-    protected void checkForTimeouts() throws TimeoutException {
-        if (this.singleRunTimeoutMillis > 0 &&
-                this.runStart != null && (++this.branchCount) % 10_000 == 0) {
-            long elapsed = new Date().getTime() - runStart.getTime();
-            if (elapsed > this.singleRunTimeoutMillis) {
-                timeoutHasOccurred = true;
-                throw new TimeoutException(elapsed, this.singleRunTimeoutMillis);
-            }
-        }
-    }
-
-
 }
@@ -0,0 +1,182 @@
+/*
+ * Copyright (c) 2017-2018 The Regents of the University of California
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package edu.berkeley.cs.jqf.fuzz.afl;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A memory-mapped region shared with the AFL proxy, through which
+ * inputs and feedback are exchanged without going through pipes.
+ *
+ * <p>The region is a file (usually in <code>/dev/shm</code>) with the
+ * layout defined in <code>afl-proxy.h</code>: a header with the length
+ * of the current input and the status of the last run, followed by
+ * the trace bits, the performance map, and the input itself. The proxy
+ * copies each input from AFL into the region and the trace bits and
+ * performance map from the region into AFL's shared memory, so only
+ * 4-byte control words are sent over the pipes.</p>
+ */
+public class AFLSharedMemory {
+
+    /** The offset of the length of the current input, written by the proxy. */
+    public static final int INPUT_LENGTH_OFFSET = 0;
+
+    /** The offset of the status of the last run, written by us. */
+    public static final int STATUS_OFFSET = 4;
+
+    /** The size of the header. */
+    public static final int HEADER_SIZE = 8;
+
+    /** The offset of the trace bits. */
+    public static final int TRACE_BITS_OFFSET = HEADER_SIZE;
+
+    /** The offset of the performance map (used by PerfFuzz only). */
+    public static final int PERF_BITS_OFFSET = TRACE_BITS_OFFSET + AFLGuidance.COVERAGE_MAP_SIZE;
+
+    /** The offset of the current input. */
+    public static final int INPUT_OFFSET = PERF_BITS_OFFSET + PerfFuzzGuidance.PERF_MAP_SIZE * 4;
+
+    /** The largest input that fits in the region, which is AFL's <code>MAX_FILE</code>. */
+    public static final int MAX_INPUT_SIZE = 1 << 20;
+
+    /** The size of the region. */
+    public static final int SIZE = INPUT_OFFSET + MAX_INPUT_SIZE;
+
+    private final MappedByteBuffer region;
+
+    /**
+     * Maps a shared-memory file, creating it if needed.
+     *
+     * @param file the file that the AFL proxy maps too
+     * @throws IOException if the file cannot be mapped
+     */
+    public AFLSharedMemory(File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw");
+             FileChannel channel = raf.getChannel()) {
+            if (raf.length() < SIZE) {
+                raf.setLength(SIZE);
+            }
+            this.region = channel.map(FileChannel.MapMode.READ_WRITE, 0, SIZE);
+        }
+        // Same byte order as the feedback sent over pipes
+        this.region.order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Returns a stream over the input that the proxy has placed in the region.
+     *
+     * @return a stream of the bytes of the current input
+     * @throws IOException if the input length in the header is invalid
+     */
+    public InputStream getInput() throws IOException {
+        int length = region.getInt(INPUT_LENGTH_OFFSET);
+        if (length < 0 || length > MAX_INPUT_SIZE) {
+            throw new IOException("Invalid input length in shared memory: " + length);
+        }
+        return new RegionInputStream(slice(INPUT_OFFSET, length));
+    }
+
+    /**
+     * Sets the status of the last run.
+     *
+     * @param status the status, encoded as in a call to <code>waitpid()</code>
+     */
+    public void putStatus(int status) {
+        region.putInt(STATUS_OFFSET, status);
+    }
+
+    /**
+     * Copies the trace bits of the last run into the region.
+     *
+     * @param traceBits the trace bits, of size {@link AFLGuidance#COVERAGE_MAP_SIZE}
+     */
+    public void putTraceBits(byte[] traceBits) {
+        slice(TRACE_BITS_OFFSET, traceBits.length).put(traceBits);
+    }
+
+    /**
+     * Copies the performance map of the last run into the region.
+     *
+     * @param perfBits the performance map, in little-endian byte order
+     * @param length   the number of bytes to copy
+     */
+    public void putPerfBits(byte[] perfBits, int length) {
+        slice(PERF_BITS_OFFSET, length).put(perfBits, 0, length);
+    }
+
+    /* Returns a buffer over part of the region, leaving the region's position alone. */
+    private ByteBuffer slice(int offset, int length) {
+        ByteBuffer buffer = region.duplicate();
+        // These casts prevent the use of Java 9's covariant overrides, which JDK 8 lacks
+        ((Buffer) buffer).limit(offset + length);
+        ((Buffer) buffer).position(offset);
+        return buffer;
+    }
+
+    /** Reads an input straight out of the region. */
+    private static class RegionInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        RegionInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) {
+                return 0;
+            }
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            int n = Math.min(len, buffer.remaining());
+            buffer.get(b, off, n);
+            return n;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+}
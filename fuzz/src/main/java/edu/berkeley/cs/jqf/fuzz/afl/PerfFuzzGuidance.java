@@ -39,7 +39,6 @@ import java.util.Deque;
 import java.util.HashMap;
 import java.util.Map;
 
-import edu.berkeley.cs.jqf.fuzz.guidance.Result;
 import edu.berkeley.cs.jqf.fuzz.util.Counter;
 import edu.berkeley.cs.jqf.fuzz.util.Hashing;
 import edu.berkeley.cs.jqf.fuzz.util.MapOfCounters;
@@ -113,7 +112,11 @@ public class PerfFuzzGuidance extends AFLGuidance {
     private final PerfFeedbackType perfFeedbackType;
 
     public PerfFuzzGuidance(File inputFile, File inPipe, File outPipe) throws IOException {
-        super(inputFile, inPipe, outPipe);
+        this(inputFile, inPipe, outPipe, null);
+    }
+
+    public PerfFuzzGuidance(File inputFile, File inPipe, File outPipe, File sharedMemoryFile) throws IOException {
+        super(inputFile, inPipe, outPipe, sharedMemoryFile);
         this.perfFeedbackType = PerfFeedbackType.valueOf(System.getProperty("jqf.afl.perfFeedbackType", "BRANCH_COUNTS"));
         System.out.println(this.perfFeedbackType);
     }
@@ -122,6 +125,12 @@ public class PerfFuzzGuidance extends AFLGuidance {
         this(new File(inputFileName), new File(inPipeName), new File(outPipeName));
     }
 
+    public PerfFuzzGuidance(String inputFileName, String inPipeName, String outPipeName,
+                            String sharedMemoryFileName) throws IOException {
+        this(new File(inputFileName), new File(inPipeName), new File(outPipeName),
+                sharedMemoryFileName == null ? null : new File(sharedMemoryFileName));
+    }
+
     @Override
     public InputStream getInput() {
         // Reset counters
@@ -158,9 +167,6 @@ public class PerfFuzzGuidance extends AFLGuidance {
             // Increment the total branch count (holds max 16 bits)
             totalBranchCount++;
 
-            // Check for possible timeouts every so often
-            checkForTimeouts();
-
         } else if (e instanceof ReadEvent) {
             ReadEvent read = (ReadEvent) e;
             if (perfFeedbackType == PerfFeedbackType.REDUNDANCY_SCORES) {
@@ -205,10 +211,7 @@ public class PerfFuzzGuidance extends AFLGuidance {
 
 
     @Override
-    public void handleResult(Result result, Throwable error) {
-        // First, communicate the coverage information as usual
-        super.handleResult(result, error);
-
+    protected void addFeedback() {
         // Wait for calling context to be empty
         // (i.e. all AECs are processed)
         while (!callingContext.isEmpty());
@@ -268,12 +271,7 @@ public class PerfFuzzGuidance extends AFLGuidance {
         //scores.println("\n");
 
         // Send feedback to AFL
-        try {
-            proxyOutput.write(feedback.array(), 0, PERF_MAP_SIZE * 4);
-            proxyOutput.flush();
-        } catch (IOException e) {
-            everything_ok = false;
-        }
+        sendPerfBits(feedback.array(), PERF_MAP_SIZE * 4);
     }
 
     protected int hashMemorylocation(int objectId, String field) {
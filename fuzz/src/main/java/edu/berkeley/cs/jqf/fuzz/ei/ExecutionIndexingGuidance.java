@@ -53,9 +53,12 @@ import edu.berkeley.cs.jqf.fuzz.guidance.GuidanceException;
 import edu.berkeley.cs.jqf.fuzz.guidance.Result;
 import edu.berkeley.cs.jqf.fuzz.junit.quickcheck.FuzzStatement;
 import edu.berkeley.cs.jqf.fuzz.util.CoverageFactory;
+import edu.berkeley.cs.jqf.fuzz.util.CoverageSnapshot;
 import edu.berkeley.cs.jqf.fuzz.util.ProducerHashMap;
+import edu.berkeley.cs.jqf.fuzz.util.ThreadLocalCoverage;
 import edu.berkeley.cs.jqf.instrument.tracing.FastCoverageSnoop;
 import edu.berkeley.cs.jqf.instrument.tracing.SingleSnoop;
+import edu.berkeley.cs.jqf.instrument.tracing.TraceLogger;
 import edu.berkeley.cs.jqf.instrument.tracing.events.CallEvent;
 import edu.berkeley.cs.jqf.instrument.tracing.events.TraceEvent;
 import janala.instrument.FastCoverageListener;
@@ -175,6 +178,24 @@ public class ExecutionIndexingGuidance extends ZestGuidance {
         }
     }
 
+    /** Execution indexing tracks a single call stack, so trials always run sequentially */
+    @Override
+    public int getNumWorkers() {
+        return 1;
+    }
+
+    /** Probes are routed to the execution indexing state instead */
+    @Override
+    protected ThreadLocalCoverage createLocalCoverage() {
+        return null;
+    }
+
+    /** Execution-indexed inputs cannot be rebuilt from their bytes alone */
+    @Override
+    protected Input<?> restoreInput(File saveFile) throws IOException {
+        throw new IOException("Resuming is not supported with execution indexing");
+    }
+
     /** Spawns a new input from thin air (i.e., actually random) */
     @Override
     protected Input<?> createFreshInput() {
@@ -194,6 +215,9 @@ public class ExecutionIndexingGuidance extends ZestGuidance {
             @Override
             public int read() throws IOException {
 
+                // Bring the EI state up to date, if traced asynchronously
+                TraceLogger.get().awaitCallbacks();
+
                 // lastEvent must not be null
                 if (eiState.getLastEventIid() == -1) {
                     throw new GuidanceException("Could not compute execution index; no instrumentation?");
@@ -247,7 +271,12 @@ public class ExecutionIndexingGuidance extends ZestGuidance {
     @Override
     public void handleResult(Result result, Throwable error) throws GuidanceException {
         int numSavedInputsBefore = savedInputs.size();
+        boolean traced = tracedInput != null;
         super.handleResult(result, error);
+        if (traced) {
+            // A saved input was re-run only to trace it
+            return;
+        }
 
         // Was this a good input?
         if (result == Result.SUCCESS) {
@@ -293,7 +322,7 @@ public class ExecutionIndexingGuidance extends ZestGuidance {
                         currentInput.id = otherIdx;
                         currentInput.saveFile = otherInput.saveFile;
                         currentInput.configFile = otherInput.configFile;
-                        currentInput.coverage = runCoverage.copy();
+                        currentInput.coverage = CoverageSnapshot.of(runCoverage);
                         currentInput.nonZeroCoverage = runCoverage.getNonZeroCount();
                         currentInput.offspring = 0;
                         savedInputs.get(currentParentInputIdx).offspring += 1;
@@ -459,6 +488,11 @@ public class ExecutionIndexingGuidance extends ZestGuidance {
             valuesMap = new LinkedHashMap<>(toClone.valuesMap);
         }
 
+        @Override
+        public Input copy() {
+            return new MappedInput(this);
+        }
+
         /**
          * Returns the size of this input, in terms of number of bytes
          * in its value map.
@@ -92,6 +92,10 @@ public class ZestCLI implements Runnable{
             description = "Blind fuzzing: do not use coverage feedback (default: false)")
     private boolean blindFuzzing;
 
+    @Option(names = { "--resume" },
+            description = "Resume from the checkpoint in the output directory, if any (default: false)")
+    private boolean resume = false;
+
     @Parameters(index = "0", paramLabel = "PACKAGE", description = "package containing the fuzz target and all dependencies")
     private String testPackageName;
 
@@ -140,6 +144,10 @@ public class ZestCLI implements Runnable{
             System.setProperty("jqf.ei.LIBFUZZER_COMPAT_OUTPUT", "true");
         }
 
+        if (this.resume) {
+            System.setProperty("jqf.ei.RESUME", "true");
+        }
+
 
         try {
             ClassLoader loader = new InstrumentingClassLoader(
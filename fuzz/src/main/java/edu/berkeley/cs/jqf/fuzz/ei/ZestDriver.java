@@ -31,6 +31,7 @@ package edu.berkeley.cs.jqf.fuzz.ei;
 
 import java.io.File;
 
+import edu.berkeley.cs.jqf.fuzz.fork.ForkedFuzzing;
 import edu.berkeley.cs.jqf.fuzz.junit.GuidedFuzzing;
 import org.junit.runner.Result;
 
@@ -73,13 +74,22 @@ public class ZestDriver {
             }
 
 
-            // Run the Junit test
-            Result res = GuidedFuzzing.run(testClassName, testMethodName, guidance, System.out);
+            boolean successful;
+            if (Boolean.getBoolean("jqf.fork")) {
+                // Run trials in child JVMs, which are replaced if they crash
+                File logFile = new File(outputDirectory, "fork.log");
+                successful = new ForkedFuzzing(testClassName, testMethodName, guidance,
+                        guidance.singleRunTimeoutMillis, logFile).run();
+            } else {
+                // Run the Junit test
+                Result res = GuidedFuzzing.run(testClassName, testMethodName, guidance, System.out);
+                successful = res.wasSuccessful();
+            }
             if (Boolean.getBoolean("jqf.logCoverage")) {
                 System.out.println(String.format("Covered %d edges.",
                         guidance.getTotalCoverage().getNonZeroCount()));
             }
-            if (Boolean.getBoolean("jqf.ei.EXIT_ON_CRASH") && !res.wasSuccessful()) {
+            if (Boolean.getBoolean("jqf.ei.EXIT_ON_CRASH") && !successful) {
                 System.exit(3);
             }
 
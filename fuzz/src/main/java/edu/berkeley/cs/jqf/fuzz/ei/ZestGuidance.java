@@ -31,15 +31,20 @@ package edu.berkeley.cs.jqf.fuzz.ei;
 
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.Console;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
-import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.PrintWriter;
+import java.io.OutputStream;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.time.Duration;
@@ -53,22 +58,37 @@ import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Random;
 import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.Consumer;
 
 import edu.berkeley.cs.jqf.fuzz.configfuzz.ConfigTracker;
-import edu.berkeley.cs.jqf.fuzz.guidance.Guidance;
+import edu.berkeley.cs.jqf.fuzz.fork.ForkableGuidance;
 import edu.berkeley.cs.jqf.fuzz.guidance.GuidanceException;
 import edu.berkeley.cs.jqf.fuzz.guidance.Result;
 import edu.berkeley.cs.jqf.fuzz.guidance.TimeoutException;
+import edu.berkeley.cs.jqf.fuzz.util.AsyncFileWriter;
+import edu.berkeley.cs.jqf.fuzz.util.Counter;
 import edu.berkeley.cs.jqf.fuzz.util.Coverage;
+import edu.berkeley.cs.jqf.fuzz.util.CoverageShard;
 import edu.berkeley.cs.jqf.fuzz.util.CoverageFactory;
+import edu.berkeley.cs.jqf.fuzz.util.FastEdgeCoverage;
+import edu.berkeley.cs.jqf.fuzz.util.CoverageSnapshot;
 import edu.berkeley.cs.jqf.fuzz.util.FastNonCollidingCoverage;
 import edu.berkeley.cs.jqf.fuzz.util.ICoverage;
 import edu.berkeley.cs.jqf.fuzz.util.IOUtils;
+import edu.berkeley.cs.jqf.fuzz.util.ThreadLocalCoverage;
+import edu.berkeley.cs.jqf.fuzz.util.TrialWatchdog;
 import edu.berkeley.cs.jqf.instrument.tracing.FastCoverageSnoop;
+import edu.berkeley.cs.jqf.instrument.tracing.PrimitiveTraceListener;
+import edu.berkeley.cs.jqf.instrument.tracing.events.BranchEvent;
+import edu.berkeley.cs.jqf.instrument.tracing.events.CallEvent;
 import edu.berkeley.cs.jqf.instrument.tracing.events.TraceEvent;
 import janala.instrument.FastCoverageListener;
 import org.eclipse.collections.api.iterator.IntIterator;
@@ -84,7 +104,7 @@ import static java.lang.Math.log;
  *
  * @author Rohan Padhye
  */
-public class ZestGuidance implements Guidance {
+public class ZestGuidance implements ForkableGuidance {
 
     /** Separator for configuration parameter in saved configuration file */
     public static final String configSeparator = " :=: ";
@@ -158,6 +178,13 @@ public class ZestGuidance implements Guidance {
     /** Coverage statistics for a single run. */
     protected ICoverage runCoverage = CoverageFactory.newInstance();
 
+    /**
+     * Per-thread storage for fast coverage probes, which is merged into
+     * {@link #runCoverage} when a trial ends; or <code>null</code> if
+     * probes are counted directly in {@link #runCoverage}.
+     */
+    protected ThreadLocalCoverage localCoverage;
+
     /** Cumulative coverage statistics. */
     protected ICoverage totalCoverage = CoverageFactory.newInstance();
 
@@ -187,6 +214,9 @@ public class ZestGuidance implements Guidance {
     /** Time since this guidance instance was created. */
     protected final Date startTime = new Date();
 
+    /** Time (in millis) spent fuzzing before {@link #startTime}, i.e. by the runs that a resumed campaign continues. */
+    protected long previousElapsedMillis = 0;
+
     /** Time at last stats refresh. */
     protected Date lastRefreshTime = startTime;
 
@@ -205,6 +235,12 @@ public class ZestGuidance implements Guidance {
     /** The currently executing input (for debugging purposes). */
     protected File currentInputFile;
 
+    /** Whether to skip writing the currently executing input to {@link #currentInputFile}. */
+    protected final boolean DISABLE_CURRENT_INPUT_FILE = Boolean.getBoolean("jqf.ei.DISABLE_CURRENT_INPUT_FILE");
+
+    /** Background writer for all files in the output directory. */
+    protected final AsyncFileWriter output = new AsyncFileWriter();
+
     /** The file contianing the coverage information */ 
     protected File coverageFile;
 
@@ -217,16 +253,37 @@ public class ZestGuidance implements Guidance {
     /** Whether to store all generated inputs to disk (can get slowww!) */
     protected final boolean LOG_ALL_INPUTS = Boolean.getBoolean("jqf.ei.LOG_ALL_INPUTS");
 
+    // ------------- TRACING SAVED INPUTS ------------
+
+    /**
+     * Whether to re-run each saved input once with full tracing, to list the
+     * source branches and calls that the corpus covers. With fast coverage and
+     * <code>janala.hybrid=true</code>, no other trial is fully traced.
+     */
+    protected final boolean TRACE_SAVED_INPUTS = Boolean.getBoolean("jqf.ei.TRACE_SAVED_INPUTS");
+
+    /** The file listing the source branches and calls covered by the traced saved inputs. */
+    protected File coveredBranchesFile;
+
+    /** The source branches and calls covered by the saved inputs traced so far. */
+    protected final SortedSet<String> coveredBranches = new TreeSet<>();
+
+    /** Saved inputs that are yet to be re-run with full tracing. */
+    protected final Deque<Input> inputsToTrace = new ArrayDeque<>();
+
+    /** The saved input being re-run with full tracing, or <code>null</code> during regular trials. */
+    protected volatile Input<?> tracedInput;
+
     // ------------- TIMEOUT HANDLING ------------
 
     /** Timeout for an individual run. */
     protected long singleRunTimeoutMillis;
 
-    /** Date when last run was started. */
-    protected Date runStart;
+    /** Stops trials that run for longer than {@link #singleRunTimeoutMillis}. */
+    protected final TrialWatchdog watchdog = new TrialWatchdog();
 
-    /** Number of conditional jumps since last run was started. */
-    protected long branchCount;
+    /** Whether trials run in child JVMs, which time them out themselves. */
+    protected volatile boolean forked = false;
 
     /** Whether to stop/exit once a crash is found. **/
     protected final boolean EXIT_ON_CRASH = Boolean.getBoolean("jqf.ei.EXIT_ON_CRASH");
@@ -237,7 +294,63 @@ public class ZestGuidance implements Guidance {
     protected Thread firstThread;
 
     /** Whether the application has more than one thread running coverage-instrumented code */
-    protected boolean multiThreaded = false;
+    protected volatile boolean multiThreaded = false;
+
+    /** Whether branch and call events can be handled without allocating them, i.e. no subclass overrides handleEvent. */
+    private final boolean primitiveEvents = !overridesHandleEvent(getClass());
+
+    /**
+     * Coverage of the application's threads other than {@link #firstThread},
+     * in the order in which they were first traced. Each is merged into
+     * {@link #runCoverage} when a trial ends.
+     */
+    protected final List<CoverageShard> threadShards = new ArrayList<>();
+
+    // ------------- PARALLEL FUZZING ------------
+
+    /** Number of worker threads that run trials concurrently. */
+    protected final int WORKERS = Integer.getInteger("jqf.ei.WORKERS", 1);
+
+    /** Number of trials after which a worker refreshes its local copy of the cumulative coverage. */
+    protected final int WORKER_SYNC_PERIOD = 1000;
+
+    /** Trial state of each worker thread (only used if {@link #getNumWorkers()} is greater than 1). */
+    protected final Map<Thread, Worker> workers = new ConcurrentHashMap<>();
+
+    /** The worker whose thread started the current thread, directly or indirectly, if any. */
+    private final InheritableThreadLocal<Worker> spawningWorker = new InheritableThreadLocal<>();
+
+    /** The worker threads that have been told to stop; guarded by this guidance. */
+    protected final Set<Thread> stoppedWorkers = new HashSet<>();
+
+    /** Whether the final state of the campaign has been saved (see {@link #stopFuzzing()}). */
+    protected final AtomicBoolean stopped = new AtomicBoolean();
+
+    // ------------- CHECKPOINTING ------------
+
+    /** Whether to resume from the checkpoint of a previous run in the same output directory. */
+    protected final boolean RESUME = Boolean.getBoolean("jqf.ei.RESUME");
+
+    /** Minimum amount of time (in millis) between two checkpoints. */
+    protected final long CHECKPOINT_PERIOD = Long.getLong("jqf.ei.CHECKPOINT_PERIOD", 60_000L);
+
+    /** Magic number at the start of a checkpoint file ("JQFC"). */
+    protected static final int CHECKPOINT_MAGIC = 0x4a514643;
+
+    /** Version of the checkpoint file format (version 1 did not record trial counts or elapsed time). */
+    protected static final int CHECKPOINT_VERSION = 2;
+
+    /** The file where the state of the campaign is periodically saved. */
+    protected File checkpointFile;
+
+    /** The directory where inputs to be re-run after resuming are staged. */
+    protected File resumeDirectory;
+
+    /** Time at last checkpoint. */
+    protected Date lastCheckpointTime = startTime;
+
+    /** Whether this campaign was resumed from a checkpoint. */
+    protected boolean resumed = false;
 
     // ------------- FUZZING HEURISTICS ------------
 
@@ -291,8 +404,19 @@ public class ZestGuidance implements Guidance {
         this.validityFuzzing = !Boolean.getBoolean("jqf.ei.DISABLE_VALIDITY_FUZZING");
         prepareOutputDirectory();
 
-        if(this.runCoverage instanceof FastCoverageListener){
-            FastCoverageSnoop.setFastCoverageListener((FastCoverageListener) this.runCoverage);
+        if (WORKERS < 1) {
+            throw new IllegalArgumentException("Invalid number of workers: " + WORKERS);
+        }
+
+        this.localCoverage = createLocalCoverage();
+        if (this.localCoverage != null) {
+            FastCoverageSnoop.setFastCoverageListener(this.localCoverage);
+        } else if(this.runCoverage instanceof FastCoverageListener){
+            if (getNumWorkers() > 1) {
+                FastCoverageSnoop.setFastCoverageListener(new WorkerCoverageListener());
+            } else {
+                FastCoverageSnoop.setFastCoverageListener((FastCoverageListener) this.runCoverage);
+            }
         }
 
         // Try to parse the single-run timeout
@@ -307,6 +431,35 @@ public class ZestGuidance implements Guidance {
         }
     }
 
+    /**
+     * Creates the per-thread storage for fast coverage probes.
+     *
+     * <p>The kind of storage is given by the property
+     * <code>jqf.ei.LOCAL_COVERAGE</code>, which is either <code>hash</code>
+     * or <code>dense</code>. If the property is not set, or if fast
+     * coverage is not enabled, then this method returns <code>null</code>
+     * and probes are counted directly in {@link #runCoverage}.</p>
+     *
+     * @return the per-thread storage for coverage probes, or <code>null</code>
+     */
+    protected ThreadLocalCoverage createLocalCoverage() {
+        String storage = System.getProperty("jqf.ei.LOCAL_COVERAGE");
+        if (storage == null || storage.isEmpty() || !(runCoverage instanceof FastNonCollidingCoverage)) {
+            return null;
+        }
+        if (runCoverage instanceof FastEdgeCoverage) {
+            // Local shards count probes, without the order in which they were hit
+            throw new IllegalArgumentException("Local coverage cannot be used with edge or n-gram coverage");
+        }
+        try {
+            ThreadLocalCoverage.Storage kind = ThreadLocalCoverage.Storage.valueOf(storage.toUpperCase());
+            // Threads spawned by a worker's trial count towards that worker's trial
+            return getNumWorkers() > 1 ? new ThreadLocalCoverage(kind, spawningWorker::get) : new ThreadLocalCoverage(kind);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid local coverage storage: " + storage);
+        }
+    }
+
     /**
      * Creates a new Zest guidance instance with seed input files and optional
      * duration, optional trial limit, an possibly deterministic PRNG.
@@ -323,7 +476,8 @@ public class ZestGuidance implements Guidance {
      */
     public ZestGuidance(String testName, Duration duration, Long trials, File outputDirectory, File[] seedInputFiles, Random sourceOfRandomness) throws IOException {
         this(testName, duration, trials, outputDirectory, sourceOfRandomness);
-        if (seedInputFiles != null) {
+        // Seeds have already been fuzzed if resuming from a checkpoint
+        if (seedInputFiles != null && !resumed) {
             for (File seedInputFile : seedInputFiles) {
                 seedInputs.add(new SeedInput(seedInputFile));
             }
@@ -408,6 +562,15 @@ public class ZestGuidance implements Guidance {
         this.logFile = new File(outputDirectory, "fuzz.log");
         this.currentInputFile = new File(outputDirectory, ".cur_input");
         this.coverageFile = new File(outputDirectory, "coverage_hash");
+        this.checkpointFile = new File(outputDirectory, "checkpoint");
+        this.resumeDirectory = new File(outputDirectory, ".resume");
+        this.coveredBranchesFile = new File(outputDirectory, "covered_branches");
+
+        // Keep the results of a previous run if we can pick up where it left off
+        if (RESUME && checkpointFile.exists()) {
+            restoreCheckpoint();
+            return;
+        }
 
         // Delete everything that we may have created in a previous run.
         // Trying to stay away from recursive delete of parent output directory in case there was a
@@ -416,6 +579,13 @@ public class ZestGuidance implements Guidance {
         statsFile.delete();
         logFile.delete();
         coverageFile.delete();
+        checkpointFile.delete();
+        coveredBranchesFile.delete();
+        if (resumeDirectory.isDirectory()) {
+            for (File file : resumeDirectory.listFiles()) {
+                file.delete();
+            }
+        }
         for (File file : savedCorpusDirectory.listFiles()) {
             file.delete();
         }
@@ -433,12 +603,7 @@ public class ZestGuidance implements Guidance {
 
     /* Writes a line of text to a given log file. */
     protected void appendLineToFile(File file, String line) throws GuidanceException {
-        try (PrintWriter out = new PrintWriter(new FileWriter(file, true))) {
-            out.println(line);
-        } catch (IOException e) {
-            throw new GuidanceException(e);
-        }
-
+        output.appendLine(file, line);
     }
 
     /* Writes a line of text to the log file. */
@@ -481,7 +646,7 @@ public class ZestGuidance implements Guidance {
         double intervalExecsPerSecDouble = interlvalTrials * 1000.0 / intervalMilliseconds;
         lastRefreshTime = now;
         lastNumTrials = numTrials;
-        long elapsedMilliseconds = now.getTime() - startTime.getTime();
+        long elapsedMilliseconds = getElapsedMillis(now);
         long execsPerSec = numTrials * 1000L / elapsedMilliseconds;
 
         String currentParentInputDesc;
@@ -545,14 +710,9 @@ public class ZestGuidance implements Guidance {
 
     /** Updates the data in the coverage file */ 
     protected void updateCoverageFile() {
-        try {
-            PrintWriter pw = new PrintWriter(coverageFile);
-            pw.println(getTotalCoverage().toString());
-            pw.println("Hash code: " + getTotalCoverage().hashCode());
-            pw.close();
-        } catch (FileNotFoundException ignore) {
-            throw new GuidanceException(ignore);
-        }
+        String contents = getTotalCoverage().toString() + System.lineSeparator() +
+                "Hash code: " + getTotalCoverage().hashCode() + System.lineSeparator();
+        output.write(coverageFile, contents.getBytes(StandardCharsets.UTF_8));
     }
     
     /* Returns the banner to be displayed on the status screen */
@@ -570,6 +730,55 @@ public class ZestGuidance implements Guidance {
         this.blind = blind;
     }
 
+    @Override
+    public int getNumWorkers() {
+        return WORKERS;
+    }
+
+    @Override
+    public ICoverage getRunCoverage() {
+        if (getNumWorkers() > 1) {
+            return workers.get(Thread.currentThread()).runCoverage;
+        }
+        return runCoverage;
+    }
+
+    @Override
+    public void setForked() {
+        forked = true;
+    }
+
+    @Override
+    public void truncateInput(int length) {
+        Input<?> input = getNumWorkers() > 1 ? workers.get(Thread.currentThread()).currentInput : currentInput;
+        if (input instanceof LinearInput) {
+            // Forget the values that were sent to the child ahead of time
+            ((LinearInput) input).truncate(length);
+        }
+    }
+
+    /**
+     * Returns whether the next trial should be fully traced.
+     *
+     * <p>Fast coverage is counted on every trial, so Zest only needs
+     * trace events if it collects coverage from them, or if the trial
+     * re-runs a saved input to list the branches it covers (see
+     * {@link #TRACE_SAVED_INPUTS}).</p>
+     */
+    @Override
+    public boolean isFullTracingNeeded() {
+        return tracedInput != null || !(runCoverage instanceof FastCoverageListener);
+    }
+
+    /**
+     * Returns whether saved inputs are re-run with full tracing.
+     *
+     * <p>Full tracing is global, so this is only done with a single worker.</p>
+     */
+    protected boolean tracesSavedInputs() {
+        return TRACE_SAVED_INPUTS && getNumWorkers() == 1;
+    }
+
     protected int getTargetChildrenForParent(Input parentInput) {
         // Baseline is a constant
         int target = NUM_CHILDREN_BASELINE;
@@ -637,219 +846,657 @@ public class ZestGuidance implements Guidance {
      * @return an InputStream that delivers parameters to the generators
      */
     protected InputStream createParameterStream() {
+        assert currentInput instanceof LinearInput : "ZestGuidance should only mutate LinearInput(s)";
+
+        // Bind the stream to the current input and PRNG, which may
+        // be swapped out by another worker before the trial ends
+        LinearInput linearInput = (LinearInput) currentInput;
+        Random random = this.random;
+
         // Return an input stream that reads bytes from a linear array
         return new InputStream() {
             int bytesRead = 0;
 
             @Override
             public int read() throws IOException {
-                assert currentInput instanceof LinearInput : "ZestGuidance should only mutate LinearInput(s)";
-
                 // For linear inputs, get with key = bytesRead (which is then incremented)
-                LinearInput linearInput = (LinearInput) currentInput;
                 // Attempt to get a value from the list, or else generate a random value
                 int ret = linearInput.getOrGenerateFresh(bytesRead++, random);
                 // infoLog("read(%d) = %d", bytesRead, ret);
                 return ret;
             }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                // Copy a chunk of values at once, generating fresh ones if needed
+                int ret = linearInput.read(bytesRead, b, off, len, random);
+                if (ret > 0) {
+                    bytesRead += ret;
+                }
+                return ret;
+            }
+
+            @Override
+            public int available() {
+                // The values that exist already, which a forked trial receives up front
+                return Math.max(0, Math.min(linearInput.size(), MAX_INPUT_SIZE) - bytesRead);
+            }
         };
     }
 
     @Override
     public InputStream getInput() throws GuidanceException {
-        conditionallySynchronize(multiThreaded, () -> {
-            // Clear coverage stats for this run
-            runCoverage.clear();
+        if (getNumWorkers() > 1) {
+            synchronized (this) {
+                Worker worker = workers.computeIfAbsent(Thread.currentThread(), (t) -> {
+                    Worker w = new Worker(new Random(random.nextLong()));
+                    spawningWorker.set(w);
+                    return w;
+                });
+                worker.load();
+                try {
+                    selectNextInput();
+                    armWatchdog();
+                    return createParameterStream();
+                } finally {
+                    worker.store();
+                }
+            }
+        }
 
-            // Choose an input to execute based on state of queues
-            if (!seedInputs.isEmpty()) {
-                // First, if we have some specific seeds, use those
-                currentInput = seedInputs.removeFirst();
+        if (tracedInput != null) {
+            // The re-run ended without a result, e.g. because its generator ran out of values
+            // or an assumption failed; it would do so again, so the input is not traced
+            tracedInput = null;
+        }
 
-                // Hopefully, the seeds will lead to new coverage and be added to saved inputs
+        if (tracesSavedInputs() && !inputsToTrace.isEmpty()) {
+            // Re-run a saved input with full tracing; this does not count as a trial
+            runCoverage.clear();
+            FastCoverageSnoop.resetProbes();
+            tracedInput = inputsToTrace.removeFirst();
+            currentInput = tracedInput.copy();
+            armWatchdog();
+            return createParameterStream();
+        }
 
-            } else if (savedInputs.isEmpty()) {
-                // If no seeds given try to start with something random
-                if (!blind && numTrials > 100_000) {
-                    throw new GuidanceException("Too many trials without coverage; " +
-                            "likely all assumption violations");
-                }
+        selectNextInput();
+        armWatchdog();
+        return createParameterStream();
+    }
 
-                // Make fresh input using either list or maps
-                // infoLog("Spawning new input from thin air");
-                currentInput = createFreshInput();
+    /** Chooses the input for the next trial and sets {@link #currentInput}. */
+    protected void selectNextInput() {
+        // Clear coverage stats for this run
+        runCoverage.clear();
+        if (multiThreaded) {
+            clearThreadShards(threadShards);
+        }
+        Worker worker = getNumWorkers() > 1 ? workers.get(Thread.currentThread()) : null;
+        if (worker != null) {
+            worker.clearSpawnedThreads();
+        }
+        if (localCoverage != null) {
+            if (worker != null) {
+                localCoverage.clearCurrentThread();
+                localCoverage.clearGroup(worker);
+                localCoverage.discardTerminatedThreads();
             } else {
-                // The number of children to produce is determined by how much of the coverage
-                // pool this parent input hits
-                Input currentParentInput = savedInputs.get(currentParentInputIdx);
-                int targetNumChildren = getTargetChildrenForParent(currentParentInput);
-                if (numChildrenGeneratedForCurrentParentInput >= targetNumChildren) {
-                    // Select the next saved input to fuzz
-                    currentParentInputIdx = (currentParentInputIdx + 1) % savedInputs.size();
-
-                    // Count cycles
-                    if (currentParentInputIdx == 0) {
-                        completeCycle();
-                    }
+                localCoverage.clear();
+            }
+        }
+        if (getNumWorkers() == 1) {
+            FastCoverageSnoop.resetProbes();
+        }
+
+        // Choose an input to execute based on state of queues
+        if (!seedInputs.isEmpty()) {
+            // First, if we have some specific seeds, use those
+            currentInput = seedInputs.removeFirst();
 
-                    numChildrenGeneratedForCurrentParentInput = 0;
+            // Hopefully, the seeds will lead to new coverage and be added to saved inputs
+
+        } else if (savedInputs.isEmpty()) {
+            // If no seeds given try to start with something random
+            if (!blind && numTrials > 100_000) {
+                stopFuzzing();
+                throw new GuidanceException("Too many trials without coverage; " +
+                        "likely all assumption violations");
+            }
+
+            // Make fresh input using either list or maps
+            // infoLog("Spawning new input from thin air");
+            currentInput = createFreshInput();
+        } else {
+            // The number of children to produce is determined by how much of the coverage
+            // pool this parent input hits
+            Input currentParentInput = savedInputs.get(currentParentInputIdx);
+            int targetNumChildren = getTargetChildrenForParent(currentParentInput);
+            if (numChildrenGeneratedForCurrentParentInput >= targetNumChildren) {
+                // Select the next saved input to fuzz
+                currentParentInputIdx = (currentParentInputIdx + 1) % savedInputs.size();
+
+                // Count cycles
+                if (currentParentInputIdx == 0) {
+                    completeCycle();
                 }
-                Input parent = savedInputs.get(currentParentInputIdx);
 
-                // Fuzz it to get a new input
-                // infoLog("Mutating input: %s", parent.desc);
-                currentInput = parent.fuzz(random);
-                numChildrenGeneratedForCurrentParentInput++;
+                numChildrenGeneratedForCurrentParentInput = 0;
+            }
+            Input parent = savedInputs.get(currentParentInputIdx);
+
+            // Fuzz it to get a new input
+            // infoLog("Mutating input: %s", parent.desc);
+            currentInput = parent.fuzz(random);
+            numChildrenGeneratedForCurrentParentInput++;
 
-                // Write it to disk for debugging
+            // Write it to disk for debugging
+            if (!DISABLE_CURRENT_INPUT_FILE) {
                 try {
                     writeCurrentInputToFile(currentInputFile);
                 } catch (IOException ignore) {
                 }
-
-                // Start time-counting for timeout handling
-                this.runStart = new Date();
-                this.branchCount = 0;
             }
-        });
+        }
+    }
 
-        return createParameterStream();
+    /** Starts the deadline of the trial run by the current thread, if there is a timeout. */
+    protected void armWatchdog() {
+        // A forked trial is timed out by its child, while this thread waits for it
+        if (singleRunTimeoutMillis > 0 && !forked) {
+            watchdog.arm(singleRunTimeoutMillis);
+        }
     }
 
     @Override
     public boolean hasInput() {
-        Date now = new Date();
-        long elapsedMilliseconds = now.getTime() - startTime.getTime();
-        if (EXIT_ON_CRASH && uniqueFailures.size() >= 1) {
-            // exit
-            return false;
+        if (getNumWorkers() > 1) {
+            synchronized (this) {
+                if (shouldContinue()) {
+                    return true;
+                }
+                // Wait for the last worker, so that no trials are in flight any more
+                stoppedWorkers.add(Thread.currentThread());
+                if (stoppedWorkers.size() == getNumWorkers()) {
+                    stopFuzzing();
+                }
+                return false;
+            }
         }
-        if(elapsedMilliseconds < maxDurationMillis
-            && numTrials < maxTrials) {
+        if (shouldContinue()) {
             return true;
-        } else {
+        }
+        stopFuzzing();
+        return false;
+    }
+
+    /** Returns whether fuzzing should continue with another trial. */
+    protected boolean shouldContinue() {
+        Date now = new Date();
+        long elapsedMilliseconds = getElapsedMillis(now);
+        return !(EXIT_ON_CRASH && uniqueFailures.size() >= 1)
+            && elapsedMilliseconds < maxDurationMillis
+            && numTrials < maxTrials;
+    }
+
+    /**
+     * Saves the final state of the campaign when fuzzing stops.
+     *
+     * <p>This is done only once, after every worker has been told to
+     * stop. The output files are flushed and closed, which also
+     * unregisters their shutdown hook.</p>
+     */
+    protected void stopFuzzing() {
+        if (!stopped.compareAndSet(false, true)) {
+            return;
+        }
+        try {
             displayStats(true);
-            return false;
+            GuidanceException.wrap(this::writeCheckpoint);
+        } finally {
+            output.close();
         }
     }
 
+    /** Returns the time (in millis) spent fuzzing so far, including any runs that this campaign resumed. */
+    protected long getElapsedMillis(Date now) {
+        return previousElapsedMillis + now.getTime() - startTime.getTime();
+    }
+
     @Override
     public void handleResult(Result result, Throwable error) throws GuidanceException {
-        conditionallySynchronize(multiThreaded, () -> {
-            // Stop timeout handling
-            this.runStart = null;
+        // Stop timeout handling, and count trials that outlived their deadline as timeouts,
+        // e.g. if they were interrupted or swallowed the exception that was meant to stop them
+        if (watchdog.disarm() && result != Result.FAILURE && result != Result.TIMEOUT) {
+            result = Result.TIMEOUT;
+            error = new TimeoutException();
+        }
 
-            // Increment run count
-            this.numTrials++;
+        if (tracedInput != null) {
+            // The coverage of a saved input is already known, only its branches are new
+            tracedInput = null;
+            StringBuilder branches = new StringBuilder();
+            synchronized (coveredBranches) {
+                for (String branch : coveredBranches) {
+                    branches.append(branch).append(System.lineSeparator());
+                }
+            }
+            output.write(coveredBranchesFile, branches.toString().getBytes(StandardCharsets.UTF_8));
+            return;
+        }
 
-            boolean valid = result == Result.SUCCESS;
+        if (getNumWorkers() > 1) {
+            Worker worker = workers.get(Thread.currentThread());
+            if (FastCoverageSnoop.hasProbes()) {
+                // Inline probes are shared by all threads
+                throw new GuidanceException("Inline coverage probes cannot be used with multiple workers");
+            }
+            if (localCoverage != null) {
+                localCoverage.mergeCurrentThreadInto(worker.runCoverage);
+                localCoverage.mergeGroupInto(worker, worker.runCoverage);
+            }
+            worker.mergeSpawnedThreads();
+            deriveProbes(worker.runCoverage);
+            handleWorkerResult(worker, result, error);
+        } else {
+            if (localCoverage != null) {
+                localCoverage.mergeInto(runCoverage);
+            }
+            if (runCoverage instanceof FastEdgeCoverage && FastCoverageSnoop.hasProbes()) {
+                // Inline probes are counted without the order in which they were hit
+                throw new GuidanceException("Inline coverage probes cannot be used with edge or n-gram coverage");
+            }
+            FastCoverageSnoop.drainProbes(runCoverage.getCounter()::increment);
+            if (multiThreaded) {
+                mergeThreadShards(threadShards, runCoverage);
+            }
+            deriveProbes(runCoverage);
+            processResult(result, error);
+        }
+    }
 
+    /**
+     * Handles the result of a trial run by one of several workers.
+     *
+     * <p>The worker first merges its run coverage into its own local copy
+     * of the cumulative coverage, without holding any lock. Since the local
+     * copy is always a subset of the shared coverage maps, an input that adds
+     * nothing to it cannot add anything to the shared maps either, and only
+     * the trial counters need to be updated. Otherwise, the result is
+     * processed exactly as in the single-threaded case.</p>
+     *
+     * @param worker the worker that ran the trial
+     * @param result the result of the trial
+     * @param error  the error thrown during the trial, or <code>null</code>
+     */
+    protected void handleWorkerResult(Worker worker, Result result, Throwable error) {
+        boolean valid = result == Result.SUCCESS;
+        boolean mayBeInteresting = LOG_ALL_INPUTS || result == Result.FAILURE || result == Result.TIMEOUT;
+        if (valid || (result == Result.INVALID && !SAVE_ONLY_VALID)) {
+            mayBeInteresting |= worker.localTotalCoverage.updateBits(worker.runCoverage);
             if (valid) {
-                // Increment valid counter
-                numValid++;
+                mayBeInteresting |= worker.localValidCoverage.updateBits(worker.runCoverage);
             }
+        }
 
-            if (result == Result.SUCCESS || (result == Result.INVALID && !SAVE_ONLY_VALID)) {
+        synchronized (this) {
+            if (mayBeInteresting) {
+                worker.load();
+                try {
+                    processResult(result, error);
+                } finally {
+                    worker.store();
+                }
+            } else {
+                numTrials++;
+                if (valid) {
+                    numValid++;
+                }
+                if (!LIBFUZZER_COMPAT_OUTPUT) {
+                    displayStats(false);
+                }
+                checkpointIfDue();
+            }
 
-                // Compute a list of keys for which this input can assume responsibility.
-                // Newly covered branches are always included.
-                // Existing branches *may* be included, depending on the heuristics used.
-                // A valid input will steal responsibility from invalid inputs
-                IntHashSet responsibilities = computeResponsibilities(valid);
+            // Pick up coverage found by other workers every so often
+            if (++worker.trialsSinceSync >= WORKER_SYNC_PERIOD) {
+                worker.localTotalCoverage.updateBits(totalCoverage);
+                worker.localValidCoverage.updateBits(validCoverage);
+                worker.trialsSinceSync = 0;
+            }
+        }
+    }
 
-                // Determine if this input should be saved
-                List<String> savingCriteriaSatisfied = checkSavingCriteriaSatisfied(result);
-                boolean toSave = savingCriteriaSatisfied.size() > 0;
+    /** Updates the queue and statistics with the result of the current input. */
+    protected void processResult(Result result, Throwable error) {
+        // Increment run count
+        this.numTrials++;
 
-                if (toSave) {
-                    String why = String.join(" ", savingCriteriaSatisfied);
+        boolean valid = result == Result.SUCCESS;
 
-                    // Trim input (remove unused keys)
-                    currentInput.gc();
+        if (valid) {
+            // Increment valid counter
+            numValid++;
+        }
 
-                    // It must still be non-empty
-                    assert (currentInput.size() > 0) : String.format("Empty input: %s", currentInput.desc);
+        if (result == Result.SUCCESS || (result == Result.INVALID && !SAVE_ONLY_VALID)) {
 
-                    // libFuzzerCompat stats are only displayed when they hit new coverage
-                    if (LIBFUZZER_COMPAT_OUTPUT) {
-                        displayStats(false);
-                    }
+            // Compute a list of keys for which this input can assume responsibility.
+            // Newly covered branches are always included.
+            // Existing branches *may* be included, depending on the heuristics used.
+            // A valid input will steal responsibility from invalid inputs
+            IntHashSet responsibilities = computeResponsibilities(valid);
 
-                    infoLog("Saving new input (at run %d): " +
-                                    "input #%d " +
-                                    "of size %d; " +
-                                    "reason = %s",
-                            numTrials,
-                            savedInputs.size(),
-                            currentInput.size(),
-                            why);
-
-                    // Save input to queue and to disk
-                    final String reason = why;
-                    GuidanceException.wrap(() -> saveCurrentInput(responsibilities, reason));
-
-                    // Update coverage information
-                    updateCoverageFile();
-                }
-            } else if (result == Result.FAILURE || result == Result.TIMEOUT) {
-                String msg = error.getMessage();
+            // Determine if this input should be saved
+            List<String> savingCriteriaSatisfied = checkSavingCriteriaSatisfied(result);
+            boolean toSave = savingCriteriaSatisfied.size() > 0;
 
-                // Get the root cause of the failure
-                Throwable rootCause = error;
-                while (rootCause.getCause() != null) {
-                    rootCause = rootCause.getCause();
-                }
+            if (toSave) {
+                String why = String.join(" ", savingCriteriaSatisfied);
 
-                // Attempt to add this to the set of unique failures
-                if (uniqueFailures.add(failureDigest(rootCause.getStackTrace()))) {
-
-                    // Trim input (remove unused keys)
-                    currentInput.gc();
-
-                    // It must still be non-empty
-                    assert (currentInput.size() > 0) : String.format("Empty input: %s", currentInput.desc);
-
-                    // Save crash to disk
-                    int crashIdx = uniqueFailures.size() - 1;
-                    String saveFileName = String.format("id_%06d", crashIdx);
-                    String configFileName = String.format("config_%06d", crashIdx);
-                    File saveFile = new File(savedFailuresDirectory, saveFileName);
-                    File configFile = new File(savedFailuresDirectory, configFileName);
-                    GuidanceException.wrap(() -> writeCurrentInputToFile(saveFile));
-                    GuidanceException.wrap(() -> writeCurrentConfigToFile(configFile));
-                    infoLog("%s", "Found crash: " + error.getClass() + " - " + (msg != null ? msg : ""));
-                    String how = currentInput.desc;
-                    String why = result == Result.FAILURE ? "+crash" : "+hang";
-                    infoLog("Saved - %s %s %s", saveFile.getPath(), how, why);
-
-                    if (EXACT_CRASH_PATH != null && !EXACT_CRASH_PATH.equals("")) {
-                        File exactCrashFile = new File(EXACT_CRASH_PATH);
-                        GuidanceException.wrap(() -> writeCurrentInputToFile(exactCrashFile));
-                    }
+                // Trim input (remove unused keys)
+                currentInput.gc();
 
-                    // libFuzzerCompat stats are only displayed when they hit new coverage or crashes
-                    if (LIBFUZZER_COMPAT_OUTPUT) {
-                        displayStats(false);
-                    }
+                // It must still be non-empty
+                assert (currentInput.size() > 0) : String.format("Empty input: %s", currentInput.desc);
+
+                // libFuzzerCompat stats are only displayed when they hit new coverage
+                if (LIBFUZZER_COMPAT_OUTPUT) {
+                    displayStats(false);
                 }
+
+                infoLog("Saving new input (at run %d): " +
+                                "input #%d " +
+                                "of size %d; " +
+                                "reason = %s",
+                        numTrials,
+                        savedInputs.size(),
+                        currentInput.size(),
+                        why);
+
+                // Save input to queue and to disk
+                final String reason = why;
+                GuidanceException.wrap(() -> saveCurrentInput(responsibilities, reason));
+
+                // Update coverage information
+                updateCoverageFile();
             }
+        } else if (result == Result.FAILURE || result == Result.TIMEOUT) {
+            String msg = error.getMessage();
 
-            // displaying stats on every interval is only enabled for AFL-like stats screen
-            if (!LIBFUZZER_COMPAT_OUTPUT) {
-                displayStats(false);
+            // Get the root cause of the failure
+            Throwable rootCause = error;
+            while (rootCause.getCause() != null) {
+                rootCause = rootCause.getCause();
             }
 
-            // Save input unconditionally if such a setting is enabled
-            if (LOG_ALL_INPUTS && (SAVE_ONLY_VALID ? valid : true)) {
-                File logDirectory = new File(allInputsDirectory, result.toString().toLowerCase());
-                String saveFileName = String.format("id_%09d", numTrials);
-                String configFileName = String.format("config_%06d", numTrials);
-                File saveFile = new File(logDirectory, saveFileName);
+            // Attempt to add this to the set of unique failures
+            if (uniqueFailures.add(failureDigest(rootCause.getStackTrace()))) {
+
+                // Trim input (remove unused keys)
+                currentInput.gc();
+
+                // It must still be non-empty
+                assert (currentInput.size() > 0) : String.format("Empty input: %s", currentInput.desc);
+
+                // Save crash to disk
+                int crashIdx = uniqueFailures.size() - 1;
+                String saveFileName = String.format("id_%06d", crashIdx);
+                String configFileName = String.format("config_%06d", crashIdx);
+                File saveFile = new File(savedFailuresDirectory, saveFileName);
                 File configFile = new File(savedFailuresDirectory, configFileName);
                 GuidanceException.wrap(() -> writeCurrentInputToFile(saveFile));
                 GuidanceException.wrap(() -> writeCurrentConfigToFile(configFile));
+                infoLog("%s", "Found crash: " + error.getClass() + " - " + (msg != null ? msg : ""));
+                String how = currentInput.desc;
+                String why = result == Result.FAILURE ? "+crash" : "+hang";
+                infoLog("Saved - %s %s %s", saveFile.getPath(), how, why);
+
+                if (EXACT_CRASH_PATH != null && !EXACT_CRASH_PATH.equals("")) {
+                    File exactCrashFile = new File(EXACT_CRASH_PATH);
+                    GuidanceException.wrap(() -> writeCurrentInputToFile(exactCrashFile));
+                }
+
+                // libFuzzerCompat stats are only displayed when they hit new coverage or crashes
+                if (LIBFUZZER_COMPAT_OUTPUT) {
+                    displayStats(false);
+                }
+            }
+        }
+
+        // displaying stats on every interval is only enabled for AFL-like stats screen
+        if (!LIBFUZZER_COMPAT_OUTPUT) {
+            displayStats(false);
+        }
+
+        // Save input unconditionally if such a setting is enabled
+        if (LOG_ALL_INPUTS && (SAVE_ONLY_VALID ? valid : true)) {
+            File logDirectory = new File(allInputsDirectory, result.toString().toLowerCase());
+            String saveFileName = String.format("id_%09d", numTrials);
+            String configFileName = String.format("config_%06d", numTrials);
+            File saveFile = new File(logDirectory, saveFileName);
+            File configFile = new File(savedFailuresDirectory, configFileName);
+            GuidanceException.wrap(() -> writeCurrentInputToFile(saveFile));
+            GuidanceException.wrap(() -> writeCurrentConfigToFile(configFile));
+        }
+
+        checkpointIfDue();
+    }
+
+    /** Writes a checkpoint if enough time has passed since the last one. */
+    protected void checkpointIfDue() {
+        Date now = new Date();
+        if (now.getTime() - lastCheckpointTime.getTime() >= CHECKPOINT_PERIOD) {
+            GuidanceException.wrap(this::writeCheckpoint);
+            lastCheckpointTime = now;
+        }
+    }
+
+    /**
+     * Saves the state of the campaign to the checkpoint file.
+     *
+     * <p>The checkpoint records the queue of saved inputs along with their
+     * coverage and responsibilities, the cumulative coverage maps, the set of
+     * unique failures, the position in the current cycle, and the number of
+     * trials run and time spent fuzzing so far. The inputs
+     * themselves are not included, since they are already in the corpus
+     * directory. The checkpoint is first written to a temporary file, which
+     * then atomically replaces the previous checkpoint, so that a crash
+     * never leaves behind a partially written checkpoint.</p>
+     *
+     * @throws IOException if the checkpoint could not be written
+     */
+    protected void writeCheckpoint() throws IOException {
+        // The checkpoint refers to saved inputs, so they must be on disk first
+        output.flush();
+
+        File tempFile = new File(outputDirectory, "checkpoint.tmp");
+        try (FileOutputStream fileOut = new FileOutputStream(tempFile);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut))) {
+            out.writeInt(CHECKPOINT_MAGIC);
+            out.writeInt(CHECKPOINT_VERSION);
+
+            out.writeInt(numSavedInputs);
+            out.writeInt(currentParentInputIdx);
+            out.writeInt(numChildrenGeneratedForCurrentParentInput);
+            out.writeInt(cyclesCompleted);
+            out.writeInt(numFavoredLastCycle);
+            out.writeInt(maxCoverage);
+            out.writeLong(numTrials);
+            out.writeLong(numValid);
+            out.writeLong(getElapsedMillis(new Date()));
+            writeCoverage(out, totalCoverage);
+            writeCoverage(out, validCoverage);
+
+            out.writeInt(savedInputs.size());
+            for (Input input : savedInputs) {
+                out.writeInt(input.id);
+                out.writeUTF(input.desc);
+                out.writeInt(input.offspring);
+                input.coverage.write(out);
+                out.writeInt(input.responsibilities.size());
+                IntIterator iter = input.responsibilities.intIterator();
+                while (iter.hasNext()) {
+                    out.writeInt(iter.next());
+                }
+            }
+
+            out.writeInt(uniqueFailures.size());
+            for (String failure : uniqueFailures) {
+                out.writeUTF(failure);
+            }
+
+            out.flush();
+            fileOut.getFD().sync();
+        }
+        Files.move(tempFile.toPath(), checkpointFile.toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        // Inputs staged for re-running are now covered by the checkpoint
+        if (seedInputs.isEmpty() && resumeDirectory.isDirectory()) {
+            for (File file : resumeDirectory.listFiles()) {
+                file.delete();
+            }
+        }
+    }
+
+    /**
+     * Restores the state of the campaign from the checkpoint file.
+     *
+     * <p>Saved inputs are reloaded from the corpus directory. Inputs that
+     * were saved after the checkpoint was written have no coverage recorded
+     * in it, so they are moved to a staging directory and re-run as seeds.
+     * Failures found after the checkpoint will simply be found again.</p>
+     *
+     * @throws IOException if the checkpoint or corpus could not be read
+     */
+    protected void restoreCheckpoint() throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(checkpointFile)))) {
+            int magic = in.readInt();
+            int version = in.readInt();
+            if (magic != CHECKPOINT_MAGIC || version < 1 || version > CHECKPOINT_VERSION) {
+                throw new IOException("Unrecognized checkpoint format: " + checkpointFile);
+            }
+
+            numSavedInputs = in.readInt();
+            currentParentInputIdx = in.readInt();
+            numChildrenGeneratedForCurrentParentInput = in.readInt();
+            cyclesCompleted = in.readInt();
+            numFavoredLastCycle = in.readInt();
+            maxCoverage = in.readInt();
+            if (version >= 2) {
+                numTrials = in.readLong();
+                numValid = in.readLong();
+                previousElapsedMillis = in.readLong();
+                lastNumTrials = numTrials;
+            }
+            readCoverage(in, totalCoverage);
+            readCoverage(in, validCoverage);
+
+            int numInputs = in.readInt();
+            for (int i = 0; i < numInputs; i++) {
+                int id = in.readInt();
+                File saveFile = new File(savedCorpusDirectory, String.format("id_%06d", id));
+                Input input = restoreInput(saveFile);
+                input.id = id;
+                input.desc = in.readUTF();
+                input.saveFile = saveFile;
+                input.configFile = new File(savedCorpusDirectory, String.format("config_%06d", id));
+                input.offspring = in.readInt();
+                input.coverage = CoverageSnapshot.read(in);
+                input.nonZeroCoverage = input.coverage.getNonZeroCount();
+                input.responsibilities = new IntHashSet();
+                int numResponsibilities = in.readInt();
+                for (int j = 0; j < numResponsibilities; j++) {
+                    int b = in.readInt();
+                    input.responsibilities.add(b);
+                    responsibleInputs.put(b, input);
+                }
+                savedInputs.add(input);
+            }
+            if (tracesSavedInputs()) {
+                // The branches they cover are listed again
+                inputsToTrace.addAll(savedInputs);
             }
-        });
+
+            int numFailures = in.readInt();
+            for (int i = 0; i < numFailures; i++) {
+                uniqueFailures.add(in.readUTF());
+            }
+        }
+
+        // Stage inputs saved after the checkpoint, which will be re-numbered when saved again
+        IOUtils.createDirectory(resumeDirectory);
+        for (File file : savedCorpusDirectory.listFiles()) {
+            int idx = parseSavedFileIndex(file);
+            if (idx >= numSavedInputs) {
+                if (file.getName().startsWith("id_")) {
+                    file.renameTo(new File(resumeDirectory, file.getName()));
+                } else {
+                    file.delete();
+                }
+            }
+        }
+        File[] staged = resumeDirectory.listFiles();
+        Arrays.sort(staged);
+        for (File file : staged) {
+            seedInputs.add(new SeedInput(file));
+        }
+
+        // Failures found after the checkpoint will be saved again
+        for (File file : savedFailuresDirectory.listFiles()) {
+            if (parseSavedFileIndex(file) >= uniqueFailures.size()) {
+                file.delete();
+            }
+        }
+
+        resumed = true;
+        infoLog("Resumed from checkpoint: %d saved inputs, %d unique failures, %d inputs to re-run",
+                savedInputs.size(), uniqueFailures.size(), seedInputs.size());
+        updateCoverageFile();
+    }
+
+    /**
+     * Reloads a saved input from the corpus when resuming from a checkpoint.
+     *
+     * @param saveFile the file where the input was saved
+     * @return the input saved in the file
+     * @throws IOException if the file could not be read
+     */
+    protected Input<?> restoreInput(File saveFile) throws IOException {
+        return new LinearInput(Files.readAllBytes(saveFile.toPath()));
+    }
+
+    /* Returns the index N of a file named "id_N" or "config_N", or -1 otherwise. */
+    private static int parseSavedFileIndex(File file) {
+        String name = file.getName();
+        int sep = name.indexOf('_');
+        try {
+            return sep < 0 ? -1 : Integer.parseInt(name.substring(sep + 1));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /* Writes the covered keys and their counts to a checkpoint. */
+    private static void writeCoverage(DataOutputStream out, ICoverage coverage) throws IOException {
+        IntList covered = coverage.getCovered();
+        out.writeInt(covered.size());
+        IntIterator iter = covered.intIterator();
+        while (iter.hasNext()) {
+            int key = iter.next();
+            out.writeInt(key);
+            out.writeInt(coverage.getCount(key));
+        }
+    }
+
+    /* Reads covered keys and their counts from a checkpoint. */
+    private static void readCoverage(DataInputStream in, ICoverage coverage) throws IOException {
+        int size = in.readInt();
+        for (int i = 0; i < size; i++) {
+            int key = in.readInt();
+            coverage.setCount(key, in.readInt());
+        }
     }
 
     // Return a list of saving criteria that have been satisfied for a non-failure input
@@ -917,6 +1564,7 @@ public class ZestGuidance implements Guidance {
             int currentInputSize = currentInput.size();
             IntHashSet covered = new IntHashSet();
             covered.addAll(runCoverage.getCovered());
+            addProbeAliases(covered);
 
             // Search for a candidate to steal responsibility from
             candidate_search:
@@ -953,29 +1601,60 @@ public class ZestGuidance implements Guidance {
             }
         }
 
+        // Omitted probes are covered along with the probes they alias
+        addProbeAliases(result);
         return result;
     }
 
     protected void writeCurrentInputToFile(File saveFile) throws IOException {
-        try (BufferedOutputStream out = new BufferedOutputStream(new FileOutputStream(saveFile))) {
-            for (Integer b : currentInput) {
-                assert (b >= 0 && b < 256);
-                out.write(b);
-            }
-        }
-
+        ByteArrayOutputStream out = new ByteArrayOutputStream(currentInput.size());
+        currentInput.writeTo(out);
+        output.write(saveFile, out.toByteArray());
     }
 
     protected void writeCurrentConfigToFile(File configFile) throws IOException {
         // No need to write configuration file if it is not configuration fuzzing
         if (!Boolean.getBoolean("configFuzz"))
             return;
-        try (PrintWriter out = new PrintWriter(new FileWriter(configFile, false))) {
-            for (Map.Entry<String, String> entry : ConfigTracker.getConfigMap().entrySet()) {
-                String paramName = entry.getKey();
-                String paramValue = entry.getValue();
-                out.write(paramName + configSeparator + paramValue + "\n");
-            }
+        StringBuilder out = new StringBuilder();
+        for (Map.Entry<String, String> entry : ConfigTracker.getConfigMap().entrySet()) {
+            String paramName = entry.getKey();
+            String paramValue = entry.getValue();
+            out.append(paramName + configSeparator + paramValue + "\n");
+        }
+        output.write(configFile, out.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Adds the probes omitted by <code>janala.minimizeProbes</code> whose
+     * counts are those of the given keys to them.
+     */
+    protected void addProbeAliases(IntHashSet keys) {
+        if (totalCoverage instanceof FastNonCollidingCoverage) {
+            ((FastNonCollidingCoverage) totalCoverage).addAliases(keys);
+        }
+    }
+
+    /**
+     * Computes the counts of branch arms omitted by <code>janala.minimizeProbes</code>
+     * in the coverage of a run, so that their novelty is noticed.
+     */
+    protected void deriveProbes(ICoverage coverage) {
+        if (coverage instanceof FastNonCollidingCoverage) {
+            ((FastNonCollidingCoverage) coverage).deriveProbes();
+        }
+    }
+
+    /**
+     * Rebuilds the counts of probes omitted by <code>janala.minimizeProbes</code>
+     * in the total and valid coverage, so that they are reported and saved.
+     */
+    protected void expandProbeAliases() {
+        if (totalCoverage instanceof FastNonCollidingCoverage) {
+            ((FastNonCollidingCoverage) totalCoverage).expandAliases();
+        }
+        if (validCoverage instanceof FastNonCollidingCoverage) {
+            ((FastNonCollidingCoverage) validCoverage).expandAliases();
         }
     }
 
@@ -1005,8 +1684,12 @@ public class ZestGuidance implements Guidance {
         currentInput.id = newInputIdx;
         currentInput.saveFile = saveFile;
         currentInput.configFile = configFile;
-        currentInput.coverage = runCoverage.copy();
+        currentInput.coverage = CoverageSnapshot.of(runCoverage);
         currentInput.nonZeroCoverage = runCoverage.getNonZeroCount();
+        expandProbeAliases();
+        if (tracesSavedInputs()) {
+            inputsToTrace.add(currentInput);
+        }
         currentInput.offspring = 0;
         savedInputs.get(currentParentInputIdx).offspring += 1;
 
@@ -1032,12 +1715,179 @@ public class ZestGuidance implements Guidance {
 
     @Override
     public Consumer<TraceEvent> generateCallBack(Thread thread) {
+        if (getNumWorkers() > 1) {
+            TraceCallback callback = newWorkerTraceCallback(thread);
+            if (callback != null) {
+                return callback;
+            }
+            // The thread may be traced before its first trial, so look again at its next events
+            return primitiveEvents && !TRACE_SAVED_INPUTS ?
+                    new DeferredPrimitiveTraceCallback(thread) : new DeferredTraceCallback(thread);
+        }
         if (firstThread == null) {
             firstThread = thread;
         } else if (firstThread != thread) {
+            CoverageShard shard = new CoverageShard(thread);
+            synchronized (threadShards) {
+                threadShards.add(shard);
+            }
             multiThreaded = true;
+            return newTraceCallback(null, shard);
+        }
+        return newTraceCallback(null, null);
+    }
+
+    /*
+     * Returns a callback for the worker that runs trials on a thread, or that
+     * spawned it, or null if there is none yet. Must be called on that thread.
+     */
+    private TraceCallback newWorkerTraceCallback(Thread thread) {
+        Worker worker = workers.get(thread);
+        if (worker != null) {
+            return newTraceCallback(worker, null);
+        }
+        // Threads spawned by a trial count towards the worker that ran it
+        worker = spawningWorker.get();
+        if (worker == null) {
+            return null;
+        }
+        CoverageShard shard = new CoverageShard(thread);
+        synchronized (worker.threadShards) {
+            worker.threadShards.add(shard);
+        }
+        return newTraceCallback(null, shard);
+    }
+
+    /*
+     * Returns a callback that skips allocating branch and call events unless a subclass
+     * handles them as objects, or saved inputs are traced, which needs their source locations.
+     */
+    private TraceCallback newTraceCallback(Worker worker, CoverageShard shard) {
+        return primitiveEvents && !TRACE_SAVED_INPUTS ?
+                new PrimitiveTraceCallback(worker, shard) : new TraceCallback(worker, shard);
+    }
+
+    /* Returns whether a subclass overrides one of the handleEvent methods, which must then see every event. */
+    private static boolean overridesHandleEvent(Class<?> cls) {
+        for (Class<?> c = cls; c != ZestGuidance.class; c = c.getSuperclass()) {
+            for (Method m : c.getDeclaredMethods()) {
+                if (m.getName().equals("handleEvent") && !m.isBridge()) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Forwards trace events to {@link #handleEvent(TraceEvent)},
+     * {@link #handleEvent(Worker, TraceEvent)} or
+     * {@link #handleEvent(CoverageShard, TraceEvent)}.
+     */
+    private class TraceCallback implements Consumer<TraceEvent> {
+        protected final Worker worker;
+        protected final CoverageShard shard;
+
+        TraceCallback(Worker worker, CoverageShard shard) {
+            this.worker = worker;
+            this.shard = shard;
+        }
+
+        @Override
+        public void accept(TraceEvent e) {
+            if (shard != null) {
+                handleEvent(shard, e);
+            } else if (worker == null) {
+                handleEvent(e);
+            } else {
+                handleEvent(worker, e);
+            }
+        }
+    }
+
+    /**
+     * Also forwards branch and call events to the corresponding
+     * <code>handleBranch</code> and <code>handleCall</code> methods
+     * without allocating them.
+     */
+    private class PrimitiveTraceCallback extends TraceCallback implements PrimitiveTraceListener {
+        PrimitiveTraceCallback(Worker worker, CoverageShard shard) {
+            super(worker, shard);
+        }
+
+        @Override
+        public void onBranch(int iid, int arm) {
+            if (shard != null) {
+                handleBranch(shard, iid, arm);
+            } else {
+                handleBranch(worker, iid, arm);
+            }
+        }
+
+        @Override
+        public void onCall(int iid) {
+            if (shard != null) {
+                handleCall(shard, iid);
+            } else {
+                handleCall(worker, iid);
+            }
+        }
+    }
+
+    /**
+     * Drops the events of a thread that belongs to no worker yet, until
+     * it does, and then forwards them like {@link TraceCallback}.
+     */
+    private class DeferredTraceCallback implements Consumer<TraceEvent> {
+        protected final Thread thread;
+        private TraceCallback delegate;
+
+        DeferredTraceCallback(Thread thread) {
+            this.thread = thread;
+        }
+
+        /* Returns the callback of the thread's worker, or null if there is none yet. */
+        protected TraceCallback resolve() {
+            // Only ever called on the traced thread, so no synchronization is needed
+            if (delegate == null) {
+                delegate = newWorkerTraceCallback(thread);
+            }
+            return delegate;
+        }
+
+        @Override
+        public void accept(TraceEvent e) {
+            TraceCallback callback = resolve();
+            if (callback != null) {
+                callback.accept(e);
+            }
+        }
+    }
+
+    /**
+     * Also forwards branch and call events without allocating them,
+     * like {@link PrimitiveTraceCallback}.
+     */
+    private class DeferredPrimitiveTraceCallback extends DeferredTraceCallback implements PrimitiveTraceListener {
+        DeferredPrimitiveTraceCallback(Thread thread) {
+            super(thread);
+        }
+
+        @Override
+        public void onBranch(int iid, int arm) {
+            TraceCallback callback = resolve();
+            if (callback != null) {
+                ((PrimitiveTraceCallback) callback).onBranch(iid, arm);
+            }
+        }
+
+        @Override
+        public void onCall(int iid) {
+            TraceCallback callback = resolve();
+            if (callback != null) {
+                ((PrimitiveTraceCallback) callback).onCall(iid);
+            }
         }
-        return this::handleEvent;
     }
 
     /**
@@ -1049,18 +1899,160 @@ public class ZestGuidance implements Guidance {
      * @param e the trace event to be handled
      */
     protected void handleEvent(TraceEvent e) {
-        conditionallySynchronize(multiThreaded, () -> {
-            // Collect totalCoverage
-            ((Coverage) runCoverage).handleEvent(e);
-            // Check for possible timeouts every so often
-            if (this.singleRunTimeoutMillis > 0 &&
-                    this.runStart != null && (++this.branchCount) % 10_000 == 0) {
-                long elapsed = new Date().getTime() - runStart.getTime();
-                if (elapsed > this.singleRunTimeoutMillis) {
-                    throw new TimeoutException(elapsed, this.singleRunTimeoutMillis);
+        if (tracedInput != null) {
+            traceEvent(e);
+            return;
+        }
+        // Collect totalCoverage
+        ((Coverage) runCoverage).handleEvent(e);
+    }
+
+    /**
+     * Records the source branch or call of an event generated while
+     * re-running a saved input with full tracing, in the same format
+     * as <code>jqf.repro.logUniqueBranches</code>.
+     *
+     * @param e the trace event to be recorded
+     */
+    protected void traceEvent(TraceEvent e) {
+        String desc;
+        if (e instanceof BranchEvent) {
+            BranchEvent b = (BranchEvent) e;
+            desc = String.format("(%09d) %s#%s():%d [%d]", b.getIid(), b.getContainingClass(),
+                    b.getContainingMethodName(), b.getLineNumber(), b.getArm());
+        } else if (e instanceof CallEvent) {
+            CallEvent c = (CallEvent) e;
+            desc = String.format("(%09d) %s#%s():%d --> %s", c.getIid(), c.getContainingClass(),
+                    c.getContainingMethodName(), c.getLineNumber(), c.getInvokedMethodName());
+        } else {
+            return;
+        }
+        synchronized (coveredBranches) {
+            coveredBranches.add(desc);
+        }
+    }
+
+    /**
+     * Handles a branch event generated during test execution, as
+     * {@link #handleEvent(TraceEvent)} would handle a {@link BranchEvent}.
+     *
+     * @param worker the worker whose thread executed the branch,
+     *               or <code>null</code> if there is a single worker
+     * @param iid    the instruction id of the branch
+     * @param arm    the arm taken
+     */
+    protected void handleBranch(Worker worker, int iid, int arm) {
+        if (worker != null) {
+            ((Coverage) worker.runCoverage).onBranch(iid, arm);
+        } else {
+            ((Coverage) runCoverage).onBranch(iid, arm);
+        }
+    }
+
+    /**
+     * Handles a call event generated during test execution, as
+     * {@link #handleEvent(TraceEvent)} would handle a {@link CallEvent}.
+     *
+     * @param worker the worker whose thread made the call,
+     *               or <code>null</code> if there is a single worker
+     * @param iid    the instruction id of the call site
+     */
+    protected void handleCall(Worker worker, int iid) {
+        if (worker != null) {
+            ((Coverage) worker.runCoverage).onCall(iid);
+        } else {
+            ((Coverage) runCoverage).onCall(iid);
+        }
+    }
+
+    /**
+     * Handles a trace event generated by one of several workers.
+     *
+     * <p>Events are collected into the worker's own run coverage,
+     * so no synchronization is needed.</p>
+     *
+     * @param worker the worker whose thread generated the event
+     * @param e the trace event to be handled
+     */
+    protected void handleEvent(Worker worker, TraceEvent e) {
+        ((Coverage) worker.runCoverage).handleEvent(e);
+    }
+
+    /**
+     * Handles a trace event generated by a thread other than the one
+     * running the trial.
+     *
+     * <p>Events are collected into the thread's own shard, which is only
+     * locked against it being merged, so threads do not contend with
+     * each other.</p>
+     *
+     * @param shard the shard of the thread that generated the event
+     * @param e     the trace event to be handled
+     */
+    protected void handleEvent(CoverageShard shard, TraceEvent e) {
+        if (tracedInput != null) {
+            traceEvent(e);
+            return;
+        }
+        synchronized (shard) {
+            shard.handleEvent(e);
+        }
+    }
+
+    /**
+     * Handles a branch event generated by a thread other than the one
+     * running the trial, as {@link #handleEvent(CoverageShard, TraceEvent)}
+     * would handle a {@link BranchEvent}.
+     *
+     * @param shard the shard of the thread that executed the branch
+     * @param iid   the instruction id of the branch
+     * @param arm   the arm taken
+     */
+    protected void handleBranch(CoverageShard shard, int iid, int arm) {
+        synchronized (shard) {
+            shard.onBranch(iid, arm);
+        }
+    }
+
+    /**
+     * Handles a call event generated by a thread other than the one
+     * running the trial, as {@link #handleEvent(CoverageShard, TraceEvent)}
+     * would handle a {@link CallEvent}.
+     *
+     * @param shard the shard of the thread that made the call
+     * @param iid   the instruction id of the call site
+     */
+    protected void handleCall(CoverageShard shard, int iid) {
+        synchronized (shard) {
+            shard.onCall(iid);
+        }
+    }
+
+    /* Adds the coverage of other threads to a run coverage, in the order in which they were first traced. */
+    private static void mergeThreadShards(List<CoverageShard> shards, ICoverage target) {
+        synchronized (shards) {
+            for (CoverageShard shard : shards) {
+                synchronized (shard) {
+                    if (!shard.isEmpty()) {
+                        shard.mergeInto((Coverage) target);
+                    }
+                }
+            }
+            // Their shards are now empty, and will remain so
+            shards.removeIf(shard -> !shard.getOwner().isAlive());
+        }
+    }
+
+    /* Discards the coverage that other threads have collected between trials. */
+    private static void clearThreadShards(List<CoverageShard> shards) {
+        synchronized (shards) {
+            for (CoverageShard shard : shards) {
+                synchronized (shard) {
+                    shard.clear();
                 }
             }
-        });
+            shards.removeIf(shard -> !shard.getOwner().isAlive());
+        }
     }
 
     /**
@@ -1086,6 +2078,160 @@ public class ZestGuidance implements Guidance {
         }
     }
 
+    /**
+     * The trial state of a worker thread when fuzzing with multiple workers.
+     *
+     * <p>The rest of the algorithm works on the fields {@link #currentInput},
+     * {@link #runCoverage} and {@link #random}. A worker swaps its own values into these fields
+     * only while holding the guidance's monitor, so that queue management
+     * stays single-threaded, while coverage is collected by each worker
+     * without locking.</p>
+     */
+    protected class Worker {
+        Input<?> currentInput;
+        final ICoverage runCoverage = CoverageFactory.newInstance();
+        final Random random;
+
+        /** This worker's view of {@link #totalCoverage}; always a subset of it. */
+        final ICoverage localTotalCoverage = CoverageFactory.newInstance();
+
+        /** This worker's view of {@link #validCoverage}; always a subset of it. */
+        final ICoverage localValidCoverage = CoverageFactory.newInstance();
+
+        /** Number of trials since the local coverage was last refreshed. */
+        int trialsSinceSync = 0;
+
+        /** Coverage of the threads spawned by this worker's trials, in the order in which they were first traced. */
+        final List<CoverageShard> threadShards = new ArrayList<>();
+
+        /** Fast coverage of the threads spawned by this worker's trials, collected while holding its monitor. */
+        final ICoverage spawnedCoverage = CoverageFactory.newInstance();
+
+        /** Records fast coverage events of spawned threads into {@link #spawnedCoverage}. */
+        final FastCoverageListener spawnedListener = new FastCoverageListener() {
+            private final FastCoverageListener target = spawnedCoverage instanceof FastCoverageListener
+                    ? (FastCoverageListener) spawnedCoverage : new FastCoverageListener.Default();
+
+            @Override
+            public void logMethodBegin(int iid) {
+                synchronized (spawnedCoverage) {
+                    target.logMethodBegin(iid);
+                }
+            }
+
+            @Override
+            public void logMethodEnd(int iid) {
+                synchronized (spawnedCoverage) {
+                    target.logMethodEnd(iid);
+                }
+            }
+
+            @Override
+            public void logJump(int iid, int branch) {
+                synchronized (spawnedCoverage) {
+                    target.logJump(iid, branch);
+                }
+            }
+
+            @Override
+            public void logLookUpSwitch(int value, int iid, int dflt, int[] cases) {
+                synchronized (spawnedCoverage) {
+                    target.logLookUpSwitch(value, iid, dflt, cases);
+                }
+            }
+
+            @Override
+            public void logTableSwitch(int value, int iid, int min, int max, int dflt) {
+                synchronized (spawnedCoverage) {
+                    target.logTableSwitch(value, iid, min, max, dflt);
+                }
+            }
+        };
+
+        Worker(Random random) {
+            this.random = random;
+        }
+
+        /** Adds the coverage of the threads spawned by this worker's trial to its run coverage. */
+        void mergeSpawnedThreads() {
+            mergeThreadShards(threadShards, runCoverage);
+            synchronized (spawnedCoverage) {
+                if (spawnedCoverage.getNonZeroCount() > 0) {
+                    Counter counter = runCoverage.getCounter();
+                    IntIterator keys = spawnedCoverage.getCovered().intIterator();
+                    while (keys.hasNext()) {
+                        int key = keys.next();
+                        counter.increment(key, spawnedCoverage.getCount(key));
+                    }
+                    spawnedCoverage.clear();
+                }
+            }
+        }
+
+        /** Discards the coverage that threads spawned by this worker have collected between trials. */
+        void clearSpawnedThreads() {
+            clearThreadShards(threadShards);
+            synchronized (spawnedCoverage) {
+                spawnedCoverage.clear();
+            }
+        }
+
+        /** Swaps this worker's trial state into the guidance. */
+        void load() {
+            ZestGuidance.this.currentInput = this.currentInput;
+            ZestGuidance.this.runCoverage = this.runCoverage;
+            ZestGuidance.this.random = this.random;
+        }
+
+        /** Saves the guidance's trial state back into this worker. */
+        void store() {
+            this.currentInput = ZestGuidance.this.currentInput;
+        }
+    }
+
+    /**
+     * Dispatches fast coverage probes to the run coverage of the
+     * worker on whose thread they are executed.
+     */
+    private class WorkerCoverageListener implements FastCoverageListener {
+        private final FastCoverageListener none = new FastCoverageListener.Default();
+
+        private FastCoverageListener current() {
+            Worker worker = workers.get(Thread.currentThread());
+            if (worker != null) {
+                return (FastCoverageListener) worker.runCoverage;
+            }
+            // Threads spawned by a trial count towards the worker that ran it
+            worker = spawningWorker.get();
+            return worker != null ? worker.spawnedListener : none;
+        }
+
+        @Override
+        public void logMethodBegin(int iid) {
+            current().logMethodBegin(iid);
+        }
+
+        @Override
+        public void logMethodEnd(int iid) {
+            current().logMethodEnd(iid);
+        }
+
+        @Override
+        public void logJump(int iid, int branch) {
+            current().logJump(iid, branch);
+        }
+
+        @Override
+        public void logLookUpSwitch(int value, int iid, int dflt, int[] cases) {
+            current().logLookUpSwitch(value, iid, dflt, cases);
+        }
+
+        @Override
+        public void logTableSwitch(int value, int iid, int min, int max, int dflt) {
+            current().logTableSwitch(value, iid, min, max, dflt);
+        }
+    }
+
     private static MessageDigest sha1;
 
     private static String failureDigest(StackTraceElement[] stackTrace) {
@@ -1140,11 +2286,11 @@ public class ZestGuidance implements Guidance {
         String desc;
 
         /**
-         * The run coverage for this input, if the input is saved.
+         * A snapshot of the run coverage for this input, if the input is saved.
          *
          * <p>This field is null for inputs that are not saved.</p>
          */
-        ICoverage coverage = null;
+        CoverageSnapshot coverage = null;
 
         /**
          * The number of non-zero elements in `coverage`.
@@ -1199,6 +2345,27 @@ public class ZestGuidance implements Guidance {
         public abstract Input fuzz(Random random);
         public abstract void gc();
 
+        /**
+         * Returns an unexecuted copy of this input, which produces the
+         * same values if the test requests them in the same way.
+         *
+         * @return a copy of this input
+         */
+        public abstract Input copy();
+
+        /**
+         * Writes the bytes of this input to a stream.
+         *
+         * @param out the stream to write to
+         * @throws IOException if the stream could not be written
+         */
+        public void writeTo(OutputStream out) throws IOException {
+            for (Integer b : this) {
+                assert (b >= 0 && b < 256);
+                out.write(b);
+            }
+        }
+
         /**
          * Returns whether this input should be favored for fuzzing.
          *
@@ -1229,22 +2396,57 @@ public class ZestGuidance implements Guidance {
 
     public class LinearInput extends Input<Integer> {
 
-        /** A list of byte values (0-255) ordered by their index. */
-        protected ArrayList<Integer> values;
+        /** The byte values ordered by their index; only the first {@link #size} are valid. */
+        protected byte[] values;
+
+        /** The number of valid byte values. */
+        protected int size = 0;
 
         /** The number of bytes requested so far */
         protected int requested = 0;
 
+        /** The index of the first value that was generated fresh, or -1 if none was */
+        protected int firstFresh = -1;
+
         public LinearInput() {
             super();
-            this.values = new ArrayList<>();
+            this.values = new byte[64];
         }
 
         public LinearInput(LinearInput other) {
             super(other);
-            this.values = new ArrayList<>(other.values);
+            this.values = Arrays.copyOf(other.values, other.size);
+            this.size = other.size;
         }
 
+        @Override
+        public Input copy() {
+            return new LinearInput(this);
+        }
+
+        /**
+         * Creates an input from a given array of byte values.
+         *
+         * @param values the byte values, which are not copied
+         */
+        public LinearInput(byte[] values) {
+            super();
+            this.values = values;
+            this.size = values.length;
+        }
+
+        /* Makes room for at least `n` more values. */
+        protected void ensureCapacity(int n) {
+            if (size + n > values.length) {
+                values = Arrays.copyOf(values, Math.max(size + n, values.length * 2));
+            }
+        }
+
+        /* Appends a single byte value. */
+        protected void append(int value) {
+            ensureCapacity(1);
+            values[size++] = (byte) value;
+        }
 
         @Override
         public int getOrGenerateFresh(Integer key, Random random) {
@@ -1252,7 +2454,7 @@ public class ZestGuidance implements Guidance {
             // assert (key == values.size());
             if (key != requested) {
                 throw new IllegalStateException(String.format("Bytes from linear input out of order. " +
-                        "Size = %d, Key = %d", values.size(), key));
+                        "Size = %d, Key = %d", size, key));
             }
 
             // Don't generate over the limit
@@ -1261,10 +2463,10 @@ public class ZestGuidance implements Guidance {
             }
 
             // If it exists in the list, return it
-            if (key < values.size()) {
+            if (key < size) {
                 requested++;
                 // infoLog("Returning old byte at key=%d, total requested=%d", key, requested);
-                return values.get(key);
+                return values[key] & 0xFF;
             }
 
             // Handle end of stream
@@ -1272,17 +2474,85 @@ public class ZestGuidance implements Guidance {
                 return -1;
             } else {
                 // Just generate a random input
+                if (firstFresh < 0) {
+                    firstFresh = size;
+                }
                 int val = random.nextInt(256);
-                values.add(val);
+                append(val);
                 requested++;
                 // infoLog("Generating fresh byte at key=%d, total requested=%d", key, requested);
                 return val;
             }
         }
 
+        /**
+         * Reads up to <code>len</code> bytes starting at index <code>key</code>,
+         * generating fresh values as needed.
+         *
+         * <p>This is equivalent to calling {@link #getOrGenerateFresh(Integer, Random)}
+         * for each index in turn until it returns -1, but copies existing values
+         * in bulk.</p>
+         *
+         * @param key    the index of the first byte to read
+         * @param buf    the buffer into which bytes are read
+         * @param off    the offset in <code>buf</code> at which to start writing
+         * @param len    the maximum number of bytes to read
+         * @param random a pseudo-random number generator for fresh values
+         * @return the number of bytes read, or -1 if no bytes are available
+         */
+        public int read(int key, byte[] buf, int off, int len, Random random) {
+            if (key != requested) {
+                throw new IllegalStateException(String.format("Bytes from linear input out of order. " +
+                        "Size = %d, Key = %d", size, key));
+            }
+            if (len == 0) {
+                return 0;
+            }
+
+            // Don't generate over the limit
+            int limit = Math.min(len, MAX_INPUT_SIZE - requested);
+
+            // Copy whatever exists already
+            int n = Math.max(0, Math.min(limit, size - requested));
+            System.arraycopy(values, requested, buf, off, n);
+            requested += n;
+
+            // Generate the rest, unless we should stop at end of stream
+            if (n < limit && !GENERATE_EOF_WHEN_OUT) {
+                if (firstFresh < 0) {
+                    firstFresh = size;
+                }
+                ensureCapacity(limit - n);
+                for (; n < limit; n++) {
+                    byte val = (byte) random.nextInt(256);
+                    values[size++] = val;
+                    buf[off + n] = val;
+                    requested++;
+                }
+            }
+
+            return n > 0 ? n : -1;
+        }
+
         @Override
         public int size() {
-            return values.size();
+            return size;
+        }
+
+        /**
+         * Forgets all but the first <code>length</code> requested values,
+         * as if the test had stopped reading there.
+         *
+         * <p>Values that were generated fresh beyond that point are
+         * dropped, whereas existing values are kept until {@link #gc()}.</p>
+         *
+         * @param length the number of values that the test actually read
+         */
+        public void truncate(int length) {
+            requested = Math.min(requested, length);
+            if (firstFresh >= 0 && size > Math.max(firstFresh, length)) {
+                size = Math.max(firstFresh, length);
+            }
         }
 
         /**
@@ -1295,11 +2565,11 @@ public class ZestGuidance implements Guidance {
         @Override
         public void gc() {
             // Remove elements beyond "requested"
-            values = new ArrayList<>(values.subList(0, requested));
-            values.trimToSize();
+            values = Arrays.copyOf(values, requested);
+            size = requested;
 
             // Inputs should not be empty, otherwise mutations don't work
-            if (values.isEmpty()) {
+            if (size == 0) {
                 throw new IllegalArgumentException("Input is either empty or nothing was requested from the input generator.");
             }
         }
@@ -1318,7 +2588,7 @@ public class ZestGuidance implements Guidance {
             for (int mutation = 1; mutation <= numMutations; mutation++) {
 
                 // Select a random offset and size
-                int offset = random.nextInt(newInput.values.size());
+                int offset = random.nextInt(newInput.size);
                 int mutationSize = sampleGeometric(random, MEAN_MUTATION_SIZE);
 
                 // desc += String.format(":%d@%d", mutationSize, idx);
@@ -1326,22 +2596,42 @@ public class ZestGuidance implements Guidance {
                 // Mutate a contiguous set of bytes from offset
                 for (int i = offset; i < offset + mutationSize; i++) {
                     // Don't go past end of list
-                    if (i >= newInput.values.size()) {
+                    if (i >= newInput.size) {
                         break;
                     }
 
                     // Otherwise, apply a random mutation
                     int mutatedValue = setToZero ? 0 : random.nextInt(256);
-                    newInput.values.set(i, mutatedValue);
+                    newInput.values[i] = (byte) mutatedValue;
                 }
             }
 
             return newInput;
         }
 
+        @Override
+        public void writeTo(OutputStream out) throws IOException {
+            out.write(values, 0, size);
+        }
+
         @Override
         public Iterator<Integer> iterator() {
-            return values.iterator();
+            return new Iterator<Integer>() {
+                int idx = 0;
+
+                @Override
+                public boolean hasNext() {
+                    return idx < size;
+                }
+
+                @Override
+                public Integer next() {
+                    if (idx >= size) {
+                        throw new NoSuchElementException();
+                    }
+                    return values[idx++] & 0xFF;
+                }
+            };
         }
     }
 
@@ -1367,20 +2657,51 @@ public class ZestGuidance implements Guidance {
             }
 
             // assert (key == values.size())
-            if (key != values.size() && value != -1) {
+            if (key != size && value != -1) {
                 throw new IllegalStateException(String.format("Bytes from seed out of order. " +
-                        "Size = %d, Key = %d", values.size(), key));
+                        "Size = %d, Key = %d", size, key));
             }
 
             if (value >= 0) {
                 requested++;
-                values.add(value);
+                append(value);
             }
 
             // If value is -1, then it is returned (as EOF) but not added to the list
             return value;
         }
 
+        @Override
+        public int read(int key, byte[] buf, int off, int len, Random random) {
+            if (key != size) {
+                throw new IllegalStateException(String.format("Bytes from seed out of order. " +
+                        "Size = %d, Key = %d", size, key));
+            }
+
+            // Keep reading until either `len` bytes are read or EOF is reached
+            int n = 0;
+            try {
+                while (n < len) {
+                    int r = in.read(buf, off + n, len - n);
+                    if (r < 0) {
+                        break;
+                    }
+                    n += r;
+                }
+            } catch (IOException e) {
+                throw new GuidanceException("Error reading from seed file: " + seedFile.getName(), e);
+            }
+
+            if (n > 0) {
+                ensureCapacity(n);
+                System.arraycopy(buf, off, values, size, n);
+                size += n;
+                requested += n;
+            }
+
+            return n > 0 || len == 0 ? n : -1;
+        }
+
         @Override
         public void gc() {
             super.gc();
@@ -1393,5 +2714,4 @@ public class ZestGuidance implements Guidance {
 
     }
 
-
 }
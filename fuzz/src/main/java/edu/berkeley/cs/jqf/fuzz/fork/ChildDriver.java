@@ -0,0 +1,66 @@
+/*
+ * Copyright (c) 2017-2018 The Regents of the University of California
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.berkeley.cs.jqf.fuzz.fork;
+
+import java.net.InetAddress;
+import java.net.Socket;
+
+import edu.berkeley.cs.jqf.fuzz.junit.GuidedFuzzing;
+
+/**
+ * Entry point of a child JVM started by {@link ForkedFuzzing}.
+ */
+public class ChildDriver {
+
+    public static void main(String[] args) {
+        if (args.length != 4) {
+            System.err.println("Usage: java " + ChildDriver.class + " TEST_CLASS TEST_METHOD TIMEOUT_MILLIS PORT");
+            System.exit(1);
+        }
+
+        String testClassName  = args[0];
+        String testMethodName = args[1];
+        long timeoutMillis = Long.parseLong(args[2]);
+        int port = Integer.parseInt(args[3]);
+
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+            // Load the guidance
+            ChildGuidance guidance = new ChildGuidance(socket, timeoutMillis);
+
+            // Run the Junit test until the coordinator retires this JVM
+            GuidedFuzzing.run(testClassName, testMethodName, guidance, null);
+        } catch (Exception e) {
+            e.printStackTrace();
+            System.exit(2);
+        }
+
+        // Do not wait for threads that the test left behind
+        System.exit(0);
+    }
+}
@@ -0,0 +1,409 @@
+/*
+ * Copyright (c) 2017-2018 The Regents of the University of California
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.berkeley.cs.jqf.fuzz.fork;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectOutputStream;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+
+import edu.berkeley.cs.jqf.fuzz.guidance.Guidance;
+import edu.berkeley.cs.jqf.fuzz.guidance.GuidanceException;
+import edu.berkeley.cs.jqf.fuzz.guidance.Result;
+import edu.berkeley.cs.jqf.fuzz.util.Coverage;
+import edu.berkeley.cs.jqf.fuzz.util.CoverageFactory;
+import edu.berkeley.cs.jqf.fuzz.util.CoverageShard;
+import edu.berkeley.cs.jqf.fuzz.util.FastEdgeCoverage;
+import edu.berkeley.cs.jqf.fuzz.util.FastNonCollidingCoverage;
+import edu.berkeley.cs.jqf.fuzz.util.ICoverage;
+import edu.berkeley.cs.jqf.fuzz.util.TrialWatchdog;
+import edu.berkeley.cs.jqf.instrument.tracing.FastCoverageSnoop;
+import edu.berkeley.cs.jqf.instrument.tracing.PrimitiveTraceListener;
+import edu.berkeley.cs.jqf.instrument.tracing.events.TraceEvent;
+import janala.instrument.FastCoverageListener;
+import org.eclipse.collections.api.iterator.IntIterator;
+import org.eclipse.collections.api.list.primitive.IntList;
+
+/**
+ * The guidance of a child JVM, which runs trials on behalf of a
+ * guidance in the coordinator (see {@link ForkedFuzzing}).
+ *
+ * <p>The bytes that an input already has are sent along with the
+ * trial, and fresh bytes are requested from the coordinator in large
+ * chunks only once the generators have read all of them. The result,
+ * error and coverage of each trial are sent back once the trial ends,
+ * along with the number of bytes that the generators actually read,
+ * so that the coordinator's guidance can drop the bytes that it sent
+ * ahead of time.</p>
+ */
+public class ChildGuidance implements Guidance {
+
+    private final DataInputStream in;
+    private final DataOutputStream out;
+    private final long timeoutMillis;
+    private final TrialWatchdog watchdog = new TrialWatchdog();
+
+    /** Coverage of the current trial, in the same format as the coordinator's. */
+    private final ICoverage runCoverage = CoverageFactory.newInstance();
+
+    /** The thread that runs trials. */
+    private Thread firstThread;
+
+    /** Coverage of other threads, merged into {@link #runCoverage} when a trial ends. */
+    private final List<CoverageShard> threadShards = new ArrayList<>();
+
+    private boolean started = false;
+    private boolean fullTracingNeeded = true;
+    private boolean trialOpen = false;
+
+    /** The bytes of the current input that have been received so far. */
+    private byte[] inputBytes = new byte[ChildProcess.READ_CHUNK_SIZE];
+    private int inputLength = 0;
+
+    /** The number of bytes of the current input that have been read by the generators. */
+    private int inputPosition = 0;
+
+    /** Whether the coordinator has no more bytes for the current input. */
+    private boolean inputEnded = false;
+
+    /**
+     * Creates the guidance of a child JVM.
+     *
+     * @param socket        the connection to the coordinator
+     * @param timeoutMillis the time that each trial may run for, or 0 for no limit
+     * @throws IOException if the connection cannot be used
+     */
+    public ChildGuidance(Socket socket, long timeoutMillis) throws IOException {
+        socket.setTcpNoDelay(true);
+        this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        this.timeoutMillis = timeoutMillis;
+        if (runCoverage instanceof FastCoverageListener) {
+            FastCoverageSnoop.setFastCoverageListener((FastCoverageListener) runCoverage);
+        }
+    }
+
+    /**
+     * Waits for the coordinator to start a trial.
+     *
+     * <p>The first call tells the coordinator that this JVM has loaded
+     * the test class and is ready to run trials.</p>
+     *
+     * @return whether a trial was started; <code>false</code> if the
+     *         coordinator has retired this JVM
+     */
+    @Override
+    public boolean hasInput() {
+        try {
+            if (trialOpen) {
+                // The trial was discarded, e.g. because generation ran out of input
+                trialOpen = false;
+                watchdog.disarm();
+                out.writeByte(ChildProcess.DISCARDED);
+            } else if (!started) {
+                started = true;
+                out.writeByte(ChildProcess.READY);
+            }
+            out.flush();
+
+            byte command = in.readByte();
+            if (command != ChildProcess.TRIAL) {
+                return false;
+            }
+            fullTracingNeeded = in.readBoolean();
+            inputLength = 0;
+            inputPosition = 0;
+            inputEnded = false;
+            receiveBytes(in.readInt());
+            return true;
+        } catch (IOException e) {
+            // The coordinator has gone away
+            return false;
+        }
+    }
+
+    @Override
+    public InputStream getInput() throws GuidanceException {
+        runCoverage.clear();
+        synchronized (threadShards) {
+            for (CoverageShard shard : threadShards) {
+                synchronized (shard) {
+                    shard.clear();
+                }
+            }
+            threadShards.removeIf(shard -> !shard.getOwner().isAlive());
+        }
+        FastCoverageSnoop.resetProbes();
+        trialOpen = true;
+        if (timeoutMillis > 0) {
+            watchdog.arm(timeoutMillis);
+        }
+
+        return new InputStream() {
+            final byte[] single = new byte[1];
+
+            @Override
+            public int read() throws IOException {
+                return read(single, 0, 1) > 0 ? single[0] & 0xFF : -1;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                if (len == 0) {
+                    return 0;
+                }
+                if (inputPosition == inputLength) {
+                    if (inputEnded) {
+                        return -1;
+                    }
+                    if (inputPosition == 0) {
+                        out.writeByte(ChildProcess.STARTED);
+                    }
+                    out.writeByte(ChildProcess.READ);
+                    out.writeInt(Math.max(len, ChildProcess.READ_CHUNK_SIZE));
+                    out.flush();
+                    int n = in.readInt();
+                    if (n <= 0) {
+                        inputEnded = true;
+                        return -1;
+                    }
+                    receiveBytes(n);
+                } else if (inputPosition == 0) {
+                    // Lets the coordinator tell a crash in the test from one before it, without waiting
+                    out.writeByte(ChildProcess.STARTED);
+                    out.flush();
+                }
+                int n = Math.min(len, inputLength - inputPosition);
+                System.arraycopy(inputBytes, inputPosition, b, off, n);
+                inputPosition += n;
+                return n;
+            }
+
+            @Override
+            public int available() {
+                return inputLength - inputPosition;
+            }
+        };
+    }
+
+    /* Appends bytes of the current input sent by the coordinator. */
+    private void receiveBytes(int n) throws IOException {
+        if (inputBytes.length < inputLength + n) {
+            inputBytes = Arrays.copyOf(inputBytes, Math.max(inputLength + n, inputBytes.length * 2));
+        }
+        in.readFully(inputBytes, inputLength, n);
+        inputLength += n;
+    }
+
+    @Override
+    public boolean isFullTracingNeeded() {
+        return fullTracingNeeded;
+    }
+
+    /**
+     * Sends the result, error and coverage of the trial to the coordinator.
+     *
+     * @param result the result of the trial
+     * @param error  the error thrown by the trial, or <code>null</code>
+     * @throws GuidanceException if the coordinator cannot be reached
+     */
+    @Override
+    public void handleResult(Result result, Throwable error) throws GuidanceException {
+        trialOpen = false;
+        watchdog.disarm();
+
+        if (runCoverage instanceof FastEdgeCoverage && FastCoverageSnoop.hasProbes()) {
+            // Reported here, since the coordinator never sees the probes
+            sendGuidanceError("Inline coverage probes cannot be used with edge or n-gram coverage");
+            throw new GuidanceException("Inline coverage probes cannot be used with edge or n-gram coverage");
+        }
+        FastCoverageSnoop.drainProbes(runCoverage.getCounter()::increment);
+        if (runCoverage instanceof FastNonCollidingCoverage) {
+            // Only this JVM knows the probes omitted by janala.minimizeProbes, since the coordinator instruments nothing
+            ((FastNonCollidingCoverage) runCoverage).deriveProbes();
+            ((FastNonCollidingCoverage) runCoverage).expandAliases();
+        }
+        if (runCoverage instanceof Coverage) {
+            synchronized (threadShards) {
+                for (CoverageShard shard : threadShards) {
+                    synchronized (shard) {
+                        if (!shard.isEmpty()) {
+                            shard.mergeInto((Coverage) runCoverage);
+                        }
+                    }
+                }
+            }
+        }
+
+        try {
+            out.writeByte(ChildProcess.RESULT);
+            out.writeByte(result.ordinal());
+            byte[] errorBytes = serialize(error);
+            out.writeInt(errorBytes.length);
+            out.write(errorBytes);
+            out.writeBoolean(isFatal(error));
+            out.writeInt(inputPosition);
+            IntList covered = runCoverage.getCovered();
+            out.writeInt(covered.size());
+            IntIterator iter = covered.intIterator();
+            while (iter.hasNext()) {
+                int key = iter.next();
+                out.writeInt(key);
+                out.writeInt(runCoverage.getCount(key));
+            }
+            out.flush();
+        } catch (IOException e) {
+            throw new GuidanceException(e);
+        }
+    }
+
+    private void sendGuidanceError(String message) {
+        try {
+            out.writeByte(ChildProcess.GUIDANCE_ERROR);
+            out.writeUTF(message);
+            out.flush();
+        } catch (IOException e) {
+            // The coordinator will see the connection close instead
+        }
+    }
+
+    /* Returns whether an error may have left the JVM in a state in which it should not run more trials. */
+    static boolean isFatal(Throwable error) {
+        return error instanceof VirtualMachineError && !(error instanceof StackOverflowError);
+    }
+
+    /* Serializes an error, or a stand-in for it if it cannot be serialized as is. */
+    private static byte[] serialize(Throwable error) {
+        if (error == null) {
+            return new byte[0];
+        }
+        try {
+            return serializeObject(error);
+        } catch (IOException | RuntimeException e) {
+            try {
+                return serializeObject(new ForkedTrialException(error));
+            } catch (IOException e2) {
+                throw new GuidanceException(e2);
+            }
+        }
+    }
+
+    private static byte[] serializeObject(Object object) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream oos = new ObjectOutputStream(bytes)) {
+            oos.writeObject(object);
+        }
+        return bytes.toByteArray();
+    }
+
+    @Override
+    public void setBlind(boolean blind) {
+        // Decided by the coordinator's guidance
+    }
+
+    @Override
+    public Consumer<TraceEvent> generateCallBack(Thread thread) {
+        if (!(runCoverage instanceof Coverage)) {
+            // Fast coverage is collected by the probes themselves
+            return (e) -> {};
+        }
+        if (firstThread == null) {
+            firstThread = thread;
+        } else if (firstThread != thread) {
+            CoverageShard shard = new CoverageShard(thread);
+            synchronized (threadShards) {
+                threadShards.add(shard);
+            }
+            return new TraceCallback(shard);
+        }
+        return new TraceCallback((Coverage) runCoverage);
+    }
+
+    /**
+     * Forwards trace events to the run coverage, or to the shard of a
+     * thread other than the one running trials, locking the shard
+     * against it being merged.
+     */
+    private static class TraceCallback implements Consumer<TraceEvent>, PrimitiveTraceListener {
+        private final Coverage coverage;
+        private final CoverageShard shard;
+
+        TraceCallback(Coverage coverage) {
+            this.coverage = coverage;
+            this.shard = null;
+        }
+
+        TraceCallback(CoverageShard shard) {
+            this.coverage = null;
+            this.shard = shard;
+        }
+
+        @Override
+        public void accept(TraceEvent e) {
+            if (shard != null) {
+                synchronized (shard) {
+                    shard.handleEvent(e);
+                }
+            } else {
+                coverage.handleEvent(e);
+            }
+        }
+
+        @Override
+        public void onBranch(int iid, int arm) {
+            if (shard != null) {
+                synchronized (shard) {
+                    shard.onBranch(iid, arm);
+                }
+            } else {
+                coverage.onBranch(iid, arm);
+            }
+        }
+
+        @Override
+        public void onCall(int iid) {
+            if (shard != null) {
+                synchronized (shard) {
+                    shard.onCall(iid);
+                }
+            } else {
+                coverage.onCall(iid);
+            }
+        }
+    }
+}
@@ -0,0 +1,420 @@
+/*
+ * Copyright (c) 2017-2018 The Regents of the University of California
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.berkeley.cs.jqf.fuzz.fork;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import edu.berkeley.cs.jqf.fuzz.guidance.GuidanceException;
+import edu.berkeley.cs.jqf.fuzz.guidance.Result;
+import edu.berkeley.cs.jqf.fuzz.guidance.TimeoutException;
+
+/**
+ * A child JVM that runs trials for the coordinator, as seen from
+ * the coordinator.
+ *
+ * <p>The child connects to a socket on the loopback interface and
+ * says that it is {@link #READY} once it has loaded the test class.
+ * For each trial, the coordinator sends {@link #TRIAL} along with the
+ * bytes that the input already has (see {@link InputStream#available()}),
+ * so that most trials need no further round trips. The child says that
+ * it has {@link #STARTED} reading the input without waiting for an
+ * answer, and only if it runs out of bytes does it {@link #READ} more,
+ * which the coordinator answers with a large chunk of fresh bytes.
+ * Finally, the coordinator receives a {@link #RESULT}, which includes
+ * the number of bytes that the trial consumed, or {@link #DISCARDED}.
+ * A child that hangs for longer than the hang limit is killed.</p>
+ */
+class ChildProcess implements Closeable {
+
+    // Messages from the coordinator
+    static final byte TRIAL = 'T';
+    static final byte EXIT = 'X';
+
+    // Messages from the child
+    static final byte READY = 'H';
+    static final byte STARTED = 'S';
+    static final byte READ = 'R';
+    static final byte RESULT = 'E';
+    static final byte DISCARDED = 'D';
+    static final byte GUIDANCE_ERROR = 'G';
+
+    /** The least number of fresh bytes that a child asks for at a time. */
+    static final int READ_CHUNK_SIZE = 4096;
+
+    /** How often to check whether the child is still alive while waiting for it to start. */
+    private static final int POLL_MILLIS = 100;
+
+    /** How an input was handled by the child. */
+    static class Outcome {
+        /** The outcome of a trial that was discarded without a result. */
+        static final Outcome DISCARDED = new Outcome(null, null, new int[0], new int[0], 0, false);
+
+        /** The outcome of a trial that the child gave up on before it read any input. */
+        static final Outcome ABANDONED = new Outcome(null, null, new int[0], new int[0], 0, true);
+
+        /** The result, or <code>null</code> if the trial was discarded. */
+        final Result result;
+        final Throwable error;
+        final int[] keys;
+        final int[] counts;
+        /** The number of input bytes that the trial consumed, or that were sent if the child died. */
+        final int bytesRead;
+        /** Whether the child must not run any more trials. */
+        final boolean retire;
+
+        Outcome(Result result, Throwable error, int[] keys, int[] counts, int bytesRead, boolean retire) {
+            this.result = result;
+            this.error = error;
+            this.keys = keys;
+            this.counts = counts;
+            this.bytesRead = bytesRead;
+            this.retire = retire;
+        }
+    }
+
+    private final Process process;
+    private final ServerSocket server;
+    private final File logFile;
+    private Socket socket;
+    private DataInputStream in;
+    private DataOutputStream out;
+    private byte[] buffer = new byte[READ_CHUNK_SIZE];
+    private int trials = 0;
+
+    /**
+     * Starts a child JVM, without waiting for it to be ready.
+     *
+     * @param command the command that starts the child, to which
+     *                the port to connect to is appended
+     * @param logFile the file to append the child's output to,
+     *                or <code>null</code> to discard it
+     * @throws IOException if the child cannot be started
+     */
+    ChildProcess(List<String> command, File logFile) throws IOException {
+        this.server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+        this.logFile = logFile;
+        List<String> args = new ArrayList<>(command);
+        args.add(String.valueOf(server.getLocalPort()));
+        ProcessBuilder builder = new ProcessBuilder(args).redirectErrorStream(true);
+        builder.redirectOutput(logFile == null ? ProcessBuilder.Redirect.DISCARD : ProcessBuilder.Redirect.appendTo(logFile));
+        try {
+            this.process = builder.start();
+        } catch (IOException e) {
+            server.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns the number of trials that this child has started.
+     *
+     * @return the number of trials run so far
+     */
+    int getTrials() {
+        return trials;
+    }
+
+    /**
+     * Waits for the child to connect and load the test class, if it
+     * has not done so yet.
+     *
+     * @throws GuidanceException if the child exits before it is ready
+     */
+    void awaitReady() throws GuidanceException {
+        if (socket == null) {
+            try {
+                connect();
+            } catch (IOException e) {
+                throw new GuidanceException(e);
+            }
+        }
+    }
+
+    private void connect() throws IOException {
+        server.setSoTimeout(POLL_MILLIS);
+        try {
+            while (socket == null) {
+                try {
+                    socket = server.accept();
+                } catch (SocketTimeoutException e) {
+                    if (!process.isAlive()) {
+                        throw startupFailure();
+                    }
+                }
+            }
+        } finally {
+            server.close();
+        }
+        socket.setTcpNoDelay(true);
+        in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+
+        socket.setSoTimeout(POLL_MILLIS);
+        while (true) {
+            try {
+                if (in.readByte() != READY) {
+                    throw new GuidanceException("Unexpected message from child JVM");
+                }
+                break;
+            } catch (SocketTimeoutException e) {
+                if (!process.isAlive()) {
+                    throw startupFailure();
+                }
+            } catch (EOFException | SocketException e) {
+                throw startupFailure();
+            }
+        }
+    }
+
+    private GuidanceException startupFailure() {
+        return new GuidanceException("Child JVM exited with status " + waitForExit() + " before it was ready" +
+                (logFile == null ? "" : "; see " + logFile));
+    }
+
+    /**
+     * Runs a trial in the child, feeding it bytes from an input stream.
+     *
+     * @param input          the input stream returned by the guidance
+     * @param fullTracing    whether the trial needs full tracing
+     * @param hangLimitMillis the time after which the child is killed,
+     *                        or 0 for no limit
+     * @return the outcome of the trial
+     * @throws GuidanceException if the child could not be started, or
+     *                           if the guidance failed
+     */
+    Outcome runTrial(InputStream input, boolean fullTracing, long hangLimitMillis) throws GuidanceException {
+        awaitReady();
+        long start = System.currentTimeMillis();
+        boolean started = false;
+        int bytesSent = 0;
+        try {
+            trials++;
+            int existing = readExisting(input);
+            out.writeByte(TRIAL);
+            out.writeBoolean(fullTracing);
+            out.writeInt(existing);
+            out.write(buffer, 0, existing);
+            out.flush();
+            bytesSent = existing;
+
+            while (true) {
+                if (hangLimitMillis > 0) {
+                    long remaining = start + hangLimitMillis - System.currentTimeMillis();
+                    if (remaining <= 0) {
+                        throw new SocketTimeoutException();
+                    }
+                    socket.setSoTimeout((int) Math.min(remaining, Integer.MAX_VALUE));
+                } else {
+                    socket.setSoTimeout(0);
+                }
+
+                byte message = in.readByte();
+                switch (message) {
+                    case STARTED:
+                        started = true;
+                        break;
+                    case READ:
+                        started = true;
+                        bytesSent += handleRead(input, in.readInt());
+                        break;
+                    case RESULT:
+                        return readResult();
+                    case DISCARDED:
+                        return Outcome.DISCARDED;
+                    case GUIDANCE_ERROR:
+                        throw new GuidanceException(in.readUTF());
+                    default:
+                        throw new GuidanceException("Unexpected message from child JVM: " + message);
+                }
+            }
+        } catch (SocketTimeoutException e) {
+            kill();
+            if (!started) {
+                // Without any input, there is nothing to report
+                return Outcome.ABANDONED;
+            }
+            long elapsed = System.currentTimeMillis() - start;
+            return new Outcome(Result.TIMEOUT, new TimeoutException(elapsed, hangLimitMillis),
+                    new int[0], new int[0], bytesSent, true);
+        } catch (EOFException | SocketException e) {
+            // The child died, e.g. because the test called System.exit()
+            if (!started) {
+                waitForExit();
+                return Outcome.ABANDONED;
+            }
+            Throwable error = new ForkedTrialException("Child JVM exited with status " + waitForExit() + " during trial");
+            return new Outcome(Result.FAILURE, error, new int[0], new int[0], bytesSent, true);
+        } catch (IOException e) {
+            throw new GuidanceException(e);
+        }
+    }
+
+    /* Reads the bytes that the input already has into the buffer, returning how many there are. */
+    private int readExisting(InputStream input) {
+        try {
+            int len = Math.max(0, input.available());
+            if (buffer.length < len) {
+                buffer = new byte[len];
+            }
+            int n = 0;
+            while (n < len) {
+                int count = input.read(buffer, n, len - n);
+                if (count < 0) {
+                    break;
+                }
+                n += count;
+            }
+            return n;
+        } catch (IOException e) {
+            throw new GuidanceException(e);
+        }
+    }
+
+    /* Answers a request for more bytes, returning how many were sent. */
+    private int handleRead(InputStream input, int len) throws IOException {
+        if (buffer.length < len) {
+            buffer = new byte[len];
+        }
+        int n;
+        try {
+            n = input.read(buffer, 0, len);
+        } catch (IOException e) {
+            throw new GuidanceException(e);
+        }
+        out.writeInt(n);
+        if (n > 0) {
+            out.write(buffer, 0, n);
+        }
+        out.flush();
+        return Math.max(n, 0);
+    }
+
+    private Outcome readResult() throws IOException {
+        Result result = Result.values()[in.readByte()];
+        byte[] errorBytes = new byte[in.readInt()];
+        in.readFully(errorBytes);
+        boolean fatal = in.readBoolean();
+        int bytesRead = in.readInt();
+        int size = in.readInt();
+        int[] keys = new int[size];
+        int[] counts = new int[size];
+        for (int i = 0; i < size; i++) {
+            keys[i] = in.readInt();
+            counts[i] = in.readInt();
+        }
+        Throwable error = errorBytes.length == 0 ? null : deserialize(errorBytes);
+        // A trial that timed out may have left threads running
+        return new Outcome(result, error, keys, counts, bytesRead, fatal || result == Result.TIMEOUT);
+    }
+
+    private static Throwable deserialize(byte[] bytes) {
+        try (ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+            return (Throwable) ois.readObject();
+        } catch (IOException | ClassNotFoundException | ClassCastException e) {
+            return new ForkedTrialException("Error of trial could not be read: " + e);
+        }
+    }
+
+    /* Returns the exit status of the child, killing it if it does not exit soon. */
+    private int waitForExit() {
+        try {
+            if (!process.waitFor(1, TimeUnit.SECONDS)) {
+                process.destroyForcibly().waitFor();
+            }
+            return process.exitValue();
+        } catch (InterruptedException e) {
+            // Do not leave the child behind
+            process.destroyForcibly();
+            Thread.currentThread().interrupt();
+            return -1;
+        }
+    }
+
+    /**
+     * Kills the child at once.
+     */
+    void kill() {
+        process.destroyForcibly();
+        closeQuietly();
+    }
+
+    /**
+     * Tells the child to exit once it is done, without waiting for it.
+     */
+    @Override
+    public void close() {
+        if (out != null) {
+            try {
+                out.writeByte(EXIT);
+                out.flush();
+            } catch (IOException e) {
+                // It has already exited
+            }
+        }
+        closeQuietly();
+    }
+
+    private void closeQuietly() {
+        try {
+            server.close();
+            if (socket != null) {
+                socket.close();
+            }
+        } catch (IOException e) {
+            // Nothing left to do
+        }
+    }
+
+    /**
+     * Returns whether the child is still running.
+     *
+     * @return whether the child's JVM has not exited
+     */
+    boolean isAlive() {
+        return process.isAlive();
+    }
+}
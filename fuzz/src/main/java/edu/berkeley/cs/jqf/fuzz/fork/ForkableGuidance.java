@@ -0,0 +1,77 @@
+/*
+ * Copyright (c) 2017-2018 The Regents of the University of California
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.berkeley.cs.jqf.fuzz.fork;
+
+import edu.berkeley.cs.jqf.fuzz.guidance.Guidance;
+import edu.berkeley.cs.jqf.fuzz.util.ICoverage;
+
+/**
+ * A guidance whose trials can be run in child JVMs by {@link ForkedFuzzing}.
+ *
+ * <p>Coverage is collected in the child with a map created by
+ * {@link edu.berkeley.cs.jqf.fuzz.util.CoverageFactory#newInstance()},
+ * and copied key by key into the run coverage of the guidance before
+ * {@link #handleResult} is called.</p>
+ *
+ * <p>The bytes that {@link java.io.InputStream#available()} reports for
+ * the input stream of a trial are sent to the child up front, so the
+ * stream should report the bytes that the input already has.</p>
+ */
+public interface ForkableGuidance extends Guidance {
+
+    /**
+     * Returns the coverage map of the trial run by the current thread.
+     *
+     * @return the run coverage to copy the child's coverage into
+     */
+    ICoverage getRunCoverage();
+
+    /**
+     * Tells the guidance how many bytes of the input returned by the
+     * current thread's last call to {@link #getInput()} the trial
+     * actually read.
+     *
+     * <p>The coordinator reads the bytes of an input ahead of the
+     * child, so the stream may have delivered more bytes than that.
+     * This is called before {@link #handleResult}.</p>
+     *
+     * @param length the number of bytes read by the trial
+     */
+    void truncateInput(int length);
+
+    /**
+     * Tells the guidance that its trials are run in child JVMs.
+     *
+     * <p>The children stop trials that run past their timeout, while
+     * the thread that calls {@link #getInput()} only waits for them,
+     * so the guidance should not time out trials itself.</p>
+     */
+    default void setForked() {
+    }
+}
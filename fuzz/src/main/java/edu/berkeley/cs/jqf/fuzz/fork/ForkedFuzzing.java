@@ -0,0 +1,274 @@
+/*
+ * Copyright (c) 2017-2018 The Regents of the University of California
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.berkeley.cs.jqf.fuzz.fork;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import edu.berkeley.cs.jqf.fuzz.guidance.GuidanceException;
+import edu.berkeley.cs.jqf.fuzz.guidance.Result;
+import edu.berkeley.cs.jqf.fuzz.util.ICoverage;
+
+/**
+ * Runs the guided fuzzing loop with trials run in child JVMs, so that
+ * the guidance survives tests that exit the JVM, run out of memory, or
+ * corrupt static state.
+ *
+ * <p>The guidance stays in this JVM, the coordinator, and each of its
+ * workers (see {@link ForkableGuidance#getNumWorkers()}) runs its trials
+ * in a child JVM of its own. A child is replaced after a fatal error
+ * or a timeout, when it exits, and optionally after a fixed number of
+ * trials. Spare children are started ahead of time, with the same JVM
+ * arguments as the coordinator (including the instrumentation agent),
+ * so that a replacement has usually loaded the test class by the time
+ * it is needed.</p>
+ *
+ * <p>The following system properties are used:</p>
+ * <ul>
+ *     <li><code>jqf.fork.RECYCLE_PERIOD</code>: the number of trials
+ *     after which a child is replaced, or 0 to never replace healthy
+ *     children (default: 0)</li>
+ *     <li><code>jqf.fork.SPARES</code>: the number of children to keep
+ *     started ahead of time (default: 1)</li>
+ * </ul>
+ */
+public class ForkedFuzzing {
+
+    /** Number of trials after which a child is replaced. */
+    protected final int RECYCLE_PERIOD = Integer.getInteger("jqf.fork.RECYCLE_PERIOD", 0);
+
+    /** Number of children to keep started ahead of time. */
+    protected final int SPARES = Integer.getInteger("jqf.fork.SPARES", 1);
+
+    /** Time after which a hanging child is killed, beyond the timeout of its trial. */
+    protected static final long HANG_GRACE_MILLIS = 1000;
+
+    private final ForkableGuidance guidance;
+    private final List<String> command;
+    private final File logFile;
+    private final long hangLimitMillis;
+
+    /** Children that have been started but not yet taken; guarded by itself. */
+    private final Deque<ChildProcess> spares = new ArrayDeque<>();
+
+    /** All children that have been started; guarded by {@link #spares}. */
+    private final List<ChildProcess> children = new ArrayList<>();
+
+    private final AtomicInteger numFailures = new AtomicInteger();
+    private volatile boolean stopped = false;
+
+    /**
+     * Creates a coordinator.
+     *
+     * @param testClassName  the test class containing the test method
+     * @param testMethodName the test method to execute in the fuzzing loop
+     * @param guidance       the fuzzing guidance
+     * @param timeoutMillis  the time that each trial may run for, or 0 for no limit
+     * @param logFile        the file to append the output of children to,
+     *                       or <code>null</code> to discard it
+     */
+    public ForkedFuzzing(String testClassName, String testMethodName, ForkableGuidance guidance,
+                         long timeoutMillis, File logFile) {
+        this.guidance = guidance;
+        guidance.setForked();
+        this.command = childCommand(testClassName, testMethodName, timeoutMillis);
+        this.logFile = logFile;
+        // A child stops a trial itself after the timeout, and interrupts it after twice that
+        this.hangLimitMillis = timeoutMillis > 0 ? 2 * timeoutMillis + HANG_GRACE_MILLIS : 0;
+    }
+
+    /* Returns the command that starts a child, with the same JVM arguments as this one. */
+    private static List<String> childCommand(String testClassName, String testMethodName, long timeoutMillis) {
+        List<String> command = new ArrayList<>();
+        command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+        for (String arg : ManagementFactory.getRuntimeMXBean().getInputArguments()) {
+            // A debugger can only listen on its port in one JVM
+            if (!arg.startsWith("-agentlib:jdwp") && !arg.startsWith("-Xrunjdwp")) {
+                command.add(arg);
+            }
+        }
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(ChildDriver.class.getName());
+        command.add(testClassName);
+        command.add(testMethodName);
+        command.add(String.valueOf(timeoutMillis));
+        return command;
+    }
+
+    /**
+     * Runs the guided fuzzing loop until the guidance decides to stop.
+     *
+     * @return whether no trial failed
+     * @throws GuidanceException if fuzzing was stopped by the guidance,
+     *                           or if a child could not be started
+     */
+    public boolean run() throws GuidanceException {
+        int numWorkers = guidance.getNumWorkers();
+        Thread shutdownHook = new Thread(this::killChildren);
+        Runtime.getRuntime().addShutdownHook(shutdownHook);
+        try {
+            synchronized (spares) {
+                for (int i = 0; i < numWorkers + SPARES; i++) {
+                    spares.add(startChild());
+                }
+            }
+
+            if (numWorkers > 1) {
+                fuzzInParallel(numWorkers);
+            } else {
+                fuzz();
+            }
+        } finally {
+            killChildren();
+            Runtime.getRuntime().removeShutdownHook(shutdownHook);
+        }
+        return numFailures.get() == 0;
+    }
+
+    /* Runs the fuzzing loop in several worker threads at once, as FuzzStatement does. */
+    private void fuzzInParallel(int numWorkers) throws GuidanceException {
+        AtomicReference<GuidanceException> workerError = new AtomicReference<>();
+        List<Thread> workers = new ArrayList<>(numWorkers);
+        for (int i = 0; i < numWorkers; i++) {
+            Thread worker = new Thread(() -> {
+                try {
+                    fuzz();
+                } catch (GuidanceException e) {
+                    workerError.compareAndSet(null, e);
+                    stopped = true;
+                } catch (Throwable e) {
+                    workerError.compareAndSet(null, new GuidanceException(e));
+                    stopped = true;
+                }
+            }, "jqf-worker-" + i);
+            workers.add(worker);
+        }
+
+        for (Thread worker : workers) {
+            worker.start();
+        }
+        for (Thread worker : workers) {
+            try {
+                worker.join();
+            } catch (InterruptedException e) {
+                throw new GuidanceException(e);
+            }
+        }
+
+        if (workerError.get() != null) {
+            throw workerError.get();
+        }
+    }
+
+    /* Runs the fuzzing loop in the current thread, with a child of its own. */
+    private void fuzz() throws GuidanceException {
+        ChildProcess child = null;
+        try {
+            while (!stopped && guidance.hasInput()) {
+                if (child == null) {
+                    child = takeChild();
+                }
+                // Start-up time must not count towards the trial
+                child.awaitReady();
+
+                InputStream input = guidance.getInput();
+                ChildProcess.Outcome outcome = child.runTrial(input, guidance.isFullTracingNeeded(), hangLimitMillis);
+
+                // Trials that the child discarded are not reported, as in FuzzStatement
+                if (outcome.result != null) {
+                    guidance.truncateInput(outcome.bytesRead);
+                    ICoverage runCoverage = guidance.getRunCoverage();
+                    for (int i = 0; i < outcome.keys.length; i++) {
+                        runCoverage.setCount(outcome.keys[i], outcome.counts[i]);
+                    }
+                    if (outcome.result == Result.FAILURE) {
+                        numFailures.incrementAndGet();
+                    }
+                    guidance.handleResult(outcome.result, outcome.error);
+                }
+
+                if (outcome.retire || (RECYCLE_PERIOD > 0 && child.getTrials() >= RECYCLE_PERIOD)) {
+                    child.close();
+                    child = null;
+                }
+            }
+        } finally {
+            if (child != null) {
+                child.close();
+            }
+        }
+    }
+
+    /* Takes a spare child, and starts another one in its place. */
+    private ChildProcess takeChild() throws GuidanceException {
+        synchronized (spares) {
+            ChildProcess child = spares.poll();
+            if (child == null) {
+                child = startChild();
+            }
+            while (spares.size() < SPARES) {
+                spares.add(startChild());
+            }
+            return child;
+        }
+    }
+
+    private ChildProcess startChild() throws GuidanceException {
+        synchronized (spares) {
+            children.removeIf(child -> !child.isAlive());
+            try {
+                ChildProcess child = new ChildProcess(command, logFile);
+                children.add(child);
+                return child;
+            } catch (IOException e) {
+                throw new GuidanceException(e);
+            }
+        }
+    }
+
+    private void killChildren() {
+        synchronized (spares) {
+            for (ChildProcess child : children) {
+                child.kill();
+            }
+            children.clear();
+            spares.clear();
+        }
+    }
+}
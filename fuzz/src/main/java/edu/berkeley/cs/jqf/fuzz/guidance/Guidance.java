@@ -90,6 +90,16 @@ public interface Guidance {
      * been invoked since the last call to {@link #getInput()},
      * then invoking this method may throw an IllegalStateException.
      *
+     * <p>The stream is consumed by a {@link StreamBackedRandom}, which
+     * requests all the bytes of each value it generates (e.g. 8 bytes
+     * for a <code>long</code>, or the whole array for
+     * {@link java.util.Random#nextBytes(byte[])}) with a single call to
+     * {@link InputStream#read(byte[], int, int)}. Streams that hold their
+     * bytes in memory should override that method to copy them in bulk,
+     * rather than rely on the default byte-at-a-time implementation.
+     * Returning fewer bytes than requested is only taken to mean EOF
+     * once the stream returns -1.
+     *
      * @return  a stream of bytes to be used by the input generator(s)
      * @throws IllegalStateException if the last {@link #hasInput()}
      *                  returned <code>false</code>
@@ -111,6 +121,26 @@ public interface Guidance {
      */
     boolean hasInput();
 
+    /**
+     * Returns whether the trial for the input just returned by
+     * {@link #getInput()} should be fully traced.
+     *
+     * <p>This only matters for classes instrumented with
+     * <code>janala.hybrid=true</code>, which count fast coverage on
+     * every trial but only emit {@link TraceEvent}s to the callbacks
+     * from {@link #generateCallBack(Thread)} on fully traced trials.
+     * Guidances that only need fast coverage can trace the few trials
+     * that they want events for, such as inputs they intend to save
+     * or splice, and run all others at fast-coverage speed.</p>
+     *
+     * <p>The default implementation traces every trial.</p>
+     *
+     * @return whether to trace the next trial fully
+     */
+    default boolean isFullTracingNeeded() {
+        return true;
+    }
+
     /**
      * Callback for observing actual arguments passed to the test method.
      *
@@ -170,6 +200,27 @@ public interface Guidance {
 
     void setBlind(boolean blind);
 
+    /**
+     * Returns the number of worker threads that should run fuzzing
+     * trials concurrently.
+     *
+     * <p>If this method returns a value greater than 1, then JQF
+     * invokes {@link #hasInput()}, {@link #getInput()},
+     * {@link #observeGeneratedArgs(Object[])}, {@link #run(TestClass, FrameworkMethod, Object[])}
+     * and {@link #handleResult(Result, Throwable)} from that many
+     * threads at once, and each thread follows the standard
+     * sequence of invocations on its own. Guidances that return
+     * a value greater than 1 must therefore be thread-safe.</p>
+     *
+     * <p>The default implementation returns 1, i.e. all trials are
+     * run sequentially on the thread that started fuzzing.</p>
+     *
+     * @return the number of trial loops to run concurrently
+     */
+    default int getNumWorkers() {
+        return 1;
+    }
+
     /**
      * Returns a callback generator for a thread's event trace.
      *
@@ -185,6 +236,11 @@ public interface Guidance {
      * <p>This method is a supplier of event consumers. It is invoked
      * once per new application thread spawned during fuzzing.
      *
+     * <p>If the returned callback also implements
+     * {@link edu.berkeley.cs.jqf.instrument.tracing.PrimitiveTraceListener},
+     * then branch and call events are delivered to it as primitive
+     * arguments instead of as newly allocated {@link TraceEvent}s.
+     *
      * @param thread  the thread whose events to handle
      * @return            a callback that handles trace events generated by
      *                    that thread
@@ -214,6 +270,12 @@ public interface Guidance {
      * a guidance that supports non-deterministic test code may wish to execute
      * multiple trials per generated input.</p>
      *
+     * <p>If the system property <code>jqf.persistentFixture</code> is set
+     * and a guidance does not override this method, then JQF does not
+     * invoke it, and instead reuses the same test instance across trials
+     * with a {@link edu.berkeley.cs.jqf.fuzz.junit.PersistentTrialRunner}
+     * (see also <code>jqf.fixtureRecyclePeriod</code>).</p>
+     *
      * @param testClass  the test class
      * @param method     the test method within the test class
      * @param args       the arguments to the test method (i.e., the test input)
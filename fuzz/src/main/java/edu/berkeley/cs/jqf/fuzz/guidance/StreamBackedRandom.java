@@ -32,8 +32,6 @@ package edu.berkeley.cs.jqf.fuzz.guidance;
 import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
-import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
 import java.util.Random;
 
 
@@ -51,7 +49,7 @@ import java.util.Random;
  */
 public class StreamBackedRandom extends Random {
     private final InputStream inputStream;
-    private final ByteBuffer byteBuffer = ByteBuffer.allocate(4);
+    private final byte[] buffer = new byte[Long.BYTES];
     private int totalBytesRead = 0;
     private int leadingBytesToIgnore = 0;
 
@@ -67,9 +65,6 @@ public class StreamBackedRandom extends Random {
         super(0x5DEECE66DL);
         // Open the backing file source as a buffered input stream
         this.inputStream = source;
-        // Force encoding to little-endian so that we can read small ints
-        // by reading partially into the start of the buffer
-        byteBuffer.order(ByteOrder.LITTLE_ENDIAN);
     }
 
     /**
@@ -111,45 +106,105 @@ public class StreamBackedRandom extends Random {
             throw new IllegalArgumentException("Must read 1-32 bits at a time");
         }
 
-        // Zero out the byte buffer before reading from the source
-        byteBuffer.putInt(0, 0);
+        // Read up to 4 bytes from the backing source
+        int maxBytesToRead = ((bits + 7) / 8);
+        assert(maxBytesToRead*8 >= bits && maxBytesToRead <= 4);
 
-        try {
-            // Read up to 4 bytes from the backing source
-            int maxBytesToRead = ((bits + 7) / 8);
-            assert(maxBytesToRead*8 >= bits && maxBytesToRead <= 4);
-
-            if (this.leadingBytesToIgnore > 0) {
-                int bytesToIgnore = Math.min(maxBytesToRead, this.leadingBytesToIgnore);
-                this.leadingBytesToIgnore -= bytesToIgnore;
-                maxBytesToRead -= bytesToIgnore;
-            }
+        if (this.leadingBytesToIgnore > 0) {
+            int bytesToIgnore = Math.min(maxBytesToRead, this.leadingBytesToIgnore);
+            this.leadingBytesToIgnore -= bytesToIgnore;
+            maxBytesToRead -= bytesToIgnore;
+        }
 
-            // If fewer bytes are read (because EOF is reached), the buffer
-            // just keeps containing zeros
-            int actualBytesRead = inputStream.read(byteBuffer.array(), 0, maxBytesToRead);
-            totalBytesRead += actualBytesRead;
+        readFully(buffer, 0, maxBytesToRead);
 
-            // If EOF was reached, throw an exception
-            if (actualBytesRead != maxBytesToRead) {
-                String message = String.format("EOF reached; total bytes read = %d, " +
-                                "last read got %d of %d bytes",
-                        totalBytesRead, actualBytesRead, maxBytesToRead);
-                throw new IllegalStateException(new EOFException(message));
+        // Interpret the bytes read as a little-endian integer, so that
+        // small ints only occupy the lower order bytes
+        int value = littleEndian(buffer, 0, maxBytesToRead);
 
-            }
+        // Return only the lower order bits as requested
+        int mask = bits < 32 ? (1 << bits) - 1 : -1;
+        return value & mask;
 
-        } catch (IOException e) {
-            throw new GuidanceException(e);
+    }
+
+    /**
+     * Generates 64 bits of random data.
+     *
+     * <p>The result is the same as that of {@link Random#nextLong()},
+     * i.e. two successive 32-bit values for the high and low halves,
+     * but all 8 bytes are read from the backing source at once.</p>
+     *
+     * @return the next 64 bits of data from the backing source
+     * @throws IllegalStateException  if EOF is reached
+     */
+    @Override
+    public long nextLong() {
+        if (this.leadingBytesToIgnore > 0) {
+            return super.nextLong();
         }
+        readFully(buffer, 0, Long.BYTES);
+        int high = littleEndian(buffer, 0, Integer.BYTES);
+        int low = littleEndian(buffer, Integer.BYTES, Integer.BYTES);
+        return ((long) high << 32) + low;
+    }
 
-        // Interpret the bytes read as an integer
-        int value = byteBuffer.getInt(0);
+    /**
+     * Fills an array with bytes from the backing source.
+     *
+     * <p>The result is the same as that of {@link Random#nextBytes(byte[])},
+     * which consumes 4 bytes of data for every 4 (or fewer trailing) bytes
+     * of output, but whole words are read directly into the array.</p>
+     *
+     * @param bytes the array to fill
+     * @throws IllegalStateException  if EOF is reached
+     */
+    @Override
+    public void nextBytes(byte[] bytes) {
+        if (this.leadingBytesToIgnore > 0) {
+            super.nextBytes(bytes);
+            return;
+        }
+        int words = bytes.length & ~(Integer.BYTES - 1);
+        readFully(bytes, 0, words);
+        if (words < bytes.length) {
+            readFully(buffer, 0, Integer.BYTES);
+            System.arraycopy(buffer, 0, bytes, words, bytes.length - words);
+        }
+    }
 
-        // Return only the lower order bits as requested
-        int mask = bits < 32 ? (1 << bits) - 1 : -1;
-        return value & mask;
+    /* Reads exactly `len` bytes from the backing source, or throws if EOF is reached first. */
+    private void readFully(byte[] b, int off, int len) {
+        int n = 0;
+        try {
+            while (n < len) {
+                int count = inputStream.read(b, off + n, len - n);
+                if (count < 0) {
+                    break;
+                }
+                n += count;
+            }
+        } catch (IOException e) {
+            throw new GuidanceException(e);
+        }
+        totalBytesRead += n;
+
+        // If EOF was reached, throw an exception
+        if (n != len) {
+            String message = String.format("EOF reached; total bytes read = %d, " +
+                            "last read got %d of %d bytes",
+                    totalBytesRead, n, len);
+            throw new IllegalStateException(new EOFException(message));
+        }
+    }
 
+    /* Packs `len` (up to 4) bytes as a little-endian integer. */
+    private static int littleEndian(byte[] b, int off, int len) {
+        int value = 0;
+        for (int i = len - 1; i >= 0; i--) {
+            value = (value << 8) | (b[off + i] & 0xFF);
+        }
+        return value;
     }
 
     @Override
@@ -0,0 +1,197 @@
+/*
+ * Copyright (c) 2017-2018 The Regents of the University of California
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.berkeley.cs.jqf.fuzz.junit;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.util.List;
+
+import edu.berkeley.cs.jqf.fuzz.Fuzz;
+import org.junit.After;
+import org.junit.AssumptionViolatedException;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.runners.BlockJUnit4ClassRunner;
+import org.junit.runners.model.FrameworkMethod;
+import org.junit.runners.model.InitializationError;
+import org.junit.runners.model.TestClass;
+
+/**
+ * Runs many trials of a fuzz test on the same test instance.
+ *
+ * <p>Unlike {@link TrialRunner}, which creates a new runner, a new test
+ * instance and runs all <code>@Before</code> and <code>@After</code>
+ * methods for every trial, this runner validates the test class once,
+ * and then keeps a fixture (a test instance on which the
+ * <code>@Before</code> methods have run) across trials. The fuzz method
+ * is invoked through a cached {@link MethodHandle}.</p>
+ *
+ * <p>The fixture is torn down by running its <code>@After</code> methods,
+ * and a new one is set up before the next trial, after every
+ * <code>recyclePeriod</code> trials (if positive), and after any trial
+ * that throws something other than an assumption violation, as such a
+ * trial may have left the fixture in an inconsistent state.</p>
+ *
+ * <p>Test classes with <code>@Rule</code>s are not supported, since
+ * rules wrap the execution of each individual test.</p>
+ */
+public class PersistentTrialRunner extends BlockJUnit4ClassRunner {
+    private final MethodHandle invoker;
+    private final int recyclePeriod;
+
+    private Object fixture;
+    private int trialsOnFixture;
+
+    /**
+     * Creates a runner for a fuzz method.
+     *
+     * @param testClass     the test class
+     * @param method        the fuzz method to run
+     * @param recyclePeriod the number of trials after which the fixture is
+     *                      set up anew, or 0 to keep it until an error
+     * @throws InitializationError if the test class is not valid
+     */
+    public PersistentTrialRunner(Class<?> testClass, FrameworkMethod method, int recyclePeriod) throws InitializationError {
+        super(testClass);
+        if (!supports(getTestClass())) {
+            throw new InitializationError("Persistent fixtures cannot be used with @Rule");
+        }
+        this.recyclePeriod = recyclePeriod;
+        Method m = method.getMethod();
+        MethodHandle handle;
+        try {
+            handle = MethodHandles.publicLookup().unreflect(m);
+        } catch (IllegalAccessException e) {
+            try {
+                m.setAccessible(true);
+                handle = MethodHandles.lookup().unreflect(m);
+            } catch (RuntimeException | IllegalAccessException e2) {
+                throw new InitializationError(e2);
+            }
+        }
+        this.invoker = handle.asSpreader(Object[].class, m.getParameterCount())
+                .asType(MethodType.methodType(void.class, Object.class, Object[].class));
+    }
+
+    /**
+     * Returns whether a test class can be run with persistent fixtures.
+     *
+     * @param testClass the test class
+     * @return whether the test class has no rules
+     */
+    public static boolean supports(TestClass testClass) {
+        return testClass.getAnnotatedFields(Rule.class).isEmpty() &&
+                testClass.getAnnotatedMethods(Rule.class).isEmpty();
+    }
+
+    @Override protected List<FrameworkMethod> computeTestMethods() {
+        return getTestClass().getAnnotatedMethods(Fuzz.class);
+    }
+
+    /**
+     * Runs a single trial of the fuzz method.
+     *
+     * @param args the arguments to the fuzz method
+     * @throws Throwable any exception thrown by the fixture or the trial
+     */
+    public void run(Object[] args) throws Throwable {
+        if (fixture != null && recyclePeriod > 0 && trialsOnFixture >= recyclePeriod) {
+            close();
+        }
+        if (fixture == null) {
+            setUp();
+        }
+        trialsOnFixture++;
+        try {
+            invoker.invokeExact(fixture, args);
+        } catch (AssumptionViolatedException e) {
+            throw e;
+        } catch (Throwable e) {
+            try {
+                close();
+            } catch (Throwable ignore) {
+                // Report the error of the trial instead
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Tears down the current fixture, if any.
+     *
+     * @throws Throwable any exception thrown by an <code>@After</code> method
+     */
+    public void close() throws Throwable {
+        Object test = fixture;
+        if (test == null) {
+            return;
+        }
+        fixture = null;
+        trialsOnFixture = 0;
+        runAfters(test);
+    }
+
+    /* Creates a new test instance and runs its @Before methods. */
+    private void setUp() throws Throwable {
+        Object test = createTest();
+        try {
+            for (FrameworkMethod before : getTestClass().getAnnotatedMethods(Before.class)) {
+                before.invokeExplosively(test);
+            }
+        } catch (Throwable e) {
+            // As in JUnit, @After methods run even if a @Before method fails
+            try {
+                runAfters(test);
+            } catch (Throwable ignore) {
+                // Report the error of the @Before method instead
+            }
+            throw e;
+        }
+        fixture = test;
+    }
+
+    /* Runs all @After methods, and then throws the first error if any. */
+    private void runAfters(Object test) throws Throwable {
+        Throwable error = null;
+        for (FrameworkMethod after : getTestClass().getAnnotatedMethods(After.class)) {
+            try {
+                after.invokeExplosively(test);
+            } catch (Throwable e) {
+                if (error == null) {
+                    error = e;
+                }
+            }
+        }
+        if (error != null) {
+            throw error;
+        }
+    }
+}
@@ -33,7 +33,9 @@ import java.io.EOFException;
 import java.lang.reflect.Parameter;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.stream.Collectors;
 
 import com.pholser.junit.quickcheck.generator.GenerationStatus;
@@ -46,10 +48,14 @@ import edu.berkeley.cs.jqf.fuzz.guidance.GuidanceException;
 import edu.berkeley.cs.jqf.fuzz.guidance.TimeoutException;
 import edu.berkeley.cs.jqf.fuzz.guidance.Result;
 import edu.berkeley.cs.jqf.fuzz.guidance.StreamBackedRandom;
-import edu.berkeley.cs.jqf.fuzz.junit.TrialRunner;
+import edu.berkeley.cs.jqf.fuzz.junit.PersistentTrialRunner;
 import edu.berkeley.cs.jqf.instrument.InstrumentationException;
+import edu.berkeley.cs.jqf.instrument.tracing.FullTracing;
+import edu.berkeley.cs.jqf.instrument.tracing.TraceLogger;
+import edu.berkeley.cs.jqf.instrument.tracing.SingleSnoop;
 import org.junit.AssumptionViolatedException;
 import org.junit.runners.model.FrameworkMethod;
+import org.junit.runners.model.InitializationError;
 import org.junit.runners.model.MultipleFailureException;
 import org.junit.runners.model.Statement;
 import org.junit.runners.model.TestClass;
@@ -71,9 +77,12 @@ public class FuzzStatement extends Statement {
     private final MethodGenericsContext generics;
     private final GeneratorRepository generatorRepository;
     private final List<Class<?>> expectedExceptions;
-    private final List<Throwable> failures = new ArrayList<>();
+    private final List<Throwable> failures = Collections.synchronizedList(new ArrayList<>());
     private final Guidance guidance;
     private boolean skipExceptionSwallow;
+    private final boolean persistentFixture;
+    private final int fixtureRecyclePeriod;
+    private volatile boolean stopped = false;
 
     public FuzzStatement(FrameworkMethod method, TestClass testClass,
                          GeneratorRepository generatorRepository, Guidance fuzzGuidance) {
@@ -85,6 +94,25 @@ public class FuzzStatement extends Statement {
         this.expectedExceptions = Arrays.asList(method.getMethod().getExceptionTypes());
         this.guidance = fuzzGuidance;
         this.skipExceptionSwallow = Boolean.getBoolean("jqf.failOnDeclaredExceptions");
+        this.fixtureRecyclePeriod = Integer.getInteger("jqf.fixtureRecyclePeriod", 0);
+
+        boolean persistentFixture = Boolean.getBoolean("jqf.persistentFixture");
+        if (persistentFixture && !(usesDefaultRun(fuzzGuidance) && PersistentTrialRunner.supports(testClass))) {
+            System.err.println("Warning: Persistent fixtures cannot be used with this guidance or test class");
+            persistentFixture = false;
+        }
+        this.persistentFixture = persistentFixture;
+    }
+
+    /* Returns whether a guidance runs trials with the default TrialRunner. */
+    private static boolean usesDefaultRun(Guidance guidance) {
+        try {
+            return guidance.getClass()
+                    .getMethod("run", TestClass.class, FrameworkMethod.class, Object[].class)
+                    .getDeclaringClass() == Guidance.class;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
     }
 
     /**
@@ -94,110 +122,231 @@ public class FuzzStatement extends Statement {
      */
     @Override
     public void evaluate() throws Throwable {
-        // Construct generators for each parameter
-        List<Generator<?>> generators = Arrays.stream(method.getMethod().getParameters())
+        int numWorkers = guidance.getNumWorkers();
+
+        // Keep fuzzing until no more input or I/O error with guidance
+        try {
+            if (numWorkers > 1) {
+                fuzzInParallel(numWorkers);
+            } else {
+                fuzz(createGenerators());
+            }
+        } catch (GuidanceException e) {
+            System.err.println("Fuzzing stopped due to guidance exception: " + e.getMessage());
+            throw e;
+        }
+
+        if (failures.size() > 0) {
+            if (failures.size() == 1) {
+                throw failures.get(0);
+            } else {
+                // Not sure if we should report each failing run,
+                // as there may be duplicates
+                throw new MultipleFailureException(failures);
+            }
+        }
+
+    }
+
+    /**
+     * Constructs generators for each parameter of the test method.
+     *
+     * @return a list of generators, one for each parameter
+     */
+    private List<Generator<?>> createGenerators() {
+        return Arrays.stream(method.getMethod().getParameters())
                 .map(this::createParameterTypeContext)
                 .map(generatorRepository::produceGenerator)
                 .collect(Collectors.toList());
+    }
+
+    /**
+     * Runs the fuzzing loop in several worker threads at once.
+     *
+     * <p>Each worker gets its own set of generators and is traced
+     * as if it were the thread that started fuzzing. If any worker
+     * stops due to an error, then all other workers stop after
+     * their current trial.</p>
+     *
+     * @param numWorkers the number of worker threads to run
+     * @throws Throwable the first error that stopped a worker
+     */
+    private void fuzzInParallel(int numWorkers) throws Throwable {
+        String entryPoint = testClass.getName() + "#" + method.getName();
+        AtomicReference<Throwable> workerError = new AtomicReference<>();
+        List<Thread> workers = new ArrayList<>(numWorkers);
+        for (int i = 0; i < numWorkers; i++) {
+            List<Generator<?>> generators = createGenerators();
+            Thread worker = new Thread(() -> {
+                try {
+                    fuzz(generators);
+                } catch (Throwable e) {
+                    workerError.compareAndSet(null, e);
+                    stopped = true;
+                }
+            }, "jqf-worker-" + i);
+            SingleSnoop.startSnooping(worker, entryPoint);
+            workers.add(worker);
+        }
+
+        for (Thread worker : workers) {
+            worker.start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+
+        if (workerError.get() != null) {
+            throw workerError.get();
+        }
+    }
+
+    /**
+     * Runs the fuzzing loop in the current thread.
+     *
+     * @param generators the generators for each parameter
+     * @throws GuidanceException if fuzzing was stopped by the guidance
+     */
+    private void fuzz(List<Generator<?>> generators) throws GuidanceException {
+        PersistentTrialRunner fixture = null;
+        if (persistentFixture) {
+            try {
+                fixture = new PersistentTrialRunner(testClass.getJavaClass(), method, fixtureRecyclePeriod);
+            } catch (InitializationError e) {
+                throw new GuidanceException(e);
+            }
+        }
 
-        // Keep fuzzing until no more input or I/O error with guidance
         try {
+            fuzz(generators, fixture);
+        } finally {
+            if (fixture != null) {
+                try {
+                    fixture.close();
+                } catch (Throwable e) {
+                    failures.add(e);
+                }
+            }
+        }
+    }
 
-            // Keep fuzzing as long as guidance wants to
-            while (guidance.hasInput()) {
-                Result result = INVALID;
-                Throwable error = null;
+    /**
+     * Runs the fuzzing loop in the current thread.
+     *
+     * @param generators the generators for each parameter
+     * @param fixture    the runner to use for each trial, or <code>null</code>
+     *                   to let the guidance run trials
+     * @throws GuidanceException if fuzzing was stopped by the guidance
+     */
+    private void fuzz(List<Generator<?>> generators, PersistentTrialRunner fixture) throws GuidanceException {
+        // Keep fuzzing as long as guidance wants to
+        while (!stopped && guidance.hasInput()) {
+            Result result = INVALID;
+            Throwable error = null;
 
-                // Initialize guided fuzzing using a file-backed random number source
+            // Trace events of set-up code or of discarded inputs must not count towards this trial
+            awaitTraceCallbacks();
+
+            // Initialize guided fuzzing using a file-backed random number source
+            try {
+                Object[] args;
                 try {
-                    Object[] args;
-                    try {
-
-                        // Generate input values
-                        StreamBackedRandom randomFile = new StreamBackedRandom(guidance.getInput(), Long.BYTES);
-                        SourceOfRandomness random = new FastSourceOfRandomness(randomFile);
-                        GenerationStatus genStatus = new NonTrackingGenerationStatus(random);
-                        args = generators.stream()
-                                .map(g -> g.generate(random, genStatus))
-                                .toArray();
-
-                        // Let guidance observe the generated input args
-                        guidance.observeGeneratedArgs(args);
-                    } catch (IllegalStateException e) {
-                        if (e.getCause() instanceof EOFException) {
-                            // This happens when we reach EOF before reading all the random values.
-                            // The only thing we can do is try again
-                            continue;
-                        } else {
-                            throw e;
-                        }
-                    } catch (AssumptionViolatedException | TimeoutException e) {
-                        // Propagate early termination of tests from generator
+
+                    // Generate input values
+                    StreamBackedRandom randomFile = new StreamBackedRandom(guidance.getInput(), Long.BYTES);
+                    FullTracing.setEnabled(guidance.isFullTracingNeeded());
+                    SourceOfRandomness random = new FastSourceOfRandomness(randomFile);
+                    GenerationStatus genStatus = new NonTrackingGenerationStatus(random);
+                    args = generators.stream()
+                            .map(g -> g.generate(random, genStatus))
+                            .toArray();
+
+                    // Let guidance observe the generated input args
+                    guidance.observeGeneratedArgs(args);
+                } catch (IllegalStateException e) {
+                    if (e.getCause() instanceof EOFException) {
+                        // This happens when we reach EOF before reading all the random values.
+                        // The only thing we can do is try again
                         continue;
-                    } catch (GuidanceException e) {
-                        // Throw the guidance exception outside to stop fuzzing
+                    } else {
                         throw e;
-                    } catch (Throwable e) {
-                        // Throw the guidance exception outside to stop fuzzing
-                        throw new GuidanceException(e);
                     }
-
-                    // Attempt to run the trial
-                    guidance.run(testClass, method, args);
-
-                    // If we reached here, then the trial must be a success
-                    result = SUCCESS;
-                } catch(InstrumentationException e) {
-                    // Throw a guidance exception outside to stop fuzzing
-                    throw new GuidanceException(e);
+                } catch (AssumptionViolatedException | TimeoutException e) {
+                    // Propagate early termination of tests from generator
+                    continue;
                 } catch (GuidanceException e) {
                     // Throw the guidance exception outside to stop fuzzing
                     throw e;
-                } catch (AssumptionViolatedException e) {
-                    result = INVALID;
-                    error = e;
-                } catch (TimeoutException e) {
-                    result = TIMEOUT;
-                    error = e;
                 } catch (Throwable e) {
-
-                    // Check if this exception was expected
-                    if (isExceptionExpected(e.getClass())) {
-                        result = SUCCESS; // Swallow the error
-                    } else {
-                        result = FAILURE;
-                        error = e;
-                        failures.add(e);
-                    }
+                    // Throw the guidance exception outside to stop fuzzing
+                    throw new GuidanceException(e);
                 }
 
-                // Inform guidance about the outcome of this trial
-                try {
-                    guidance.handleResult(result, error);
-                } catch (GuidanceException e) {
-                    throw e; // Propagate
-                } catch (Throwable e) {
-                    // Anything else thrown from handleResult is an internal error, so wrap
-                    throw new GuidanceException(e);
+                // Attempt to run the trial
+                if (fixture != null) {
+                    fixture.run(args);
+                } else {
+                    guidance.run(testClass, method, args);
                 }
 
+                // Wait for the guidance to handle the trace events of this trial, if traced asynchronously
+                TraceLogger.get().awaitCallbacks();
 
+                // If we reached here, then the trial must be a success
+                result = SUCCESS;
+            } catch(InstrumentationException e) {
+                // Throw a guidance exception outside to stop fuzzing
+                throw new GuidanceException(e);
+            } catch (GuidanceException e) {
+                // Throw the guidance exception outside to stop fuzzing
+                throw e;
+            } catch (AssumptionViolatedException e) {
+                result = INVALID;
+                error = e;
+            } catch (TimeoutException e) {
+                result = TIMEOUT;
+                error = e;
+            } catch (Throwable e) {
+
+                // Check if this exception was expected
+                if (isExceptionExpected(e.getClass())) {
+                    result = SUCCESS; // Swallow the error
+                } else {
+                    result = FAILURE;
+                    error = e;
+                    failures.add(e);
+                }
             }
-        } catch (GuidanceException e) {
-            System.err.println("Fuzzing stopped due to guidance exception: " + e.getMessage());
-            throw e;
-        }
 
-        if (failures.size() > 0) {
-            if (failures.size() == 1) {
-                throw failures.get(0);
-            } else {
-                // Not sure if we should report each failing run,
-                // as there may be duplicates
-                throw new MultipleFailureException(failures);
+            // The trial may have ended before its trace events were handled
+            awaitTraceCallbacks();
+
+            // Inform guidance about the outcome of this trial
+            try {
+                guidance.handleResult(result, error);
+            } catch (GuidanceException e) {
+                throw e; // Propagate
+            } catch (Throwable e) {
+                // Anything else thrown from handleResult is an internal error, so wrap
+                throw new GuidanceException(e);
             }
+
+
         }
+    }
 
+    /**
+     * Waits for the guidance to handle the trace events emitted so far,
+     * if they are traced asynchronously. Exceptions thrown by the guidance's
+     * callback are dropped, since they would only have aborted the code
+     * that emitted the events.
+     */
+    private static void awaitTraceCallbacks() {
+        try {
+            TraceLogger.get().awaitCallbacks();
+        } catch (RuntimeException e) {
+            // The code that emitted the events has already finished
+        }
     }
 
     /**
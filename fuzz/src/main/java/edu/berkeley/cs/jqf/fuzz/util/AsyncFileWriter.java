@@ -0,0 +1,275 @@
+/*
+ * Copyright (c) 2017-2018 The Regents of the University of California
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.berkeley.cs.jqf.fuzz.util;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+
+import edu.berkeley.cs.jqf.fuzz.guidance.GuidanceException;
+
+/**
+ * Writes fuzzing results to disk on a background thread.
+ *
+ * <p>Requests are placed on a bounded queue, so that callers only
+ * block if the writer falls far behind. The writer thread handles
+ * requests in batches: files that are appended to (such as logs)
+ * are kept open and are flushed once per batch, and if a file is
+ * overwritten several times before the writer gets to it, only its
+ * latest contents are written.</p>
+ *
+ * <p>Pending writes are flushed by {@link #flush()}, by {@link #close()},
+ * and when the JVM shuts down. An error on the writer thread is reported
+ * as a {@link GuidanceException} by the next request.</p>
+ */
+public class AsyncFileWriter implements Closeable {
+
+    /** Maximum number of pending requests. */
+    protected static final int QUEUE_CAPACITY = 1024;
+
+    private final BlockingQueue<ThrowingRunnable> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+
+    /** Latest contents of files to be overwritten, which are yet to be written. */
+    private final Map<File, byte[]> pendingContents = new ConcurrentHashMap<>();
+
+    /** Open streams of files being appended to; guarded by its own lock. */
+    private final Map<File, OutputStream> appenders = new HashMap<>();
+
+    private Thread thread;
+    private Thread shutdownHook;
+    private volatile boolean closed = false;
+    private volatile Throwable error;
+
+    /**
+     * Appends a line of text to a file.
+     *
+     * @param file the file to append to
+     * @param line the line to append
+     * @throws GuidanceException if a previous write had failed
+     */
+    public void appendLine(File file, String line) throws GuidanceException {
+        byte[] bytes = (line + System.lineSeparator()).getBytes(StandardCharsets.UTF_8);
+        submit(() -> appender(file).write(bytes));
+    }
+
+    /**
+     * Replaces the contents of a file.
+     *
+     * <p>The array must not be modified after it is passed to this method.</p>
+     *
+     * @param file     the file to write
+     * @param contents the new contents of the file
+     * @throws GuidanceException if a previous write had failed
+     */
+    public void write(File file, byte[] contents) throws GuidanceException {
+        // Only enqueue a write if none is already pending for this file
+        if (pendingContents.put(file, contents) == null) {
+            submit(() -> {
+                byte[] latest = pendingContents.remove(file);
+                try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file))) {
+                    out.write(latest);
+                }
+            });
+        }
+    }
+
+    /**
+     * Blocks until all previously requested writes are done.
+     *
+     * @throws GuidanceException if a write had failed or if interrupted
+     */
+    public void flush() throws GuidanceException {
+        CountDownLatch done = new CountDownLatch(1);
+        submit(done::countDown);
+        try {
+            done.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new GuidanceException(e);
+        }
+        checkError();
+    }
+
+    /**
+     * Writes all pending requests and closes any open files.
+     *
+     * <p>Any further requests are performed synchronously
+     * by the calling thread, and do not keep files open.</p>
+     */
+    @Override
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        if (thread != null) {
+            flush();
+            closed = true;
+            thread.interrupt();
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            if (shutdownHook != null && Thread.currentThread() != shutdownHook) {
+                try {
+                    Runtime.getRuntime().removeShutdownHook(shutdownHook);
+                } catch (IllegalStateException ignore) {
+                    // Already shutting down
+                }
+            }
+        }
+        closed = true;
+        synchronized (appenders) {
+            GuidanceException.wrap(this::closeAppenders);
+        }
+    }
+
+    private void submit(ThrowingRunnable task) throws GuidanceException {
+        checkError();
+        if (closed) {
+            // Nothing would close a file that is kept open from now on
+            synchronized (appenders) {
+                try {
+                    GuidanceException.wrap(task);
+                } finally {
+                    GuidanceException.wrap(this::closeAppenders);
+                }
+            }
+            return;
+        }
+        ensureStarted();
+        try {
+            queue.put(task);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new GuidanceException(e);
+        }
+        // The writer thread may have stopped in the meantime
+        if (closed) {
+            List<ThrowingRunnable> batch = new ArrayList<>();
+            queue.drainTo(batch);
+            runBatch(batch);
+            synchronized (appenders) {
+                GuidanceException.wrap(this::closeAppenders);
+            }
+            checkError();
+        }
+    }
+
+    private void checkError() throws GuidanceException {
+        if (error != null) {
+            throw new GuidanceException(error);
+        }
+    }
+
+    private synchronized void ensureStarted() {
+        if (thread == null) {
+            thread = new Thread(this::drain, "jqf-file-writer");
+            thread.setDaemon(true);
+            thread.start();
+            shutdownHook = new Thread(this::close, "jqf-file-writer-shutdown");
+            Runtime.getRuntime().addShutdownHook(shutdownHook);
+        }
+    }
+
+    /* Main loop of the writer thread. */
+    private void drain() {
+        List<ThrowingRunnable> batch = new ArrayList<>();
+        while (!closed || !queue.isEmpty()) {
+            try {
+                batch.add(queue.take());
+            } catch (InterruptedException e) {
+                if (closed) {
+                    queue.drainTo(batch);
+                } else {
+                    continue;
+                }
+            }
+            queue.drainTo(batch);
+            runBatch(batch);
+            batch.clear();
+        }
+    }
+
+    /* Performs a batch of requests and flushes all appended data. */
+    private void runBatch(List<ThrowingRunnable> batch) {
+        synchronized (appenders) {
+            for (ThrowingRunnable task : batch) {
+                try {
+                    task.run();
+                } catch (Throwable t) {
+                    if (error == null) {
+                        error = t;
+                    }
+                }
+            }
+            try {
+                flushAppenders();
+            } catch (IOException e) {
+                if (error == null) {
+                    error = e;
+                }
+            }
+        }
+    }
+
+    private OutputStream appender(File file) throws IOException {
+        OutputStream out = appenders.get(file);
+        if (out == null) {
+            out = new BufferedOutputStream(new FileOutputStream(file, true));
+            appenders.put(file, out);
+        }
+        return out;
+    }
+
+    private void flushAppenders() throws IOException {
+        for (OutputStream out : appenders.values()) {
+            out.flush();
+        }
+    }
+
+    private void closeAppenders() throws IOException {
+        for (OutputStream out : appenders.values()) {
+            out.close();
+        }
+        appenders.clear();
+    }
+}
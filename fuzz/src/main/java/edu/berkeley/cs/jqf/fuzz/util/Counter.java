@@ -126,6 +126,22 @@ public class Counter {
     }
 
 
+    /**
+     * Increments the count at the given key pair by a given delta.
+     *
+     * <p>Note that the key pair is hashed and therefore the count
+     * to increment may be shared with another key pair that hashes
+     * to the same value. </p>
+     *
+     * @param k1 the key (part 1) whose count to increment
+     * @param k2 the key (part 2) whose count to increment
+     * @param delta the amount to increment by
+     * @return the new value after incrementing the count
+     */
+    public int increment1(int k1, int k2, int delta) {
+        return incrementAtIndex(idx1(k1, k2), delta);
+    }
+
     /**
      *
      * Increments the count at the given key by a given delta.
@@ -33,6 +33,7 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.stream.Collectors;
 
+import edu.berkeley.cs.jqf.instrument.tracing.PrimitiveTraceListener;
 import edu.berkeley.cs.jqf.instrument.tracing.events.BranchEvent;
 import edu.berkeley.cs.jqf.instrument.tracing.events.CallEvent;
 import edu.berkeley.cs.jqf.instrument.tracing.events.TraceEvent;
@@ -46,7 +47,7 @@ import org.eclipse.collections.impl.list.mutable.primitive.IntArrayList;
  *
  * @author Rohan Padhye
  */
-public class Coverage implements TraceEventVisitor, ICoverage<Counter> {
+public class Coverage implements TraceEventVisitor, PrimitiveTraceListener, ICoverage<Counter> {
 
     /** The size of the coverage map. */
     private final int COVERAGE_MAP_SIZE = (1 << 16) - 1; // Minus one to reduce collisions
@@ -65,7 +66,9 @@ public class Coverage implements TraceEventVisitor, ICoverage<Counter> {
      */
     public Coverage copy() {
         Coverage ret = new Coverage();
-        for (int idx = 0; idx < COVERAGE_MAP_SIZE; idx++) {
+        IntIterator iter = this.counter.getNonZeroIndices().intIterator();
+        while (iter.hasNext()) {
+            int idx = iter.next();
             ret.counter.setAtIndex(idx, this.counter.getAtIndex(idx));
         }
         return ret;
@@ -95,12 +98,22 @@ public class Coverage implements TraceEventVisitor, ICoverage<Counter> {
 
     @Override
     public void visitBranchEvent(BranchEvent b) {
-        counter.increment1(b.getIid(), b.getArm());
+        onBranch(b.getIid(), b.getArm());
     }
 
     @Override
     public void visitCallEvent(CallEvent e) {
-        counter.increment(e.getIid());
+        onCall(e.getIid());
+    }
+
+    @Override
+    public void onBranch(int iid, int arm) {
+        counter.increment1(iid, arm);
+    }
+
+    @Override
+    public void onCall(int iid) {
+        counter.increment(iid);
     }
 
     /**
@@ -137,7 +150,7 @@ public class Coverage implements TraceEventVisitor, ICoverage<Counter> {
         IntIterator iter = baseNonZero.intIterator();
         while (iter.hasNext()) {
             int idx = iter.next();
-            if (baseline.getCounter().getAtIndex(idx) == 0) {
+            if (baseline.getCount(idx) == 0) {
                 newCoverage.add(idx);
             }
         }
@@ -188,6 +201,13 @@ public class Coverage implements TraceEventVisitor, ICoverage<Counter> {
     /**
      * Updates this coverage with bits from the parameter.
      *
+     * <p>Each entry of a cumulative coverage map holds the bitwise-OR
+     * of the count buckets (i.e., highest-order bits) seen at that index,
+     * much like AFL's virgin bits. Only the non-zero entries of
+     * <code>that</code> can change this map, so the cost of an update is
+     * proportional to the number of edges covered by <code>that</code>
+     * rather than to the size of the map.</p>
+     *
      * @param that the run coverage whose bits to OR
      *
      * @return <code>true</code> iff <code>that</code> is not a subset
@@ -196,14 +216,14 @@ public class Coverage implements TraceEventVisitor, ICoverage<Counter> {
     @Override
     public boolean updateBits(ICoverage that) {
         boolean changed = false;
-        if (that.getCounter().hasNonZeros()) {
-            for (int idx = 0; idx < COVERAGE_MAP_SIZE; idx++) {
-                int before = this.counter.getAtIndex(idx);
-                int after = before | hob(that.getCounter().getAtIndex(idx));
-                if (after != before) {
-                    this.counter.setAtIndex(idx, after);
-                    changed = true;
-                }
+        IntIterator iter = that.getCovered().intIterator();
+        while (iter.hasNext()) {
+            int idx = iter.next();
+            int before = this.counter.getAtIndex(idx);
+            int after = before | hob(that.getCount(idx));
+            if (after != before) {
+                this.counter.setAtIndex(idx, after);
+                changed = true;
             }
         }
         return changed;
@@ -244,6 +264,16 @@ public class Coverage implements TraceEventVisitor, ICoverage<Counter> {
         return sb.toString();
     }
 
+    @Override
+    public int getCount(int key) {
+        return counter.getAtIndex(key);
+    }
+
+    @Override
+    public void setCount(int key, int count) {
+        counter.setAtIndex(key, count);
+    }
+
     @Override
     public Counter getCounter() {
         return counter;
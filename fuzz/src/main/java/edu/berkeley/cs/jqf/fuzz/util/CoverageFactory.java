@@ -14,6 +14,12 @@ public class CoverageFactory {
     public static final String propFile = System.getProperty("janala.conf", "janala.conf");
 
     private static boolean FAST_NON_COLLIDING_COVERAGE_ENABLED;
+
+    // What to count with fast coverage: "branch" (default), "edge" or "ngram"
+    private static String FAST_COVERAGE_METRIC;
+
+    // The length of the n-grams counted by the "ngram" metric
+    private static int NGRAM_LENGTH;
     static
     {
         Properties properties = new Properties();
@@ -25,16 +31,45 @@ public class CoverageFactory {
         }
         properties.putAll(System.getProperties());
         FAST_NON_COLLIDING_COVERAGE_ENABLED = Boolean.parseBoolean(properties.getProperty("useFastNonCollidingCoverageInstrumentation", "false"));
+        FAST_COVERAGE_METRIC = properties.getProperty("jqf.coverage.metric", "branch");
+        NGRAM_LENGTH = Integer.parseInt(properties.getProperty("jqf.coverage.ngramLength", "4"));
     }
 
     public static ICoverage newInstance() {
         if (FAST_NON_COLLIDING_COVERAGE_ENABLED) {
-            return new FastNonCollidingCoverage();
+            return newFastCoverage(FAST_COVERAGE_METRIC, NGRAM_LENGTH);
         } else {
             return new Coverage();
         }
     }
 
+    /**
+     * Creates a coverage map for fast instrumentation.
+     *
+     * @param metric what to count: "branch" for each probe,
+     *               "edge" for each pair of consecutive probes, or
+     *               "ngram" for each sequence of <code>ngramLength</code>
+     *               consecutive probes
+     * @param ngramLength the length of n-grams, if <code>metric</code>
+     *                    is "ngram"
+     * @return a new coverage map
+     */
+    public static FastNonCollidingCoverage newFastCoverage(String metric, int ngramLength) {
+        switch (metric) {
+            case "branch":
+                return new FastNonCollidingCoverage();
+            case "edge":
+                return new FastEdgeCoverage(1);
+            case "ngram":
+                if (ngramLength < 2) {
+                    throw new IllegalArgumentException("Invalid n-gram length: " + ngramLength);
+                }
+                return new FastEdgeCoverage(ngramLength - 1);
+            default:
+                throw new IllegalArgumentException("Invalid coverage metric: " + metric);
+        }
+    }
+
     public static AbstractExecutionIndexingState newEIState() {
         if (FAST_NON_COLLIDING_COVERAGE_ENABLED) {
             return new FastExecutionIndexingState();
@@ -0,0 +1,135 @@
+/*
+ * Copyright (c) 2017-2018 The Regents of the University of California
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.berkeley.cs.jqf.fuzz.util;
+
+import edu.berkeley.cs.jqf.instrument.tracing.PrimitiveTraceListener;
+import edu.berkeley.cs.jqf.instrument.tracing.events.BranchEvent;
+import edu.berkeley.cs.jqf.instrument.tracing.events.CallEvent;
+import edu.berkeley.cs.jqf.instrument.tracing.events.TraceEvent;
+import edu.berkeley.cs.jqf.instrument.tracing.events.TraceEventVisitor;
+import org.eclipse.collections.impl.map.mutable.primitive.IntIntHashMap;
+import org.eclipse.collections.impl.map.mutable.primitive.LongIntHashMap;
+
+/**
+ * Counts the branch and call events of one thread, to be added to a
+ * shared {@link Coverage} map later on.
+ *
+ * <p>This lets threads other than the one running a trial collect
+ * coverage without contending for a lock on the shared map. Unlike
+ * a {@link Coverage} map, a shard only takes up space for the events
+ * that it has seen, since such threads are often short-lived.</p>
+ *
+ * <p>A shard is not thread-safe; callers must synchronize on it if
+ * it may be merged while its thread is still running.</p>
+ */
+public class CoverageShard implements TraceEventVisitor, PrimitiveTraceListener {
+
+    private final Thread owner;
+    private final LongIntHashMap branches = new LongIntHashMap();
+    private final IntIntHashMap calls = new IntIntHashMap();
+
+    /**
+     * Creates an empty shard.
+     *
+     * @param owner the thread whose events are counted
+     */
+    public CoverageShard(Thread owner) {
+        this.owner = owner;
+    }
+
+    /**
+     * Returns the thread whose events are counted.
+     *
+     * @return the thread that owns this shard
+     */
+    public Thread getOwner() {
+        return owner;
+    }
+
+    /**
+     * Updates the counts based on an emitted event.
+     *
+     * @param e the event to be processed
+     */
+    public void handleEvent(TraceEvent e) {
+        e.applyVisitor(this);
+    }
+
+    @Override
+    public void visitBranchEvent(BranchEvent b) {
+        onBranch(b.getIid(), b.getArm());
+    }
+
+    @Override
+    public void visitCallEvent(CallEvent e) {
+        onCall(e.getIid());
+    }
+
+    @Override
+    public void onBranch(int iid, int arm) {
+        branches.addToValue(((long) iid << 32) | (arm & 0xFFFFFFFFL), 1);
+    }
+
+    @Override
+    public void onCall(int iid) {
+        calls.addToValue(iid, 1);
+    }
+
+    /**
+     * Returns whether any events have been counted since the shard
+     * was last cleared.
+     *
+     * @return whether the shard is empty
+     */
+    public boolean isEmpty() {
+        return branches.isEmpty() && calls.isEmpty();
+    }
+
+    /**
+     * Adds the counts to a coverage map, as if its
+     * {@link Coverage#onBranch(int, int)} and {@link Coverage#onCall(int)}
+     * had been called for each event instead, and clears them.
+     *
+     * @param target the coverage map to update
+     */
+    public void mergeInto(Coverage target) {
+        Counter counter = target.getCounter();
+        branches.forEachKeyValue((key, count) -> counter.increment1((int) (key >>> 32), (int) key, count));
+        calls.forEachKeyValue(counter::increment);
+        clear();
+    }
+
+    /**
+     * Clears the counts.
+     */
+    public void clear() {
+        branches.clear();
+        calls.clear();
+    }
+}
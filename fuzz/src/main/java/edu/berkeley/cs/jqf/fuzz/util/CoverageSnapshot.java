@@ -0,0 +1,187 @@
+/*
+ * Copyright (c) 2017-2018 The Regents of the University of California
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.berkeley.cs.jqf.fuzz.util;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.eclipse.collections.api.list.primitive.IntList;
+import org.eclipse.collections.impl.list.mutable.primitive.IntArrayList;
+
+/**
+ * An immutable, sparse copy of the coverage of a single run.
+ *
+ * <p>Only the covered keys are stored, in sorted order, together
+ * with their hit counts bucketed by highest-order bit (which is all
+ * that {@link ICoverage#updateBits(ICoverage)} looks at). The memory
+ * used by a snapshot is therefore proportional to the number of
+ * covered keys rather than to the size of the coverage map.</p>
+ *
+ * <p>Keys are the same as those returned by {@link ICoverage#getCovered()},
+ * so snapshots can be taken of any type of coverage.</p>
+ */
+public final class CoverageSnapshot {
+
+    /** The covered keys, in increasing order. */
+    private final int[] keys;
+
+    /** The bucket of the count for each key, i.e. 1 + log2(hob(count)). */
+    private final byte[] buckets;
+
+    private CoverageSnapshot(int[] keys, byte[] buckets) {
+        this.keys = keys;
+        this.buckets = buckets;
+    }
+
+    /**
+     * Takes a snapshot of a coverage map.
+     *
+     * @param coverage the coverage to copy
+     * @return a snapshot of the covered keys and their bucketed counts
+     */
+    public static CoverageSnapshot of(ICoverage coverage) {
+        int[] keys = coverage.getCovered().toArray();
+        Arrays.sort(keys);
+        byte[] buckets = new byte[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            buckets[i] = bucket(coverage.getCount(keys[i]));
+        }
+        return new CoverageSnapshot(keys, buckets);
+    }
+
+    /* Returns 1 + the position of the highest set bit of a non-zero count. */
+    private static byte bucket(int count) {
+        assert count != 0;
+        return (byte) (Integer.SIZE - Integer.numberOfLeadingZeros(count));
+    }
+
+    /**
+     * Returns the number of covered keys.
+     *
+     * @return the number of keys with non-zero counts
+     */
+    public int getNonZeroCount() {
+        return keys.length;
+    }
+
+    /**
+     * Returns the covered keys in increasing order.
+     *
+     * @return a list of keys with non-zero counts
+     */
+    public IntList getCovered() {
+        return IntArrayList.newListWith(keys);
+    }
+
+    /**
+     * Returns whether a key is covered.
+     *
+     * @param key a coverage key
+     * @return whether the key has a non-zero count
+     */
+    public boolean covers(int key) {
+        return Arrays.binarySearch(keys, key) >= 0;
+    }
+
+    /**
+     * Returns the bucketed count for a key.
+     *
+     * @param key a coverage key
+     * @return the highest-order bit of the count for the
+     *         key, or 0 if it is not covered
+     */
+    public int getCount(int key) {
+        int idx = Arrays.binarySearch(keys, key);
+        return idx >= 0 ? 1 << (buckets[idx] - 1) : 0;
+    }
+
+    /**
+     * Writes this snapshot to a binary stream.
+     *
+     * @param out the stream to write to
+     * @throws IOException if the stream could not be written
+     */
+    public void write(DataOutput out) throws IOException {
+        out.writeInt(keys.length);
+        for (int key : keys) {
+            out.writeInt(key);
+        }
+        out.write(buckets);
+    }
+
+    /**
+     * Reads a snapshot previously written by {@link #write(DataOutput)}.
+     *
+     * @param in the stream to read from
+     * @return the snapshot read from the stream
+     * @throws IOException if the stream could not be read
+     */
+    public static CoverageSnapshot read(DataInput in) throws IOException {
+        int size = in.readInt();
+        int[] keys = new int[size];
+        for (int i = 0; i < size; i++) {
+            keys[i] = in.readInt();
+        }
+        byte[] buckets = new byte[size];
+        in.readFully(buckets);
+        return new CoverageSnapshot(keys, buckets);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof CoverageSnapshot)) {
+            return false;
+        }
+        CoverageSnapshot that = (CoverageSnapshot) o;
+        return Arrays.equals(keys, that.keys) && Arrays.equals(buckets, that.buckets);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * Arrays.hashCode(keys) + Arrays.hashCode(buckets);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("Coverage snapshot: \n");
+        for (int i = 0; i < keys.length; i++) {
+            sb.append(keys[i]);
+            sb.append("->");
+            sb.append(1 << (buckets[i] - 1));
+            sb.append('\n');
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,165 @@
+/*
+ * Copyright (c) 2017-2018 The Regents of the University of California
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.berkeley.cs.jqf.fuzz.util;
+
+import java.util.Arrays;
+
+import org.eclipse.collections.impl.set.mutable.primitive.IntHashSet;
+
+/**
+ * Utility class to collect edge or n-gram coverage with fast
+ * instrumentation.
+ *
+ * <p>Instead of counting each probe (i.e. method entry or branch arm)
+ * that is hit, this coverage counts transitions between the probes hit
+ * by each thread, the way AFL does with its previous-location register.
+ * With a history length of 1, each key identifies a probe along with
+ * the probe hit just before it (an edge). With a longer history, each
+ * key identifies a probe along with that many probes hit before it
+ * (an n-gram of length <code>history + 1</code>).</p>
+ *
+ * <p>Keys are hashes, so unlike probe ids they may rarely collide.
+ * Each thread keeps its own history, which is reset when this
+ * coverage is cleared.</p>
+ */
+public class FastEdgeCoverage extends FastNonCollidingCoverage {
+
+    private final int historyLength;
+
+    /** Incremented when this coverage is cleared, to reset the histories. */
+    private volatile int epoch;
+
+    private final ThreadLocal<History> histories = ThreadLocal.withInitial(History::new);
+
+    // The history most recently used, which avoids a thread-local lookup
+    private History lastHistory;
+
+    /** The probes most recently hit by a thread. */
+    private final class History {
+        final Thread owner = Thread.currentThread();
+        final int[] locations = new int[historyLength];
+        int oldest = 0;
+        int epoch = FastEdgeCoverage.this.epoch;
+    }
+
+    /**
+     * Creates a new coverage map.
+     *
+     * @param historyLength the number of previous probes that each key
+     *                      depends on; 1 for edge coverage
+     */
+    public FastEdgeCoverage(int historyLength) {
+        if (historyLength < 1) {
+            throw new IllegalArgumentException("History length must be positive: " + historyLength);
+        }
+        this.historyLength = historyLength;
+    }
+
+    /**
+     * Returns the number of previous probes that each key depends on.
+     *
+     * @return the history length
+     */
+    public int getHistoryLength() {
+        return historyLength;
+    }
+
+    @Override
+    public FastEdgeCoverage copy() {
+        FastEdgeCoverage ret = new FastEdgeCoverage(historyLength);
+        ret.counter.copyFrom(this.counter);
+        return ret;
+    }
+
+    /**
+     * Clears the coverage map, along with the history of each thread.
+     */
+    @Override
+    public void clear() {
+        super.clear();
+        epoch++;
+    }
+
+    /**
+     * Does nothing, since keys are hashes of probe sequences rather
+     * than probe ids; with minimized probes, edges are between the
+     * probes that were emitted.
+     */
+    @Override
+    public void expandAliases() {
+    }
+
+    /** Does nothing, for the same reason as {@link #expandAliases()}. */
+    @Override
+    public void addAliases(IntHashSet keys) {
+    }
+
+    /** Does nothing, for the same reason as {@link #expandAliases()}. */
+    @Override
+    public void deriveProbes() {
+    }
+
+    private History history() {
+        History h = lastHistory;
+        if (h == null || h.owner != Thread.currentThread()) {
+            h = histories.get();
+            lastHistory = h;
+        }
+        int current = epoch;
+        if (h.epoch != current) {
+            Arrays.fill(h.locations, 0);
+            h.oldest = 0;
+            h.epoch = current;
+        }
+        return h;
+    }
+
+    @Override
+    protected void logCoverage(int iid, int arm) {
+        int location = iid + arm;
+        History h = history();
+        int[] locations = h.locations;
+
+        // Hash the history from oldest to newest, followed by this location
+        int key = 0;
+        int i = h.oldest;
+        do {
+            key = (key + locations[i]) * 0x9E3779B1;
+            i = (i + 1 == locations.length) ? 0 : i + 1;
+        } while (i != h.oldest);
+        key = (key + location) * 0x9E3779B1;
+        key ^= key >>> 16;
+
+        // This location replaces the oldest one
+        locations[h.oldest] = location;
+        h.oldest = (h.oldest + 1 == locations.length) ? 0 : h.oldest + 1;
+
+        counter.increment(key & Integer.MAX_VALUE);
+    }
+}
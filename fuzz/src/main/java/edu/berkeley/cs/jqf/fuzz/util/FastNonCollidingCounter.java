@@ -151,6 +151,20 @@ public class FastNonCollidingCounter extends Counter {
         return this.counts.get(key);
     }
 
+    /**
+     * Sets the value for a given key.
+     *
+     * @param key the key to update
+     * @param value the new count for the key
+     */
+    public synchronized void set(int key, int value) {
+        int oldValue = this.counts.get(key);
+        this.counts.put(key, value);
+        if (oldValue == 0 && value != 0) {
+            this.nonZeroKeys.add(key);
+        }
+    }
+
     public synchronized void copyFrom(FastNonCollidingCounter counter) {
         this.counts = new IntIntHashMap(counter.counts);
         this.nonZeroKeys = new IntArrayList(counter.nonZeroKeys.size());
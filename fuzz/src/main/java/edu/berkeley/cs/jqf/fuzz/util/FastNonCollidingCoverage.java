@@ -32,10 +32,12 @@ import edu.berkeley.cs.jqf.instrument.tracing.events.BranchEvent;
 import edu.berkeley.cs.jqf.instrument.tracing.events.CallEvent;
 import edu.berkeley.cs.jqf.instrument.tracing.events.TraceEvent;
 import janala.instrument.FastCoverageListener;
+import janala.instrument.ProbeAliases;
 import org.eclipse.collections.api.iterator.IntIterator;
 import org.eclipse.collections.api.list.primitive.IntList;
 import org.eclipse.collections.api.tuple.primitive.IntIntPair;
 import org.eclipse.collections.impl.list.mutable.primitive.IntArrayList;
+import org.eclipse.collections.impl.set.mutable.primitive.IntHashSet;
 
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -52,7 +54,7 @@ public class FastNonCollidingCoverage extends FastCoverageListener.Default imple
     /** The starting size of the coverage map. */
     private final int COVERAGE_MAP_SIZE = (1 << 8);
 
-    private final FastNonCollidingCounter counter = new FastNonCollidingCounter(COVERAGE_MAP_SIZE);
+    protected final FastNonCollidingCounter counter = new FastNonCollidingCounter(COVERAGE_MAP_SIZE);
 
     /** Creates a new coverage map. */
     public FastNonCollidingCoverage() {
@@ -188,6 +190,97 @@ public class FastNonCollidingCoverage extends FastCoverageListener.Default imple
         return changed;
     }
 
+    /**
+     * Copies the counts of probes that were emitted to the probes that
+     * were omitted because they always have the same count
+     * (see {@link ProbeAliases}).
+     *
+     * <p>Novelty can be decided from the emitted probes alone, so this
+     * only needs to be done when the full coverage is reported, e.g.
+     * when an input is saved.</p>
+     */
+    public void expandAliases() {
+        if (!ProbeAliases.hasAliases()) {
+            return;
+        }
+        synchronized (this.counter) {
+            IntList keys = this.counter.nonZeroKeys;
+            // Aliases are appended to the keys, but are never representatives themselves
+            for (int i = 0, n = keys.size(); i < n; i++) {
+                int key = keys.get(i);
+                int[] aliases = ProbeAliases.getAliases(key);
+                if (aliases == null) {
+                    continue;
+                }
+                int value = this.counter.counts.get(key);
+                for (int alias : aliases) {
+                    int before = this.counter.counts.get(alias);
+                    int after = before | value;
+                    if (after != before) {
+                        this.counter.counts.put(alias, after);
+                    }
+                    if (before == 0) {
+                        this.counter.nonZeroKeys.add(alias);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Computes the counts of the branch arms that were omitted because
+     * their count is the difference of two other probes (see
+     * {@link ProbeAliases}).
+     *
+     * <p>This must be done on the run coverage of every trial, before it
+     * is compared with the cumulative coverage, which only has the buckets
+     * of the counts of the emitted probes.</p>
+     */
+    public void deriveProbes() {
+        if (!ProbeAliases.hasDifferences()) {
+            return;
+        }
+        synchronized (this.counter) {
+            IntList keys = this.counter.nonZeroKeys;
+            // Derived probes are appended to the keys, but are never minuends themselves
+            for (int i = 0, n = keys.size(); i < n; i++) {
+                int key = keys.get(i);
+                int[] differences = ProbeAliases.getDifferences(key);
+                if (differences == null) {
+                    continue;
+                }
+                int total = this.counter.counts.get(key);
+                for (int j = 0; j < differences.length; j += 2) {
+                    int count = total - this.counter.counts.get(differences[j + 1]);
+                    if (count > 0) {
+                        this.counter.increment(differences[j], count);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds the probes that always have the same count as one of the
+     * given probes to them (see {@link #expandAliases()}).
+     *
+     * @param keys a set of keys of this coverage
+     */
+    public void addAliases(IntHashSet keys) {
+        if (!ProbeAliases.hasAliases()) {
+            return;
+        }
+        IntArrayList aliases = new IntArrayList();
+        IntIterator iter = keys.intIterator();
+        while (iter.hasNext()) {
+            int[] a = ProbeAliases.getAliases(iter.next());
+            if (a != null) {
+                aliases.addAll(a);
+            }
+        }
+        keys.addAll(aliases);
+    }
+
     /** Returns a hash code of the edge counts in the coverage map. */
     @Override
     public int hashCode() {
@@ -203,6 +296,16 @@ public class FastNonCollidingCoverage extends FastCoverageListener.Default imple
         return counter.getNonZeroIndices().hashCode();
     }
 
+    @Override
+    public int getCount(int key) {
+        return counter.get(key);
+    }
+
+    @Override
+    public void setCount(int key, int count) {
+        counter.set(key, count);
+    }
+
     @Override
     public Counter getCounter() {
         return this.counter;
@@ -240,6 +343,16 @@ public class FastNonCollidingCoverage extends FastCoverageListener.Default imple
 
     @Override
     public void logLookUpSwitch(int value, int iid, int dflt, int[] cases) {
+        logCoverage(iid, lookUpSwitchArm(value, cases));
+    }
+
+    @Override
+    public void logTableSwitch(int value, int iid, int min, int max, int dflt) {
+        logCoverage(iid, tableSwitchArm(value, min, max));
+    }
+
+    /* Returns the offset of the probe for the arm taken by a lookup switch. */
+    static int lookUpSwitchArm(int value, int[] cases) {
         // Compute arm index or else default
         int arm = cases.length;
         for (int i = 0; i < cases.length; i++) {
@@ -248,21 +361,25 @@ public class FastNonCollidingCoverage extends FastCoverageListener.Default imple
                 break;
             }
         }
-        arm++;
-        logCoverage(iid, arm);
+        return arm + 1;
     }
 
-    @Override
-    public void logTableSwitch(int value, int iid, int min, int max, int dflt) {
+    /* Returns the offset of the probe for the arm taken by a table switch. */
+    static int tableSwitchArm(int value, int min, int max) {
         int arm = 1 + max - min;
         if (value >= min && value <= max) {
             arm = value - min;
         }
-        arm++;
-        logCoverage(iid, arm);
+        return arm + 1;
     }
 
-    private void logCoverage(int iid, int arm) {
+    /**
+     * Counts a hit of the probe for the given arm of an instruction.
+     *
+     * @param iid the id of the instrumented instruction
+     * @param arm the offset of the arm that was taken
+     */
+    protected void logCoverage(int iid, int arm) {
         counter.increment(iid + arm);
     }
 }
@@ -54,6 +54,25 @@ public interface ICoverage<T extends Counter> {
      */
     int nonZeroHashCode();
 
+    /**
+     * Returns the count for a key returned by {@link #getCovered()}.
+     *
+     * @param key a coverage key
+     * @return the count for the key, or 0 if it is not covered
+     */
+    int getCount(int key);
+
+    /**
+     * Sets the count for a key returned by {@link #getCovered()}.
+     *
+     * <p>This method is used to restore coverage that was previously
+     * saved as (key, count) pairs, and supports only non-zero counts.</p>
+     *
+     * @param key   a coverage key
+     * @param count the non-zero count to set
+     */
+    void setCount(int key, int count);
+
     Counter getCounter();
 
     ICoverage<T> copy();
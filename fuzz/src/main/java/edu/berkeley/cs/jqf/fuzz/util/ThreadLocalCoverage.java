@@ -0,0 +1,341 @@
+/*
+ * Copyright (c) 2017-2018 The Regents of the University of California
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.berkeley.cs.jqf.fuzz.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Supplier;
+
+import janala.instrument.FastCoverageListener;
+import janala.instrument.GlobalStateForInstrumentation;
+import org.eclipse.collections.impl.map.mutable.primitive.IntIntHashMap;
+
+/**
+ * Collects fast coverage probes in per-thread storage that is
+ * merged into a run's coverage at the end of the trial.
+ *
+ * <p>Probes are counted without any synchronization: each thread
+ * increments its own shard, so that the instrumented code pays
+ * neither for a monitor nor for contention with other threads.
+ * The counts are added to a regular coverage map (such as a
+ * {@link FastNonCollidingCoverage}) by {@link #mergeInto(ICoverage)}
+ * or {@link #mergeCurrentThreadInto(ICoverage)}.</p>
+ *
+ * <p>Two kinds of storage are supported: a primitive hash map, or
+ * a dense array indexed directly by the probe ids handed out by
+ * {@link GlobalStateForInstrumentation#incAndGetFastCoverageId()},
+ * which are small and sequential.</p>
+ *
+ * <p>Threads can also be put in groups, e.g. by the worker that
+ * spawned them, when their shard is created. The counts of a group
+ * are merged by {@link #mergeGroupInto(Object, ICoverage)}.</p>
+ *
+ * <p>Merging the shards of threads other than the current one is
+ * only exact if those threads are not executing instrumented code
+ * at the same time, e.g. if they were spawned by the trial and have
+ * since terminated or are blocked.</p>
+ */
+public class ThreadLocalCoverage implements FastCoverageListener {
+
+    /** The kind of storage used by each thread. */
+    public enum Storage {
+        /** Counts are stored in a primitive hash map. */
+        HASH,
+        /** Counts are stored in an array indexed by the probe id. */
+        DENSE
+    }
+
+    private final Storage storage;
+
+    /** Returns the group of the current thread, or <code>null</code>. */
+    private final Supplier<?> groupOf;
+
+    /** Shards of all threads that have executed a probe. */
+    private final List<Shard> shards = new ArrayList<>();
+
+    private final ThreadLocal<Shard> localShard = ThreadLocal.withInitial(this::newShard);
+
+    /**
+     * Creates a new coverage collector.
+     *
+     * @param storage the kind of storage to use for each thread
+     */
+    public ThreadLocalCoverage(Storage storage) {
+        this(storage, () -> null);
+    }
+
+    /**
+     * Creates a new coverage collector that puts threads in groups.
+     *
+     * @param storage the kind of storage to use for each thread
+     * @param groupOf returns the group of the current thread, or
+     *                <code>null</code>; it is called once per thread,
+     *                by that thread, when it first executes a probe
+     */
+    public ThreadLocalCoverage(Storage storage, Supplier<?> groupOf) {
+        this.storage = storage;
+        this.groupOf = groupOf;
+    }
+
+    /**
+     * Returns the kind of storage used by each thread.
+     *
+     * @return the kind of storage used by each thread
+     */
+    public Storage getStorage() {
+        return storage;
+    }
+
+    private Shard newShard() {
+        Shard shard = storage == Storage.DENSE ? new DenseShard() : new HashShard();
+        shard.group = groupOf.get();
+        synchronized (shards) {
+            // Forget about threads that can no longer log anything
+            shards.removeIf(s -> !s.owner.isAlive() && s.isEmpty());
+            shards.add(shard);
+        }
+        return shard;
+    }
+
+    /**
+     * Adds the counts of all threads to a coverage map,
+     * and clears them.
+     *
+     * @param target the coverage map to update
+     */
+    public void mergeInto(ICoverage target) {
+        Counter counter = target.getCounter();
+        synchronized (shards) {
+            for (Shard shard : shards) {
+                shard.mergeInto(counter);
+            }
+            shards.removeIf(s -> !s.owner.isAlive());
+        }
+    }
+
+    /**
+     * Adds the counts of the current thread to a coverage map,
+     * and clears them.
+     *
+     * @param target the coverage map to update
+     */
+    public void mergeCurrentThreadInto(ICoverage target) {
+        shard().mergeInto(target.getCounter());
+    }
+
+    /**
+     * Adds the counts of the threads in a group to a coverage map,
+     * and clears them.
+     *
+     * @param group  the group whose counts to merge
+     * @param target the coverage map to update
+     */
+    public void mergeGroupInto(Object group, ICoverage target) {
+        Counter counter = target.getCounter();
+        synchronized (shards) {
+            for (Shard shard : shards) {
+                if (shard.group == group) {
+                    shard.mergeInto(counter);
+                }
+            }
+        }
+    }
+
+    /**
+     * Clears the counts of the threads in a group.
+     *
+     * @param group the group whose counts to clear
+     */
+    public void clearGroup(Object group) {
+        synchronized (shards) {
+            for (Shard shard : shards) {
+                if (shard.group == group) {
+                    shard.clear();
+                }
+            }
+        }
+    }
+
+    /**
+     * Clears the counts of all threads.
+     */
+    public void clear() {
+        synchronized (shards) {
+            for (Shard shard : shards) {
+                shard.clear();
+            }
+        }
+    }
+
+    /**
+     * Clears the counts of the current thread.
+     */
+    public void clearCurrentThread() {
+        shard().clear();
+    }
+
+    /**
+     * Discards the counts of threads that have terminated.
+     *
+     * <p>This is useful if counts are only ever merged by
+     * {@link #mergeCurrentThreadInto(ICoverage)}, in which case
+     * the shards of other threads would otherwise be kept forever.</p>
+     */
+    public void discardTerminatedThreads() {
+        synchronized (shards) {
+            shards.removeIf(s -> !s.owner.isAlive());
+        }
+    }
+
+    @Override
+    public void logMethodBegin(int iid) {
+        shard().increment(iid);
+    }
+
+    @Override
+    public void logMethodEnd(int iid) {
+        // Not tracked, as in FastNonCollidingCoverage
+    }
+
+    @Override
+    public void logJump(int iid, int branch) {
+        shard().increment(iid + branch);
+    }
+
+    @Override
+    public void logLookUpSwitch(int value, int iid, int dflt, int[] cases) {
+        shard().increment(iid + FastNonCollidingCoverage.lookUpSwitchArm(value, cases));
+    }
+
+    @Override
+    public void logTableSwitch(int value, int iid, int min, int max, int dflt) {
+        shard().increment(iid + FastNonCollidingCoverage.tableSwitchArm(value, min, max));
+    }
+
+    /* Returns the shard of the current thread. */
+    private Shard shard() {
+        return localShard.get();
+    }
+
+    /** Unsynchronized counts of the probes executed by one thread. */
+    private static abstract class Shard {
+        final Thread owner = Thread.currentThread();
+        Object group;
+
+        abstract void increment(int key);
+
+        abstract void mergeInto(Counter counter);
+
+        abstract void clear();
+
+        abstract boolean isEmpty();
+    }
+
+    private static class HashShard extends Shard {
+        private final IntIntHashMap counts = new IntIntHashMap();
+
+        @Override
+        void increment(int key) {
+            counts.addToValue(key, 1);
+        }
+
+        @Override
+        void mergeInto(Counter counter) {
+            counts.forEachKeyValue(counter::increment);
+            counts.clear();
+        }
+
+        @Override
+        void clear() {
+            counts.clear();
+        }
+
+        @Override
+        boolean isEmpty() {
+            return counts.isEmpty();
+        }
+    }
+
+    private static class DenseShard extends Shard {
+        /** Counts indexed by probe id. */
+        private int[] counts = new int[1 << 10];
+
+        /** Probe ids with non-zero counts, in the first numTouched slots. */
+        private int[] touched = new int[1 << 6];
+        private int numTouched = 0;
+
+        @Override
+        void increment(int key) {
+            int[] counts = this.counts;
+            if (key >= counts.length) {
+                counts = this.counts = Arrays.copyOf(counts, Integer.highestOneBit(key) << 1);
+            }
+            if (counts[key]++ == 0) {
+                if (numTouched == touched.length) {
+                    touched = Arrays.copyOf(touched, touched.length << 1);
+                }
+                touched[numTouched++] = key;
+            }
+        }
+
+        @Override
+        void mergeInto(Counter counter) {
+            int[] counts = this.counts;
+            int[] touched = this.touched;
+            int n = Math.min(numTouched, touched.length);
+            for (int i = 0; i < n; i++) {
+                int key = touched[i];
+                if (key < counts.length && counts[key] != 0) {
+                    counter.increment(key, counts[key]);
+                    counts[key] = 0;
+                }
+            }
+            numTouched = 0;
+        }
+
+        @Override
+        void clear() {
+            int[] counts = this.counts;
+            int[] touched = this.touched;
+            int n = Math.min(numTouched, touched.length);
+            for (int i = 0; i < n; i++) {
+                if (touched[i] < counts.length) {
+                    counts[touched[i]] = 0;
+                }
+            }
+            numTouched = 0;
+        }
+
+        @Override
+        boolean isEmpty() {
+            return numTouched == 0;
+        }
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright (c) 2017-2018 The Regents of the University of California
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.berkeley.cs.jqf.fuzz.util;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import edu.berkeley.cs.jqf.fuzz.guidance.TimeoutException;
+import edu.berkeley.cs.jqf.instrument.tracing.AbortSignal;
+
+/**
+ * Enforces a deadline on each trial from a background thread.
+ *
+ * <p>A trial is armed by the thread that runs it, when its input is
+ * generated, and disarmed when its result is handled. If the deadline
+ * passes in between, the trial's thread is asked to stop with a
+ * {@link TimeoutException} at the next entry to an instrumented method
+ * (see {@link AbortSignal}). A trial that is still running after
+ * another timeout period, e.g. because it is stuck in uninstrumented
+ * code or has swallowed the exception, is asked again and also
+ * interrupted, which ends blocking operations such as
+ * <code>sleep</code> or <code>wait</code>.</p>
+ *
+ * <p>All watchdogs share a single daemon thread, which is only
+ * started once a trial is armed.</p>
+ */
+public class TrialWatchdog {
+
+    private static ScheduledThreadPoolExecutor timer;
+
+    private final Map<Thread, Trial> trials = new ConcurrentHashMap<>();
+
+    /**
+     * Starts the deadline of a trial run by the current thread,
+     * replacing any trial that it had not disarmed.
+     *
+     * @param timeoutMillis the time that the trial may run for
+     */
+    public void arm(long timeoutMillis) {
+        Trial trial = new Trial(Thread.currentThread(), timeoutMillis);
+        Trial stale = trials.put(trial.thread, trial);
+        if (stale != null) {
+            stale.cancel();
+        }
+        trial.schedule();
+    }
+
+    /**
+     * Ends the trial run by the current thread, withdrawing any request
+     * to stop that it has not acted upon and clearing any interrupt
+     * set by the watchdog.
+     *
+     * @return whether the trial ran past its deadline
+     */
+    public boolean disarm() {
+        Trial trial = trials.remove(Thread.currentThread());
+        if (trial == null) {
+            return false;
+        }
+        trial.cancel();
+        return trial.expired;
+    }
+
+    private static synchronized ScheduledThreadPoolExecutor timer() {
+        if (timer == null) {
+            timer = new ScheduledThreadPoolExecutor(1, (r) -> {
+                Thread thread = new Thread(r, "jqf-watchdog");
+                thread.setDaemon(true);
+                return thread;
+            });
+            timer.setRemoveOnCancelPolicy(true);
+        }
+        return timer;
+    }
+
+    /** The deadline of one trial; guarded by its own lock. */
+    private static class Trial implements Runnable {
+        final Thread thread;
+        final long timeoutMillis;
+        final long start = System.nanoTime();
+        ScheduledFuture<?> future;
+        boolean cancelled = false;
+        volatile boolean expired = false;
+        boolean interrupted = false;
+
+        Trial(Thread thread, long timeoutMillis) {
+            this.thread = thread;
+            this.timeoutMillis = timeoutMillis;
+        }
+
+        synchronized void schedule() {
+            if (!cancelled) {
+                future = timer().schedule(this, timeoutMillis, TimeUnit.MILLISECONDS);
+            }
+        }
+
+        @Override
+        public synchronized void run() {
+            if (cancelled) {
+                return;
+            }
+            long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            AbortSignal.raise(thread, new TimeoutException(elapsed, timeoutMillis));
+            if (expired) {
+                // Still running a whole period after being asked to stop
+                interrupted = true;
+                thread.interrupt();
+            }
+            expired = true;
+            future = timer().schedule(this, timeoutMillis, TimeUnit.MILLISECONDS);
+        }
+
+        /* Called by the trial's own thread, which is not blocked. */
+        synchronized void cancel() {
+            cancelled = true;
+            if (future != null) {
+                future.cancel(false);
+            }
+            AbortSignal.clear(thread);
+            if (interrupted) {
+                Thread.interrupted();
+            }
+        }
+    }
+}
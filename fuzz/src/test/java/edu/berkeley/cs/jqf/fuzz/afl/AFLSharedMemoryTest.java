@@ -0,0 +1,120 @@
+/*
+ * Copyright (c) 2017-2018 The Regents of the University of California
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.berkeley.cs.jqf.fuzz.afl;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import static org.junit.Assert.*;
+
+@RunWith(JUnit4.class)
+public class AFLSharedMemoryTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private AFLSharedMemory shm;
+
+    /** The other side of the region, as the proxy sees it. */
+    private MappedByteBuffer proxy;
+
+    @Before
+    public void mapRegion() throws IOException {
+        File file = folder.newFile();
+        shm = new AFLSharedMemory(file);
+        assertEquals(AFLSharedMemory.SIZE, file.length());
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw");
+             FileChannel channel = raf.getChannel()) {
+            proxy = channel.map(FileChannel.MapMode.READ_WRITE, 0, AFLSharedMemory.SIZE);
+        }
+        proxy.order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private void putInput(byte[] input) {
+        ByteBuffer data = proxy.duplicate();
+        data.position(AFLSharedMemory.INPUT_OFFSET);
+        data.put(input);
+        proxy.putInt(AFLSharedMemory.INPUT_LENGTH_OFFSET, input.length);
+    }
+
+    @Test
+    public void inputIsReadFromTheRegion() throws IOException {
+        putInput(new byte[]{1, 2, (byte) 0xFF, 4});
+        InputStream in = shm.getInput();
+        assertEquals(4, in.available());
+        assertEquals(1, in.read());
+        byte[] rest = new byte[8];
+        assertEquals(3, in.read(rest, 0, rest.length));
+        assertEquals(2, rest[0]);
+        assertEquals((byte) 0xFF, rest[1]);
+        assertEquals(4, rest[2]);
+        assertEquals(-1, in.read());
+        assertEquals(-1, in.read(rest, 0, rest.length));
+
+        // The next input replaces the previous one
+        putInput(new byte[]{9});
+        in = shm.getInput();
+        assertEquals(9, in.read());
+        assertEquals(-1, in.read());
+    }
+
+    @Test(expected = IOException.class)
+    public void invalidInputLengthIsRejected() throws IOException {
+        proxy.putInt(AFLSharedMemory.INPUT_LENGTH_OFFSET, AFLSharedMemory.MAX_INPUT_SIZE + 1);
+        shm.getInput();
+    }
+
+    @Test
+    public void feedbackIsWrittenToTheRegion() {
+        byte[] traceBits = new byte[AFLGuidance.COVERAGE_MAP_SIZE];
+        traceBits[0] = 1;
+        traceBits[traceBits.length - 1] = 7;
+        shm.putStatus(6);
+        shm.putTraceBits(traceBits);
+        shm.putPerfBits(new byte[]{42, 0, 0, 0}, 4);
+
+        assertEquals(6, proxy.getInt(AFLSharedMemory.STATUS_OFFSET));
+        assertEquals(1, proxy.get(AFLSharedMemory.TRACE_BITS_OFFSET));
+        assertEquals(7, proxy.get(AFLSharedMemory.PERF_BITS_OFFSET - 1));
+        assertEquals(42, proxy.getInt(AFLSharedMemory.PERF_BITS_OFFSET));
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright (c) 2017-2018 The Regents of the University of California
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.berkeley.cs.jqf.fuzz.afl;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.function.Consumer;
+
+import edu.berkeley.cs.jqf.fuzz.guidance.Result;
+import edu.berkeley.cs.jqf.instrument.tracing.PrimitiveTraceListener;
+import edu.berkeley.cs.jqf.instrument.tracing.events.BranchEvent;
+import edu.berkeley.cs.jqf.instrument.tracing.events.CallEvent;
+import edu.berkeley.cs.jqf.instrument.tracing.events.ReturnEvent;
+import edu.berkeley.cs.jqf.instrument.tracing.events.TraceEvent;
+import janala.logger.inst.INVOKESTATIC;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import static org.junit.Assert.*;
+
+@RunWith(JUnit4.class)
+public class PerfFuzzGuidanceTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File inPipe;
+    private File outPipe;
+    private File inputFile;
+
+    @Before
+    public void createFiles() throws IOException {
+        // Regular files stand in for the pipes: one "ready" signal from the proxy per run
+        inPipe = folder.newFile();
+        Files.write(inPipe.toPath(), "HELOHELO".getBytes(StandardCharsets.US_ASCII));
+        outPipe = folder.newFile();
+        inputFile = folder.newFile();
+        Files.write(inputFile.toPath(), new byte[16]);
+    }
+
+    @After
+    public void deleteScores() {
+        // Written to the working directory by every PerfFuzzGuidance
+        new File("scores.log").delete();
+    }
+
+    private static CallEvent callEvent(int iid) {
+        return new CallEvent(iid, null, 0, new INVOKESTATIC(iid, 0, "Foo", "bar", "()V"));
+    }
+
+    @Test
+    public void branchAndCallEventsReachHandleEvent() throws IOException {
+        PerfFuzzGuidance guidance = new PerfFuzzGuidance(inputFile, inPipe, outPipe);
+        Consumer<TraceEvent> callback = guidance.generateCallBack(Thread.currentThread());
+        // The calling context needs the call events themselves
+        assertFalse(callback instanceof PrimitiveTraceListener);
+
+        assertTrue(guidance.hasInput());
+        guidance.getInput().close();
+        callback.accept(callEvent(1));
+        for (int i = 0; i < 3; i++) {
+            callback.accept(new BranchEvent(2, null, 0, 1));
+        }
+        callback.accept(new ReturnEvent(3, null, 0));
+        assertTrue(guidance.callingContext.isEmpty());
+        guidance.handleResult(Result.SUCCESS, null);
+
+        // Status, trace bits, then the perf map with the total branch count first
+        ByteBuffer sent = ByteBuffer.wrap(Files.readAllBytes(outPipe.toPath())).order(ByteOrder.LITTLE_ENDIAN);
+        assertEquals(4 + AFLGuidance.COVERAGE_MAP_SIZE + PerfFuzzGuidance.PERF_MAP_SIZE * 4, sent.capacity());
+        assertEquals(0, sent.getInt(0));
+        int perfMap = 4 + AFLGuidance.COVERAGE_MAP_SIZE;
+        assertEquals(3, sent.getInt(perfMap));
+        int branchCounts = 0;
+        for (int k = 1; k < PerfFuzzGuidance.PERF_MAP_SIZE; k++) {
+            branchCounts += sent.getInt(perfMap + k * 4);
+        }
+        assertEquals(3, branchCounts);
+    }
+
+    @Test
+    public void plainAFLGuidanceSkipsEventObjects() throws IOException {
+        AFLGuidance guidance = new AFLGuidance(inputFile, inPipe, outPipe);
+        assertTrue(guidance.generateCallBack(Thread.currentThread()) instanceof PrimitiveTraceListener);
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright (c) 2017-2018 The Regents of the University of California
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.berkeley.cs.jqf.fuzz.ei;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+
+import edu.berkeley.cs.jqf.fuzz.ei.ZestGuidance.LinearInput;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import static org.junit.Assert.*;
+
+@RunWith(JUnit4.class)
+public class LinearInputTest {
+
+    private ZestGuidance g;
+
+    @Before
+    public void createGuidanceInstance() throws IOException {
+        g = new ZestGuidance("test", null, null, Files.createTempDirectory("fuzz-out").toFile(), new Random(42));
+    }
+
+    private static byte[] bytesOf(LinearInput input) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        input.writeTo(out);
+        return out.toByteArray();
+    }
+
+    @Test
+    public void testBulkReadMatchesSingleByteReads() throws IOException {
+        LinearInput single = g.new LinearInput();
+        Random r1 = new Random(7);
+        byte[] expected = new byte[300];
+        for (int i = 0; i < expected.length; i++) {
+            expected[i] = (byte) single.getOrGenerateFresh(i, r1);
+        }
+
+        LinearInput bulk = g.new LinearInput();
+        Random r2 = new Random(7);
+        byte[] actual = new byte[300];
+        assertEquals(100, bulk.read(0, actual, 0, 100, r2));
+        assertEquals(200, bulk.read(100, actual, 100, 200, r2));
+
+        assertArrayEquals(expected, actual);
+        assertArrayEquals(bytesOf(single), bytesOf(bulk));
+    }
+
+    @Test
+    public void testBulkReadReplaysExistingValues() throws IOException {
+        LinearInput input = g.new LinearInput(new byte[]{1, 2, (byte) 200});
+        byte[] buf = new byte[5];
+        assertEquals(2, input.read(0, buf, 0, 2, new Random()));
+        assertEquals(200, input.getOrGenerateFresh(2, new Random()));
+        assertEquals(2, input.read(3, buf, 2, 2, new Random(1)));
+        assertEquals(5, input.size());
+        assertEquals(1, buf[0]);
+        assertEquals(2, buf[1]);
+    }
+
+    @Test
+    public void testFuzzDoesNotModifyParent() throws IOException {
+        LinearInput parent = g.new LinearInput(new byte[64]);
+        byte[] before = bytesOf(parent);
+        LinearInput child = (LinearInput) parent.fuzz(new Random(42));
+        assertArrayEquals(before, bytesOf(parent));
+        assertEquals(parent.size(), child.size());
+        assertFalse(Arrays.equals(before, bytesOf(child)));
+    }
+
+    @Test
+    public void testGcTruncatesUnrequestedValues() throws IOException {
+        LinearInput input = g.new LinearInput(new byte[]{5, 6, 7, 8});
+        input.getOrGenerateFresh(0, new Random());
+        input.getOrGenerateFresh(1, new Random());
+        input.gc();
+        assertArrayEquals(new byte[]{5, 6}, bytesOf(input));
+        int sum = 0;
+        for (int b : input) {
+            sum += b;
+        }
+        assertEquals(11, sum);
+    }
+
+    @Test
+    public void testTruncateDropsOnlyFreshValues() throws IOException {
+        // Existing values read ahead are kept until gc()
+        LinearInput mutant = g.new LinearInput(new byte[]{1, 2, 3, 4});
+        byte[] buf = new byte[4];
+        assertEquals(4, mutant.read(0, buf, 0, 4, new Random()));
+        mutant.truncate(2);
+        assertEquals(4, mutant.size());
+        mutant.gc();
+        assertArrayEquals(new byte[]{1, 2}, bytesOf(mutant));
+
+        // Fresh values read ahead are dropped at once
+        LinearInput extended = g.new LinearInput(new byte[]{1, 2});
+        buf = new byte[100];
+        assertEquals(100, extended.read(0, buf, 0, 100, new Random()));
+        extended.truncate(10);
+        assertEquals(10, extended.size());
+        extended.gc();
+        assertArrayEquals(Arrays.copyOf(buf, 10), bytesOf(extended));
+    }
+}
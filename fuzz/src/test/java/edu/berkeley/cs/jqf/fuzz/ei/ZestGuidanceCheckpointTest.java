@@ -0,0 +1,183 @@
+/*
+ * Copyright (c) 2017-2018 The Regents of the University of California
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.berkeley.cs.jqf.fuzz.ei;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.Random;
+
+import edu.berkeley.cs.jqf.fuzz.guidance.Result;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import static org.junit.Assert.*;
+
+@RunWith(JUnit4.class)
+public class ZestGuidanceCheckpointTest {
+
+    private File outputDirectory;
+
+    @Before
+    public void createOutputDirectory() throws IOException {
+        outputDirectory = Files.createTempDirectory("fuzz-out").toFile();
+    }
+
+    @After
+    public void clearResume() {
+        System.clearProperty("jqf.ei.RESUME");
+        System.clearProperty("jqf.ei.EXIT_ON_CRASH");
+    }
+
+    /* Runs one trial that covers the given keys. */
+    private static void runTrial(ZestGuidance g, Result result, int... keys) throws IOException {
+        assertTrue(g.hasInput());
+        InputStream in = g.getInput();
+        for (int i = 0; i < 4; i++) {
+            in.read();
+        }
+        for (int key : keys) {
+            g.runCoverage.setCount(key, 1);
+        }
+        g.handleResult(result, result == Result.FAILURE ? new AssertionError("boom") : null);
+    }
+
+    @Test
+    public void testResumeRestoresState() throws IOException {
+        ZestGuidance g = new ZestGuidance("test", null, null, outputDirectory, new Random(42));
+        runTrial(g, Result.SUCCESS, 1, 2);
+        runTrial(g, Result.INVALID, 3);
+        runTrial(g, Result.SUCCESS, 1, 2, 4);
+        runTrial(g, Result.FAILURE, 5);
+        g.writeCheckpoint();
+
+        assertEquals(3, g.savedInputs.size());
+        assertEquals(1, g.uniqueFailures.size());
+
+        System.setProperty("jqf.ei.RESUME", "true");
+        ZestGuidance r = new ZestGuidance("test", null, null, outputDirectory, new Random(42));
+
+        assertTrue(r.resumed);
+        assertTrue(r.seedInputs.isEmpty());
+        assertEquals(g.numSavedInputs, r.numSavedInputs);
+        assertEquals(g.savedInputs.size(), r.savedInputs.size());
+        assertEquals(g.totalCoverage.hashCode(), r.totalCoverage.hashCode());
+        assertEquals(g.validCoverage.hashCode(), r.validCoverage.hashCode());
+        assertEquals(g.uniqueFailures, r.uniqueFailures);
+        assertEquals(g.currentParentInputIdx, r.currentParentInputIdx);
+        assertEquals(4, r.numTrials);
+        assertEquals(2, r.numValid);
+        assertTrue(r.previousElapsedMillis >= 0);
+        assertEquals(g.responsibleInputs.keySet(), r.responsibleInputs.keySet());
+        for (int i = 0; i < g.savedInputs.size(); i++) {
+            ZestGuidance.Input expected = g.savedInputs.get(i);
+            ZestGuidance.Input actual = r.savedInputs.get(i);
+            assertEquals(expected.id, actual.id);
+            assertEquals(expected.responsibilities, actual.responsibilities);
+            assertEquals(expected.nonZeroCoverage, actual.nonZeroCoverage);
+            assertEquals(expected.coverage.hashCode(), actual.coverage.hashCode());
+            ByteArrayOutputStream expectedBytes = new ByteArrayOutputStream();
+            ByteArrayOutputStream actualBytes = new ByteArrayOutputStream();
+            expected.writeTo(expectedBytes);
+            actual.writeTo(actualBytes);
+            assertArrayEquals(expectedBytes.toByteArray(), actualBytes.toByteArray());
+            assertSame(actual, r.responsibleInputs.get(actual.responsibilities.intIterator().next()));
+        }
+
+        // Fuzzing continues from the restored queue
+        runTrial(r, Result.SUCCESS, 6);
+        assertEquals(4, r.savedInputs.size());
+    }
+
+    @Test
+    public void testInputsSavedAfterCheckpointAreRerun() throws IOException {
+        ZestGuidance g = new ZestGuidance("test", null, null, outputDirectory, new Random(42));
+        runTrial(g, Result.SUCCESS, 1);
+        g.writeCheckpoint();
+        runTrial(g, Result.SUCCESS, 2);
+        assertEquals(2, g.savedInputs.size());
+        g.output.flush();
+
+        System.setProperty("jqf.ei.RESUME", "true");
+        ZestGuidance r = new ZestGuidance("test", null, null, outputDirectory, new Random(42));
+
+        assertEquals(1, r.savedInputs.size());
+        assertEquals(1, r.seedInputs.size());
+        assertFalse(new File(r.savedCorpusDirectory, "id_000001").exists());
+        assertTrue(new File(r.resumeDirectory, "id_000001").exists());
+    }
+
+    @Test
+    public void testExitOnCrashWritesCheckpoint() throws IOException {
+        System.setProperty("jqf.ei.EXIT_ON_CRASH", "true");
+        ZestGuidance g = new ZestGuidance("test", null, null, outputDirectory, new Random(42));
+        runTrial(g, Result.SUCCESS, 1);
+        runTrial(g, Result.FAILURE, 2);
+        assertFalse(g.hasInput());
+
+        System.setProperty("jqf.ei.RESUME", "true");
+        ZestGuidance r = new ZestGuidance("test", null, null, outputDirectory, new Random(42));
+        assertTrue(r.resumed);
+        assertEquals(1, r.savedInputs.size());
+        assertEquals(1, r.uniqueFailures.size());
+        assertEquals(2, r.numTrials);
+        assertTrue(new File(r.savedFailuresDirectory, "id_000000").exists());
+    }
+
+    @Test
+    public void testStoppingClosesOutput() throws IOException {
+        System.setProperty("jqf.ei.EXIT_ON_CRASH", "true");
+        ZestGuidance g = new ZestGuidance("test", null, null, outputDirectory, new Random(42));
+        runTrial(g, Result.FAILURE, 1);
+        assertFalse(g.hasInput());
+
+        // Once closed, the output is written synchronously
+        File file = new File(outputDirectory, "after");
+        g.output.write(file, new byte[]{1});
+        assertArrayEquals(new byte[]{1}, Files.readAllBytes(file.toPath()));
+    }
+
+    @Test
+    public void testWithoutResumeOutputIsCleared() throws IOException {
+        ZestGuidance g = new ZestGuidance("test", null, null, outputDirectory, new Random(42));
+        runTrial(g, Result.SUCCESS, 1);
+        g.writeCheckpoint();
+
+        ZestGuidance r = new ZestGuidance("test", null, null, outputDirectory, new Random(42));
+        assertFalse(r.resumed);
+        assertTrue(r.savedInputs.isEmpty());
+        assertFalse(r.checkpointFile.exists());
+        assertEquals(0, r.savedCorpusDirectory.listFiles().length);
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright (c) 2017-2018 The Regents of the University of California
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.berkeley.cs.jqf.fuzz.ei;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+import edu.berkeley.cs.jqf.fuzz.guidance.Result;
+import edu.berkeley.cs.jqf.fuzz.util.Coverage;
+import edu.berkeley.cs.jqf.instrument.tracing.PrimitiveTraceListener;
+import edu.berkeley.cs.jqf.instrument.tracing.events.BranchEvent;
+import edu.berkeley.cs.jqf.instrument.tracing.events.TraceEvent;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import static org.junit.Assert.*;
+
+@RunWith(JUnit4.class)
+public class ZestGuidanceThreadsTest {
+
+    private ZestGuidance guidance;
+
+    @Before
+    public void createGuidance() throws IOException {
+        guidance = new ZestGuidance("test", null, 100L,
+                Files.createTempDirectory("fuzz-out").toFile(), new Random(42));
+    }
+
+    private void startTrial() throws IOException {
+        InputStream in = guidance.getInput();
+        for (int i = 0; i < 4; i++) {
+            in.read();
+        }
+    }
+
+    /* Runs a task in a new thread with that thread's callback, and returns what it threw. */
+    private Throwable runInThread(Consumer<PrimitiveTraceListener> task) throws InterruptedException {
+        AtomicReference<Throwable> thrown = new AtomicReference<>();
+        Thread thread = new Thread(() -> {
+            try {
+                task.accept((PrimitiveTraceListener) guidance.generateCallBack(Thread.currentThread()));
+            } catch (Throwable t) {
+                thrown.set(t);
+            }
+        });
+        thread.start();
+        thread.join();
+        return thrown.get();
+    }
+
+    @Test
+    public void otherThreadsAddToRunCoverage() throws Exception {
+        PrimitiveTraceListener main = (PrimitiveTraceListener) guidance.generateCallBack(Thread.currentThread());
+        startTrial();
+        main.onBranch(1, 0);
+        assertNull(runInThread((callback) -> {
+            for (int i = 0; i < 3; i++) {
+                callback.onBranch(100, 1);
+            }
+            callback.onCall(200);
+        }));
+        assertTrue(guidance.multiThreaded);
+        assertEquals(1, guidance.runCoverage.getNonZeroCount());
+        guidance.handleResult(Result.SUCCESS, null);
+
+        Coverage expected = new Coverage();
+        expected.onBranch(1, 0);
+        for (int i = 0; i < 3; i++) {
+            expected.onBranch(100, 1);
+        }
+        expected.onCall(200);
+        assertEquals(expected.getCovered(), guidance.getTotalCoverage().getCovered());
+    }
+
+    @Test
+    public void coverageBetweenTrialsIsDiscarded() throws Exception {
+        guidance.generateCallBack(Thread.currentThread());
+        assertNull(runInThread((callback) -> callback.onBranch(100, 1)));
+        startTrial();
+        guidance.handleResult(Result.SUCCESS, null);
+        assertEquals(0, guidance.getTotalCoverage().getNonZeroCount());
+    }
+
+    @Test
+    public void threadsSpawnedByWorkersAddToTheirCoverage() throws Exception {
+        System.setProperty("jqf.ei.WORKERS", "2");
+        try {
+            guidance = new ZestGuidance("test", null, 100L,
+                    Files.createTempDirectory("fuzz-out").toFile(), new Random(42));
+        } finally {
+            System.clearProperty("jqf.ei.WORKERS");
+        }
+        startTrial();
+        PrimitiveTraceListener main = (PrimitiveTraceListener) guidance.generateCallBack(Thread.currentThread());
+        main.onBranch(1, 0);
+        assertNull(runInThread((callback) -> callback.onBranch(100, 1)));
+        guidance.handleResult(Result.SUCCESS, null);
+
+        Coverage expected = new Coverage();
+        expected.onBranch(1, 0);
+        expected.onBranch(100, 1);
+        assertEquals(expected.getCovered(), guidance.getTotalCoverage().getCovered());
+    }
+
+    @Test
+    public void subclassesThatHandleEventsSeeEveryEvent() throws Exception {
+        AtomicReference<TraceEvent> seen = new AtomicReference<>();
+        ZestGuidance subclass = new ZestGuidance("test", null, 100L,
+                Files.createTempDirectory("fuzz-out").toFile(), new Random(42)) {
+            @Override
+            protected void handleEvent(TraceEvent e) {
+                seen.set(e);
+                super.handleEvent(e);
+            }
+        };
+        Consumer<TraceEvent> callback = subclass.generateCallBack(Thread.currentThread());
+        assertFalse(callback instanceof PrimitiveTraceListener);
+        BranchEvent branch = new BranchEvent(1, null, 0, 0);
+        callback.accept(branch);
+        assertSame(branch, seen.get());
+    }
+}
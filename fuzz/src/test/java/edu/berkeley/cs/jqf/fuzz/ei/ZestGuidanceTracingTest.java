@@ -0,0 +1,153 @@
+/*
+ * Copyright (c) 2017-2018 The Regents of the University of California
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.berkeley.cs.jqf.fuzz.ei;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.function.Consumer;
+
+import edu.berkeley.cs.jqf.fuzz.guidance.Result;
+import edu.berkeley.cs.jqf.instrument.tracing.PrimitiveTraceListener;
+import edu.berkeley.cs.jqf.instrument.tracing.events.BranchEvent;
+import edu.berkeley.cs.jqf.instrument.tracing.events.TraceEvent;
+import janala.logger.inst.MemberRef;
+import janala.logger.inst.METHOD_BEGIN;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import static org.junit.Assert.*;
+
+@RunWith(JUnit4.class)
+public class ZestGuidanceTracingTest {
+
+    private ZestGuidance guidance;
+    private Consumer<TraceEvent> callback;
+
+    @Before
+    public void createGuidance() throws IOException {
+        System.setProperty("jqf.ei.TRACE_SAVED_INPUTS", "true");
+        guidance = new ZestGuidance("test", null, null,
+                Files.createTempDirectory("fuzz-out").toFile(), new Random(42));
+        callback = guidance.generateCallBack(Thread.currentThread());
+    }
+
+    @After
+    public void clearTracing() {
+        System.clearProperty("jqf.ei.TRACE_SAVED_INPUTS");
+    }
+
+    private void startTrial() throws IOException {
+        InputStream in = guidance.getInput();
+        for (int i = 0; i < 4; i++) {
+            in.read();
+        }
+    }
+
+    private static BranchEvent branch(int iid, int arm) {
+        MemberRef method = new METHOD_BEGIN("Foo", "bar", "()V");
+        return new BranchEvent(iid, method, 42, arm);
+    }
+
+    @Test
+    public void savedInputsAreTracedOnce() throws IOException {
+        assertFalse(callback instanceof PrimitiveTraceListener);
+
+        // A regular trial whose input is saved
+        startTrial();
+        boolean fast = !guidance.isFullTracingNeeded();
+        callback.accept(branch(1, 0));
+        guidance.handleResult(Result.SUCCESS, null);
+        assertEquals(1, guidance.savedInputs.size());
+        assertEquals(1, guidance.numTrials);
+
+        // The saved input is re-run with full tracing, which is not a trial
+        startTrial();
+        assertTrue(guidance.isFullTracingNeeded());
+        assertSame(guidance.savedInputs.get(0), guidance.tracedInput);
+        assertNotSame(guidance.savedInputs.get(0), guidance.currentInput);
+        callback.accept(branch(1, 0));
+        guidance.handleResult(Result.SUCCESS, null);
+        assertEquals(1, guidance.numTrials);
+        assertEquals(1, guidance.savedInputs.size());
+
+        guidance.output.flush();
+        String branches = new String(Files.readAllBytes(guidance.coveredBranchesFile.toPath()), StandardCharsets.UTF_8);
+        assertEquals("(000000001) Foo#bar():42 [0]" + System.lineSeparator(), branches);
+
+        // Fuzzing then goes on as before
+        startTrial();
+        assertEquals(!fast, guidance.isFullTracingNeeded());
+        assertNull(guidance.tracedInput);
+        guidance.handleResult(Result.SUCCESS, null);
+        assertEquals(2, guidance.numTrials);
+    }
+
+    @Test
+    public void tracedInputWithoutResultIsDropped() throws IOException {
+        startTrial();
+        callback.accept(branch(1, 0));
+        guidance.handleResult(Result.SUCCESS, null);
+
+        // The re-run of the saved input is abandoned, as if its generator ran out of values
+        startTrial();
+        assertNotNull(guidance.tracedInput);
+
+        // The next trial is a regular one, and its result is not taken for the re-run's
+        startTrial();
+        assertNull(guidance.tracedInput);
+        callback.accept(branch(2, 0));
+        guidance.handleResult(Result.SUCCESS, null);
+        assertEquals(2, guidance.numTrials);
+        assertEquals(2, guidance.savedInputs.size());
+        // Only the new input is yet to be traced
+        assertEquals(1, guidance.inputsToTrace.size());
+    }
+
+    @Test
+    public void resumedInputsAreTracedAgain() throws IOException {
+        startTrial();
+        callback.accept(branch(1, 0));
+        guidance.handleResult(Result.SUCCESS, null);
+        guidance.writeCheckpoint();
+
+        System.setProperty("jqf.ei.RESUME", "true");
+        try {
+            ZestGuidance resumed = new ZestGuidance("test", null, null, guidance.outputDirectory, new Random(42));
+            assertEquals(1, resumed.inputsToTrace.size());
+        } finally {
+            System.clearProperty("jqf.ei.RESUME");
+        }
+    }
+}
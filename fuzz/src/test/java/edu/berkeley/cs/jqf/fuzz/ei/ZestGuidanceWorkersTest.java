@@ -0,0 +1,212 @@
+/*
+ * Copyright (c) 2017-2018 The Regents of the University of California
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.berkeley.cs.jqf.fuzz.ei;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import edu.berkeley.cs.jqf.fuzz.Fuzz;
+import edu.berkeley.cs.jqf.fuzz.JQF;
+import edu.berkeley.cs.jqf.fuzz.guidance.Result;
+import edu.berkeley.cs.jqf.fuzz.junit.GuidedFuzzing;
+import edu.berkeley.cs.jqf.fuzz.util.Coverage;
+import edu.berkeley.cs.jqf.instrument.tracing.PrimitiveTraceListener;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import static org.junit.Assert.*;
+
+@RunWith(JUnit4.class)
+public class ZestGuidanceWorkersTest {
+
+    private static final int WORKERS = 4;
+    private static final long TRIALS = 1000;
+
+    @RunWith(JQF.class)
+    public static class WorkersTestFuzzer {
+        static final AtomicInteger executions = new AtomicInteger();
+        static final Set<Thread> threads = ConcurrentHashMap.newKeySet();
+
+        @Fuzz
+        public void record(int x) {
+            executions.incrementAndGet();
+            threads.add(Thread.currentThread());
+        }
+    }
+
+    @Before
+    public void setWorkers() {
+        System.setProperty("jqf.ei.WORKERS", String.valueOf(WORKERS));
+        WorkersTestFuzzer.executions.set(0);
+        WorkersTestFuzzer.threads.clear();
+    }
+
+    @After
+    public void clearWorkers() {
+        System.clearProperty("jqf.ei.WORKERS");
+    }
+
+    @Test
+    public void testTrialsRunOnAllWorkers() throws IOException {
+        ZestGuidance guidance = new ZestGuidance("test", null, TRIALS,
+                Files.createTempDirectory("fuzz-out").toFile(), new Random(42));
+        assertEquals(WORKERS, guidance.getNumWorkers());
+
+        GuidedFuzzing.run(WorkersTestFuzzer.class, "record", guidance, null);
+
+        // Every trial is accounted for exactly once
+        assertEquals(WorkersTestFuzzer.executions.get(), guidance.numTrials);
+        // Workers may overshoot the limit by at most one in-flight trial each
+        assertTrue(guidance.numTrials >= TRIALS);
+        assertTrue(guidance.numTrials < TRIALS + WORKERS);
+        assertEquals(WORKERS, WorkersTestFuzzer.threads.size());
+        assertEquals(WORKERS, guidance.workers.size());
+    }
+
+    @Test
+    public void testCampaignIsStoppedOnceAfterAllWorkers() throws IOException {
+        AtomicInteger stops = new AtomicInteger();
+        AtomicInteger executionsAtStop = new AtomicInteger();
+        ZestGuidance guidance = new ZestGuidance("test", null, TRIALS,
+                Files.createTempDirectory("fuzz-out").toFile(), new Random(42)) {
+            @Override
+            protected void stopFuzzing() {
+                if (!stopped.get()) {
+                    stops.incrementAndGet();
+                    executionsAtStop.set(WorkersTestFuzzer.executions.get());
+                }
+                super.stopFuzzing();
+            }
+        };
+
+        GuidedFuzzing.run(WorkersTestFuzzer.class, "record", guidance, null);
+
+        assertEquals(1, stops.get());
+        // No trial was still running
+        assertEquals(WorkersTestFuzzer.executions.get(), executionsAtStop.get());
+        assertEquals(WORKERS, guidance.stoppedWorkers.size());
+    }
+
+    @Test
+    public void testCoverageOfAllWorkersIsMerged() throws Exception {
+        ZestGuidance guidance = new ZestGuidance("test", null, TRIALS,
+                Files.createTempDirectory("fuzz-out").toFile(), new Random(42));
+        CyclicBarrier barrier = new CyclicBarrier(WORKERS);
+        List<Thread> threads = new ArrayList<>();
+        AtomicReference<Throwable> thrown = new AtomicReference<>();
+        for (int i = 0; i < WORKERS; i++) {
+            int branch = 100 + i;
+            Thread thread = new Thread(() -> {
+                try {
+                    assertTrue(guidance.hasInput());
+                    InputStream in = guidance.getInput();
+                    for (int j = 0; j < 4; j++) {
+                        in.read();
+                    }
+                    PrimitiveTraceListener callback =
+                            (PrimitiveTraceListener) guidance.generateCallBack(Thread.currentThread());
+                    callback.onBranch(branch, 0);
+                    // Finish all trials at once
+                    barrier.await();
+                    guidance.handleResult(Result.SUCCESS, null);
+                } catch (Throwable t) {
+                    thrown.compareAndSet(null, t);
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertNull(thrown.get());
+
+        Coverage expected = new Coverage();
+        for (int i = 0; i < WORKERS; i++) {
+            expected.onBranch(100 + i, 0);
+        }
+        assertEquals(expected.getCovered().toSortedList(),
+                guidance.getTotalCoverage().getCovered().toSortedList());
+        // Each worker found a branch of its own
+        assertEquals(WORKERS, guidance.savedInputs.size());
+        assertEquals(WORKERS, guidance.numTrials);
+    }
+
+    @Test
+    public void testThreadTracedBeforeItsFirstTrialIsCovered() throws Exception {
+        ZestGuidance guidance = new ZestGuidance("test", null, TRIALS,
+                Files.createTempDirectory("fuzz-out").toFile(), new Random(42));
+        AtomicReference<Throwable> thrown = new AtomicReference<>();
+        Thread thread = new Thread(() -> {
+            try {
+                // As if the thread ran instrumented code before asking for an input
+                PrimitiveTraceListener callback =
+                        (PrimitiveTraceListener) guidance.generateCallBack(Thread.currentThread());
+                callback.onBranch(99, 0);
+
+                assertTrue(guidance.hasInput());
+                InputStream in = guidance.getInput();
+                for (int j = 0; j < 4; j++) {
+                    in.read();
+                }
+                callback.onBranch(100, 0);
+                guidance.handleResult(Result.SUCCESS, null);
+            } catch (Throwable t) {
+                thrown.set(t);
+            }
+        });
+        thread.start();
+        thread.join();
+        assertNull(thrown.get());
+
+        Coverage expected = new Coverage();
+        expected.onBranch(100, 0);
+        assertEquals(expected.getCovered().toSortedList(),
+                guidance.getTotalCoverage().getCovered().toSortedList());
+    }
+
+    @Test
+    public void testExecutionIndexingIsSequential() throws IOException {
+        ExecutionIndexingGuidance guidance = new ExecutionIndexingGuidance("test", null, TRIALS,
+                Files.createTempDirectory("fuzz-out").toFile(), new Random(42));
+        assertEquals(1, guidance.getNumWorkers());
+    }
+}
@@ -0,0 +1,386 @@
+/*
+ * Copyright (c) 2017-2018 The Regents of the University of California
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.berkeley.cs.jqf.fuzz.fork;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.jar.Attributes;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+
+import com.pholser.junit.quickcheck.From;
+import com.pholser.junit.quickcheck.generator.GenerationStatus;
+import com.pholser.junit.quickcheck.generator.Generator;
+import com.pholser.junit.quickcheck.random.SourceOfRandomness;
+import edu.berkeley.cs.jqf.fuzz.Fuzz;
+import edu.berkeley.cs.jqf.fuzz.JQF;
+import edu.berkeley.cs.jqf.fuzz.ei.ZestGuidance;
+import edu.berkeley.cs.jqf.fuzz.guidance.Result;
+import edu.berkeley.cs.jqf.fuzz.guidance.TimeoutException;
+import edu.berkeley.cs.jqf.fuzz.util.CoverageFactory;
+import edu.berkeley.cs.jqf.fuzz.util.ICoverage;
+import edu.berkeley.cs.jqf.instrument.tracing.events.TraceEvent;
+import janala.instrument.SnoopInstructionTransformer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import static org.junit.Assert.*;
+
+@RunWith(JUnit4.class)
+public class ForkedFuzzingTest {
+
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    @RunWith(JQF.class)
+    public static class Targets {
+
+        @Fuzz
+        public void pass(int a, int b) {
+        }
+
+        @Fuzz
+        public void branch(int a) {
+            if (a > 0) {
+                a = -a;
+            }
+        }
+
+        @Fuzz
+        public void exit(int a) {
+            System.exit(7);
+        }
+
+        @Fuzz
+        public void outOfMemory(int a) {
+            throw new OutOfMemoryError(String.valueOf(ProcessHandle.current().pid()));
+        }
+
+        @Fuzz
+        public void fail(int a) {
+            throw new IllegalStateException(String.valueOf(ProcessHandle.current().pid()));
+        }
+
+        @Fuzz
+        public void hang(int a) {
+            // Ignores both the watchdog and interrupts
+            while (true) {
+                a++;
+            }
+        }
+
+        @Fuzz
+        public void exitBeforeRead(@From(ExitingGenerator.class) Integer a) {
+        }
+    }
+
+    public static class ExitingGenerator extends Generator<Integer> {
+        public ExitingGenerator() {
+            super(Integer.class);
+        }
+
+        @Override
+        public Integer generate(SourceOfRandomness random, GenerationStatus status) {
+            System.exit(7);
+            return 0;
+        }
+    }
+
+    /** Runs a fixed number of trials and records what the coordinator does with them. */
+    private static class RecordingGuidance implements ForkableGuidance {
+        final int maxTrials;
+        final int existingBytes;
+        final Random random = new Random(42);
+        final ICoverage runCoverage = CoverageFactory.newInstance();
+        final List<Result> results = new ArrayList<>();
+        final List<Throwable> errors = new ArrayList<>();
+        final List<Integer> lengths = new ArrayList<>();
+        int trials = 0;
+        int reads = 0;
+
+        RecordingGuidance(int maxTrials, int existingBytes) {
+            this.maxTrials = maxTrials;
+            this.existingBytes = existingBytes;
+        }
+
+        @Override
+        public boolean hasInput() {
+            return trials < maxTrials;
+        }
+
+        @Override
+        public InputStream getInput() {
+            trials++;
+            runCoverage.clear();
+            return new InputStream() {
+                int position = 0;
+
+                @Override
+                public int read() throws IOException {
+                    byte[] b = new byte[1];
+                    return read(b, 0, 1) > 0 ? b[0] & 0xFF : -1;
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) {
+                    reads++;
+                    for (int i = 0; i < len; i++) {
+                        b[off + i] = (byte) random.nextInt(256);
+                    }
+                    position += len;
+                    return len;
+                }
+
+                @Override
+                public int available() {
+                    return Math.max(0, existingBytes - position);
+                }
+            };
+        }
+
+        @Override
+        public ICoverage getRunCoverage() {
+            return runCoverage;
+        }
+
+        @Override
+        public void truncateInput(int length) {
+            lengths.add(length);
+        }
+
+        @Override
+        public void handleResult(Result result, Throwable error) {
+            results.add(result);
+            errors.add(error);
+        }
+
+        @Override
+        public void setBlind(boolean blind) {
+        }
+
+        @Override
+        public Consumer<TraceEvent> generateCallBack(Thread thread) {
+            return (e) -> {};
+        }
+    }
+
+    @Before
+    public void setUp() {
+        // Start children only when needed, to keep the number of JVMs down
+        System.setProperty("jqf.fork.SPARES", "0");
+    }
+
+    @After
+    public void tearDown() {
+        System.clearProperty("jqf.fork.SPARES");
+        System.clearProperty("jqf.fork.RECYCLE_PERIOD");
+    }
+
+    private static boolean fuzz(String method, RecordingGuidance guidance, long timeoutMillis) {
+        return new ForkedFuzzing(Targets.class.getName(), method, guidance, timeoutMillis, null).run();
+    }
+
+    @Test
+    public void existingBytesAreSentWithTrial() {
+        RecordingGuidance guidance = new RecordingGuidance(3, 100);
+        assertTrue(fuzz("pass", guidance, 0));
+        assertEquals(List.of(Result.SUCCESS, Result.SUCCESS, Result.SUCCESS), guidance.results);
+        // No trial asked for more bytes than the input had
+        assertEquals(3, guidance.reads);
+        for (int length : guidance.lengths) {
+            assertTrue(length > 0 && length < 100);
+        }
+    }
+
+    @Test
+    public void freshBytesAreSentInChunks() {
+        RecordingGuidance guidance = new RecordingGuidance(3, 0);
+        assertTrue(fuzz("pass", guidance, 0));
+        assertEquals(List.of(Result.SUCCESS, Result.SUCCESS, Result.SUCCESS), guidance.results);
+        assertEquals(3, guidance.reads);
+        for (int length : guidance.lengths) {
+            assertTrue(length > 0 && length < ChildProcess.READ_CHUNK_SIZE);
+        }
+    }
+
+    /* Starts a child that runs a target with fast coverage, instrumenting nothing but the targets. */
+    private static ChildProcess startInstrumentedChild(String method, File agent, boolean minimizeProbes) throws IOException {
+        List<String> command = new ArrayList<>();
+        command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+        command.add("-javaagent:" + agent);
+        command.add("-DuseFastNonCollidingCoverageInstrumentation=true");
+        command.add("-Djanala.minimizeProbes=" + minimizeProbes);
+        command.add("-Djanala.includes=" + Targets.class.getName().replace('.', '/'));
+        command.add("-Djanala.excludes=java/,javax/,com/,org/,net/,ru/,ognl/,javassist/,edu/");
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(ChildDriver.class.getName());
+        command.add(Targets.class.getName());
+        command.add(method);
+        command.add("0");
+        return new ChildProcess(command, null);
+    }
+
+    /* Returns the coverage of an outcome by key. */
+    private static Map<Integer, Integer> coverageOf(ChildProcess.Outcome outcome) {
+        Map<Integer, Integer> coverage = new HashMap<>();
+        for (int i = 0; i < outcome.keys.length; i++) {
+            coverage.put(outcome.keys[i], outcome.counts[i]);
+        }
+        return coverage;
+    }
+
+    @Test
+    public void omittedProbesAreReportedByChild() throws IOException {
+        // An agent jar whose premain class is found on the class path
+        File agent = temp.newFile("agent.jar");
+        Manifest manifest = new Manifest();
+        manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        manifest.getMainAttributes().put(new Attributes.Name("Premain-Class"), SnoopInstructionTransformer.class.getName());
+        manifest.getMainAttributes().put(new Attributes.Name("Can-Retransform-Classes"), "true");
+        new JarOutputStream(new FileOutputStream(agent), manifest).close();
+
+        List<Map<Integer, Integer>> full = new ArrayList<>();
+        List<Map<Integer, Integer>> minimized = new ArrayList<>();
+        for (boolean minimize : new boolean[]{false, true}) {
+            try (ChildProcess child = startInstrumentedChild("branch", agent, minimize)) {
+                Random random = new Random(42);
+                for (int i = 0; i < 8; i++) {
+                    byte[] input = new byte[64];
+                    random.nextBytes(input);
+                    ChildProcess.Outcome outcome = child.runTrial(new ByteArrayInputStream(input), false, 0);
+                    assertEquals(Result.SUCCESS, outcome.result);
+                    (minimize ? minimized : full).add(coverageOf(outcome));
+                }
+            }
+        }
+
+        // Both arms of the branch are taken by some input
+        Set<Integer> covered = new HashSet<>();
+        full.forEach(coverage -> covered.addAll(coverage.keySet()));
+        assertTrue(covered.size() > full.get(0).size());
+        assertEquals(full, minimized);
+    }
+
+    @Test
+    public void exitFailsTrialAndReplacesChild() {
+        RecordingGuidance guidance = new RecordingGuidance(2, 100);
+        assertFalse(fuzz("exit", guidance, 0));
+        assertEquals(List.of(Result.FAILURE, Result.FAILURE), guidance.results);
+        for (Throwable error : guidance.errors) {
+            assertTrue(error instanceof ForkedTrialException);
+            assertTrue(error.getMessage(), error.getMessage().contains("status 7"));
+        }
+        // The coordinator cannot tell how much of the input was read
+        assertEquals(List.of(100, 100), guidance.lengths);
+    }
+
+    @Test
+    public void outOfMemoryFailsTrialAndReplacesChild() {
+        RecordingGuidance guidance = new RecordingGuidance(2, 100);
+        assertFalse(fuzz("outOfMemory", guidance, 0));
+        assertEquals(List.of(Result.FAILURE, Result.FAILURE), guidance.results);
+        assertTrue(guidance.errors.get(0) instanceof OutOfMemoryError);
+        assertTrue(guidance.errors.get(1) instanceof OutOfMemoryError);
+        assertNotEquals(guidance.errors.get(0).getMessage(), guidance.errors.get(1).getMessage());
+    }
+
+    @Test
+    public void hangIsKilled() {
+        RecordingGuidance guidance = new RecordingGuidance(1, 100);
+        assertTrue(fuzz("hang", guidance, 100));
+        assertEquals(List.of(Result.TIMEOUT), guidance.results);
+        assertTrue(guidance.errors.get(0) instanceof TimeoutException);
+    }
+
+    @Test
+    public void childIsRecycledAfterPeriod() {
+        System.setProperty("jqf.fork.RECYCLE_PERIOD", "2");
+        RecordingGuidance guidance = new RecordingGuidance(4, 100);
+        assertFalse(fuzz("fail", guidance, 0));
+        assertEquals(4, guidance.errors.size());
+        List<String> pids = new ArrayList<>();
+        for (Throwable error : guidance.errors) {
+            assertTrue(error instanceof IllegalStateException);
+            pids.add(error.getMessage());
+        }
+        // Errors that are not fatal do not retire the child
+        assertEquals(pids.get(0), pids.get(1));
+        assertEquals(pids.get(2), pids.get(3));
+        assertEquals(2, new HashSet<>(pids).size());
+    }
+
+    @Test
+    public void trialAbandonedBeforeReadIsNotReported() {
+        RecordingGuidance guidance = new RecordingGuidance(2, 100);
+        assertTrue(fuzz("exitBeforeRead", guidance, 0));
+        assertEquals(2, guidance.trials);
+        assertTrue(guidance.results.isEmpty());
+        assertTrue(guidance.lengths.isEmpty());
+    }
+
+    @Test
+    public void coordinatorDoesNotTimeOutTrials() throws Exception {
+        File outputDirectory = temp.newFolder();
+        System.setProperty("jqf.ei.TIMEOUT", "50");
+        ZestGuidance guidance;
+        try {
+            guidance = new ZestGuidance("test", null, null, outputDirectory, new Random(42));
+        } finally {
+            System.clearProperty("jqf.ei.TIMEOUT");
+        }
+        new ForkedFuzzing(Targets.class.getName(), "pass", guidance, 50, null);
+
+        guidance.getInput();
+        // Waiting for the child, which the watchdog would interrupt after twice the timeout
+        Thread.sleep(200);
+        guidance.handleResult(Result.SUCCESS, null);
+
+        // The trial was not counted as a timeout
+        File[] failures = new File(outputDirectory, "failures").listFiles();
+        assertTrue(failures == null || failures.length == 0);
+    }
+}
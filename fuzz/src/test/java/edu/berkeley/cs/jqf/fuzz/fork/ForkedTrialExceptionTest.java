@@ -0,0 +1,83 @@
+/*
+ * Copyright (c) 2017-2018 The Regents of the University of California
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.berkeley.cs.jqf.fuzz.fork;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import static org.junit.Assert.*;
+
+@RunWith(JUnit4.class)
+public class ForkedTrialExceptionTest {
+
+    @Test
+    public void copyKeepsMessageStackTraceAndCauses() {
+        IllegalStateException cause = new IllegalStateException("inner");
+        RuntimeException original = new RuntimeException("outer", cause);
+        ForkedTrialException copy = new ForkedTrialException(original);
+
+        assertEquals(original.toString(), copy.getMessage());
+        assertArrayEquals(original.getStackTrace(), copy.getStackTrace());
+        assertTrue(copy.getCause() instanceof ForkedTrialException);
+        assertEquals(cause.toString(), copy.getCause().getMessage());
+        assertArrayEquals(cause.getStackTrace(), copy.getCause().getStackTrace());
+        assertNull(copy.getCause().getCause());
+    }
+
+    @Test
+    public void copySurvivesSerialization() throws IOException, ClassNotFoundException {
+        ForkedTrialException copy = new ForkedTrialException(new RuntimeException("boom"));
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(copy);
+        }
+        Object read;
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            read = in.readObject();
+        }
+        assertEquals(copy.getMessage(), ((Throwable) read).getMessage());
+        assertArrayEquals(copy.getStackTrace(), ((Throwable) read).getStackTrace());
+    }
+
+    @Test
+    public void onlyUnrecoverableErrorsRetireTheChild() {
+        assertTrue(ChildGuidance.isFatal(new OutOfMemoryError()));
+        assertTrue(ChildGuidance.isFatal(new InternalError()));
+        assertFalse(ChildGuidance.isFatal(new StackOverflowError()));
+        assertFalse(ChildGuidance.isFatal(new IllegalStateException()));
+        assertFalse(ChildGuidance.isFatal(null));
+    }
+}
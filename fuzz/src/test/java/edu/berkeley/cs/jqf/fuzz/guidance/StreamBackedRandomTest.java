@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2017-2018 The Regents of the University of California
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.berkeley.cs.jqf.fuzz.guidance;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.InputStream;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class StreamBackedRandomTest {
+
+    private static byte[] randomBytes(int n) {
+        byte[] bytes = new byte[n];
+        new Random(42).nextBytes(bytes);
+        return bytes;
+    }
+
+    /** A stream that only supports reading one byte at a time. */
+    private static InputStream singleByteStream(byte[] bytes) {
+        ByteArrayInputStream in = new ByteArrayInputStream(bytes);
+        return new InputStream() {
+            @Override
+            public int read() {
+                return in.read();
+            }
+        };
+    }
+
+    @Test
+    public void testNextLongMatchesTwoInts() {
+        byte[] bytes = randomBytes(64);
+        StreamBackedRandom bulk = new StreamBackedRandom(new ByteArrayInputStream(bytes));
+        StreamBackedRandom ints = new StreamBackedRandom(new ByteArrayInputStream(bytes));
+        for (int i = 0; i < 8; i++) {
+            long expected = ((long) ints.next(32) << 32) + ints.next(32);
+            Assert.assertEquals(expected, bulk.nextLong());
+        }
+    }
+
+    @Test
+    public void testNextBytesMatchesInts() {
+        byte[] bytes = randomBytes(64);
+        StreamBackedRandom bulk = new StreamBackedRandom(new ByteArrayInputStream(bytes));
+        StreamBackedRandom ints = new StreamBackedRandom(singleByteStream(bytes));
+
+        byte[] actual = new byte[23];
+        bulk.nextBytes(actual);
+
+        byte[] expected = new byte[23];
+        for (int i = 0; i < expected.length; ) {
+            int rnd = ints.next(32);
+            for (int n = Math.min(expected.length - i, 4); n-- > 0; rnd >>= 8) {
+                expected[i++] = (byte) rnd;
+            }
+        }
+
+        Assert.assertArrayEquals(expected, actual);
+        Assert.assertEquals(24, bulk.getTotalBytesRead());
+        Assert.assertEquals(ints.nextInt(), bulk.nextInt());
+    }
+
+    @Test
+    public void testSmallValuesAreLittleEndian() {
+        StreamBackedRandom random = new StreamBackedRandom(new ByteArrayInputStream(new byte[]{1, 2, 3}));
+        Assert.assertEquals(0x0201, random.next(16));
+        Assert.assertEquals(3, random.nextByte());
+    }
+
+    @Test
+    public void testLeadingBytesAreIgnored() {
+        byte[] bytes = randomBytes(16);
+        StreamBackedRandom skipping = new StreamBackedRandom(new ByteArrayInputStream(bytes), Long.BYTES);
+        Assert.assertEquals(0L, skipping.nextLong());
+        Assert.assertEquals(new StreamBackedRandom(new ByteArrayInputStream(bytes)).nextLong(), skipping.nextLong());
+    }
+
+    @Test
+    public void testEOF() {
+        StreamBackedRandom random = new StreamBackedRandom(new ByteArrayInputStream(new byte[6]));
+        try {
+            random.nextLong();
+            Assert.fail("Expected EOF");
+        } catch (IllegalStateException e) {
+            Assert.assertTrue(e.getCause() instanceof EOFException);
+        }
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright (c) 2017-2018 The Regents of the University of California
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.berkeley.cs.jqf.fuzz.junit;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import edu.berkeley.cs.jqf.fuzz.Fuzz;
+import edu.berkeley.cs.jqf.fuzz.JQF;
+import edu.berkeley.cs.jqf.fuzz.random.NoGuidance;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.AssumptionViolatedException;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.junit.runners.model.FrameworkMethod;
+
+@RunWith(JUnit4.class)
+public class PersistentTrialRunnerTest {
+
+    @RunWith(JQF.class)
+    public static class Fixture {
+        static final List<String> log = new ArrayList<>();
+        static int instances = 0;
+
+        final int id = ++instances;
+
+        @Before
+        public void setUp() {
+            log.add("before " + id);
+        }
+
+        @After
+        public void tearDown() {
+            log.add("after " + id);
+        }
+
+        @Fuzz
+        public void trial(int x) {
+            log.add("trial " + id);
+            Assume.assumeTrue(x >= 0);
+            if (x == 42) {
+                throw new IllegalStateException();
+            }
+        }
+    }
+
+    private static FrameworkMethod trialMethod() throws NoSuchMethodException {
+        return new FrameworkMethod(Fixture.class.getMethod("trial", int.class));
+    }
+
+    private static void reset() {
+        Fixture.log.clear();
+        Fixture.instances = 0;
+    }
+
+    @Test
+    public void testFixtureIsRecycled() throws Throwable {
+        reset();
+        PersistentTrialRunner runner = new PersistentTrialRunner(Fixture.class, trialMethod(), 2);
+        for (int i = 0; i < 3; i++) {
+            runner.run(new Object[]{i});
+        }
+        runner.close();
+        Assert.assertEquals(List.of("before 1", "trial 1", "trial 1", "after 1",
+                "before 2", "trial 2", "after 2"), Fixture.log);
+    }
+
+    @Test
+    public void testFixtureIsRecycledAfterError() throws Throwable {
+        reset();
+        PersistentTrialRunner runner = new PersistentTrialRunner(Fixture.class, trialMethod(), 0);
+        try {
+            runner.run(new Object[]{-1});
+            Assert.fail();
+        } catch (AssumptionViolatedException e) {
+            // Assumptions do not invalidate the fixture
+        }
+        try {
+            runner.run(new Object[]{42});
+            Assert.fail();
+        } catch (IllegalStateException e) {
+            // Expected
+        }
+        runner.run(new Object[]{1});
+        runner.close();
+        Assert.assertEquals(List.of("before 1", "trial 1", "trial 1", "after 1",
+                "before 2", "trial 2", "after 2"), Fixture.log);
+    }
+
+    @Test
+    public void testFuzzingWithPersistentFixture() {
+        reset();
+        System.setProperty("jqf.persistentFixture", "true");
+        try {
+            GuidedFuzzing.run(Fixture.class, "trial", new NoGuidance(10, null), null);
+        } finally {
+            System.clearProperty("jqf.persistentFixture");
+        }
+        Assert.assertEquals(1, Fixture.instances);
+        Assert.assertEquals("after 1", Fixture.log.get(Fixture.log.size() - 1));
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright (c) 2017-2018 The Regents of the University of California
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.berkeley.cs.jqf.fuzz.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import edu.berkeley.cs.jqf.fuzz.guidance.GuidanceException;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class AsyncFileWriterTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static String read(File file) throws IOException {
+        return new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void testAppendedLinesAreKeptInOrder() throws IOException {
+        File file = folder.newFile("log");
+        AsyncFileWriter writer = new AsyncFileWriter();
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < 5000; i++) {
+            writer.appendLine(file, "line " + i);
+            expected.append("line ").append(i).append(System.lineSeparator());
+        }
+        writer.flush();
+        Assert.assertEquals(expected.toString(), read(file));
+        writer.close();
+    }
+
+    @Test
+    public void testOverwritesKeepLatestContents() throws IOException {
+        File file = new File(folder.getRoot(), "input");
+        AsyncFileWriter writer = new AsyncFileWriter();
+        for (int i = 0; i < 1000; i++) {
+            writer.write(file, new byte[]{(byte) i, (byte) (i >> 8)});
+        }
+        writer.flush();
+        Assert.assertArrayEquals(new byte[]{(byte) 999, (byte) (999 >> 8)},
+                Files.readAllBytes(file.toPath()));
+        writer.close();
+    }
+
+    @Test
+    public void testCloseWritesPendingRequests() throws IOException {
+        File log = new File(folder.getRoot(), "log");
+        File data = new File(folder.getRoot(), "data");
+        AsyncFileWriter writer = new AsyncFileWriter();
+        writer.appendLine(log, "first");
+        writer.write(data, new byte[]{1, 2, 3});
+        writer.close();
+        Assert.assertEquals("first" + System.lineSeparator(), read(log));
+        Assert.assertArrayEquals(new byte[]{1, 2, 3}, Files.readAllBytes(data.toPath()));
+
+        // Requests after closing are performed immediately
+        writer.appendLine(log, "second");
+        writer.write(data, new byte[]{4});
+        Assert.assertEquals("first" + System.lineSeparator() + "second" + System.lineSeparator(), read(log));
+        Assert.assertTrue(Arrays.equals(new byte[]{4}, Files.readAllBytes(data.toPath())));
+    }
+
+    @Test
+    public void testRequestsAfterClosingDoNotKeepFilesOpen() throws IOException {
+        File fds = new File("/proc/self/fd");
+        Assume.assumeTrue(fds.isDirectory());
+        File log = new File(folder.getRoot(), "log");
+        AsyncFileWriter writer = new AsyncFileWriter();
+        writer.close();
+
+        for (int i = 0; i < 3; i++) {
+            writer.appendLine(log, "line " + i);
+        }
+        for (File fd : fds.listFiles()) {
+            try {
+                Assert.assertNotEquals(log.toPath(), Files.readSymbolicLink(fd.toPath()));
+            } catch (IOException ignore) {
+                // Closed in the meantime
+            }
+        }
+        Assert.assertEquals(3, Files.readAllLines(log.toPath()).size());
+    }
+
+    @Test(expected = GuidanceException.class)
+    public void testWriteErrorsAreReported() {
+        File missing = new File(new File(folder.getRoot(), "missing"), "file");
+        AsyncFileWriter writer = new AsyncFileWriter();
+        writer.write(missing, new byte[]{1});
+        writer.flush();
+    }
+}
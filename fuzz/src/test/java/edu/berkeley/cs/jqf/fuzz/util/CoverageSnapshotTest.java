@@ -0,0 +1,95 @@
+/*
+ * Copyright (c) 2017-2018 The Regents of the University of California
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.berkeley.cs.jqf.fuzz.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class CoverageSnapshotTest {
+
+    private static void hit(ICoverage c, int key, int times) {
+        c.setCount(key, c.getCount(key) + times);
+    }
+
+    private static void checkSnapshot(ICoverage c) {
+        hit(c, 700, 1);
+        hit(c, 3, 5);
+        hit(c, 42, 2);
+
+        CoverageSnapshot s = CoverageSnapshot.of(c);
+        Assert.assertEquals(3, s.getNonZeroCount());
+        Assert.assertArrayEquals(new int[]{3, 42, 700}, s.getCovered().toArray());
+        Assert.assertEquals(4, s.getCount(3)); // hob(5)
+        Assert.assertEquals(2, s.getCount(42));
+        Assert.assertEquals(1, s.getCount(700));
+        Assert.assertEquals(0, s.getCount(4));
+        Assert.assertTrue(s.covers(42));
+        Assert.assertFalse(s.covers(43));
+
+        // Later updates to the coverage do not affect the snapshot
+        hit(c, 4, 1);
+        Assert.assertEquals(3, s.getNonZeroCount());
+        Assert.assertNotEquals(s, CoverageSnapshot.of(c));
+    }
+
+    @Test
+    public void testSnapshotOfCoverage() {
+        checkSnapshot(new Coverage());
+    }
+
+    @Test
+    public void testSnapshotOfFastNonCollidingCoverage() {
+        checkSnapshot(new FastNonCollidingCoverage());
+    }
+
+    @Test
+    public void testWriteAndRead() throws IOException {
+        Coverage c = new Coverage();
+        hit(c, 10, 1);
+        hit(c, 65000, 1000);
+        CoverageSnapshot s = CoverageSnapshot.of(c);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        s.write(new DataOutputStream(bytes));
+        CoverageSnapshot r = CoverageSnapshot.read(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+
+        Assert.assertEquals(s, r);
+        Assert.assertEquals(s.hashCode(), r.hashCode());
+        Assert.assertEquals(512, r.getCount(65000));
+    }
+}
@@ -34,6 +34,8 @@ import edu.berkeley.cs.jqf.instrument.tracing.events.ReadEvent;
 import edu.berkeley.cs.jqf.instrument.tracing.events.ReturnEvent;
 import edu.berkeley.cs.jqf.instrument.tracing.events.TraceEvent;
 import janala.logger.inst.INVOKESTATIC;
+import java.util.Arrays;
+import java.util.Random;
 import org.junit.Assert;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -62,6 +64,26 @@ public class CoverageTest {
     }
 
 
+    @Test
+    public void primitiveCallbacksMatchEvents() {
+        Coverage viaEvents = new Coverage();
+        Coverage viaPrimitives = new Coverage();
+        Random random = new Random(42);
+        for (int i = 0; i < 1000; i++) {
+            int iid = random.nextInt(100);
+            if (random.nextBoolean()) {
+                int arm = random.nextInt(4);
+                viaEvents.handleEvent(branchEvent(iid, arm));
+                viaPrimitives.onBranch(iid, arm);
+            } else {
+                viaEvents.handleEvent(callEvent(iid));
+                viaPrimitives.onCall(iid);
+            }
+        }
+        Assert.assertEquals(viaEvents.getCovered(), viaPrimitives.getCovered());
+        Assert.assertEquals(viaEvents.nonZeroHashCode(), viaPrimitives.nonZeroHashCode());
+    }
+
     @Test
     public void coverageCountsDistinctBranchesAndCalls() {
         Coverage c = new Coverage();
@@ -177,4 +199,26 @@ public class CoverageTest {
         Assert.assertTrue(changed); // Because hob(3) and hob(1) are different
         Assert.assertEquals(c2.getNonZeroCount(), total.getNonZeroCount());
     }
+
+    @Test
+    public void testUpdateBitsMatchesDenseMerge() {
+        Random random = new Random(42);
+        Coverage total = new Coverage();
+        int[] expected = new int[total.size()];
+        for (int run = 0; run < 100; run++) {
+            Coverage c = new Coverage();
+            for (int i = 0; i < 20; i++) {
+                c.handleEvent(branchEvent(random.nextInt(500), random.nextInt(3)));
+            }
+            boolean expectedChange = false;
+            for (int idx = 0; idx < expected.length; idx++) {
+                int after = expected[idx] | Integer.highestOneBit(c.getCounter().getAtIndex(idx));
+                expectedChange |= after != expected[idx];
+                expected[idx] = after;
+            }
+            Assert.assertEquals(expectedChange, total.updateBits(c));
+        }
+        Assert.assertEquals(Arrays.hashCode(expected), total.hashCode());
+        Assert.assertEquals(total.hashCode(), total.copy().hashCode());
+    }
 }
@@ -0,0 +1,126 @@
+/*
+ * Copyright (c) 2017-2018 The Regents of the University of California
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.berkeley.cs.jqf.fuzz.util;
+
+import org.eclipse.collections.api.list.primitive.IntList;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class FastEdgeCoverageTest {
+
+    private static final int A = 10, B = 20, C = 30, D = 40;
+
+    private static void hit(FastNonCollidingCoverage cov, int... probes) {
+        for (int probe : probes) {
+            cov.logJump(probe, 0);
+        }
+    }
+
+    /* Returns the keys covered by running each of the given traces as a separate trial. */
+    private static IntList cover(FastNonCollidingCoverage cov, int[]... traces) {
+        FastNonCollidingCoverage total = new FastNonCollidingCoverage();
+        for (int[] trace : traces) {
+            cov.clear();
+            hit(cov, trace);
+            total.updateBits(cov);
+        }
+        return total.getCovered();
+    }
+
+    @Test
+    public void edgesDependOnOrder() {
+        FastEdgeCoverage cov = new FastEdgeCoverage(1);
+        hit(cov, A, B, A, B);
+        // start->A, A->B, B->A
+        Assert.assertEquals(3, cov.getNonZeroCount());
+
+        FastEdgeCoverage reversed = new FastEdgeCoverage(1);
+        hit(reversed, B, A, B, A);
+        Assert.assertEquals(3, reversed.getNonZeroCount());
+        Assert.assertNotEquals(cov.getCovered().toSortedList(), reversed.getCovered().toSortedList());
+
+        // Branch coverage only sees two probes either way
+        FastNonCollidingCoverage branches = new FastNonCollidingCoverage();
+        hit(branches, A, B, A, B);
+        Assert.assertEquals(2, branches.getNonZeroCount());
+    }
+
+    @Test
+    public void clearResetsHistory() {
+        FastEdgeCoverage cov = new FastEdgeCoverage(1);
+        hit(cov, C);
+        cov.clear();
+        hit(cov, A, B);
+        Assert.assertEquals(cover(new FastEdgeCoverage(1), new int[]{A, B}).toSortedList(),
+                cov.getCovered().toSortedList());
+    }
+
+    @Test
+    public void ngramsSeeFurtherBack() {
+        int[] abc = {A, B, C};
+        int[] dbc = {D, B, C};
+        // As edges, B->C is shared by both traces
+        Assert.assertEquals(1, cover(new FastEdgeCoverage(1), abc).size() +
+                cover(new FastEdgeCoverage(1), dbc).size() -
+                cover(new FastEdgeCoverage(1), abc, dbc).size());
+        // As 3-grams, nothing is shared
+        FastNonCollidingCoverage trigrams = CoverageFactory.newFastCoverage("ngram", 3);
+        Assert.assertEquals(6, cover(trigrams, abc, dbc).size());
+    }
+
+    @Test
+    public void historyIsPerThread() throws InterruptedException {
+        FastEdgeCoverage cov = new FastEdgeCoverage(1);
+        hit(cov, A);
+        Thread other = new Thread(() -> hit(cov, B));
+        other.start();
+        other.join();
+        hit(cov, C);
+
+        IntList expected = cover(new FastEdgeCoverage(1), new int[]{A, C}, new int[]{B});
+        Assert.assertEquals(expected.toSortedList(), cov.getCovered().toSortedList());
+    }
+
+    @Test
+    public void copyKeepsCountsAndMetric() {
+        FastEdgeCoverage cov = new FastEdgeCoverage(2);
+        hit(cov, A, B, C);
+        FastEdgeCoverage copy = cov.copy();
+        Assert.assertEquals(2, copy.getHistoryLength());
+        Assert.assertEquals(cov.getCovered().toSortedList(), copy.getCovered().toSortedList());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unknownMetricIsRejected() {
+        CoverageFactory.newFastCoverage("path", 4);
+    }
+}
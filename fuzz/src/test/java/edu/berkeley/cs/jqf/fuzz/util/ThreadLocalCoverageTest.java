@@ -0,0 +1,133 @@
+/*
+ * Copyright (c) 2017-2018 The Regents of the University of California
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.berkeley.cs.jqf.fuzz.util;
+
+import janala.instrument.FastCoverageListener;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class ThreadLocalCoverageTest {
+
+    /* Logs the same sequence of probes to a listener. */
+    private static void logProbes(FastCoverageListener listener) {
+        for (int i = 0; i < 100; i++) {
+            listener.logMethodBegin(1);
+            listener.logJump(2, i % 2);
+            listener.logLookUpSwitch(i % 5, 10, 0, new int[]{0, 1, 2});
+            listener.logTableSwitch(i % 7, 20, 1, 4, 0);
+        }
+        listener.logJump(5000, 1);
+    }
+
+    private static void checkSameAsSharedCounter(ThreadLocalCoverage.Storage storage) {
+        FastNonCollidingCoverage expected = new FastNonCollidingCoverage();
+        logProbes(expected);
+
+        ThreadLocalCoverage local = new ThreadLocalCoverage(storage);
+        logProbes(local);
+        FastNonCollidingCoverage actual = new FastNonCollidingCoverage();
+        local.mergeInto(actual);
+
+        Assert.assertEquals(expected.getNonZeroCount(), actual.getNonZeroCount());
+        Assert.assertEquals(CoverageSnapshot.of(expected), CoverageSnapshot.of(actual));
+        Assert.assertEquals(expected.hashCode(), actual.hashCode());
+
+        // Merging clears the local counts
+        FastNonCollidingCoverage empty = new FastNonCollidingCoverage();
+        local.mergeInto(empty);
+        Assert.assertEquals(0, empty.getNonZeroCount());
+    }
+
+    @Test
+    public void testHashStorage() {
+        checkSameAsSharedCounter(ThreadLocalCoverage.Storage.HASH);
+    }
+
+    @Test
+    public void testDenseStorage() {
+        checkSameAsSharedCounter(ThreadLocalCoverage.Storage.DENSE);
+    }
+
+    @Test
+    public void testMergeAddsCountsOfAllThreads() throws InterruptedException {
+        ThreadLocalCoverage local = new ThreadLocalCoverage(ThreadLocalCoverage.Storage.DENSE);
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < 1000; i++) {
+                    local.logJump(7, 0);
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        local.logJump(7, 1);
+
+        FastNonCollidingCoverage coverage = new FastNonCollidingCoverage();
+        local.mergeInto(coverage);
+        Assert.assertEquals(4000, coverage.getCount(7));
+        Assert.assertEquals(1, coverage.getCount(8));
+    }
+
+    @Test
+    public void testCurrentThreadOnly() throws InterruptedException {
+        ThreadLocalCoverage local = new ThreadLocalCoverage(ThreadLocalCoverage.Storage.HASH);
+        Thread other = new Thread(() -> local.logMethodBegin(3));
+        other.start();
+        other.join();
+        local.logMethodBegin(4);
+
+        FastNonCollidingCoverage coverage = new FastNonCollidingCoverage();
+        local.mergeCurrentThreadInto(coverage);
+        Assert.assertEquals(0, coverage.getCount(3));
+        Assert.assertEquals(1, coverage.getCount(4));
+
+        local.discardTerminatedThreads();
+        local.mergeInto(coverage);
+        Assert.assertEquals(0, coverage.getCount(3));
+    }
+
+    @Test
+    public void testClear() {
+        ThreadLocalCoverage local = new ThreadLocalCoverage(ThreadLocalCoverage.Storage.DENSE);
+        local.logJump(100, 0);
+        local.clear();
+        local.logJump(100, 1);
+
+        FastNonCollidingCoverage coverage = new FastNonCollidingCoverage();
+        local.mergeInto(coverage);
+        Assert.assertEquals(0, coverage.getCount(100));
+        Assert.assertEquals(1, coverage.getCount(101));
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright (c) 2017-2018 The Regents of the University of California
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.berkeley.cs.jqf.fuzz.util;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+import edu.berkeley.cs.jqf.fuzz.guidance.TimeoutException;
+import edu.berkeley.cs.jqf.instrument.tracing.AbortSignal;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import static org.junit.Assert.*;
+
+@RunWith(JUnit4.class)
+public class TrialWatchdogTest {
+
+    private final TrialWatchdog watchdog = new TrialWatchdog();
+
+    /* Polls like instrumented code would, until asked to stop or the time is up. */
+    private static Throwable pollFor(long millis) {
+        long end = System.currentTimeMillis() + millis;
+        try {
+            while (System.currentTimeMillis() < end) {
+                AbortSignal.poll();
+            }
+        } catch (Throwable t) {
+            return t;
+        }
+        return null;
+    }
+
+    @Test
+    public void overrunningTrialIsStopped() {
+        watchdog.arm(20);
+        Throwable thrown = pollFor(5_000);
+        assertTrue(thrown instanceof TimeoutException);
+        assertTrue(watchdog.disarm());
+    }
+
+    @Test
+    public void disarmedTrialIsNotStopped() {
+        watchdog.arm(50);
+        assertFalse(watchdog.disarm());
+        assertNull(pollFor(200));
+    }
+
+    @Test
+    public void stuckTrialIsInterrupted() throws InterruptedException {
+        AtomicReference<Throwable> thrown = new AtomicReference<>();
+        AtomicReference<Boolean> interruptedAfterDisarm = new AtomicReference<>();
+        Thread thread = new Thread(() -> {
+            watchdog.arm(20);
+            try {
+                // Uninstrumented code that never polls
+                Thread.sleep(5_000);
+            } catch (InterruptedException e) {
+                thrown.set(e);
+            }
+            watchdog.disarm();
+            interruptedAfterDisarm.set(Thread.currentThread().isInterrupted());
+        });
+        thread.start();
+        thread.join();
+        assertTrue(thrown.get() instanceof InterruptedException);
+        assertFalse(interruptedAfterDisarm.get());
+    }
+
+    @Test
+    public void staleRequestIsWithdrawnWhenRearmed() {
+        watchdog.arm(10);
+        long end = System.currentTimeMillis() + 50;
+        while (System.currentTimeMillis() < end) {
+            // Overrun without polling
+        }
+        // The previous trial ended without being disarmed
+        watchdog.arm(5_000);
+        assertFalse(Thread.currentThread().isInterrupted());
+        assertNull(pollFor(100));
+        assertFalse(watchdog.disarm());
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright (c) 2017-2018 The Regents of the University of California
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.berkeley.cs.jqf.instrument;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+import edu.berkeley.cs.jqf.instrument.AheadOfTimeInstrumenter.InstrumentedClasses;
+import janala.instrument.SnoopInstructionTransformer;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class AheadOfTimeInstrumenterTest {
+
+    public static class Target {
+        public static int sign(int x) {
+            return x > 0 ? 1 : x < 0 ? -1 : 0;
+        }
+    }
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static final String NAME = Target.class.getName().replace('.', '/');
+
+    private File classpath;
+    private File output;
+    private byte[] original;
+
+    @Before
+    public void setUp() throws IOException {
+        classpath = folder.newFolder("classpath");
+        output = folder.newFolder("output");
+        try (InputStream in = Target.class.getResourceAsStream("/" + NAME + ".class")) {
+            original = in.readAllBytes();
+        }
+        File file = new File(classpath, NAME + ".class");
+        file.getParentFile().mkdirs();
+        Files.write(file.toPath(), original);
+    }
+
+    private int instrument() throws IOException {
+        return new AheadOfTimeInstrumenter(new String[] { classpath.getPath() }, output, 2).instrument();
+    }
+
+    @Test
+    public void instrumentsClasspath() throws Exception {
+        Assert.assertEquals(1, instrument());
+
+        File instrumentedFile = new File(output, AheadOfTimeInstrumenter.CLASSES_DIR + "/" + NAME + ".class");
+        byte[] instrumented = Files.readAllBytes(instrumentedFile.toPath());
+        Assert.assertFalse(Arrays.equals(original, instrumented));
+        Class<?> loaded = new ClassLoader(null) {
+            Class<?> define() {
+                return defineClass(null, instrumented, 0, instrumented.length);
+            }
+        }.define();
+        Assert.assertEquals(Target.class.getName(), loaded.getName());
+
+        List<String> manifest = Files.readAllLines(new File(output, AheadOfTimeInstrumenter.MANIFEST).toPath());
+        Assert.assertEquals("fingerprint " + SnoopInstructionTransformer.fingerprint(), manifest.get(0));
+        Assert.assertTrue(manifest.contains("class " + NAME + " " + AheadOfTimeInstrumenter.sha256(original) + " 0 0"));
+    }
+
+    @Test
+    public void onlyUpToDateClassesAreReused() throws Exception {
+        instrument();
+        InstrumentedClasses classes = InstrumentedClasses.open(output);
+        Assert.assertNotNull(classes);
+        Assert.assertNotNull(classes.get(NAME, original));
+
+        byte[] changed = original.clone();
+        changed[changed.length - 1] ^= 1;
+        Assert.assertNull(classes.get(NAME, changed));
+        Assert.assertNull(classes.get("some/OtherClass", original));
+    }
+
+    @Test
+    public void staleManifestIsIgnored() throws Exception {
+        instrument();
+        File manifest = new File(output, AheadOfTimeInstrumenter.MANIFEST);
+        List<String> lines = Files.readAllLines(manifest.toPath());
+        lines.set(0, "fingerprint something else");
+        Files.write(manifest.toPath(), lines);
+        Assert.assertNull(InstrumentedClasses.open(output));
+        Assert.assertNull(InstrumentedClasses.open(folder.newFolder("empty")));
+    }
+
+    private Object loadAndRun() throws Exception {
+        InstrumentingClassLoader loader = new InstrumentingClassLoader(
+                new String[] { classpath.getPath() }, null);
+        Class<?> loaded = loader.findClass(Target.class.getName());
+        return loaded.getMethod("sign", int.class).invoke(null, 42);
+    }
+
+    @Test
+    public void loaderUsesInstrumentedClasses() throws Exception {
+        instrument();
+        // Without a parent, an instrumented class cannot find the tracing classes;
+        // replace it with the original to see where the loader got it from
+        File instrumentedFile = new File(output, AheadOfTimeInstrumenter.CLASSES_DIR + "/" + NAME + ".class");
+        Files.write(instrumentedFile.toPath(), original);
+
+        try {
+            loadAndRun();
+            Assert.fail("Expected the class to be instrumented");
+        } catch (InvocationTargetException e) {
+            Assert.assertTrue(e.getCause() instanceof NoClassDefFoundError);
+        }
+
+        System.setProperty("jqf.instrumentedDir", output.getPath());
+        try {
+            Assert.assertEquals(1, loadAndRun());
+        } finally {
+            System.clearProperty("jqf.instrumentedDir");
+        }
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright (c) 2017-2018 The Regents of the University of California
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.berkeley.cs.jqf.instrument;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import janala.instrument.ClassHierarchy;
+import janala.instrument.ClassHierarchy.TypeInfo;
+import janala.instrument.SafeClassWriter;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.objectweb.asm.ClassWriter;
+
+@RunWith(JUnit4.class)
+public class ClassHierarchyTest {
+
+    public static class Target extends java.util.AbstractList<String> implements Runnable {
+        @Override
+        public String get(int index) {
+            return null;
+        }
+
+        @Override
+        public int size() {
+            return 0;
+        }
+
+        @Override
+        public void run() {
+        }
+    }
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static final String NAME = Target.class.getName().replace('.', '/');
+
+    @Test
+    public void readsTypeInfo() throws IOException {
+        ClassHierarchy hierarchy = new ClassHierarchy(getClass().getClassLoader(), null);
+        TypeInfo info = hierarchy.getTypeInfo(NAME);
+        Assert.assertFalse(info.isInterface());
+        Assert.assertEquals("java/util/AbstractList", info.getSuperName());
+        Assert.assertArrayEquals(new String[] { "java/lang/Runnable" }, info.getInterfaces());
+        Assert.assertSame(info, hierarchy.getTypeInfo(NAME));
+
+        Assert.assertTrue(hierarchy.getTypeInfo("java/util/List").isInterface());
+        Assert.assertNull(hierarchy.getTypeInfo("java/lang/Object").getSuperName());
+    }
+
+    @Test(expected = IOException.class)
+    public void missingType() throws IOException {
+        new ClassHierarchy(getClass().getClassLoader(), null).getTypeInfo("does/not/Exist");
+    }
+
+    @Test
+    public void indexIsReusedWhileClassFileIsUnchanged() throws IOException {
+        File classpath = folder.newFolder("classpath");
+        File classFile = new File(classpath, NAME + ".class");
+        classFile.getParentFile().mkdirs();
+        try (InputStream in = Target.class.getResourceAsStream("/" + NAME + ".class")) {
+            Files.write(classFile.toPath(), in.readAllBytes());
+        }
+        File index = new File(folder.getRoot(), ClassHierarchy.INDEX_FILE);
+
+        try (URLClassLoader loader = new URLClassLoader(new URL[] { classpath.toURI().toURL() }, null)) {
+            new ClassHierarchy(loader, index).getTypeInfo(NAME);
+            // Index a type from the JDK too
+            new ClassHierarchy(loader, index).getTypeInfo("java/util/ArrayList");
+
+            // Corrupt the class file without changing its size or modification time
+            long lastModified = classFile.lastModified();
+            byte[] garbage = new byte[(int) classFile.length()];
+            Files.write(classFile.toPath(), garbage);
+            Assert.assertTrue(classFile.setLastModified(lastModified));
+
+            ClassHierarchy reloaded = new ClassHierarchy(loader, index);
+            Assert.assertEquals("java/util/AbstractList", reloaded.getTypeInfo(NAME).getSuperName());
+            Assert.assertEquals("java/util/AbstractList", reloaded.getTypeInfo("java/util/ArrayList").getSuperName());
+
+            // Once the class file is touched, it is read again
+            Assert.assertTrue(classFile.setLastModified(lastModified + 10_000));
+            try {
+                new ClassHierarchy(loader, index).getTypeInfo(NAME);
+                Assert.fail("Expected the corrupted class file to be read");
+            } catch (RuntimeException e) {
+                // ASM cannot parse the garbage
+            }
+        }
+    }
+
+    @Test
+    public void tornIndexLineIsIgnored() throws IOException {
+        File index = new File(folder.getRoot(), ClassHierarchy.INDEX_FILE);
+        new ClassHierarchy(getClass().getClassLoader(), index).getTypeInfo("java/util/ArrayList");
+        byte[] bytes = Files.readAllBytes(index.toPath());
+        Files.write(index.toPath(), Arrays.copyOf(bytes, bytes.length - 4));
+
+        TypeInfo info = new ClassHierarchy(getClass().getClassLoader(), index).getTypeInfo("java/util/ArrayList");
+        Assert.assertEquals("java/util/AbstractList", info.getSuperName());
+        Assert.assertEquals(4, info.getInterfaces().length);
+    }
+
+    private static String commonSuperClass(String type1, String type2) {
+        return new SafeClassWriter(null, null, ClassWriter.COMPUTE_FRAMES) {
+            String common() {
+                return getCommonSuperClass(type1, type2);
+            }
+        }.common();
+    }
+
+    @Test
+    public void commonSuperClasses() {
+        Assert.assertEquals("java/util/AbstractList", commonSuperClass("java/util/ArrayList", NAME));
+        Assert.assertEquals("java/lang/Runnable", commonSuperClass("java/lang/Runnable", NAME));
+        Assert.assertEquals("java/lang/Object", commonSuperClass("java/lang/Runnable", "java/util/ArrayList"));
+        Assert.assertEquals("java/lang/Object", commonSuperClass("java/lang/String", NAME));
+    }
+}
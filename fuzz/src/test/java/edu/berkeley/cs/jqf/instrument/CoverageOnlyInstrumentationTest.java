@@ -0,0 +1,158 @@
+/*
+ * Copyright (c) 2017-2018 The Regents of the University of California
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.berkeley.cs.jqf.instrument;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import edu.berkeley.cs.jqf.instrument.tracing.SingleSnoop;
+import edu.berkeley.cs.jqf.instrument.tracing.TraceLogger;
+import edu.berkeley.cs.jqf.instrument.tracing.events.BranchEvent;
+import janala.instrument.GlobalStateForInstrumentation;
+import janala.instrument.SnoopInstructionMethodAdapter;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+@RunWith(JUnit4.class)
+public class CoverageOnlyInstrumentationTest {
+
+    public static class Target {
+        public static int sign(int x) {
+            if (x > 0) {
+                return 1;
+            } else if (x < 0) {
+                return -1;
+            }
+            return 0;
+        }
+
+        public static int table(int x) {
+            switch (x) {
+                case 0: return 10;
+                case 1: return 11;
+                case 2: return 12;
+                default: return -1;
+            }
+        }
+
+        public static int lookup(int x) {
+            switch (x) {
+                case 10: return 0;
+                case 1000: return 1;
+                default: return 2;
+            }
+        }
+
+        public static int run(int x) {
+            return sign(x) + table(x) + lookup(x);
+        }
+    }
+
+    private static byte[] instrument(boolean coverageOnly) throws IOException {
+        String name = Target.class.getName();
+        byte[] original;
+        try (InputStream in = Target.class.getResourceAsStream(name.substring(name.lastIndexOf('.') + 1) + ".class")) {
+            original = in.readAllBytes();
+        }
+        ClassReader cr = new ClassReader(original);
+        ClassWriter cw = new ClassWriter(cr, ClassWriter.COMPUTE_FRAMES | ClassWriter.COMPUTE_MAXS);
+        cr.accept(new ClassVisitor(Opcodes.ASM8, cw) {
+            @Override
+            public MethodVisitor visitMethod(int access, String mname, String desc, String signature, String[] exceptions) {
+                MethodVisitor mv = cv.visitMethod(access, mname, desc, signature, exceptions);
+                return new SnoopInstructionMethodAdapter(mv, cr.getClassName(), mname, desc,
+                        cr.getSuperName(), GlobalStateForInstrumentation.instance, coverageOnly);
+            }
+        }, 0);
+        return cw.toByteArray();
+    }
+
+    private static Class<?> load(byte[] bytes) throws ClassNotFoundException {
+        String name = Target.class.getName();
+        ClassLoader loader = new ClassLoader(CoverageOnlyInstrumentationTest.class.getClassLoader()) {
+            @Override
+            protected Class<?> loadClass(String className, boolean resolve) throws ClassNotFoundException {
+                if (className.equals(name)) {
+                    synchronized (getClassLoadingLock(className)) {
+                        Class<?> c = findLoadedClass(className);
+                        return c != null ? c : defineClass(className, bytes, 0, bytes.length);
+                    }
+                }
+                return super.loadClass(className, resolve);
+            }
+        };
+        return loader.loadClass(name);
+    }
+
+    /* Runs Target.run() on some inputs and returns the trace events, without their iids. */
+    private static List<String> trace(Class<?> target) throws ReflectiveOperationException {
+        List<String> events = new ArrayList<>();
+        TraceLogger.get().remove();
+        SingleSnoop.setCallbackGenerator((t) -> (e) -> {
+            String event = e.getClass().getSimpleName() + " " + e.getContainingMethodName();
+            if (e instanceof BranchEvent) {
+                event += ":" + e.getLineNumber() + " arm=" + ((BranchEvent) e).getArm();
+            }
+            events.add(event);
+        });
+        SingleSnoop.startSnooping(null);
+        for (int x : new int[]{-5, 0, 1, 2, 3, 10, 1000}) {
+            Assert.assertEquals(Target.run(x), target.getMethod("run", int.class).invoke(null, x));
+        }
+        return events;
+    }
+
+    @After
+    public void stopTracing() {
+        TraceLogger.get().remove();
+        SingleSnoop.setCallbackGenerator((t) -> (e) -> {});
+    }
+
+    @Test
+    public void coverageOnlyTraceMatchesFullTrace() throws Exception {
+        byte[] full = instrument(false);
+        byte[] slim = instrument(true);
+        List<String> expected = trace(load(full));
+        List<String> actual = trace(load(slim));
+        Assert.assertTrue(expected.stream().anyMatch(e -> e.startsWith("BranchEvent table") && e.endsWith("arm=-1")));
+        Assert.assertTrue(expected.stream().anyMatch(e -> e.startsWith("BranchEvent lookup") && e.endsWith("arm=1")));
+        Assert.assertEquals(expected, actual);
+        Assert.assertTrue(slim.length < full.length);
+    }
+}
@@ -0,0 +1,228 @@
+/*
+ * Copyright (c) 2017-2018 The Regents of the University of California
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.berkeley.cs.jqf.instrument;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import edu.berkeley.cs.jqf.instrument.tracing.FastCoverageSnoop;
+import edu.berkeley.cs.jqf.instrument.tracing.FullTracing;
+import edu.berkeley.cs.jqf.instrument.tracing.SingleSnoop;
+import edu.berkeley.cs.jqf.instrument.tracing.TraceLogger;
+import edu.berkeley.cs.jqf.instrument.tracing.events.BranchEvent;
+import edu.berkeley.cs.jqf.instrument.tracing.events.CallEvent;
+import janala.instrument.GlobalStateForInstrumentation;
+import janala.instrument.HybridMethodAdapter;
+import janala.instrument.SnoopInstructionClassAdapter;
+import janala.instrument.SnoopInstructionMethodAdapter;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+@RunWith(JUnit4.class)
+public class HybridInstrumentationTest {
+
+    public static class Target {
+        private final int offset;
+
+        public Target(int offset) {
+            this.offset = offset;
+        }
+
+        public static int sign(int x) {
+            if (x > 0) {
+                return 1;
+            } else if (x < 0) {
+                return -1;
+            }
+            return 0;
+        }
+
+        public static int table(int x) {
+            switch (x) {
+                case 0: return 10;
+                case 1: return 11;
+                default: return -1;
+            }
+        }
+
+        public long shift(long x, int y) {
+            try {
+                return x / y + offset;
+            } catch (ArithmeticException e) {
+                return offset;
+            }
+        }
+
+        public static long run(int x) {
+            return sign(x) + table(x) + new Target(x).shift(100L, x);
+        }
+    }
+
+    private static final int[] ARGS = {-5, 0, 1, 2, 1000};
+
+    private static byte[] original() throws IOException {
+        String name = Target.class.getName();
+        try (InputStream in = Target.class.getResourceAsStream(name.substring(name.lastIndexOf('.') + 1) + ".class")) {
+            return in.readAllBytes();
+        }
+    }
+
+    private static Class<?> instrumentHybrid() throws IOException, ClassNotFoundException {
+        ClassReader cr = new ClassReader(original());
+        ClassWriter cw = new ClassWriter(cr, ClassWriter.COMPUTE_FRAMES | ClassWriter.COMPUTE_MAXS);
+        SnoopInstructionClassAdapter cv = new SnoopInstructionClassAdapter(cw, cr.getClassName(), true);
+        cv.setHybrid(true);
+        cr.accept(cv, 0);
+        return load(cw.toByteArray());
+    }
+
+    private static Class<?> instrumentJanala() throws IOException, ClassNotFoundException {
+        ClassReader cr = new ClassReader(original());
+        ClassWriter cw = new ClassWriter(cr, ClassWriter.COMPUTE_FRAMES | ClassWriter.COMPUTE_MAXS);
+        cr.accept(new ClassVisitor(Opcodes.ASM8, cw) {
+            @Override
+            public MethodVisitor visitMethod(int access, String mname, String desc, String signature, String[] exceptions) {
+                MethodVisitor mv = cv.visitMethod(access, mname, desc, signature, exceptions);
+                return new SnoopInstructionMethodAdapter(mv, cr.getClassName(), mname, desc,
+                        cr.getSuperName(), GlobalStateForInstrumentation.instance);
+            }
+        }, 0);
+        return load(cw.toByteArray());
+    }
+
+    private static Class<?> load(byte[] bytes) throws ClassNotFoundException {
+        String name = Target.class.getName();
+        ClassLoader loader = new ClassLoader(HybridInstrumentationTest.class.getClassLoader()) {
+            @Override
+            protected Class<?> loadClass(String className, boolean resolve) throws ClassNotFoundException {
+                if (className.equals(name)) {
+                    synchronized (getClassLoadingLock(className)) {
+                        Class<?> c = findLoadedClass(className);
+                        return c != null ? c : defineClass(className, bytes, 0, bytes.length);
+                    }
+                }
+                return super.loadClass(className, resolve);
+            }
+        };
+        return loader.loadClass(name);
+    }
+
+    /* Runs Target.run() on some inputs and returns the trace events (without their iids) of methods that are copied. */
+    private static List<String> trace(Class<?> target) throws ReflectiveOperationException {
+        List<String> events = new ArrayList<>();
+        TraceLogger.get().remove();
+        SingleSnoop.setCallbackGenerator((t) -> (e) -> {
+            if (e.getContainingMethodName().equals("<init>") ||
+                    (e instanceof CallEvent && ((CallEvent) e).getInvokedMethodName().contains("<init>"))) {
+                return; // Constructors only have fast probes
+            }
+            String event = e.getClass().getSimpleName() + " " + e.getContainingMethodName();
+            if (e instanceof BranchEvent) {
+                event += ":" + e.getLineNumber() + " arm=" + ((BranchEvent) e).getArm();
+            }
+            events.add(event);
+        });
+        SingleSnoop.startSnooping(null);
+        for (int x : ARGS) {
+            Assert.assertEquals(Target.run(x), target.getMethod("run", int.class).invoke(null, x));
+        }
+        return events;
+    }
+
+    /* Runs Target.run() on some inputs and returns the fast coverage counts by probe. */
+    private static Map<Integer, Integer> fastCoverage(Class<?> target) throws ReflectiveOperationException {
+        FastCoverageSnoop.resetProbes();
+        for (int x : ARGS) {
+            Assert.assertEquals(Target.run(x), target.getMethod("run", int.class).invoke(null, x));
+        }
+        Map<Integer, Integer> counts = new HashMap<>();
+        FastCoverageSnoop.drainProbes(counts::put);
+        return counts;
+    }
+
+    @After
+    public void stopTracing() {
+        FullTracing.setEnabled(false);
+        TraceLogger.get().remove();
+        SingleSnoop.setCallbackGenerator((t) -> (e) -> {});
+    }
+
+    @Test
+    public void tracedCopiesArePrivate() throws Exception {
+        Class<?> hybrid = instrumentHybrid();
+        Method copy = hybrid.getDeclaredMethod("shift" + HybridMethodAdapter.TRACED_SUFFIX, long.class, int.class);
+        Assert.assertTrue(Modifier.isPrivate(copy.getModifiers()));
+        Assert.assertTrue(copy.isSynthetic());
+        Assert.assertFalse(Modifier.isStatic(copy.getModifiers()));
+        Assert.assertTrue(Modifier.isStatic(hybrid.getDeclaredMethod("sign" + HybridMethodAdapter.TRACED_SUFFIX,
+                int.class).getModifiers()));
+    }
+
+    @Test
+    public void untracedTrialsHaveNoEvents() throws Exception {
+        Class<?> hybrid = instrumentHybrid();
+        FullTracing.setEnabled(false);
+        Assert.assertEquals(List.of(), trace(hybrid));
+    }
+
+    @Test
+    public void tracedTrialsMatchJanala() throws Exception {
+        List<String> expected = trace(instrumentJanala());
+        Class<?> hybrid = instrumentHybrid();
+        FullTracing.setEnabled(true);
+        List<String> actual = trace(hybrid);
+        Assert.assertTrue(actual.stream().anyMatch(e -> e.startsWith("BranchEvent sign")));
+        Assert.assertEquals(expected, actual);
+    }
+
+    @Test
+    public void fastCoverageDoesNotDependOnMode() throws Exception {
+        Class<?> hybrid = instrumentHybrid();
+        FullTracing.setEnabled(false);
+        Map<Integer, Integer> untraced = fastCoverage(hybrid);
+        FullTracing.setEnabled(true);
+        Map<Integer, Integer> traced = fastCoverage(hybrid);
+        Assert.assertFalse(untraced.isEmpty());
+        Assert.assertEquals(untraced, traced);
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ * Copyright (c) 2017-2018 The Regents of the University of California
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.berkeley.cs.jqf.instrument;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import edu.berkeley.cs.jqf.instrument.tracing.FastCoverageSnoop;
+import janala.instrument.GlobalStateForInstrumentation;
+import janala.instrument.SnoopInstructionClassAdapter;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+
+@RunWith(JUnit4.class)
+public class InlineProbesTest {
+
+    public static class Target {
+        public static int sign(int x) {
+            if (x > 0) {
+                return 1;
+            } else if (x < 0) {
+                return -1;
+            }
+            return 0;
+        }
+
+        public static int table(int x) {
+            switch (x) {
+                case 0: return 10;
+                case 1: return 11;
+                case 2: return 12;
+                default: return -1;
+            }
+        }
+
+        public static int lookup(int x) {
+            switch (x) {
+                case 10: return 0;
+                case 1000: return 1;
+                default: return 2;
+            }
+        }
+    }
+
+    private static Class<?> instrumented;
+    private static int firstId;
+    private static int lastId;
+
+    @BeforeClass
+    public static void instrument() throws IOException, ClassNotFoundException {
+        String name = Target.class.getName();
+        byte[] original;
+        try (InputStream in = Target.class.getResourceAsStream(name.substring(name.lastIndexOf('.') + 1) + ".class")) {
+            original = in.readAllBytes();
+        }
+
+        firstId = GlobalStateForInstrumentation.instance.getFastCoverageId() + 1;
+        ClassReader cr = new ClassReader(original);
+        ClassWriter cw = new ClassWriter(cr, ClassWriter.COMPUTE_FRAMES | ClassWriter.COMPUTE_MAXS);
+        cr.accept(new SnoopInstructionClassAdapter(cw, cr.getClassName(), true), 0);
+        byte[] bytes = cw.toByteArray();
+        lastId = GlobalStateForInstrumentation.instance.getFastCoverageId();
+
+        ClassLoader loader = new ClassLoader(InlineProbesTest.class.getClassLoader()) {
+            @Override
+            protected Class<?> loadClass(String className, boolean resolve) throws ClassNotFoundException {
+                if (className.equals(name)) {
+                    synchronized (getClassLoadingLock(className)) {
+                        Class<?> c = findLoadedClass(className);
+                        return c != null ? c : defineClass(className, bytes, 0, bytes.length);
+                    }
+                }
+                return super.loadClass(className, resolve);
+            }
+        };
+        instrumented = loader.loadClass(name);
+    }
+
+    private static int call(String method, int arg) throws ReflectiveOperationException {
+        Method m = instrumented.getMethod(method, int.class);
+        return (Integer) m.invoke(null, arg);
+    }
+
+    /* Returns the sorted counts of all probes that were hit. */
+    private static List<Integer> drainCounts() {
+        List<Integer> counts = new ArrayList<>();
+        FastCoverageSnoop.drainProbes((key, count) -> {
+            Assert.assertTrue(key >= firstId && key <= lastId);
+            counts.add(count);
+        });
+        Collections.sort(counts);
+        return counts;
+    }
+
+    @Test
+    public void testBranches() throws ReflectiveOperationException {
+        FastCoverageSnoop.resetProbes();
+        int[] args = {5, 5, 5, -5, -5, 0};
+        for (int arg : args) {
+            Assert.assertEquals(Target.sign(arg), call("sign", arg));
+        }
+        // Method entry, both sides of (x > 0), both sides of (x < 0)
+        Assert.assertEquals(List.of(1, 2, 3, 3, 6), drainCounts());
+        Assert.assertTrue(FastCoverageSnoop.hasProbes());
+    }
+
+    @Test
+    public void testTableSwitch() throws ReflectiveOperationException {
+        FastCoverageSnoop.resetProbes();
+        int[] args = {0, 1, 1, 5};
+        for (int arg : args) {
+            Assert.assertEquals(Target.table(arg), call("table", arg));
+        }
+        // Method entry, arms 0 and 1, default arm
+        Assert.assertEquals(List.of(1, 1, 2, 4), drainCounts());
+    }
+
+    @Test
+    public void testLookupSwitch() throws ReflectiveOperationException {
+        FastCoverageSnoop.resetProbes();
+        int[] args = {10, 1000, 1000, 7, 7, 7};
+        for (int arg : args) {
+            Assert.assertEquals(Target.lookup(arg), call("lookup", arg));
+        }
+        // Method entry, both arms, default arm
+        Assert.assertEquals(List.of(1, 2, 3, 6), drainCounts());
+    }
+
+    @Test
+    public void testReset() throws ReflectiveOperationException {
+        call("sign", 1);
+        FastCoverageSnoop.resetProbes();
+        Assert.assertEquals(List.of(), drainCounts());
+
+        call("sign", 1);
+        Assert.assertEquals(List.of(1, 1), drainCounts());
+        // Draining resets the counts
+        Assert.assertEquals(List.of(), drainCounts());
+    }
+}
@@ -0,0 +1,207 @@
+/*
+ * Copyright (c) 2017-2018 The Regents of the University of California
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.berkeley.cs.jqf.instrument;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import janala.instrument.InstrumentationCache;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class InstrumentationCacheTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File dir;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = folder.newFolder("cache");
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void roundTrip() throws IOException {
+        InstrumentationCache cache = new InstrumentationCache(dir, "v1");
+        byte[] key = cache.key("Foo", bytes("original"));
+        Assert.assertNull(cache.get(key));
+
+        cache.put(key, bytes("instrumented"));
+        Assert.assertArrayEquals(bytes("instrumented"), cache.get(key));
+        Assert.assertEquals(1, cache.size());
+
+        // Adding the same class again does not grow the pack
+        long length = new File(dir, InstrumentationCache.PACK_FILE).length();
+        cache.put(key, bytes("instrumented"));
+        Assert.assertEquals(length, new File(dir, InstrumentationCache.PACK_FILE).length());
+    }
+
+    @Test
+    public void keysDependOnNameBytesAndFingerprint() throws IOException {
+        InstrumentationCache v1 = new InstrumentationCache(dir, "v1");
+        InstrumentationCache v2 = new InstrumentationCache(dir, "v2");
+        byte[] key = v1.key("Foo", bytes("original"));
+        Assert.assertFalse(Arrays.equals(key, v1.key("Bar", bytes("original"))));
+        Assert.assertFalse(Arrays.equals(key, v1.key("Foo", bytes("changed"))));
+
+        v1.put(key, bytes("instrumented"));
+        Assert.assertNull(v2.get(v2.key("Foo", bytes("original"))));
+    }
+
+    @Test
+    public void entriesPersistAndAreSharedBetweenCaches() throws IOException {
+        InstrumentationCache first = new InstrumentationCache(dir, "v1");
+        InstrumentationCache second = new InstrumentationCache(dir, "v1");
+
+        first.put(first.key("Foo", bytes("a")), bytes("A"));
+        // The second cache picks up the new record on a miss
+        Assert.assertArrayEquals(bytes("A"), second.get(second.key("Foo", bytes("a"))));
+
+        second.put(second.key("Bar", bytes("b")), bytes("B"));
+        Assert.assertArrayEquals(bytes("B"), first.get(first.key("Bar", bytes("b"))));
+
+        InstrumentationCache reopened = new InstrumentationCache(dir, "v1");
+        Assert.assertEquals(2, reopened.size());
+        Assert.assertArrayEquals(bytes("A"), reopened.get(reopened.key("Foo", bytes("a"))));
+        Assert.assertArrayEquals(bytes("B"), reopened.get(reopened.key("Bar", bytes("b"))));
+    }
+
+    @Test
+    public void tornRecordIsDiscarded() throws IOException {
+        InstrumentationCache cache = new InstrumentationCache(dir, "v1");
+        byte[] foo = cache.key("Foo", bytes("a"));
+        cache.put(foo, bytes("A"));
+        File pack = new File(dir, InstrumentationCache.PACK_FILE);
+        long valid = pack.length();
+
+        // Simulate a JVM that died half-way through writing a record
+        byte[] bar = cache.key("Bar", bytes("b"));
+        cache.put(bar, bytes("a long instrumented class"));
+        try (RandomAccessFile raf = new RandomAccessFile(pack, "rw")) {
+            raf.setLength(pack.length() - 5);
+        }
+
+        InstrumentationCache reopened = new InstrumentationCache(dir, "v1");
+        Assert.assertEquals(1, reopened.size());
+        Assert.assertArrayEquals(bytes("A"), reopened.get(foo));
+        Assert.assertNull(reopened.get(bar));
+
+        // The next record overwrites the torn one
+        byte[] baz = reopened.key("Baz", bytes("c"));
+        reopened.put(baz, bytes("C"));
+        Assert.assertArrayEquals(bytes("C"), reopened.get(baz));
+        Assert.assertTrue(pack.length() < valid + 100);
+        Assert.assertArrayEquals(bytes("C"), new InstrumentationCache(dir, "v1").get(baz));
+    }
+
+    @Test
+    public void readersSeeRecordsAddedConcurrently() throws Exception {
+        final int numReaders = 4;
+        final int numClasses = 200;
+        InstrumentationCache cache = new InstrumentationCache(dir, "v1");
+        Thread[] readers = new Thread[numReaders];
+        Throwable[] errors = new Throwable[numReaders];
+        for (int t = 0; t < numReaders; t++) {
+            final int id = t;
+            readers[t] = new Thread(() -> {
+                try {
+                    // Every class is eventually found, with its complete bytes
+                    for (int i = 0; i < numClasses; i++) {
+                        String name = "C" + i;
+                        byte[] found;
+                        while ((found = cache.get(cache.key(name, bytes(name)))) == null) {
+                            Thread.yield();
+                        }
+                        Assert.assertArrayEquals(bytes(name + "!"), found);
+                    }
+                } catch (Throwable e) {
+                    errors[id] = e;
+                }
+            });
+            readers[t].start();
+        }
+        for (int i = 0; i < numClasses; i++) {
+            String name = "C" + i;
+            cache.put(cache.key(name, bytes(name)), bytes(name + "!"));
+        }
+        for (int t = 0; t < numReaders; t++) {
+            readers[t].join();
+            Assert.assertNull(errors[t]);
+        }
+        Assert.assertEquals(numClasses, cache.size());
+    }
+
+    @Test
+    public void concurrentWriters() throws Exception {
+        final int numThreads = 4;
+        final int perThread = 50;
+        Thread[] threads = new Thread[numThreads];
+        for (int t = 0; t < numThreads; t++) {
+            final int id = t;
+            threads[t] = new Thread(() -> {
+                try {
+                    InstrumentationCache cache = new InstrumentationCache(dir, "v1");
+                    for (int i = 0; i < perThread; i++) {
+                        String name = "C" + id + "_" + i;
+                        cache.put(cache.key(name, bytes(name)), bytes(name + "!"));
+                    }
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        InstrumentationCache cache = new InstrumentationCache(dir, "v1");
+        Assert.assertEquals(numThreads * perThread, cache.size());
+        for (int t = 0; t < numThreads; t++) {
+            for (int i = 0; i < perThread; i++) {
+                String name = "C" + t + "_" + i;
+                Assert.assertArrayEquals(bytes(name + "!"), cache.get(cache.key(name, bytes(name))));
+            }
+        }
+    }
+}
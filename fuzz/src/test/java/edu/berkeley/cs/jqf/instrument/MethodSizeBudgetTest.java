@@ -0,0 +1,149 @@
+/*
+ * Copyright (c) 2017-2018 The Regents of the University of California
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.berkeley.cs.jqf.instrument;
+
+import java.lang.reflect.Method;
+
+import janala.instrument.GlobalStateForInstrumentation;
+import janala.instrument.MethodSizeBudget;
+import janala.instrument.MethodSizeBudget.Level;
+import janala.instrument.SafeClassWriter;
+import janala.instrument.SnoopInstructionClassAdapter;
+import janala.instrument.SnoopInstructionTransformer;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+@RunWith(JUnit4.class)
+public class MethodSizeBudgetTest {
+
+    /* Generates a class whose method f(x) compares x against each of 0..branches-1. */
+    private static byte[] generate(String name, int branches) {
+        ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_FRAMES | ClassWriter.COMPUTE_MAXS);
+        cw.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC, name, null, "java/lang/Object", null);
+        MethodVisitor mv = cw.visitMethod(Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC, "f", "(I)I", null, null);
+        mv.visitCode();
+        for (int i = 0; i < branches; i++) {
+            Label next = new Label();
+            mv.visitVarInsn(Opcodes.ILOAD, 0);
+            mv.visitIntInsn(Opcodes.SIPUSH, i);
+            mv.visitJumpInsn(Opcodes.IF_ICMPNE, next);
+            mv.visitIincInsn(0, 1);
+            mv.visitLabel(next);
+        }
+        mv.visitVarInsn(Opcodes.ILOAD, 0);
+        mv.visitInsn(Opcodes.IRETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+        // A small method that stays within any budget
+        mv = cw.visitMethod(Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC, "g", "(I)I", null, null);
+        mv.visitCode();
+        mv.visitVarInsn(Opcodes.ILOAD, 0);
+        mv.visitInsn(Opcodes.IRETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+        cw.visitEnd();
+        return cw.toByteArray();
+    }
+
+    private static byte[] instrument(String name, byte[] original, MethodSizeBudget budget) {
+        ClassReader cr = new ClassReader(original);
+        ClassWriter cw = new SafeClassWriter(cr, null, ClassWriter.COMPUTE_FRAMES | ClassWriter.COMPUTE_MAXS);
+        GlobalStateForInstrumentation state = new GlobalStateForInstrumentation();
+        state.setCid(name.hashCode());
+        cr.accept(new SnoopInstructionClassAdapter(cw, name, false, state, budget), 0);
+        return cw.toByteArray();
+    }
+
+    @Test
+    public void codeSizes() {
+        byte[] bytes = generate("gen/Sizes", 10);
+        Assert.assertEquals(10 * 10 + 2, (int) MethodSizeBudget.codeSizes(bytes).get("f(I)I"));
+        Assert.assertEquals(2, (int) MethodSizeBudget.codeSizes(bytes).get("g(I)I"));
+    }
+
+    @Test
+    public void methodsOverBudgetAreDowngraded() {
+        String name = "gen/OverBudget";
+        byte[] original = generate(name, 100);
+        int budget = 2000;
+        Assert.assertTrue(MethodSizeBudget.codeSizes(original).get("f(I)I") <= budget);
+        Assert.assertTrue(MethodSizeBudget.codeSizes(instrument(name, original, null)).get("f(I)I") > budget);
+
+        MethodSizeBudget sizeBudget = new MethodSizeBudget(name, original, budget, true);
+        byte[] instrumented = instrument(name, original, sizeBudget);
+        int rounds = 0;
+        while (sizeBudget.checkSizes(instrumented)) {
+            instrumented = instrument(name, original, sizeBudget);
+            rounds++;
+        }
+        Assert.assertTrue(rounds > 0);
+        Assert.assertNotEquals(Level.FULL, sizeBudget.getLevel("f", "(I)I"));
+        Assert.assertEquals(Level.FULL, sizeBudget.getLevel("g", "(I)I"));
+        Assert.assertTrue(MethodSizeBudget.codeSizes(instrumented).get("f(I)I") <= budget);
+
+        sizeBudget.report();
+        Assert.assertTrue(MethodSizeBudget.getDowngrades().stream().anyMatch(s -> s.startsWith(name + ".f(I)I -> ")));
+    }
+
+    @Test
+    public void methodsOverBudgetWithoutInstrumentationAreKept() {
+        String name = "gen/AlreadyLarge";
+        byte[] original = generate(name, 100);
+        MethodSizeBudget sizeBudget = new MethodSizeBudget(name, original, 500, true);
+        Assert.assertFalse(sizeBudget.checkSizes(instrument(name, original, sizeBudget)));
+        Assert.assertEquals(Level.FULL, sizeBudget.getLevel("f", "(I)I"));
+    }
+
+    @Test
+    public void methodsTooLargeToInstrumentAreDowngraded() throws Exception {
+        String name = "gen/TooLarge";
+        byte[] original = generate(name, 6000);
+        byte[] instrumented = new SnoopInstructionTransformer().transform(null, name, null, null, original);
+        Assert.assertNotNull(instrumented);
+        Assert.assertTrue(MethodSizeBudget.getDowngrades().stream().anyMatch(s -> s.startsWith(name + ".f(I)I -> ")));
+        Assert.assertFalse(MethodSizeBudget.getDowngrades().stream().anyMatch(s -> s.startsWith(name + ".g(I)I -> ")));
+
+        // The class still works
+        Class<?> loaded = new ClassLoader(null) {
+            Class<?> define() {
+                return defineClass(null, instrumented, 0, instrumented.length);
+            }
+        }.define();
+        Method f = loaded.getMethod("f", int.class);
+        // x is incremented by every comparison from x onwards
+        Assert.assertEquals(6000, f.invoke(null, 41));
+    }
+}
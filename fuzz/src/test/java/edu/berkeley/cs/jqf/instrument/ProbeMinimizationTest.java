@@ -0,0 +1,259 @@
+/*
+ * Copyright (c) 2017-2018 The Regents of the University of California
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.berkeley.cs.jqf.instrument;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Method;
+import java.util.HashMap;
+import java.util.Map;
+
+import edu.berkeley.cs.jqf.fuzz.util.FastNonCollidingCoverage;
+import edu.berkeley.cs.jqf.instrument.tracing.FastCoverageSnoop;
+import janala.instrument.GlobalStateForInstrumentation;
+import janala.instrument.JumpTargets;
+import janala.instrument.ProbeAliases;
+import janala.instrument.SnoopInstructionClassAdapter;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+
+@RunWith(JUnit4.class)
+public class ProbeMinimizationTest {
+
+    public static class Target {
+        static int id(int x) {
+            if (x < 0) {
+                throw new IllegalArgumentException();
+            }
+            return x;
+        }
+
+        public static int straight(int x) {
+            int a = id(x);
+            int b = id(a + 1);
+            return id(a + b);
+        }
+
+        public static int loop(int n) {
+            int s = 0;
+            for (int i = 0; i < n; i++) {
+                s += id(i);
+                s += id(s);
+            }
+            return id(s);
+        }
+
+        public static int guarded(int x) {
+            try {
+                return id(x);
+            } catch (IllegalArgumentException e) {
+                return id(0) + id(1);
+            }
+        }
+
+        public static int calls(int x) {
+            try {
+                return id(x) + id(x + 1);
+            } catch (IllegalArgumentException e) {
+                return 0;
+            }
+        }
+
+        public static int branches(int n) {
+            int s = 0;
+            for (int i = 0; i < n; i++) {
+                if (i % 3 == 0) {
+                    s += 2;
+                }
+                if (s > 2) {
+                    s--;
+                }
+            }
+            return s;
+        }
+
+        public static int divide(int x) {
+            try {
+                int q = 100 / x;
+                if (q > 10) {
+                    return id(q);
+                }
+                return q;
+            } catch (ArithmeticException e) {
+                return -1;
+            }
+        }
+
+        public static int allocate(int x) {
+            try {
+                int[] a = new int[x];
+                return id(a.length);
+            } catch (NegativeArraySizeException e) {
+                return -1;
+            }
+        }
+    }
+
+
+    private static Class<?> minimized;
+    private static int minimizedFirstId;
+    private static Class<?> full;
+    private static int fullFirstId;
+
+    @BeforeClass
+    public static void instrument() throws IOException, ClassNotFoundException {
+        minimizedFirstId = GlobalStateForInstrumentation.instance.getFastCoverageId() + 1;
+        minimized = instrument(true);
+        fullFirstId = GlobalStateForInstrumentation.instance.getFastCoverageId() + 1;
+        full = instrument(false);
+    }
+
+    private static Class<?> instrument(boolean minimize) throws IOException, ClassNotFoundException {
+        String name = Target.class.getName();
+        byte[] original;
+        try (InputStream in = Target.class.getResourceAsStream(name.substring(name.lastIndexOf('.') + 1) + ".class")) {
+            original = in.readAllBytes();
+        }
+
+        ClassReader cr = new ClassReader(original);
+        ClassWriter cw = new ClassWriter(cr, ClassWriter.COMPUTE_FRAMES | ClassWriter.COMPUTE_MAXS);
+        SnoopInstructionClassAdapter cv = new SnoopInstructionClassAdapter(cw, cr.getClassName(), true);
+        if (minimize) {
+            cv.minimizeProbes(JumpTargets.of(cr, 0));
+        }
+        cr.accept(cv, 0);
+        byte[] bytes = cw.toByteArray();
+
+        ClassLoader loader = new ClassLoader(ProbeMinimizationTest.class.getClassLoader()) {
+            @Override
+            protected Class<?> loadClass(String className, boolean resolve) throws ClassNotFoundException {
+                if (className.equals(name)) {
+                    synchronized (getClassLoadingLock(className)) {
+                        Class<?> c = findLoadedClass(className);
+                        return c != null ? c : defineClass(className, bytes, 0, bytes.length);
+                    }
+                }
+                return super.loadClass(className, resolve);
+            }
+        };
+        return loader.loadClass(name);
+    }
+
+    /* Runs a method of a class on some arguments, and returns the probe counts of the class by offset from firstId. */
+    private static Map<Integer, Integer> run(Class<?> target, String method, int firstId, boolean expand,
+                                             int... args) throws ReflectiveOperationException {
+        FastCoverageSnoop.resetProbes();
+        Method m = target.getMethod(method, int.class);
+        for (int arg : args) {
+            m.invoke(null, arg);
+        }
+        FastNonCollidingCoverage coverage = new FastNonCollidingCoverage();
+        FastCoverageSnoop.drainProbes((key, count) -> coverage.getCounter().increment(key, count));
+        if (expand) {
+            coverage.deriveProbes();
+            coverage.expandAliases();
+        }
+        Map<Integer, Integer> counts = new HashMap<>();
+        coverage.getCovered().forEach(key -> counts.put(key - firstId, coverage.getCounter().get(key)));
+        return counts;
+    }
+
+    private static void assertSameCoverage(String method, int... args) throws ReflectiveOperationException {
+        Map<Integer, Integer> expected = run(full, method, fullFirstId, false, args);
+        Map<Integer, Integer> emitted = run(minimized, method, minimizedFirstId, false, args);
+        Map<Integer, Integer> expanded = run(minimized, method, minimizedFirstId, true, args);
+        Assert.assertTrue(emitted.size() < expected.size());
+        Assert.assertEquals(expected, expanded);
+    }
+
+    @Test
+    public void testStraightLineCalls() throws ReflectiveOperationException {
+        assertSameCoverage("straight", 0, 1, 3, 3);
+    }
+
+    @Test
+    public void testCallsInLoop() throws ReflectiveOperationException {
+        assertSameCoverage("loop", 0, 1, 3, 3);
+    }
+
+    @Test
+    public void testCallsInHandler() throws ReflectiveOperationException {
+        // A single call in a try block is exact even if it throws, since its probe comes first
+        assertSameCoverage("guarded", 0, 1, 3, -1, -1);
+    }
+
+    @Test
+    public void testCallAfterThrowingCall() throws ReflectiveOperationException {
+        // The second call is not reached if the first one throws
+        assertSameCoverage("calls", -1);
+        assertSameCoverage("calls", 0, -1, 2);
+    }
+
+    @Test
+    public void testBranchesInLoop() throws ReflectiveOperationException {
+        assertSameCoverage("branches", 0, 1, 2, 5);
+    }
+
+    @Test
+    public void testBranchAfterThrowingInstruction() throws ReflectiveOperationException {
+        // The taken arm is not reached if the division throws
+        Map<Integer, Integer> expected = run(full, "divide", fullFirstId, false, 0);
+        Assert.assertEquals(expected, run(minimized, "divide", minimizedFirstId, true, 0));
+        assertSameCoverage("divide", 0, 1, 50);
+    }
+
+    @Test
+    public void testCallAfterThrowingInstruction() throws ReflectiveOperationException {
+        // The call is not reached if the allocation throws
+        Map<Integer, Integer> expected = run(full, "allocate", fullFirstId, false, -1, 2);
+        Assert.assertEquals(expected, run(minimized, "allocate", minimizedFirstId, true, -1, 2));
+    }
+
+    @Test
+    public void testHandlerIsNotAliased() throws ReflectiveOperationException {
+        Map<Integer, Integer> emitted = run(minimized, "guarded", minimizedFirstId, false, 1, -1);
+        int omitted = 0;
+        for (int offset : run(minimized, "guarded", minimizedFirstId, true, 1, -1).keySet()) {
+            int id = minimizedFirstId + offset;
+            if (ProbeAliases.getRepresentative(id) >= 0 || ProbeAliases.getDifference(id) != null) {
+                omitted++;
+                Assert.assertFalse(emitted.containsKey(offset));
+            } else {
+                Assert.assertTrue(emitted.containsKey(offset));
+            }
+        }
+        // The taken arm in id(), and the call in the try block; the exception constructor follows a NEW
+        Assert.assertEquals(2, omitted);
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright (c) 2017-2018 The Regents of the University of California
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.berkeley.cs.jqf.instrument.tracing;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class AbortSignalTest {
+
+    private static class Stop extends RuntimeException {
+    }
+
+    @Test
+    public void requestIsThrownOnceInItsThread() {
+        Stop stop = new Stop();
+        AbortSignal.raise(Thread.currentThread(), stop);
+        try {
+            AbortSignal.poll();
+            Assert.fail("Request was not thrown");
+        } catch (Stop e) {
+            Assert.assertSame(stop, e);
+        }
+        AbortSignal.poll();
+    }
+
+    @Test
+    public void clearedRequestIsNotThrown() {
+        AbortSignal.raise(Thread.currentThread(), new Stop());
+        AbortSignal.clear(Thread.currentThread());
+        AbortSignal.poll();
+    }
+
+    @Test(timeout = 5000)
+    public void otherThreadsPollWithoutLocking() throws Exception {
+        Thread other = new Thread(() -> { });
+        AbortSignal.raise(other, new Stop());
+        // Registers the request of this thread, which is only done once
+        AbortSignal.poll();
+        CountDownLatch locked = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(1);
+        Thread holder = new Thread(() -> {
+            synchronized (AbortSignal.class) {
+                locked.countDown();
+                try {
+                    // Released by the test, or else after it timed out
+                    done.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException ignore) {
+                }
+            }
+        });
+        holder.start();
+        try {
+            locked.await();
+            // Would block on the lock if this thread had to look at the other thread's request
+            for (int i = 0; i < 1000; i++) {
+                AbortSignal.poll();
+            }
+        } finally {
+            done.countDown();
+            holder.join();
+            AbortSignal.clear(other);
+        }
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright (c) 2017-2018 The Regents of the University of California
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.berkeley.cs.jqf.instrument.tracing;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import janala.logger.inst.*;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class ThreadTracerTest {
+
+    private List<String> events = new ArrayList<>();
+
+    private ThreadTracer newTracer() {
+        return new ThreadTracer(Thread.currentThread(), null, (e) -> events.add(e.toString()));
+    }
+
+    /** Replays a fixed trace, using primitive entry points where possible. */
+    private void replay(ThreadTracer t, boolean primitive) {
+        t.consume(new METHOD_BEGIN("Foo", "bar", "()V"));
+        if (primitive) {
+            t.consumeBooleanValue(true);
+            t.consumeConditionalBranch(1, 10);
+        } else {
+            t.consume(new GETVALUE_boolean(true));
+            t.consume(new IFEQ(1, 10, 0));
+        }
+
+        // A call that first triggers a static initializer
+        t.consume(new INVOKESTATIC(2, 11, "Bar", "baz", "()V"));
+        t.consume(new METHOD_BEGIN("Bar", "<clinit>", "()V"));
+        if (primitive) {
+            t.consumeBooleanValue(false);
+            t.consumeConditionalBranch(3, 1);
+            t.consumeReturnOrMethodThrow(4, 2);
+        } else {
+            t.consume(new GETVALUE_boolean(false));
+            t.consume(new IFNE(3, 1, 0));
+            t.consume(new RETURN(4, 2));
+        }
+        t.consume(new METHOD_BEGIN("Bar", "baz", "()V"));
+        if (primitive) {
+            t.consumeIntValue(7);
+            t.consumeBooleanValue(false);
+            t.consumeConditionalBranch(5, 3);
+            t.consumeReturnOrMethodThrow(6, 4);
+            t.consumeInvokeMethodEnd();
+            t.consumeReturnOrMethodThrow(-1, -1);
+        } else {
+            t.consume(new GETVALUE_int(7));
+            t.consume(new GETVALUE_boolean(false));
+            t.consume(new IF_ICMPLT(5, 3, 0));
+            t.consume(new ARETURN(6, 4));
+            t.consume(new INVOKEMETHOD_END());
+            t.consume(new METHOD_THROW());
+        }
+    }
+
+    @Test
+    public void primitiveEntryPointsMatchInstructions() {
+        replay(newTracer(), false);
+        List<String> expected = events;
+        events = new ArrayList<>();
+        replay(newTracer(), true);
+        Assert.assertEquals(6, expected.size());
+        Assert.assertEquals(expected, events);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void callbackExceptionsAreRethrown() {
+        ThreadTracer t = new ThreadTracer(Thread.currentThread(), null, (e) -> {
+            if (e instanceof edu.berkeley.cs.jqf.instrument.tracing.events.BranchEvent) {
+                throw new IllegalStateException();
+            }
+        });
+        t.consume(new METHOD_BEGIN("Foo", "bar", "()V"));
+        t.consumeBooleanValue(true);
+        t.consumeConditionalBranch(1, 10);
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright (c) 2017-2018 The Regents of the University of California
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.berkeley.cs.jqf.instrument.tracing;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+import edu.berkeley.cs.jqf.instrument.tracing.events.ReturnEvent;
+import edu.berkeley.cs.jqf.instrument.tracing.events.TraceEvent;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class TraceRingTest {
+
+    /** Records events as strings; only ever called by the consumer thread. */
+    private static class Recorder implements Consumer<TraceEvent>, PrimitiveTraceListener {
+        final List<String> events = new ArrayList<>();
+        int failAt = -1;
+
+        private void record(String event) {
+            if (events.size() == failAt) {
+                events.add("failed");
+                throw new IllegalStateException("callback failed");
+            }
+            events.add(event);
+        }
+
+        @Override
+        public void accept(TraceEvent e) {
+            record("return " + e.getIid());
+        }
+
+        @Override
+        public void onBranch(int iid, int arm) {
+            record("branch " + iid + " " + arm);
+        }
+
+        @Override
+        public void onCall(int iid) {
+            record("call " + iid);
+        }
+    }
+
+    /* Writes n events of each kind, recording what is expected to be handled. */
+    private static void produce(TraceRing ring, int n, List<String> expected) {
+        for (int i = 0; i < n; i++) {
+            ring.putBranch(i, i % 3 - 1);
+            expected.add("branch " + i + " " + (i % 3 - 1));
+            ring.putCall(i);
+            expected.add("call " + i);
+            ring.put(new ReturnEvent(i, null, 0));
+            expected.add("return " + i);
+        }
+    }
+
+    @Test
+    public void eventsAreHandledInOrder() {
+        Recorder recorder = new Recorder();
+        // Much smaller than the number of events, so the producer has to wait for room
+        TraceRing ring = new TraceRing(Thread.currentThread(), recorder, 64);
+        List<String> expected = new ArrayList<>();
+        try {
+            produce(ring, 10000, expected);
+            TraceRing.awaitAll();
+            Assert.assertEquals(expected, recorder.events);
+            Assert.assertNull(ring.takeFailure());
+        } finally {
+            ring.close();
+        }
+    }
+
+    @Test
+    public void awaitAllCoversEveryThread() throws InterruptedException {
+        Recorder[] recorders = new Recorder[4];
+        List<List<String>> expected = new ArrayList<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < recorders.length; i++) {
+            Recorder recorder = recorders[i] = new Recorder();
+            List<String> events = new ArrayList<>();
+            expected.add(events);
+            threads.add(new Thread(() -> {
+                TraceRing ring = new TraceRing(Thread.currentThread(), recorder, TraceRing.DEFAULT_CAPACITY);
+                // Not a multiple of the batch size, so the last events are not followed by a wake-up
+                produce(ring, TraceRing.BATCH_SIZE * 10 + 7, events);
+            }));
+        }
+        for (Thread t : threads) {
+            t.start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        TraceRing.awaitAll();
+        for (int i = 0; i < recorders.length; i++) {
+            Assert.assertEquals(expected.get(i), recorders[i].events);
+        }
+    }
+
+    @Test
+    public void failuresAreHandedBack() {
+        Recorder recorder = new Recorder();
+        recorder.failAt = 5;
+        TraceRing ring = new TraceRing(Thread.currentThread(), recorder, 64);
+        try {
+            produce(ring, 10, new ArrayList<>());
+            TraceRing.awaitAll();
+            Throwable failure = ring.takeFailure();
+            Assert.assertTrue(failure instanceof IllegalStateException);
+            Assert.assertNull(ring.takeFailure());
+            // Events between the failure and its hand-back are dropped
+            Assert.assertEquals(6, recorder.events.size());
+            Assert.assertEquals("failed", recorder.events.get(5));
+
+            List<String> expected = new ArrayList<>(recorder.events);
+            produce(ring, 1, expected);
+            TraceRing.awaitAll();
+            Assert.assertEquals(expected, recorder.events);
+        } finally {
+            ring.close();
+        }
+    }
+}
@@ -0,0 +1,379 @@
+/*
+ * Copyright (c) 2017-2018 The Regents of the University of California
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.berkeley.cs.jqf.instrument;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.lang.instrument.ClassFileTransformer;
+import java.lang.instrument.IllegalClassFormatException;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import janala.instrument.GlobalStateForInstrumentation;
+import janala.instrument.ProbeAliases;
+import janala.instrument.SnoopInstructionTransformer;
+
+/**
+ * Instruments all the classes on a classpath ahead of time.
+ *
+ * <p>The instrumented classes are written to a <code>classes</code>
+ * directory inside the output directory, along with a manifest that
+ * records a hash of each original class, the fast-coverage probe ids
+ * assigned to it, and the instrumentation configuration. An
+ * {@link InstrumentingClassLoader} created while the system property
+ * <code>jqf.instrumentedDir</code> points to the output directory
+ * loads these classes instead of instrumenting them again, as long
+ * as the original class and the configuration have not changed.</p>
+ *
+ * <p>Classes are instrumented in parallel when possible. Fast-coverage
+ * probe ids are global, so with fast coverage each class is still
+ * instrumented one at a time.</p>
+ */
+public class AheadOfTimeInstrumenter {
+
+    /** The name of the manifest file in the output directory. */
+    public static final String MANIFEST = "jqf-instrumented.manifest";
+
+    /** The name of the directory of instrumented classes in the output directory. */
+    public static final String CLASSES_DIR = "classes";
+
+    private final String[] classpath;
+    private final File outputDir;
+    private final int numThreads;
+
+    /**
+     * Creates an instrumenter.
+     *
+     * @param classpath  the classpath elements (directories or jars) to instrument
+     * @param outputDir  the directory in which to write the instrumented classes
+     * @param numThreads the number of classes to instrument concurrently
+     */
+    public AheadOfTimeInstrumenter(String[] classpath, File outputDir, int numThreads) {
+        if (numThreads < 1) {
+            throw new IllegalArgumentException("Number of threads must be positive");
+        }
+        this.classpath = classpath;
+        this.outputDir = outputDir;
+        this.numThreads = numThreads;
+    }
+
+    /**
+     * Instruments the classpath and writes the output directory.
+     *
+     * <p>If a class is defined in more than one classpath element, only
+     * the first definition is instrumented, as it is the one that would
+     * be loaded.</p>
+     *
+     * @return the number of classes that were instrumented
+     * @throws IOException if the classpath could not be read or the
+     *                     output could not be written
+     */
+    public int instrument() throws IOException {
+        File classesDir = new File(outputDir, CLASSES_DIR);
+        classesDir.mkdirs();
+
+        List<ZipFile> jars = new ArrayList<>();
+        ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+        try (URLClassLoader loader = new URLClassLoader(InstrumentingClassLoader.stringsToUrls(classpath),
+                ClassLoader.getSystemClassLoader())) {
+            Map<String, ClassSource> sources = findClasses(jars);
+            ClassFileTransformer transformer = new SnoopInstructionTransformer();
+            List<Future<Entry>> futures = new ArrayList<>();
+            for (Map.Entry<String, ClassSource> e : sources.entrySet()) {
+                String name = e.getKey();
+                ClassSource source = e.getValue();
+                futures.add(executor.submit(() -> instrumentClass(transformer, loader, name, source, classesDir)));
+            }
+
+            Map<String, Entry> entries = new TreeMap<>();
+            int maxProbeId = 0;
+            for (Future<Entry> future : futures) {
+                Entry entry = future.get();
+                if (entry != null) {
+                    entries.put(entry.name, entry);
+                    maxProbeId = Math.max(maxProbeId, entry.lastProbeId);
+                }
+            }
+            writeManifest(entries, maxProbeId);
+            return entries.size();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while instrumenting", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Could not instrument classpath", e.getCause());
+        } finally {
+            executor.shutdownNow();
+            for (ZipFile jar : jars) {
+                jar.close();
+            }
+        }
+    }
+
+    /** Where the original bytes of a class can be read from. */
+    private interface ClassSource {
+        byte[] read() throws IOException;
+    }
+
+    private Map<String, ClassSource> findClasses(List<ZipFile> jars) throws IOException {
+        Map<String, ClassSource> sources = new LinkedHashMap<>();
+        for (String element : classpath) {
+            File file = new File(element);
+            if (file.isDirectory()) {
+                Path root = file.toPath();
+                try (Stream<Path> paths = Files.walk(root)) {
+                    paths.filter(p -> isClassFile(p.toString()) && Files.isRegularFile(p)).forEach(p -> {
+                        String path = root.relativize(p).toString().replace(File.separatorChar, '/');
+                        sources.putIfAbsent(className(path), () -> Files.readAllBytes(p));
+                    });
+                }
+            } else if (file.isFile()) {
+                ZipFile jar = new ZipFile(file);
+                jars.add(jar);
+                Enumeration<? extends ZipEntry> zipEntries = jar.entries();
+                while (zipEntries.hasMoreElements()) {
+                    ZipEntry zipEntry = zipEntries.nextElement();
+                    // Multi-release entries are not loaded by InstrumentingClassLoader
+                    if (isClassFile(zipEntry.getName()) && !zipEntry.getName().startsWith("META-INF/")) {
+                        sources.putIfAbsent(className(zipEntry.getName()), () -> {
+                            try (InputStream in = jar.getInputStream(zipEntry)) {
+                                return in.readAllBytes();
+                            }
+                        });
+                    }
+                }
+            }
+        }
+        return sources;
+    }
+
+    private static boolean isClassFile(String path) {
+        return path.endsWith(".class") && !path.endsWith("module-info.class");
+    }
+
+    private static String className(String path) {
+        return path.substring(0, path.length() - ".class".length());
+    }
+
+    private static Entry instrumentClass(ClassFileTransformer transformer, ClassLoader loader,
+                                         String name, ClassSource source, File classesDir) throws IOException {
+        byte[] original = source.read();
+        byte[] instrumented;
+        int firstProbeId = 0;
+        int lastProbeId = 0;
+        try {
+            if (!SnoopInstructionTransformer.usesGlobalIds()) {
+                instrumented = transformer.transform(loader, name, null, null, original);
+            } else {
+                // Record the range of probe ids that the transformer hands out to this class
+                synchronized (GlobalStateForInstrumentation.instance) {
+                    firstProbeId = GlobalStateForInstrumentation.instance.getFastCoverageId() + 1;
+                    instrumented = transformer.transform(loader, name, null, null, original);
+                    lastProbeId = GlobalStateForInstrumentation.instance.getFastCoverageId();
+                }
+            }
+        } catch (IllegalClassFormatException e) {
+            instrumented = null;
+        }
+        if (instrumented == null || instrumented == original) {
+            return null; // Excluded from instrumentation, or could not be instrumented
+        }
+        File out = new File(classesDir, name + ".class");
+        out.getParentFile().mkdirs();
+        Files.write(out.toPath(), instrumented);
+        return new Entry(name, sha256(original), firstProbeId, lastProbeId);
+    }
+
+    private void writeManifest(Map<String, Entry> entries, int maxProbeId) throws IOException {
+        try (PrintWriter out = new PrintWriter(new File(outputDir, MANIFEST))) {
+            out.println("fingerprint " + SnoopInstructionTransformer.fingerprint());
+            out.println("maxProbeId " + maxProbeId);
+            for (Entry entry : entries.values()) {
+                out.println("class " + entry.name + " " + entry.hash + " " +
+                        entry.firstProbeId + " " + entry.lastProbeId);
+            }
+            // Probes omitted by janala.minimizeProbes are not in the instrumented bytes
+            for (int id = 1; id <= maxProbeId; id++) {
+                int representative = ProbeAliases.getRepresentative(id);
+                if (representative >= 0) {
+                    out.println("alias " + id + " " + representative);
+                }
+                int[] difference = ProbeAliases.getDifference(id);
+                if (difference != null) {
+                    out.println("difference " + id + " " + difference[0] + " " + difference[1]);
+                }
+            }
+        }
+    }
+
+    /** A line of the manifest. */
+    private static class Entry {
+        final String name;
+        final String hash;
+        final int firstProbeId;
+        final int lastProbeId;
+
+        Entry(String name, String hash, int firstProbeId, int lastProbeId) {
+            this.name = name;
+            this.hash = hash;
+            this.firstProbeId = firstProbeId;
+            this.lastProbeId = lastProbeId;
+        }
+    }
+
+    static String sha256(byte[] bytes) {
+        try {
+            StringBuilder sb = new StringBuilder();
+            for (byte b : MessageDigest.getInstance("SHA-256").digest(bytes)) {
+                sb.append(String.format("%02x", b));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    /**
+     * The classes instrumented ahead of time in an output directory.
+     */
+    public static class InstrumentedClasses {
+        private final File classesDir;
+        private final Map<String, String> hashes;
+        private final int maxProbeId;
+
+        private InstrumentedClasses(File classesDir, Map<String, String> hashes, int maxProbeId) {
+            this.classesDir = classesDir;
+            this.hashes = hashes;
+            this.maxProbeId = maxProbeId;
+        }
+
+        /**
+         * Reads the manifest in an output directory.
+         *
+         * <p>The probe aliases and differences of the classes are registered with
+         * {@link ProbeAliases}.</p>
+         *
+         * @param outputDir the output directory of an instrumenter
+         * @return the instrumented classes, or <code>null</code> if there
+         *         is no manifest or it was produced by a different JQF
+         *         build or instrumentation configuration
+         * @throws IOException if the manifest could not be read
+         */
+        public static InstrumentedClasses open(File outputDir) throws IOException {
+            File manifest = new File(outputDir, MANIFEST);
+            if (!manifest.isFile()) {
+                return null;
+            }
+            Map<String, String> hashes = new HashMap<>();
+            int maxProbeId = 0;
+            try (BufferedReader in = new BufferedReader(new FileReader(manifest))) {
+                String line;
+                while ((line = in.readLine()) != null) {
+                    if (line.startsWith("fingerprint ")) {
+                        if (!line.substring("fingerprint ".length()).equals(SnoopInstructionTransformer.fingerprint())) {
+                            return null;
+                        }
+                    } else if (line.startsWith("maxProbeId ")) {
+                        maxProbeId = Integer.parseInt(line.substring("maxProbeId ".length()));
+                    } else if (line.startsWith("class ")) {
+                        String[] parts = line.split(" ");
+                        hashes.put(parts[1], parts[2]);
+                    } else if (line.startsWith("alias ")) {
+                        String[] parts = line.split(" ");
+                        ProbeAliases.register(Integer.parseInt(parts[1]), Integer.parseInt(parts[2]));
+                    } else if (line.startsWith("difference ")) {
+                        String[] parts = line.split(" ");
+                        ProbeAliases.registerDifference(Integer.parseInt(parts[1]),
+                                Integer.parseInt(parts[2]), Integer.parseInt(parts[3]));
+                    }
+                }
+            }
+            return new InstrumentedClasses(new File(outputDir, CLASSES_DIR), hashes, maxProbeId);
+        }
+
+        /**
+         * Returns the largest fast-coverage probe id used by these classes.
+         *
+         * @return the largest probe id, or 0 if fast coverage was not used
+         */
+        public int getMaxProbeId() {
+            return maxProbeId;
+        }
+
+        /**
+         * Returns the instrumented bytes of a class, if they are up to date.
+         *
+         * @param name     the internal name of the class
+         * @param original the original bytes of the class
+         * @return the instrumented bytes, or <code>null</code> if the class
+         *         was not instrumented from these original bytes
+         * @throws IOException if the instrumented class could not be read
+         */
+        public byte[] get(String name, byte[] original) throws IOException {
+            String hash = hashes.get(name);
+            if (hash == null || !hash.equals(sha256(original))) {
+                return null;
+            }
+            return Files.readAllBytes(new File(classesDir, name + ".class").toPath());
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2 || args.length > 3) {
+            System.err.println("Usage: java " + AheadOfTimeInstrumenter.class.getName() +
+                    " OUTPUT_DIR CLASSPATH [THREADS]");
+            System.exit(1);
+        }
+        File outputDir = new File(args[0]);
+        String[] classpath = args[1].split(File.pathSeparator);
+        int numThreads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+        int count = new AheadOfTimeInstrumenter(classpath, outputDir, numThreads).instrument();
+        System.out.println("Instrumented " + count + " classes into " + outputDir);
+    }
+}
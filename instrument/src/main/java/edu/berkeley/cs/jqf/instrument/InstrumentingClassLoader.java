@@ -38,6 +38,7 @@ import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLClassLoader;
 
+import janala.instrument.GlobalStateForInstrumentation;
 import janala.instrument.SnoopInstructionTransformer;
 
 /**
@@ -47,8 +48,12 @@ public class InstrumentingClassLoader extends URLClassLoader {
 
     private ClassFileTransformer transformer = new SnoopInstructionTransformer();
 
+    /** Classes instrumented by {@link AheadOfTimeInstrumenter}, if any. */
+    private final AheadOfTimeInstrumenter.InstrumentedClasses precompiled;
+
     public InstrumentingClassLoader(URL[] urls, ClassLoader parent) {
         super(urls, parent);
+        this.precompiled = openPrecompiled(System.getProperty("jqf.instrumentedDir"));
     }
 
     public InstrumentingClassLoader(String[] paths, ClassLoader parent) throws MalformedURLException {
@@ -63,6 +68,26 @@ public class InstrumentingClassLoader extends URLClassLoader {
         return urls;
     }
 
+    private static AheadOfTimeInstrumenter.InstrumentedClasses openPrecompiled(String dir) {
+        if (dir == null) {
+            return null;
+        }
+        try {
+            AheadOfTimeInstrumenter.InstrumentedClasses classes =
+                    AheadOfTimeInstrumenter.InstrumentedClasses.open(new File(dir));
+            if (classes == null) {
+                System.err.println("[WARNING] Instrumented classes in " + dir + " are missing or out of date");
+                return null;
+            }
+            // Classes instrumented lazily must not reuse the probe ids of precompiled classes
+            GlobalStateForInstrumentation.instance.reserveFastCoverageIds(classes.getMaxProbeId());
+            return classes;
+        } catch (IOException e) {
+            System.err.println("[WARNING] Could not read instrumented classes in " + dir + ": " + e);
+            return null;
+        }
+    }
+
     @Override
     public Class<?> findClass(String name) throws ClassNotFoundException {
         byte[] originalBytecode;
@@ -81,6 +106,18 @@ public class InstrumentingClassLoader extends URLClassLoader {
 
         assert (originalBytecode != null);
 
+        // Use the class instrumented ahead of time, if it is up to date
+        if (precompiled != null) {
+            try {
+                byte[] instrumented = precompiled.get(internalName, originalBytecode);
+                if (instrumented != null) {
+                    return defineClass(name, instrumented, 0, instrumented.length);
+                }
+            } catch (IOException e) {
+                // Instrument it again below
+            }
+        }
+
         byte[] bytesToLoad;
         try {
             byte[] instrumented = transformer.transform(this, internalName, null, null, originalBytecode);
@@ -0,0 +1,127 @@
+/*
+ * Copyright (c) 2017-2018 The Regents of the University of California
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.berkeley.cs.jqf.instrument.tracing;
+
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Asks threads running instrumented code to stop, e.g. because their
+ * trial has run out of time.
+ *
+ * <p>Instrumented methods call {@link #poll()} on entry, which throws
+ * the exception that was raised for the current thread, if any. While
+ * no thread has been asked to stop, a poll only reads a volatile flag,
+ * so event handlers no longer need to check the clock themselves.
+ * Otherwise, it also reads the request of its own thread, so threads
+ * that have not been asked to stop do not contend for a lock, except
+ * to register that request the first time.</p>
+ */
+public final class AbortSignal {
+
+    /** Whether any thread has a pending request to stop. */
+    private static volatile boolean pending = false;
+
+    /** Number of threads with a pending request; guarded by this class. */
+    private static int numPending = 0;
+
+    /** The request of each thread that has polled or been asked to stop; guarded by this class. */
+    private static final Map<Thread, Request> requests = new WeakHashMap<>();
+
+    /** The request of the current thread, which is registered on first use. */
+    private static final ThreadLocal<Request> localRequest =
+            ThreadLocal.withInitial(() -> requestOf(Thread.currentThread()));
+
+    private AbortSignal() {
+        // Not instantiable
+    }
+
+    /**
+     * Asks a thread to stop by throwing an exception the next time it
+     * enters an instrumented method.
+     *
+     * @param thread the thread to stop
+     * @param e      the exception to throw in <code>thread</code>
+     */
+    public static synchronized void raise(Thread thread, RuntimeException e) {
+        Request request = requestOf(thread);
+        if (request.exception == null) {
+            numPending++;
+        }
+        request.exception = e;
+        pending = true;
+    }
+
+    /**
+     * Withdraws the request for a thread to stop, if it has not yet
+     * been acted upon.
+     *
+     * @param thread the thread that no longer needs to stop
+     */
+    public static synchronized void clear(Thread thread) {
+        Request request = requests.get(thread);
+        if (request != null && request.exception != null) {
+            request.exception = null;
+            pending = --numPending > 0;
+        }
+    }
+
+    /**
+     * Throws the exception raised for the current thread, if any.
+     *
+     * <p>Each request is acted upon only once.</p>
+     */
+    public static void poll() {
+        if (pending && localRequest.get().exception != null) {
+            throwIfRaised();
+        }
+    }
+
+    private static synchronized void throwIfRaised() {
+        Request request = localRequest.get();
+        RuntimeException e = request.exception;
+        if (e != null) {
+            request.exception = null;
+            pending = --numPending > 0;
+            // Report where the thread was stopped, not where it was asked to
+            e.fillInStackTrace();
+            throw e;
+        }
+    }
+
+    private static synchronized Request requestOf(Thread thread) {
+        return requests.computeIfAbsent(thread, (t) -> new Request());
+    }
+
+    /** The pending request of one thread. */
+    private static final class Request {
+        /** The exception to throw in the thread, or <code>null</code>. */
+        volatile RuntimeException exception;
+    }
+}
@@ -1,5 +1,9 @@
 package edu.berkeley.cs.jqf.instrument.tracing;
 
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
 import janala.instrument.FastCoverageListener;
 
 public class FastCoverageSnoop {
@@ -7,9 +11,15 @@ public class FastCoverageSnoop {
 
     @SuppressWarnings("unused") //Invoked by instrumentation
     public static void LOGMETHODBEGIN(int iid) {
+        AbortSignal.poll();
         coverageListener.logMethodBegin(iid);
     }
 
+    @SuppressWarnings("unused") //Invoked by instrumentation with inline probes
+    public static void POLLABORT() {
+        AbortSignal.poll();
+    }
+
     public static void LOGMETHODEND(int iid) {
         coverageListener.logMethodEnd(iid);
     }
@@ -32,4 +42,93 @@ public class FastCoverageSnoop {
     public static void setFastCoverageListener(FastCoverageListener runCoverage) {
         coverageListener = runCoverage;
     }
+
+    /**
+     * A consumer of the counts of inline probes.
+     */
+    public interface ProbeConsumer {
+        /**
+         * Handles the count of a probe.
+         *
+         * @param key   the coverage id of the probe
+         * @param count the number of times the probe was hit
+         */
+        void accept(int key, int count);
+    }
+
+    /** Probe arrays of classes instrumented with inline probes, by first coverage id. */
+    private static final Map<Integer, int[]> probeArrays = new HashMap<>();
+
+    /** The keys and values of {@link #probeArrays}, in registration order. */
+    private static int[] probeBases = new int[16];
+    private static int[][] probes = new int[16][];
+    private static int numProbeArrays = 0;
+
+    /**
+     * Returns the probe array of an instrumented class, creating it
+     * if this is the first call for that class.
+     *
+     * <p>Classes instrumented with inline probes increment their
+     * probe array directly instead of invoking the other methods
+     * of this class. Element <code>i</code> of the array counts the
+     * hits of the probe whose coverage id is <code>base + i</code>.</p>
+     *
+     * @param base the first coverage id of the class
+     * @param size the number of coverage ids of the class
+     * @return the probe array of the class
+     */
+    @SuppressWarnings("unused") //Invoked by instrumentation
+    public static synchronized int[] registerProbes(int base, int size) {
+        int[] array = probeArrays.get(base);
+        if (array == null) {
+            array = new int[size];
+            probeArrays.put(base, array);
+            if (numProbeArrays == probes.length) {
+                probes = Arrays.copyOf(probes, numProbeArrays * 2);
+                probeBases = Arrays.copyOf(probeBases, numProbeArrays * 2);
+            }
+            probes[numProbeArrays] = array;
+            probeBases[numProbeArrays] = base;
+            numProbeArrays++;
+        }
+        return array;
+    }
+
+    /**
+     * Returns whether any class with inline probes has been initialized.
+     *
+     * @return whether there are any inline probes to read
+     */
+    public static synchronized boolean hasProbes() {
+        return numProbeArrays > 0;
+    }
+
+    /**
+     * Passes the counts of all inline probes that were hit to a consumer,
+     * and resets them to zero.
+     *
+     * @param consumer the consumer of probe counts
+     */
+    public static synchronized void drainProbes(ProbeConsumer consumer) {
+        for (int i = 0; i < numProbeArrays; i++) {
+            int[] array = probes[i];
+            int base = probeBases[i];
+            for (int j = 0; j < array.length; j++) {
+                int count = array[j];
+                if (count != 0) {
+                    array[j] = 0;
+                    consumer.accept(base + j, count);
+                }
+            }
+        }
+    }
+
+    /**
+     * Resets the counts of all inline probes to zero.
+     */
+    public static synchronized void resetProbes() {
+        for (int i = 0; i < numProbeArrays; i++) {
+            Arrays.fill(probes[i], 0);
+        }
+    }
 }
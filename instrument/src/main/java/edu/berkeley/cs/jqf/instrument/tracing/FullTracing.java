@@ -0,0 +1,69 @@
+/*
+ * Copyright (c) 2017-2018 The Regents of the University of California
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.berkeley.cs.jqf.instrument.tracing;
+
+/**
+ * Selects how methods with hybrid instrumentation run.
+ *
+ * <p>With <code>janala.hybrid=true</code>, each instrumented method
+ * checks {@link #enabled} on entry. If it is not set, the method runs
+ * with fast coverage probes only. If it is set, the method runs a copy
+ * that also reports every instruction to {@link SingleSnoop}, as full
+ * Janala instrumentation does. Fast coverage is counted either way.</p>
+ *
+ * <p>The mode is global, so it should only be changed between trials.
+ * Constructors and static initializers cannot be copied, so they only
+ * have fast probes; with full tracing they look like methods that were
+ * not instrumented.</p>
+ */
+public final class FullTracing {
+
+    /** Read by hybrid instrumentation on each method entry. */
+    public static volatile boolean enabled = false;
+
+    private FullTracing() {}
+
+    /**
+     * Turns full tracing on or off for subsequent method calls.
+     *
+     * @param enabled whether to trace every instruction
+     */
+    public static void setEnabled(boolean enabled) {
+        FullTracing.enabled = enabled;
+    }
+
+    /**
+     * Returns whether methods are fully traced.
+     *
+     * @return whether full tracing is on
+     */
+    public static boolean isEnabled() {
+        return enabled;
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright (c) 2017-2018 The Regents of the University of California
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.berkeley.cs.jqf.instrument.tracing;
+
+import java.util.function.Consumer;
+
+import edu.berkeley.cs.jqf.instrument.tracing.events.BranchEvent;
+import edu.berkeley.cs.jqf.instrument.tracing.events.CallEvent;
+import edu.berkeley.cs.jqf.instrument.tracing.events.TraceEvent;
+
+/**
+ * A listener for branch and call events that does not require
+ * allocating a {@link TraceEvent} for every event.
+ *
+ * <p>If the {@link Consumer} of trace events that is provided for a
+ * thread also implements this interface, then the {@link ThreadTracer}
+ * of that thread invokes {@link #onBranch(int, int)} and
+ * {@link #onCall(int)} instead of emitting {@link BranchEvent}s and
+ * {@link CallEvent}s. All other events are still emitted as objects.
+ * Consumers that need the full events (e.g. to log traces) should
+ * simply not implement this interface.</p>
+ */
+public interface PrimitiveTraceListener {
+
+    /**
+     * Handles the execution of a branch.
+     *
+     * @param iid the instruction id of the branch
+     * @param arm the arm taken, as in {@link BranchEvent#getArm()}
+     */
+    void onBranch(int iid, int arm);
+
+    /**
+     * Handles a method call.
+     *
+     * @param iid the instruction id of the call site, as in {@link CallEvent#getIid()}
+     */
+    void onCall(int iid);
+}
@@ -31,6 +31,7 @@ package edu.berkeley.cs.jqf.instrument.tracing;
 
 import java.lang.reflect.Field;
 import java.lang.reflect.Method;
+import java.util.Collections;
 import java.util.Map;
 import java.util.WeakHashMap;
 import java.util.function.Consumer;
@@ -57,7 +58,7 @@ public final class SingleSnoop {
         }
     };
 
-    public static final Map<Thread, String> entryPoints = new WeakHashMap<>();
+    public static final Map<Thread, String> entryPoints = Collections.synchronizedMap(new WeakHashMap<>());
 
 
     /** A supplier of callbacks for each thread (does nothing by default). */
@@ -99,6 +100,25 @@ public final class SingleSnoop {
         unblock();
     }
 
+    /** Start snooping for another thread once it begins execution,
+     * with the top-level call being the {@code entryPoint}.
+     *
+     * <p>The thread must be registered before it is started. This is
+     * used to trace worker threads that run fuzzing trials in parallel
+     * with the thread that invoked {@link #startSnooping(String)}.</p>
+     *
+     * @param thread     the thread to snoop on
+     * @param entryPoint the top-level method, formatted as
+     *                   {@code CLASS#METHOD} (e.g.
+     *                   {@code FooBar#main}).
+     */
+    public static void startSnooping(Thread thread, String entryPoint) {
+        // Mark entry point
+        entryPoints.put(thread, entryPoint);
+        // Mark thread for unblocking when we snoop its first instruction
+        threadsToUnblock.synchronizedAddFirst(thread);
+    }
+
     public static void unblock() {
         block.set(false);
     }
@@ -178,6 +198,12 @@ public final class SingleSnoop {
         try { intp.TABLESWITCH(iid, mid, min, max, dflt, labels); } finally { block.set(false); }
     }
 
+    /** Logs the arm taken by a branch or switch under coverage-only instrumentation. */
+    public static void BRANCH(int iid, int mid, int arm) {
+        if (block.get()) return; else block.set(true);
+        try { intp.BRANCH(iid, mid, arm); } finally { block.set(false); }
+    }
+
     public static void IFEQ(int iid, int mid, int label) {
         if (block.get()) return; else block.set(true);
         try { intp.IFEQ(iid, mid, label); } finally { block.set(false); }
@@ -994,7 +1020,10 @@ public final class SingleSnoop {
     }
 
     public static void METHOD_BEGIN(String className, String methodName, String desc) {
-        if (block.get()) return; else block.set(true);
+        if (block.get()) return;
+        // Stop before the method is logged, so the tracer sees a call that threw
+        AbortSignal.poll();
+        block.set(true);
         try { intp.METHOD_BEGIN(className, methodName, desc); } finally { block.set(false); }
     }
 
@@ -59,6 +59,9 @@ public class ThreadTracer {
     protected final String entryPointClass;
     protected final String entryPointMethod;
     protected final Consumer<TraceEvent> callback;
+    protected final PrimitiveTraceListener primitiveCallback;
+    // Hands events to a consumer thread instead of invoking the callback, if tracing asynchronously
+    protected final TraceRing ring;
     private final Deque<IVisitor> handlers = new ArrayDeque<>();
 
     // Values set by GETVALUE_* instructions inserted by Janala
@@ -73,6 +76,9 @@ public class ThreadTracer {
     // Also set this to TRUE when using execution indexes, to ensure that every call site has exactly one push/pop
     private final boolean MATCH_CALLEE_NAMES = Boolean.getBoolean("jqf.tracing.MATCH_CALLEE_NAMES");
 
+    // Whether to invoke the callback in a separate thread, see TraceRing
+    private final boolean ASYNC = Boolean.getBoolean("jqf.tracing.ASYNC");
+
 
     /**
      * Creates a new tracer that will process instructions executed by an application
@@ -96,6 +102,9 @@ public class ThreadTracer {
             this.entryPointMethod = null;
         }
         this.callback = callback;
+        this.primitiveCallback = callback instanceof PrimitiveTraceListener ?
+                (PrimitiveTraceListener) callback : null;
+        this.ring = ASYNC ? new TraceRing(tracee, callback, TraceRing.DEFAULT_CAPACITY) : null;
         this.handlers.push(new BaseHandler());
     }
 
@@ -121,6 +130,10 @@ public class ThreadTracer {
      * @param e the event to emit
      */
     protected final void emit(TraceEvent e) {
+        if (ring != null) {
+            ring.put(e);
+            return;
+        }
         try {
             callback.accept(e);
         } catch (RuntimeException ex) {
@@ -128,6 +141,46 @@ public class ThreadTracer {
         }
     }
 
+    /**
+     * Emits a branch event, without allocating it if the callback
+     * is a {@link PrimitiveTraceListener}.
+     */
+    private void emitBranch(int iid, MemberRef method, int lineNum, int arm) {
+        if (primitiveCallback == null) {
+            emit(new BranchEvent(iid, method, lineNum, arm));
+            return;
+        }
+        if (ring != null) {
+            ring.putBranch(iid, arm);
+            return;
+        }
+        try {
+            primitiveCallback.onBranch(iid, arm);
+        } catch (RuntimeException ex) {
+            callBackException = ex;
+        }
+    }
+
+    /**
+     * Emits a call event, without allocating it if the callback
+     * is a {@link PrimitiveTraceListener}.
+     */
+    private void emitCall(int iid, MemberRef containingMethod, int lineNum, MemberRef invokedMethod) {
+        if (primitiveCallback == null) {
+            emit(new CallEvent(iid, containingMethod, lineNum, invokedMethod));
+            return;
+        }
+        if (ring != null) {
+            ring.putCall(iid);
+            return;
+        }
+        try {
+            primitiveCallback.onCall(iid);
+        } catch (RuntimeException ex) {
+            callBackException = ex;
+        }
+    }
+
     /**
      * Handles tracing of a single bytecode instruction.
      *
@@ -136,6 +189,89 @@ public class ThreadTracer {
     protected final void consume(Instruction ins) {
         // Apply the visitor at the top of the stack
         ins.visit(handlers.peek());
+        rethrowCallBackException();
+    }
+
+    /*
+     * The methods below process the most frequently executed instructions
+     * without them having been allocated, with the same effect as
+     * consume(new ...) would have. They are used by TraceLogger.
+     * Instructions that handlers hold on to (such as METHOD_BEGIN or
+     * invocations) must still go through consume().
+     */
+
+    /** Handles a GETVALUE_int instruction. */
+    final void consumeIntValue(int v) {
+        if (handlers.peek() instanceof TraceEventGeneratingHandler) {
+            values.intValue = v;
+        }
+    }
+
+    /** Handles a GETVALUE_boolean instruction. */
+    final void consumeBooleanValue(boolean v) {
+        if (handlers.peek() instanceof TraceEventGeneratingHandler) {
+            values.booleanValue = v;
+        }
+    }
+
+    /** Handles a conditional jump instruction such as IFEQ. */
+    final void consumeConditionalBranch(int iid, int mid) {
+        IVisitor handler = handlers.peek();
+        if (handler instanceof TraceEventGeneratingHandler) {
+            ((TraceEventGeneratingHandler) handler).branch(iid, mid);
+            rethrowCallBackException();
+        }
+    }
+
+    /** Handles a branch whose arm is already known, as logged by BRANCH. */
+    final void consumeBranch(int iid, int mid, int arm) {
+        IVisitor handler = handlers.peek();
+        if (handler instanceof TraceEventGeneratingHandler) {
+            ((TraceEventGeneratingHandler) handler).branch(iid, mid, arm);
+            rethrowCallBackException();
+        }
+    }
+
+    /** Handles a return instruction or METHOD_THROW. */
+    final void consumeReturnOrMethodThrow(int iid, int mid) {
+        IVisitor handler = handlers.peek();
+        if (handler instanceof TraceEventGeneratingHandler) {
+            ((TraceEventGeneratingHandler) handler).exit(iid, mid);
+            rethrowCallBackException();
+        } else if (handler instanceof MatchingNullHandler) {
+            handlers.pop();
+        }
+    }
+
+    /** Handles an INVOKEMETHOD_END instruction. */
+    final void consumeInvokeMethodEnd() {
+        IVisitor handler = handlers.peek();
+        if (handler instanceof TraceEventGeneratingHandler) {
+            ((TraceEventGeneratingHandler) handler).invokeMethodEnd();
+        }
+    }
+
+    /**
+     * Waits until the callbacks of all threads have handled the events
+     * emitted so far, if tracing asynchronously. Rethrows any exception
+     * thrown by the callback of this thread.
+     */
+    final void awaitCallbacks() {
+        if (ring != null) {
+            TraceRing.awaitAll();
+            rethrowCallBackException();
+        }
+    }
+
+    private void rethrowCallBackException() {
+        if (ring != null && callBackException == null) {
+            Throwable t = ring.takeFailure();
+            if (t instanceof Error) {
+                throw (Error) t;
+            } else if (t != null) {
+                callBackException = t instanceof RuntimeException ? (RuntimeException) t : new RuntimeException(t);
+            }
+        }
         if (callBackException != null) {
             RuntimeException e = callBackException;
             callBackException = null;
@@ -200,7 +336,7 @@ public class ThreadTracer {
             String method = begin.getName();
             if (MATCH_CALLEE_NAMES == false || (clazz.equals(entryPointClass) && method.equals(entryPointMethod)) ||
                     (traceGenerators && clazz.endsWith("Generator") && method.equals("generate")) ) {
-                emit(new CallEvent(0, null, 0, begin));
+                emitCall(0, null, 0, begin);
                 handlers.push(new TraceEventGeneratingHandler(begin, 0));
             } else {
                 // Ignore all top-level calls that are not the entry point
@@ -236,7 +372,7 @@ public class ThreadTracer {
                 // Trace continues with callee
                 int invokerIid = invokeTarget != null ? ((Instruction) invokeTarget).iid : -1;
                 int invokerMid = invokeTarget != null ? ((Instruction) invokeTarget).mid : -1;
-                emit(new CallEvent(invokerIid, this.method, invokerMid, begin));
+                emitCall(invokerIid, this.method, invokerMid, begin);
                 handlers.push(new TraceEventGeneratingHandler(begin, depth+1));
             } else {
                 // Class loading or static initializer
@@ -282,6 +418,12 @@ public class ThreadTracer {
 
         @Override
         public void visitINVOKEMETHOD_END(INVOKEMETHOD_END ins) {
+            invokeMethodEnd();
+
+            super.visitINVOKEMETHOD_END(ins);
+        }
+
+        void invokeMethodEnd() {
             if (this.invokeTarget == null) {
                 throw new InstrumentationException("Unexpected INVOKEMETHOD_END");
             } else {
@@ -293,8 +435,6 @@ public class ThreadTracer {
                     this.invokingSuperOrThis = false;
                 }
             }
-
-            super.visitINVOKEMETHOD_END(ins);
         }
 
         @Override
@@ -330,14 +470,20 @@ public class ThreadTracer {
 
         @Override
         public void visitConditionalBranch(Instruction ins) {
-            int iid = ins.iid;
-            int lineNum = ins.mid;
+            branch(ins.iid, ins.mid);
+
+            super.visitConditionalBranch(ins);
+        }
+
+        void branch(int iid, int lineNum) {
             // The branch taken-or-not would have been set by a previous
             // GETVALUE instruction
             boolean taken = values.booleanValue;
-            emit(new BranchEvent(iid, this.method, lineNum, taken ? 1 : 0));
+            branch(iid, lineNum, taken ? 1 : 0);
+        }
 
-            super.visitConditionalBranch(ins);
+        void branch(int iid, int lineNum, int arm) {
+            emitBranch(iid, this.method, lineNum, arm);
         }
 
         @Override
@@ -352,7 +498,7 @@ public class ThreadTracer {
                 arm = value;
             }
             // Emit a branch instruction corresponding to the arm
-            emit(new BranchEvent(iid, this.method, lineNum, arm));
+            emitBranch(iid, this.method, lineNum, arm);
 
             super.visitTABLESWITCH(tableSwitch);
         }
@@ -372,7 +518,7 @@ public class ThreadTracer {
                 }
             }
             // Emit a branch instruction corresponding to the arm
-            emit(new BranchEvent(iid, this.method, lineNum, arm));
+            emitBranch(iid, this.method, lineNum, arm);
 
             super.visitLOOKUPSWITCH(lookupSwitch);
         }
@@ -412,12 +558,16 @@ public class ThreadTracer {
 
         @Override
         public void visitReturnOrMethodThrow(Instruction ins) {
-            emit(new ReturnEvent(ins.iid, this.method, ins.mid));
-            handlers.pop();
+            exit(ins.iid, ins.mid);
 
             super.visitReturnOrMethodThrow(ins);
         }
 
+        void exit(int iid, int lineNum) {
+            emit(new ReturnEvent(iid, this.method, lineNum));
+            handlers.pop();
+        }
+
     }
 
     class MatchingNullHandler extends ControlFlowInstructionVisitor {
@@ -93,6 +93,299 @@ public class TraceLogger extends AbstractLogger {
         getTracer().consume(instruction);
     }
 
+    /*
+     * The overrides below handle the most frequently executed instructions
+     * without allocating an Instruction for each one. Control-flow
+     * instructions are decoded directly into the tracer; instructions that
+     * the tracer ignores (e.g. loads, stores and arithmetic) are dropped.
+     * Instructions that the tracer holds on to, and rare ones, are
+     * still allocated and logged as usual.
+     */
+
+    @Override
+    public void IFEQ(int iid, int mid, int label) {
+        getTracer().consumeConditionalBranch(iid, mid);
+    }
+
+    @Override
+    public void IFNE(int iid, int mid, int label) {
+        getTracer().consumeConditionalBranch(iid, mid);
+    }
+
+    @Override
+    public void IFLT(int iid, int mid, int label) {
+        getTracer().consumeConditionalBranch(iid, mid);
+    }
+
+    @Override
+    public void IFGE(int iid, int mid, int label) {
+        getTracer().consumeConditionalBranch(iid, mid);
+    }
+
+    @Override
+    public void IFGT(int iid, int mid, int label) {
+        getTracer().consumeConditionalBranch(iid, mid);
+    }
+
+    @Override
+    public void IFLE(int iid, int mid, int label) {
+        getTracer().consumeConditionalBranch(iid, mid);
+    }
+
+    @Override
+    public void IF_ICMPEQ(int iid, int mid, int label) {
+        getTracer().consumeConditionalBranch(iid, mid);
+    }
+
+    @Override
+    public void IF_ICMPNE(int iid, int mid, int label) {
+        getTracer().consumeConditionalBranch(iid, mid);
+    }
+
+    @Override
+    public void IF_ICMPLT(int iid, int mid, int label) {
+        getTracer().consumeConditionalBranch(iid, mid);
+    }
+
+    @Override
+    public void IF_ICMPGE(int iid, int mid, int label) {
+        getTracer().consumeConditionalBranch(iid, mid);
+    }
+
+    @Override
+    public void IF_ICMPGT(int iid, int mid, int label) {
+        getTracer().consumeConditionalBranch(iid, mid);
+    }
+
+    @Override
+    public void IF_ICMPLE(int iid, int mid, int label) {
+        getTracer().consumeConditionalBranch(iid, mid);
+    }
+
+    @Override
+    public void IF_ACMPEQ(int iid, int mid, int label) {
+        getTracer().consumeConditionalBranch(iid, mid);
+    }
+
+    @Override
+    public void IF_ACMPNE(int iid, int mid, int label) {
+        getTracer().consumeConditionalBranch(iid, mid);
+    }
+
+    @Override
+    public void IFNULL(int iid, int mid, int label) {
+        getTracer().consumeConditionalBranch(iid, mid);
+    }
+
+    @Override
+    public void IFNONNULL(int iid, int mid, int label) {
+        getTracer().consumeConditionalBranch(iid, mid);
+    }
+
+    @Override
+    public void IRETURN(int iid, int mid) {
+        getTracer().consumeReturnOrMethodThrow(iid, mid);
+    }
+
+    @Override
+    public void LRETURN(int iid, int mid) {
+        getTracer().consumeReturnOrMethodThrow(iid, mid);
+    }
+
+    @Override
+    public void FRETURN(int iid, int mid) {
+        getTracer().consumeReturnOrMethodThrow(iid, mid);
+    }
+
+    @Override
+    public void DRETURN(int iid, int mid) {
+        getTracer().consumeReturnOrMethodThrow(iid, mid);
+    }
+
+    @Override
+    public void ARETURN(int iid, int mid) {
+        getTracer().consumeReturnOrMethodThrow(iid, mid);
+    }
+
+    @Override
+    public void RETURN(int iid, int mid) {
+        getTracer().consumeReturnOrMethodThrow(iid, mid);
+    }
+
+    @Override
+    public void GETVALUE_boolean(boolean v) {
+        getTracer().consumeBooleanValue(v);
+    }
+
+    @Override
+    public void GETVALUE_int(int v) {
+        getTracer().consumeIntValue(v);
+    }
+
+    @Override
+    public void METHOD_THROW() {
+        getTracer().consumeReturnOrMethodThrow(-1, -1);
+    }
+
+    @Override
+    public void INVOKEMETHOD_END() {
+        getTracer().consumeInvokeMethodEnd();
+    }
+
+    /**
+     * Logs the arm taken by a branch or switch, as instrumented
+     * with <code>janala.coverageOnly</code>.
+     *
+     * @param iid the instruction id of the branch or switch
+     * @param mid the line number
+     * @param arm the arm taken
+     */
+    public void BRANCH(int iid, int mid, int arm) {
+        getTracer().consumeBranch(iid, mid, arm);
+    }
+
+    // Instructions that are ignored by the tracer
+    @Override public void LDC(int iid, int mid, int c) { }
+    @Override public void LDC(int iid, int mid, long c) { }
+    @Override public void LDC(int iid, int mid, float c) { }
+    @Override public void LDC(int iid, int mid, double c) { }
+    @Override public void LDC(int iid, int mid, String c) { }
+    @Override public void LDC(int iid, int mid, Object c) { }
+    @Override public void IINC(int iid, int mid, int var, int increment) { }
+    @Override public void MULTIANEWARRAY(int iid, int mid, String desc, int dims) { }
+    @Override public void GOTO(int iid, int mid, int label) { }
+    @Override public void JSR(int iid, int mid, int label) { }
+    @Override public void GETSTATIC(int iid, int mid, int cIdx, int fIdx, String desc) { }
+    @Override public void PUTSTATIC(int iid, int mid, int cIdx, int fIdx, String desc) { }
+    @Override public void GETFIELD(int iid, int mid, int cIdx, int fIdx, String desc) { }
+    @Override public void PUTFIELD(int iid, int mid, int cIdx, int fIdx, String desc) { }
+    @Override public void ANEWARRAY(int iid, int mid, String type) { }
+    @Override public void CHECKCAST(int iid, int mid, String type) { }
+    @Override public void INSTANCEOF(int iid, int mid, String type) { }
+    @Override public void BIPUSH(int iid, int mid, int value) { }
+    @Override public void SIPUSH(int iid, int mid, int value) { }
+    @Override public void ILOAD(int iid, int mid, int var) { }
+    @Override public void LLOAD(int iid, int mid, int var) { }
+    @Override public void FLOAD(int iid, int mid, int var) { }
+    @Override public void DLOAD(int iid, int mid, int var) { }
+    @Override public void ALOAD(int iid, int mid, int var) { }
+    @Override public void ISTORE(int iid, int mid, int var) { }
+    @Override public void LSTORE(int iid, int mid, int var) { }
+    @Override public void FSTORE(int iid, int mid, int var) { }
+    @Override public void DSTORE(int iid, int mid, int var) { }
+    @Override public void ASTORE(int iid, int mid, int var) { }
+    @Override public void RET(int iid, int mid, int var) { }
+    @Override public void NOP(int iid, int mid) { }
+    @Override public void ACONST_NULL(int iid, int mid) { }
+    @Override public void ICONST_M1(int iid, int mid) { }
+    @Override public void ICONST_0(int iid, int mid) { }
+    @Override public void ICONST_1(int iid, int mid) { }
+    @Override public void ICONST_2(int iid, int mid) { }
+    @Override public void ICONST_3(int iid, int mid) { }
+    @Override public void ICONST_4(int iid, int mid) { }
+    @Override public void ICONST_5(int iid, int mid) { }
+    @Override public void LCONST_0(int iid, int mid) { }
+    @Override public void LCONST_1(int iid, int mid) { }
+    @Override public void FCONST_0(int iid, int mid) { }
+    @Override public void FCONST_1(int iid, int mid) { }
+    @Override public void FCONST_2(int iid, int mid) { }
+    @Override public void DCONST_0(int iid, int mid) { }
+    @Override public void DCONST_1(int iid, int mid) { }
+    @Override public void IALOAD(int iid, int mid) { }
+    @Override public void LALOAD(int iid, int mid) { }
+    @Override public void FALOAD(int iid, int mid) { }
+    @Override public void DALOAD(int iid, int mid) { }
+    @Override public void AALOAD(int iid, int mid) { }
+    @Override public void BALOAD(int iid, int mid) { }
+    @Override public void CALOAD(int iid, int mid) { }
+    @Override public void SALOAD(int iid, int mid) { }
+    @Override public void IASTORE(int iid, int mid) { }
+    @Override public void LASTORE(int iid, int mid) { }
+    @Override public void FASTORE(int iid, int mid) { }
+    @Override public void DASTORE(int iid, int mid) { }
+    @Override public void AASTORE(int iid, int mid) { }
+    @Override public void BASTORE(int iid, int mid) { }
+    @Override public void CASTORE(int iid, int mid) { }
+    @Override public void SASTORE(int iid, int mid) { }
+    @Override public void POP(int iid, int mid) { }
+    @Override public void POP2(int iid, int mid) { }
+    @Override public void DUP(int iid, int mid) { }
+    @Override public void DUP_X1(int iid, int mid) { }
+    @Override public void DUP_X2(int iid, int mid) { }
+    @Override public void DUP2(int iid, int mid) { }
+    @Override public void DUP2_X1(int iid, int mid) { }
+    @Override public void DUP2_X2(int iid, int mid) { }
+    @Override public void SWAP(int iid, int mid) { }
+    @Override public void IADD(int iid, int mid) { }
+    @Override public void LADD(int iid, int mid) { }
+    @Override public void FADD(int iid, int mid) { }
+    @Override public void DADD(int iid, int mid) { }
+    @Override public void ISUB(int iid, int mid) { }
+    @Override public void LSUB(int iid, int mid) { }
+    @Override public void FSUB(int iid, int mid) { }
+    @Override public void DSUB(int iid, int mid) { }
+    @Override public void IMUL(int iid, int mid) { }
+    @Override public void LMUL(int iid, int mid) { }
+    @Override public void FMUL(int iid, int mid) { }
+    @Override public void DMUL(int iid, int mid) { }
+    @Override public void IDIV(int iid, int mid) { }
+    @Override public void LDIV(int iid, int mid) { }
+    @Override public void FDIV(int iid, int mid) { }
+    @Override public void DDIV(int iid, int mid) { }
+    @Override public void IREM(int iid, int mid) { }
+    @Override public void LREM(int iid, int mid) { }
+    @Override public void FREM(int iid, int mid) { }
+    @Override public void DREM(int iid, int mid) { }
+    @Override public void INEG(int iid, int mid) { }
+    @Override public void LNEG(int iid, int mid) { }
+    @Override public void FNEG(int iid, int mid) { }
+    @Override public void DNEG(int iid, int mid) { }
+    @Override public void ISHL(int iid, int mid) { }
+    @Override public void LSHL(int iid, int mid) { }
+    @Override public void ISHR(int iid, int mid) { }
+    @Override public void LSHR(int iid, int mid) { }
+    @Override public void IUSHR(int iid, int mid) { }
+    @Override public void LUSHR(int iid, int mid) { }
+    @Override public void IAND(int iid, int mid) { }
+    @Override public void LAND(int iid, int mid) { }
+    @Override public void IOR(int iid, int mid) { }
+    @Override public void LOR(int iid, int mid) { }
+    @Override public void IXOR(int iid, int mid) { }
+    @Override public void LXOR(int iid, int mid) { }
+    @Override public void I2L(int iid, int mid) { }
+    @Override public void I2F(int iid, int mid) { }
+    @Override public void I2D(int iid, int mid) { }
+    @Override public void L2I(int iid, int mid) { }
+    @Override public void L2F(int iid, int mid) { }
+    @Override public void L2D(int iid, int mid) { }
+    @Override public void F2I(int iid, int mid) { }
+    @Override public void F2L(int iid, int mid) { }
+    @Override public void F2D(int iid, int mid) { }
+    @Override public void D2I(int iid, int mid) { }
+    @Override public void D2L(int iid, int mid) { }
+    @Override public void D2F(int iid, int mid) { }
+    @Override public void I2B(int iid, int mid) { }
+    @Override public void I2C(int iid, int mid) { }
+    @Override public void I2S(int iid, int mid) { }
+    @Override public void LCMP(int iid, int mid) { }
+    @Override public void FCMPL(int iid, int mid) { }
+    @Override public void FCMPG(int iid, int mid) { }
+    @Override public void DCMPL(int iid, int mid) { }
+    @Override public void DCMPG(int iid, int mid) { }
+    @Override public void ARRAYLENGTH(int iid, int mid) { }
+    @Override public void ATHROW(int iid, int mid) { }
+    @Override public void MONITORENTER(int iid, int mid) { }
+    @Override public void MONITOREXIT(int iid, int mid) { }
+    @Override public void GETVALUE_double(double v) { }
+    @Override public void GETVALUE_long(long v) { }
+    @Override public void GETVALUE_Object(Object v) { }
+    @Override public void GETVALUE_byte(byte v) { }
+    @Override public void GETVALUE_char(char v) { }
+    @Override public void GETVALUE_float(float v) { }
+    @Override public void GETVALUE_short(short v) { }
+    @Override public void GETVALUE_void() { }
+    @Override public void MAKE_SYMBOLIC() { }
+
     /**
      * Emits a trace event for the current thread.
      *
@@ -102,10 +395,28 @@ public class TraceLogger extends AbstractLogger {
         getTracer().emit(event);
     }
 
+    /**
+     * Waits until the trace events emitted so far have been handled,
+     * when tracing asynchronously (see <code>jqf.tracing.ASYNC</code>).
+     * This must be called before reading state that the callbacks update,
+     * e.g. at the end of each trial.
+     *
+     * @throws RuntimeException if the callback of the current thread threw
+     *                          an exception that has not yet been rethrown
+     */
+    public void awaitCallbacks() {
+        // Avoid spawning a tracer for the current thread when tracing synchronously
+        if (TraceRing.isInUse()) {
+            getTracer().awaitCallbacks();
+        }
+    }
+
     /**
      * Removes the trace logger for the current thread
      */
     public void remove() {
+        // Let any asynchronous consumer know that the tracer will not emit more events
+        TraceRing.closeAll(Thread.currentThread());
         // Make sure to remove the right tracer depending on whether its in the thread-local map or in the field
         if (Thread.currentThread() == firstThread) {
             firstTracer = null;
@@ -0,0 +1,377 @@
+/*
+ * Copyright (c) 2017-2018 The Regents of the University of California
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.berkeley.cs.jqf.instrument.tracing;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+import edu.berkeley.cs.jqf.instrument.tracing.events.TraceEvent;
+
+/**
+ * A ring buffer through which a traced thread hands its trace events
+ * to a consumer thread, when tracing asynchronously (see
+ * <code>jqf.tracing.ASYNC</code>).
+ *
+ * <p>Each traced thread writes to its own ring. Branch and call events
+ * for a {@link PrimitiveTraceListener} are stored as pairs of ints;
+ * other events are stored as objects. A single daemon thread drains all
+ * rings in batches and invokes the callbacks, so that the guidance's
+ * bookkeeping runs in parallel with the code under test. Callers must
+ * invoke {@link #awaitAll()} before reading any state that the
+ * callbacks update.</p>
+ *
+ * <p>Neither side busy-waits. The consumer parks when all rings are
+ * empty and is woken up by a producer every {@link #BATCH_SIZE} events,
+ * or by {@link #awaitAll()}. A producer parks when its ring is full until
+ * the consumer has made room. Before parking, the consumer and
+ * {@link #awaitAll()} check a bounded number of times whether they can
+ * proceed, since trials are often shorter than it takes to wake up a
+ * parked thread.</p>
+ *
+ * <p>An exception thrown by a callback is handed back to the producer
+ * via {@link #takeFailure()}, so that it can be thrown from the traced
+ * code as with synchronous tracing. Events that the producer emits
+ * before it has taken the exception are dropped.</p>
+ */
+public final class TraceRing {
+
+    /** The default number of events that a ring can hold. */
+    public static final int DEFAULT_CAPACITY = 1 << 14;
+
+    /** The number of events after which a producer wakes up the consumer. */
+    public static final int BATCH_SIZE = 256;
+
+    // How many times to briefly check for work before parking, since parking and waking up is slow;
+    // pointless with a single processor, where the other side cannot make progress meanwhile
+    private static final int SPINS = Runtime.getRuntime().availableProcessors() > 1 ? 1000 : 0;
+
+    // The arm stored for call events, which no branch can take
+    private static final int CALL = Integer.MIN_VALUE;
+
+    private static final List<TraceRing> rings = new CopyOnWriteArrayList<>();
+    private static final Object drained = new Object();
+    private static volatile int waiters = 0;
+    private static volatile boolean consumerSleeping = false;
+    private static volatile Thread consumer = null; // Started along with the first ring
+
+    private final Thread producer;
+    private final Consumer<TraceEvent> callback;
+    private final PrimitiveTraceListener primitiveCallback;
+    private final int capacity;
+    private final int[] ints;
+    private final TraceEvent[] events;
+
+    // The number of events written and read, which only the producer and consumer write respectively
+    private final AtomicLong tail = new AtomicLong();
+    private final AtomicLong head = new AtomicLong();
+
+    // The producer's own copies, to avoid reading the atomics for every event
+    private long written = 0;
+    private long cachedHead = 0;
+
+    private volatile boolean producerWaiting = false;
+    private volatile boolean closed = false;
+    private volatile Throwable failure = null;
+
+    /**
+     * Creates a ring and registers it with the consumer thread.
+     *
+     * @param producer the thread that writes to the ring
+     * @param callback the callback to invoke for each event; branch and call
+     *                 events can only be written with {@link #putBranch(int, int)}
+     *                 and {@link #putCall(int)} if it is a {@link PrimitiveTraceListener}
+     * @param capacity the number of events that the ring can hold, which must be
+     *                 a power of two
+     */
+    public TraceRing(Thread producer, Consumer<TraceEvent> callback, int capacity) {
+        if (Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("Capacity must be a power of two: " + capacity);
+        }
+        this.producer = producer;
+        this.callback = callback;
+        this.primitiveCallback = callback instanceof PrimitiveTraceListener ?
+                (PrimitiveTraceListener) callback : null;
+        this.capacity = capacity;
+        this.ints = new int[2 * capacity];
+        this.events = new TraceEvent[capacity];
+        rings.add(this);
+        synchronized (TraceRing.class) {
+            if (consumer == null) {
+                Thread thread = new Thread(TraceRing::consume, "jqf-trace-consumer");
+                thread.setDaemon(true);
+                thread.start();
+                consumer = thread;
+            }
+        }
+    }
+
+    /**
+     * Returns whether any ring has been created, i.e. whether events
+     * are being traced asynchronously.
+     *
+     * @return whether the consumer thread has been started
+     */
+    public static boolean isInUse() {
+        return consumer != null;
+    }
+
+    /**
+     * Writes an event to the ring.
+     *
+     * @param e the event
+     */
+    public void put(TraceEvent e) {
+        int slot = claim();
+        events[slot] = e;
+        release();
+    }
+
+    /**
+     * Writes a branch event to the ring, to be passed to
+     * {@link PrimitiveTraceListener#onBranch(int, int)}.
+     *
+     * @param iid the instruction id of the branch
+     * @param arm the arm taken
+     */
+    public void putBranch(int iid, int arm) {
+        int slot = claim();
+        ints[2 * slot] = iid;
+        ints[2 * slot + 1] = arm;
+        release();
+    }
+
+    /**
+     * Writes a call event to the ring, to be passed to
+     * {@link PrimitiveTraceListener#onCall(int)}.
+     *
+     * @param iid the instruction id of the call site
+     */
+    public void putCall(int iid) {
+        int slot = claim();
+        ints[2 * slot] = iid;
+        ints[2 * slot + 1] = CALL;
+        release();
+    }
+
+    /* Returns the slot to write the next event to, waiting for room if necessary. */
+    private int claim() {
+        if (written - cachedHead == capacity) {
+            cachedHead = head.get();
+            if (written - cachedHead == capacity) {
+                awaitRoom();
+            }
+        }
+        return (int) written & (capacity - 1);
+    }
+
+    /* Publishes the event written to the claimed slot. */
+    private void release() {
+        written++;
+        if ((written & (BATCH_SIZE - 1)) == 0) {
+            // A volatile write, so that the consumer cannot miss the batch while going to sleep
+            tail.set(written);
+            if (consumerSleeping) {
+                LockSupport.unpark(consumer);
+            }
+        } else {
+            tail.lazySet(written);
+        }
+    }
+
+    private void awaitRoom() {
+        tail.set(written);
+        while (written - cachedHead == capacity) {
+            LockSupport.unpark(consumer);
+            producerWaiting = true;
+            if (written - head.get() == capacity) {
+                LockSupport.park(this);
+            }
+            producerWaiting = false;
+            cachedHead = head.get();
+        }
+    }
+
+    /**
+     * Returns and clears the exception thrown by a callback, if any.
+     * Only called by the producer.
+     *
+     * @return the exception thrown by a callback, or <code>null</code>
+     */
+    public Throwable takeFailure() {
+        Throwable f = failure;
+        if (f != null) {
+            failure = null;
+        }
+        return f;
+    }
+
+    /**
+     * Marks the ring as no longer written to, so that the consumer
+     * unregisters it once it has been drained.
+     */
+    public void close() {
+        closed = true;
+        LockSupport.unpark(consumer);
+    }
+
+    /**
+     * Closes all rings written to by a thread.
+     *
+     * @param producer the thread whose rings to close
+     */
+    public static void closeAll(Thread producer) {
+        for (TraceRing ring : rings) {
+            if (ring.producer == producer) {
+                ring.close();
+            }
+        }
+    }
+
+    /**
+     * Waits until the consumer has handled every event that was
+     * written to any ring before this call.
+     */
+    public static void awaitAll() {
+        TraceRing[] snapshot = rings.toArray(new TraceRing[0]);
+        long[] targets = new long[snapshot.length];
+        for (int i = 0; i < targets.length; i++) {
+            targets[i] = snapshot[i].tail.get();
+        }
+        if (snapshot.length == 0) {
+            return;
+        }
+        LockSupport.unpark(consumer);
+        for (int i = 0; i < SPINS; i++) {
+            if (reached(snapshot, targets)) {
+                return;
+            }
+            Thread.onSpinWait();
+        }
+        synchronized (drained) {
+            waiters++;
+            try {
+                while (!reached(snapshot, targets)) {
+                    LockSupport.unpark(consumer);
+                    drained.wait();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                waiters--;
+            }
+        }
+    }
+
+    private static boolean reached(TraceRing[] snapshot, long[] targets) {
+        for (int i = 0; i < targets.length; i++) {
+            if (snapshot[i].head.get() < targets[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /* The loop of the consumer thread. */
+    private static void consume() {
+        while (true) {
+            boolean progress = false;
+            for (TraceRing ring : rings) {
+                progress |= ring.drain();
+            }
+            if (waiters > 0) {
+                synchronized (drained) {
+                    drained.notifyAll();
+                }
+            }
+            if (!progress) {
+                // Unregister rings that will not be written to again
+                for (TraceRing ring : rings) {
+                    if ((ring.closed || !ring.producer.isAlive()) && ring.head.get() == ring.tail.get()) {
+                        rings.remove(ring);
+                    }
+                }
+                for (int i = 0; i < SPINS && !anyPending(); i++) {
+                    Thread.onSpinWait();
+                }
+                consumerSleeping = true;
+                if (!anyPending() && waiters == 0) {
+                    LockSupport.park();
+                }
+                consumerSleeping = false;
+            }
+        }
+    }
+
+    private static boolean anyPending() {
+        for (TraceRing ring : rings) {
+            if (ring.head.get() != ring.tail.get()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /* Handles the events written so far, and returns whether there were any. */
+    private boolean drain() {
+        long read = head.get();
+        long end = tail.get();
+        if (read == end) {
+            return false;
+        }
+        for (; read < end; read++) {
+            int slot = (int) read & (capacity - 1);
+            TraceEvent e = events[slot];
+            if (e != null) {
+                events[slot] = null;
+            }
+            if (failure != null) {
+                continue; // The producer has not yet thrown the last exception
+            }
+            try {
+                if (e != null) {
+                    callback.accept(e);
+                } else if (ints[2 * slot + 1] == CALL) {
+                    primitiveCallback.onCall(ints[2 * slot]);
+                } else {
+                    primitiveCallback.onBranch(ints[2 * slot], ints[2 * slot + 1]);
+                }
+            } catch (Throwable t) {
+                failure = t;
+            }
+        }
+        head.set(end);
+        if (producerWaiting) {
+            LockSupport.unpark(producer);
+        }
+        return true;
+    }
+}
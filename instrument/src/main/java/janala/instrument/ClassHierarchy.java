@@ -0,0 +1,236 @@
+package janala.instrument;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.lang.ref.WeakReference;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.Opcodes;
+
+/**
+ * An index of the super classes and interfaces of the classes visible
+ * to a class loader, as needed by {@link SafeClassWriter} to compute
+ * stack map frames.
+ *
+ * <p>Entries are read from class files on first use and then shared by
+ * all classes instrumented with the same loader, possibly concurrently.
+ * If an index file is given, entries are also appended to it, and later
+ * runs reuse them as long as the jar or class file that they came from
+ * has the same size and modification time.</p>
+ */
+public class ClassHierarchy {
+  /** The name of the index file in the instrumentation cache directory. */
+  public static final String INDEX_FILE = "jqf-hierarchy.idx";
+
+  private static final File sharedIndexFile = Config.instance.instrumentationCacheDir == null ? null :
+      new File(Config.instance.instrumentationCacheDir, INDEX_FILE);
+  private static final Map<ClassLoader, ClassHierarchy> hierarchies = new WeakHashMap<>();
+
+  /** What {@link SafeClassWriter} needs to know about a class or interface. */
+  public static final class TypeInfo {
+    private final boolean isInterface;
+    private final String superName;
+    private final String[] interfaces;
+
+    TypeInfo(boolean isInterface, String superName, String[] interfaces) {
+      this.isInterface = isInterface;
+      this.superName = superName;
+      this.interfaces = interfaces;
+    }
+
+    public boolean isInterface() {
+      return isInterface;
+    }
+
+    /** Returns the internal name of the super class, or <code>null</code> for Object. */
+    public String getSuperName() {
+      return superName;
+    }
+
+    public String[] getInterfaces() {
+      return interfaces;
+    }
+  }
+
+  /** An entry of the index file, which is valid while its origin is unchanged. */
+  private static final class IndexEntry {
+    final String stamp;
+    final TypeInfo info;
+
+    IndexEntry(String stamp, TypeInfo info) {
+      this.stamp = stamp;
+      this.info = info;
+    }
+  }
+
+  private final WeakReference<ClassLoader> loader;
+  private final File indexFile;
+  private final Map<String, TypeInfo> types = new ConcurrentHashMap<>();
+  // Keyed by type and origin, since other loaders may find the same type elsewhere
+  private final Map<String, IndexEntry> index = new ConcurrentHashMap<>();
+  private final Map<String, String> jarStamps = new ConcurrentHashMap<>();
+
+  /**
+   * Returns the hierarchy of the classes visible to a loader, shared by
+   * all users of that loader.
+   *
+   * @param loader the class loader that finds class files
+   * @return the class hierarchy of <code>loader</code>
+   */
+  public static ClassHierarchy forLoader(ClassLoader loader) {
+    synchronized (hierarchies) {
+      return hierarchies.computeIfAbsent(loader, l -> new ClassHierarchy(l, sharedIndexFile));
+    }
+  }
+
+  /**
+   * Creates a class hierarchy.
+   *
+   * @param loader    the class loader that finds class files
+   * @param indexFile the file in which to persist entries,
+   *                  or <code>null</code> to keep them in memory only
+   */
+  public ClassHierarchy(ClassLoader loader, File indexFile) {
+    this.loader = new WeakReference<>(loader);
+    this.indexFile = indexFile;
+    if (indexFile != null) {
+      loadIndex();
+    }
+  }
+
+  /**
+   * Returns the super class and interfaces of a class or interface.
+   *
+   * @param type the internal name of a class or interface
+   * @return the information about <code>type</code>
+   * @throws IOException if the class file of <code>type</code> cannot be read
+   */
+  public TypeInfo getTypeInfo(String type) throws IOException {
+    TypeInfo info = types.get(type);
+    if (info == null) {
+      info = lookup(type);
+      TypeInfo prev = types.putIfAbsent(type, info);
+      if (prev != null) {
+        info = prev;
+      }
+    }
+    return info;
+  }
+
+  private TypeInfo lookup(String type) throws IOException {
+    ClassLoader loader = this.loader.get();
+    URL url = loader == null ? null : loader.getResource(type + ".class");
+    if (url == null) {
+      throw new IOException("Cannot create ClassReader for type " + type);
+    }
+
+    String origin = null;
+    String stamp = null;
+    if (indexFile != null) {
+      origin = origin(url);
+      if (origin != null) {
+        stamp = stamp(origin);
+        IndexEntry entry = index.get(type + '\t' + origin);
+        if (entry != null && entry.stamp.equals(stamp)) {
+          return entry.info;
+        }
+      }
+    }
+
+    TypeInfo info;
+    try (InputStream is = url.openStream()) {
+      ClassReader cr = new ClassReader(is);
+      info = new TypeInfo((cr.getAccess() & Opcodes.ACC_INTERFACE) != 0, cr.getSuperName(), cr.getInterfaces());
+    }
+    if (origin != null && stamp != null) {
+      index.put(type + '\t' + origin, new IndexEntry(stamp, info));
+      append(type, origin, stamp, info);
+    }
+    return info;
+  }
+
+  /* Returns the jar or class file that a class file was found in, or null if it may change unnoticed. */
+  private static String origin(URL url) {
+    try {
+      switch (url.getProtocol()) {
+        case "jar": {
+          String path = url.getPath();
+          int sep = path.indexOf("!/");
+          return sep < 0 ? null : new File(new URL(path.substring(0, sep)).toURI()).getPath();
+        }
+        case "file":
+          return new File(url.toURI()).getPath();
+        case "jrt":
+          return "jrt:";
+        default:
+          return null;
+      }
+    } catch (IOException | URISyntaxException | IllegalArgumentException e) {
+      return null;
+    }
+  }
+
+  private String stamp(String origin) {
+    if (origin.equals("jrt:")) {
+      return System.getProperty("java.runtime.version");
+    } else if (origin.endsWith(".class")) {
+      return fileStamp(origin);
+    } else {
+      // Jars are looked up many times, so only stat them once
+      return jarStamps.computeIfAbsent(origin, ClassHierarchy::fileStamp);
+    }
+  }
+
+  private static String fileStamp(String path) {
+    File file = new File(path);
+    return file.length() + ":" + file.lastModified();
+  }
+
+  private void loadIndex() {
+    if (!indexFile.isFile()) {
+      return;
+    }
+    try (BufferedReader in = new BufferedReader(new InputStreamReader(
+        new FileInputStream(indexFile), StandardCharsets.UTF_8))) {
+      String line;
+      while ((line = in.readLine()) != null) {
+        String[] fields = line.split("\t", -1);
+        if (fields.length != 7 || !fields[6].equals(".")) {
+          continue; // Partially written by a run that was killed
+        }
+        String superName = fields[4].isEmpty() ? null : fields[4];
+        String[] interfaces = fields[5].isEmpty() ? new String[0] : fields[5].split(",");
+        TypeInfo info = new TypeInfo(fields[3].equals("I"), superName, interfaces);
+        index.put(fields[0] + '\t' + fields[1], new IndexEntry(fields[2], info));
+      }
+    } catch (IOException e) {
+      // Start with an empty index
+    }
+  }
+
+  private void append(String type, String origin, String stamp, TypeInfo info) {
+    String line = type + '\t' + origin + '\t' + stamp + '\t' + (info.isInterface ? "I" : "C") + '\t' +
+        (info.superName == null ? "" : info.superName) + '\t' + String.join(",", info.interfaces) + "\t.\n";
+    // A single write to a file opened for appending is not interleaved with those of other writers
+    synchronized (this) {
+      indexFile.getAbsoluteFile().getParentFile().mkdirs();
+      try (OutputStream out = new FileOutputStream(indexFile, true)) {
+        out.write(line.getBytes(StandardCharsets.UTF_8));
+      } catch (IOException e) {
+        // The entry is still cached in memory
+      }
+    }
+  }
+}
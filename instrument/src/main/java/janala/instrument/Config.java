@@ -19,6 +19,11 @@ class Config {
   public final boolean instrumentAlloc;
   public final String instrumentationCacheDir;
   public final boolean useFastCoverageInstrumentation;
+  public final boolean useInlineProbes;
+  public final boolean coverageOnly;
+  public final int methodSizeBudget;
+  public final boolean minimizeProbes;
+  public final boolean hybridInstrumentation;
 
   private Config() {
       // Read properties from the conf file
@@ -36,7 +41,12 @@ class Config {
       verbose = Boolean.parseBoolean(properties.getProperty("janala.verbose", "false"));
 
       useFastCoverageInstrumentation = Boolean.parseBoolean(properties.getProperty("useFastNonCollidingCoverageInstrumentation", "false"));
-      if(useFastCoverageInstrumentation){
+
+      // Give methods both fast probes and full tracing, selected at run time by FullTracing
+      hybridInstrumentation = useFastCoverageInstrumentation &&
+              Boolean.parseBoolean(properties.getProperty("janala.hybrid", "false"));
+
+      if(useFastCoverageInstrumentation && !hybridInstrumentation){
           analysisClass = "edu/berkeley/cs/jqf/instrument/tracing/FastCoverageSnoop";
       } else {
           analysisClass =
@@ -48,7 +58,25 @@ class Config {
       instrumentHeapLoad = Boolean.parseBoolean(properties.getProperty("janala.instrumentHeapLoad", "false"));
       instrumentAlloc = Boolean.parseBoolean(properties.getProperty("janala.instrumentAlloc", "false"));
 
-      if((instrumentAlloc || instrumentHeapLoad) && useFastCoverageInstrumentation){
+      // Count fast coverage probes in per-class arrays instead of calling into FastCoverageSnoop
+      useInlineProbes = useFastCoverageInstrumentation &&
+              Boolean.parseBoolean(properties.getProperty("janala.inlineProbes", "false"));
+
+      // Only instrument what is needed for branch and call coverage
+      coverageOnly = Boolean.parseBoolean(properties.getProperty("janala.coverageOnly", "false"));
+
+      // Instrument methods that would grow beyond this many bytes with lighter probes (0 = only the class-file limit)
+      methodSizeBudget = Integer.parseInt(properties.getProperty("janala.methodSizeBudget", "0"));
+
+      // Omit fast coverage probes whose counts can be computed from other probes of the same basic block
+      minimizeProbes = useFastCoverageInstrumentation &&
+              Boolean.parseBoolean(properties.getProperty("janala.minimizeProbes", "false"));
+
+      if((instrumentAlloc || instrumentHeapLoad) && coverageOnly){
+          throw new UnsupportedOperationException("It is currently not possible to use allocation or heap load tracking in conjunction with coverage-only instrumentation");
+      }
+
+      if((instrumentAlloc || instrumentHeapLoad) && useFastCoverageInstrumentation && !hybridInstrumentation){
           throw new UnsupportedOperationException("It is currently not possible to use allocation or heap load tracking in conjunction with fast coverage");
       }
 
@@ -1,10 +1,17 @@
 package janala.instrument;
 
+import java.util.Arrays;
+import java.util.BitSet;
+
+import org.objectweb.asm.Handle;
 import org.objectweb.asm.Label;
 import org.objectweb.asm.MethodVisitor;
 import org.objectweb.asm.Opcodes;
 
 public class FastCoverageMethodAdapter extends MethodVisitor implements Opcodes {
+  /** Internal name of the class that probe arrays are registered with. */
+  static final String FAST_COVERAGE_SNOOP = "edu/berkeley/cs/jqf/instrument/tracing/FastCoverageSnoop";
+
   boolean isInit;
   boolean isSuperInitCalled; // Used to keep track of calls to super()/this() in <init>()
   int newStack = 0; // Used to keep-track of NEW instructions in <init>()
@@ -15,17 +22,125 @@ public class FastCoverageMethodAdapter extends MethodVisitor implements Opcodes
   private final GlobalStateForInstrumentation instrumentationState;
 
   private final int methodIID;
+
+  /** Whether probes increment the probe array of the class inline. */
+  private final boolean inlineProbes;
+
+  /** Coverage id of the first element of the probe array. */
+  private final int probeBase;
+
+  /** Where probes are emitted; the same as <code>mv</code>, unless this adapter mirrors another. */
+  private final MethodVisitor probes;
+
+  /** The adapter whose coverage ids this one reuses, or <code>null</code>. */
+  private final FastCoverageMethodAdapter original;
+
+  /** The coverage ids reserved so far, after the method id, in order. */
+  private int[] reservedIds = new int[16];
+  private int numReservedIds = 0;
+
+  /** The number of coverage ids of the original adapter that this one has reused. */
+  private int numMirroredIds = 0;
+
+  /**
+   * The labels of this method that start a basic block (see {@link JumpTargets}),
+   * or <code>null</code> to emit every probe.
+   */
+  private BitSet jumpTargets;
+
+  /** The number of labels of the original code visited so far. */
+  private int labelCount = 0;
+
+  /**
+   * The coverage id of a probe that is executed whenever the code up to the
+   * current instruction is, or -1 if there is none, i.e. if an instruction
+   * that may throw or call has run since the probe. A call probe at this
+   * point is registered as its alias, and the taken arm of a branch as its
+   * difference with the other arm, instead of being emitted.
+   */
+  private int blockProbe = -1;
+
+  /** Whether the last instruction pushed an integer constant other than zero. */
+  private boolean nonZeroConstant = false;
+
   public FastCoverageMethodAdapter(MethodVisitor mv, String className,
                                    String methodName, String descriptor, String superName,
                                    GlobalStateForInstrumentation instrumentationState) {
+    this(mv, mv, null, className, methodName, descriptor, superName, instrumentationState, false, 0);
+  }
+
+  /**
+   * Creates a method adapter whose probes increment the probe array of
+   * the class inline (see {@link SnoopInstructionClassAdapter}).
+   *
+   * <p>Only coverage counts are recorded by inline probes; there are
+   * no method-end events.</p>
+   */
+  public FastCoverageMethodAdapter(MethodVisitor mv, String className,
+                                   String methodName, String descriptor, String superName,
+                                   GlobalStateForInstrumentation instrumentationState, int probeBase) {
+    this(mv, mv, null, className, methodName, descriptor, superName, instrumentationState, true, probeBase);
+  }
+
+  /**
+   * Creates a method adapter that emits the same probes, with the same
+   * coverage ids, as another adapter that is visited in lockstep with
+   * this one (see {@link HybridMethodAdapter}).
+   *
+   * <p>Probes are emitted to <code>probes</code>, while the instructions
+   * of the method are passed on to <code>mv</code>, so that another
+   * adapter can instrument them without seeing the probes.</p>
+   */
+  FastCoverageMethodAdapter(MethodVisitor mv, MethodVisitor probes, FastCoverageMethodAdapter original,
+                            String methodName, String descriptor) {
+    this(mv, probes, original, original.className, methodName, descriptor, original.superName,
+        original.instrumentationState, original.inlineProbes, original.probeBase);
+  }
+
+  private FastCoverageMethodAdapter(MethodVisitor mv, MethodVisitor probes, FastCoverageMethodAdapter original,
+                                    String className, String methodName, String descriptor, String superName,
+                                    GlobalStateForInstrumentation instrumentationState,
+                                    boolean inlineProbes, int probeBase) {
     super(ASM8, mv);
+    this.probes = probes;
+    this.original = original;
+    this.inlineProbes = inlineProbes;
+    this.probeBase = probeBase;
     this.isInit = methodName.equals("<init>");
     this.isSuperInitCalled = false;
     this.className = className;
     this.superName = superName;
 
     this.instrumentationState = instrumentationState;
-    this.methodIID = instrumentationState.incAndGetFastCoverageId();
+    this.methodIID = original != null ? original.methodIID : instrumentationState.incAndGetFastCoverageId();
+  }
+
+  /** Returns the next coverage id of this method. */
+  private int nextId() {
+    if (original != null) {
+      return original.reservedIds[numMirroredIds++];
+    }
+    int id = instrumentationState.incAndGetFastCoverageId();
+    if (numReservedIds == reservedIds.length) {
+      reservedIds = Arrays.copyOf(reservedIds, numReservedIds * 2);
+    }
+    reservedIds[numReservedIds++] = id;
+    return id;
+  }
+
+  /**
+   * Omits the probes before calls that always have the same count as an
+   * earlier probe of their basic block, and the probes of taken branch
+   * arms whose count is that of an earlier probe of their basic block
+   * minus that of the other arm, registering them as {@link ProbeAliases}
+   * instead. Probes are only omitted if no instruction that may throw,
+   * such as a call, a field access, an array access or a division by a
+   * variable, runs between them and the earlier probe.
+   *
+   * @param jumpTargets the labels of this method that start a basic block
+   */
+  void minimizeProbes(BitSet jumpTargets) {
+    this.jumpTargets = jumpTargets;
   }
 
   /** Push a value onto the stack. */
@@ -33,12 +148,36 @@ public class FastCoverageMethodAdapter extends MethodVisitor implements Opcodes
     Utils.addBipushInsn(mv, val);
   }
 
+  /** Increment the inline probe with the given coverage id. */
+  private void addProbeInsn(int id) {
+    probes.visitMethodInsn(INVOKESTATIC, className, SnoopInstructionClassAdapter.PROBES_METHOD, "()[I", false);
+    addBipushInsn(probes, id - probeBase);
+    probes.visitInsn(DUP2);
+    probes.visitInsn(IALOAD);
+    probes.visitInsn(ICONST_1);
+    probes.visitInsn(IADD);
+    probes.visitInsn(IASTORE);
+  }
+
+  /** Log a jump, either inline or with a call to LOGJUMP. */
+  private void addJumpInsn(int iid, int branch) {
+    if (inlineProbes) {
+      addProbeInsn(iid + branch);
+    } else {
+      addBipushInsn(probes, iid);
+      addBipushInsn(probes, branch);
+      probes.visitMethodInsn(INVOKESTATIC, FAST_COVERAGE_SNOOP, "LOGJUMP", "(II)V", false);
+    }
+  }
+
   @Override
   public void visitMethodInsn(int opcode, String owner, String name, String desc, boolean itf) {
-    int iid = instrumentationState.incAndGetFastCoverageId();
-    addBipushInsn(mv, iid);
-    mv.visitInsn(ICONST_0);
-    mv.visitMethodInsn(INVOKESTATIC, Config.instance.analysisClass, "LOGJUMP", "(II)V", false);
+    int iid = nextId();
+    if (blockProbe >= 0) {
+      ProbeAliases.register(iid, blockProbe);
+    } else {
+      addJumpInsn(iid, 0);
+    }
 
     if (opcode == INVOKESPECIAL && name.equals("<init>")) {
 
@@ -71,19 +210,54 @@ public class FastCoverageMethodAdapter extends MethodVisitor implements Opcodes
       }
     }
     mv.visitMethodInsn(opcode, owner, name, desc, itf);
+    // The call may throw, so the next call of this block needs a probe of its own
+    mayThrow();
+  }
+
+  /** Stops later probes of the block from being omitted, after an instruction that may throw. */
+  private void mayThrow() {
+    blockProbe = -1;
+    nonZeroConstant = false;
   }
 
   @Override
   public void visitCode() {
     super.visitCode();
-    addBipushInsn(mv, methodIID);
-    mv.visitMethodInsn(INVOKESTATIC, Config.instance.analysisClass, "LOGMETHODBEGIN", "(I)V", false);
+    if (inlineProbes) {
+      // Polled first, so that an abort cannot come between the probe and those it stands in for
+      probes.visitMethodInsn(INVOKESTATIC, FAST_COVERAGE_SNOOP, "POLLABORT", "()V", false);
+      addProbeInsn(methodIID);
+    } else {
+      addBipushInsn(probes, methodIID);
+      probes.visitMethodInsn(INVOKESTATIC, FAST_COVERAGE_SNOOP, "LOGMETHODBEGIN", "(I)V", false);
+    }
+    if (jumpTargets != null) {
+      blockProbe = methodIID;
+    }
+  }
+
+  @Override
+  public void visitLabel(Label label) {
+    if (jumpTargets != null && jumpTargets.get(labelCount++)) {
+      blockProbe = -1;
+    }
+    nonZeroConstant = false;
+    super.visitLabel(label);
   }
 
-  private void addConditionalJumpInstrumentation(int opcode, Label finalBranchTarget,
-                                                 String instMethodName, String instMethodDesc) {
-    int iid = instrumentationState.incAndGetFastCoverageId();
-    instrumentationState.incAndGetFastCoverageId(); //reserve another counter for the other side of this branch
+  private void addConditionalJumpInstrumentation(int opcode, Label finalBranchTarget) {
+    nonZeroConstant = false;
+    int iid = nextId();
+    nextId(); //reserve another counter for the other side of this branch
+
+    if (blockProbe >= 0) {
+      // The branch is taken as often as the block's probe runs without it being not taken
+      ProbeAliases.registerDifference(iid + 1, blockProbe, iid);
+      mv.visitJumpInsn(opcode, finalBranchTarget);
+      addJumpInsn(iid, 0); // Mark branch as not taken
+      blockProbe = iid;
+      return;
+    }
 
     Label intermediateBranchTarget = new Label();
     Label fallthrough = new Label();
@@ -91,20 +265,19 @@ public class FastCoverageMethodAdapter extends MethodVisitor implements Opcodes
     // Perform the original jump, but branch to intermediate label
     mv.visitJumpInsn(opcode, intermediateBranchTarget);
     // If we did not jump, skip to the fallthrough
-    mv.visitJumpInsn(GOTO, fallthrough);
+    probes.visitJumpInsn(GOTO, fallthrough);
 
     // Now instrument the branch target
-    mv.visitLabel(intermediateBranchTarget);
-    addBipushInsn(mv, iid);
-    addBipushInsn(mv, 1); // Mark branch as taken
-    mv.visitMethodInsn(INVOKESTATIC, Config.instance.analysisClass, instMethodName, instMethodDesc, false);
-    mv.visitJumpInsn(GOTO, finalBranchTarget); // Go to actual branch target
+    probes.visitLabel(intermediateBranchTarget);
+    addJumpInsn(iid, 1); // Mark branch as taken
+    probes.visitJumpInsn(GOTO, finalBranchTarget); // Go to actual branch target
 
     // Now instrument the fall through
-    mv.visitLabel(fallthrough);
-    addBipushInsn(mv, iid);
-    addBipushInsn(mv, 0); // Mark branch as not taken
-    mv.visitMethodInsn(INVOKESTATIC, Config.instance.analysisClass, instMethodName, instMethodDesc, false);
+    probes.visitLabel(fallthrough);
+    addJumpInsn(iid, 0); // Mark branch as not taken
+    if (jumpTargets != null) {
+      blockProbe = iid;
+    }
 
     // continue with fall-through code visiting
   }
@@ -133,11 +306,12 @@ public class FastCoverageMethodAdapter extends MethodVisitor implements Opcodes
       case IF_ACMPNE:
       case IFNULL:
       case IFNONNULL:
-        addConditionalJumpInstrumentation(opcode, label,  "LOGJUMP", "(II)V");
+        addConditionalJumpInstrumentation(opcode, label);
         break;
       case GOTO:
       case JSR:
         mv.visitJumpInsn(opcode, label);
+        mayThrow();
         break;
       default:
         throw new RuntimeException("Unknown jump opcode " + opcode);
@@ -146,17 +320,126 @@ public class FastCoverageMethodAdapter extends MethodVisitor implements Opcodes
 
   @Override
   public void visitInsn(int opcode) {
+    boolean pushesNonZero = false;
     switch (opcode) {
+      case ICONST_M1:
+      case ICONST_1:
+      case ICONST_2:
+      case ICONST_3:
+      case ICONST_4:
+      case ICONST_5:
+      case LCONST_1:
+        pushesNonZero = true;
+        break;
+      case IDIV:
+      case IREM:
+      case LDIV:
+      case LREM:
+        // Only a division by a non-zero constant cannot throw
+        if (!nonZeroConstant) {
+          mayThrow();
+        }
+        break;
+      case IALOAD:
+      case LALOAD:
+      case FALOAD:
+      case DALOAD:
+      case AALOAD:
+      case BALOAD:
+      case CALOAD:
+      case SALOAD:
+      case IASTORE:
+      case LASTORE:
+      case FASTORE:
+      case DASTORE:
+      case AASTORE:
+      case BASTORE:
+      case CASTORE:
+      case SASTORE:
+      case ARRAYLENGTH:
+      case MONITORENTER:
+      case MONITOREXIT:
+        mayThrow();
+        break;
       case IRETURN:
       case LRETURN:
       case FRETURN:
       case DRETURN:
       case ARETURN:
       case RETURN:
-        addBipushInsn(mv, methodIID);
-        mv.visitMethodInsn(INVOKESTATIC, Config.instance.analysisClass, "LOGMETHODEND", "(I)V", false);
+        if (!inlineProbes) {
+          addBipushInsn(probes, methodIID);
+          probes.visitMethodInsn(INVOKESTATIC, FAST_COVERAGE_SNOOP, "LOGMETHODEND", "(I)V", false);
+        }
+        mayThrow();
+        break;
+      case ATHROW:
+        mayThrow();
+        break;
     }
     super.visitInsn(opcode);
+    nonZeroConstant = pushesNonZero;
+  }
+
+  @Override
+  public void visitIntInsn(int opcode, int operand) {
+    super.visitIntInsn(opcode, operand);
+    if (opcode == NEWARRAY) {
+      mayThrow();
+    }
+    nonZeroConstant = opcode != NEWARRAY && operand != 0;
+  }
+
+  @Override
+  public void visitVarInsn(int opcode, int var) {
+    super.visitVarInsn(opcode, var);
+    nonZeroConstant = false;
+  }
+
+  @Override
+  public void visitIincInsn(int var, int increment) {
+    super.visitIincInsn(var, increment);
+    nonZeroConstant = false;
+  }
+
+  @Override
+  public void visitTypeInsn(int opcode, String type) {
+    // Each of these may throw, or load and initialize a class
+    super.visitTypeInsn(opcode, type);
+    mayThrow();
+  }
+
+  @Override
+  public void visitFieldInsn(int opcode, String owner, String name, String descriptor) {
+    // A field access may throw, or load and initialize a class
+    super.visitFieldInsn(opcode, owner, name, descriptor);
+    mayThrow();
+  }
+
+  @Override
+  public void visitInvokeDynamicInsn(String name, String descriptor, Handle bootstrapMethodHandle,
+                                     Object... bootstrapMethodArguments) {
+    super.visitInvokeDynamicInsn(name, descriptor, bootstrapMethodHandle, bootstrapMethodArguments);
+    mayThrow();
+  }
+
+  @Override
+  public void visitMultiANewArrayInsn(String descriptor, int numDimensions) {
+    super.visitMultiANewArrayInsn(descriptor, numDimensions);
+    mayThrow();
+  }
+
+  @Override
+  public void visitLdcInsn(Object value) {
+    super.visitLdcInsn(value);
+    if (value instanceof Integer || value instanceof Long) {
+      nonZeroConstant = ((Number) value).longValue() != 0;
+    } else if (value instanceof Float || value instanceof Double || value instanceof String) {
+      nonZeroConstant = false;
+    } else {
+      // Classes, method handles and dynamic constants are resolved when first loaded
+      mayThrow();
+    }
   }
 
   private Integer lastLineNumber = 0;
@@ -176,54 +459,101 @@ public class FastCoverageMethodAdapter extends MethodVisitor implements Opcodes
 
 
 
+  /** Create a label for each arm of a switch, and reserve their coverage ids. */
+  private Label[] reserveSwitchArms(int numArms) {
+    Label[] armLabels = new Label[numArms];
+    for (int i = 0; i < numArms; i++) {
+      armLabels[i] = new Label();
+      nextId();
+    }
+    //reserve the coverage id of the default case
+    nextId();
+    return armLabels;
+  }
+
+  /**
+   * Add code at the arm labels of a switch that increments the inline probe
+   * of each arm before jumping to the original target. Arm <code>i</code>
+   * has the probe <code>iid + 1 + i</code>, and the default arm has the
+   * last probe, as computed for LOGTABLESWITCH and LOGLOOKUPSWITCH.
+   */
+  private void addSwitchArmProbes(int iid, Label dflt, Label dfltArm, Label[] labels, Label[] armLabels) {
+    for (int i = 0; i < labels.length; i++) {
+      probes.visitLabel(armLabels[i]);
+      addProbeInsn(iid + 1 + i);
+      probes.visitJumpInsn(GOTO, labels[i]);
+    }
+    probes.visitLabel(dfltArm);
+    addProbeInsn(iid + labels.length + 1);
+    probes.visitJumpInsn(GOTO, dflt);
+  }
+
   @Override
   public void visitTableSwitchInsn(int min, int max, Label dflt, Label... labels) {
+    mayThrow();
+    if (inlineProbes) {
+      int iid = nextId();
+      Label[] armLabels = reserveSwitchArms(labels.length);
+      Label dfltArm = new Label();
+      mv.visitTableSwitchInsn(min, max, dfltArm, armLabels);
+      addSwitchArmProbes(iid, dflt, dfltArm, labels, armLabels);
+      return;
+    }
     // Save operand value
     //addValueReadInsn(mv, "I", "GETVALUE_");
-    mv.visitInsn(Opcodes.DUP);
+    probes.visitInsn(Opcodes.DUP);
     // Log switch instruction
-    addBipushInsn(mv, instrumentationState.incAndGetFastCoverageId());
-    addBipushInsn(mv, min);
-    addBipushInsn(mv, max);
-    addBipushInsn(mv, getLabelNum(dflt));
+    addBipushInsn(probes, nextId());
+    addBipushInsn(probes, min);
+    addBipushInsn(probes, max);
+    addBipushInsn(probes, getLabelNum(dflt));
 
     for (int i = 0; i < labels.length; i++) {
       //create a coverage probe for each of the arms, we'll refer to it by offset
-      instrumentationState.incAndGetFastCoverageId();
+      nextId();
     }
 
 
     //create a coverage probe for the default case
-    instrumentationState.incAndGetFastCoverageId();
-    mv.visitMethodInsn(INVOKESTATIC, Config.instance.analysisClass, "LOGTABLESWITCH", "(IIIII)V", false);
+    nextId();
+    probes.visitMethodInsn(INVOKESTATIC, FAST_COVERAGE_SNOOP, "LOGTABLESWITCH", "(IIIII)V", false);
     mv.visitTableSwitchInsn(min, max, dflt, labels);
   }
 
 
   @Override
   public void visitLookupSwitchInsn(Label dflt, int[] keys, Label[] labels) {
+    mayThrow();
+    if (inlineProbes) {
+      int iid = nextId();
+      Label[] armLabels = reserveSwitchArms(labels.length);
+      Label dfltArm = new Label();
+      mv.visitLookupSwitchInsn(dfltArm, keys, armLabels);
+      addSwitchArmProbes(iid, dflt, dfltArm, labels, armLabels);
+      return;
+    }
     // Save operand value
-    mv.visitInsn(Opcodes.DUP);
+    probes.visitInsn(Opcodes.DUP);
 
     // Log switch instruction
-    addBipushInsn(mv, instrumentationState.incAndGetFastCoverageId());
-    addBipushInsn(mv, getLabelNum(dflt));
+    addBipushInsn(probes, nextId());
+    addBipushInsn(probes, getLabelNum(dflt));
 
-    addBipushInsn(mv, keys.length);
-    mv.visitIntInsn(NEWARRAY, T_INT);
+    addBipushInsn(probes, keys.length);
+    probes.visitIntInsn(NEWARRAY, T_INT);
     for (int i = 0; i < keys.length; i++) {
-      mv.visitInsn(DUP);
-      addBipushInsn(mv, i);
-      addBipushInsn(mv, keys[i]);
-      mv.visitInsn(IASTORE);
+      probes.visitInsn(DUP);
+      addBipushInsn(probes, i);
+      addBipushInsn(probes, keys[i]);
+      probes.visitInsn(IASTORE);
       //create a coverage probe for each of the arms, we'll refer to it by offset
-      instrumentationState.incAndGetFastCoverageId();
+      nextId();
     }
 
 
     //create a coverage probe for the default case
-    instrumentationState.incAndGetFastCoverageId();
-    mv.visitMethodInsn(INVOKESTATIC, Config.instance.analysisClass, "LOGLOOKUPSWITCH", "(III[I)V", false);
+    nextId();
+    probes.visitMethodInsn(INVOKESTATIC, FAST_COVERAGE_SNOOP, "LOGLOOKUPSWITCH", "(III[I)V", false);
     mv.visitLookupSwitchInsn(dflt, keys, labels);
   }
 
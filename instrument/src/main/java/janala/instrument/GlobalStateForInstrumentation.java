@@ -1,5 +1,7 @@
 package janala.instrument;
 
+import java.util.concurrent.atomic.AtomicInteger;
+
 /** An object to keep track of (classId, methodId, instructionId) tuples during
  instrumentation. */
 public class GlobalStateForInstrumentation {
@@ -9,10 +11,20 @@ public class GlobalStateForInstrumentation {
   private int cid = 0;
 
   // JQF's Fast Coverage implementation uses a plain int, no bit packing, no truncation errors
-  private int fastCoverageIID = 0;
+  // These ids are shared by all instances, since they are unique across classes
+  private static final AtomicInteger fastCoverageIID = new AtomicInteger();
   public int incAndGetFastCoverageId(){
-    fastCoverageIID++;
-    return fastCoverageIID;
+    return fastCoverageIID.incrementAndGet();
+  }
+
+  /** Returns the last id handed out by {@link #incAndGetFastCoverageId()}. */
+  public int getFastCoverageId(){
+    return fastCoverageIID.get();
+  }
+
+  /** Ensures that ids up to <code>lastId</code>, assigned elsewhere, are not handed out again. */
+  public void reserveFastCoverageIds(int lastId){
+    fastCoverageIID.accumulateAndGet(lastId, Math::max);
   }
 
 
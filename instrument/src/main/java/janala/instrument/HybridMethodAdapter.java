@@ -0,0 +1,269 @@
+package janala.instrument;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import org.objectweb.asm.Handle;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+
+/**
+ * Instruments a method twice, for <code>janala.hybrid</code>: once with
+ * fast coverage probes, and once more as a private copy that also has
+ * full Janala instrumentation.
+ *
+ * <p>The method itself starts by checking
+ * {@link edu.berkeley.cs.jqf.instrument.tracing.FullTracing#enabled};
+ * if it is set, it calls the copy with the same arguments and returns
+ * its result. Both versions count fast coverage with the same ids, so
+ * coverage does not depend on the mode.</p>
+ *
+ * <p>This adapter visits both versions in lockstep. Labels cannot be
+ * shared between methods, so the copy is given its own labels.
+ * Annotations and parameter names are only kept on the method itself.</p>
+ */
+public class HybridMethodAdapter extends MethodVisitor implements Opcodes {
+  /** Suffix of the name of the fully traced copy of a method. */
+  public static final String TRACED_SUFFIX = "$jqf$traced";
+
+  /** Internal name of the class that holds the tracing mode. */
+  static final String FULL_TRACING = "edu/berkeley/cs/jqf/instrument/tracing/FullTracing";
+
+  private final MethodVisitor traced;
+  private final Map<Label, Label> labels = new IdentityHashMap<>();
+
+  /**
+   * Creates an adapter that passes each event to both versions of a method.
+   *
+   * @param mv     the instrumentation of the method itself
+   * @param traced the instrumentation of its fully traced copy
+   */
+  public HybridMethodAdapter(MethodVisitor mv, MethodVisitor traced) {
+    super(ASM8, mv);
+    this.traced = traced;
+  }
+
+  /**
+   * Returns whether a method can be given a fully traced copy.
+   *
+   * <p>Constructors and static initializers cannot be called from
+   * another method, and interfaces can only have private methods
+   * from Java 9 on.</p>
+   *
+   * @param classVersion the class file version of the class
+   * @param isInterface  whether the class is an interface
+   * @param access       the access flags of the method
+   * @param name         the name of the method
+   * @return whether the method has code that can be copied
+   */
+  public static boolean canCopy(int classVersion, boolean isInterface, int access, String name) {
+    if ((access & (ACC_ABSTRACT | ACC_NATIVE)) != 0 || name.equals("<init>") || name.equals("<clinit>")) {
+      return false;
+    }
+    return !isInterface || (classVersion & 0xFFFF) >= V9;
+  }
+
+  /**
+   * Returns the access flags of the fully traced copy of a method.
+   *
+   * @param access the access flags of the method
+   * @return the access flags of its copy
+   */
+  public static int copyAccess(int access) {
+    return (access & (ACC_STATIC | ACC_STRICT)) | ACC_PRIVATE | ACC_SYNTHETIC;
+  }
+
+  private Label copy(Label label) {
+    return labels.computeIfAbsent(label, l -> new Label());
+  }
+
+  private Label[] copy(Label[] labels) {
+    Label[] copies = new Label[labels.length];
+    for (int i = 0; i < labels.length; i++) {
+      copies[i] = copy(labels[i]);
+    }
+    return copies;
+  }
+
+  private Object[] copyFrameTypes(int n, Object[] types) {
+    if (types == null) {
+      return null;
+    }
+    Object[] copies = types.clone();
+    for (int i = 0; i < n; i++) {
+      if (copies[i] instanceof Label) {
+        copies[i] = copy((Label) copies[i]);
+      }
+    }
+    return copies;
+  }
+
+  @Override
+  public void visitCode() {
+    super.visitCode();
+    traced.visitCode();
+  }
+
+  @Override
+  public void visitFrame(int type, int numLocal, Object[] local, int numStack, Object[] stack) {
+    super.visitFrame(type, numLocal, local, numStack, stack);
+    traced.visitFrame(type, numLocal, copyFrameTypes(numLocal, local), numStack, copyFrameTypes(numStack, stack));
+  }
+
+  @Override
+  public void visitInsn(int opcode) {
+    super.visitInsn(opcode);
+    traced.visitInsn(opcode);
+  }
+
+  @Override
+  public void visitIntInsn(int opcode, int operand) {
+    super.visitIntInsn(opcode, operand);
+    traced.visitIntInsn(opcode, operand);
+  }
+
+  @Override
+  public void visitVarInsn(int opcode, int var) {
+    super.visitVarInsn(opcode, var);
+    traced.visitVarInsn(opcode, var);
+  }
+
+  @Override
+  public void visitTypeInsn(int opcode, String type) {
+    super.visitTypeInsn(opcode, type);
+    traced.visitTypeInsn(opcode, type);
+  }
+
+  @Override
+  public void visitFieldInsn(int opcode, String owner, String name, String desc) {
+    super.visitFieldInsn(opcode, owner, name, desc);
+    traced.visitFieldInsn(opcode, owner, name, desc);
+  }
+
+  @Override
+  public void visitMethodInsn(int opcode, String owner, String name, String desc, boolean itf) {
+    super.visitMethodInsn(opcode, owner, name, desc, itf);
+    traced.visitMethodInsn(opcode, owner, name, desc, itf);
+  }
+
+  @Override
+  public void visitInvokeDynamicInsn(String name, String desc, Handle bsm, Object... bsmArgs) {
+    super.visitInvokeDynamicInsn(name, desc, bsm, bsmArgs);
+    traced.visitInvokeDynamicInsn(name, desc, bsm, bsmArgs);
+  }
+
+  @Override
+  public void visitJumpInsn(int opcode, Label label) {
+    super.visitJumpInsn(opcode, label);
+    traced.visitJumpInsn(opcode, copy(label));
+  }
+
+  @Override
+  public void visitLabel(Label label) {
+    super.visitLabel(label);
+    traced.visitLabel(copy(label));
+  }
+
+  @Override
+  public void visitLdcInsn(Object value) {
+    super.visitLdcInsn(value);
+    traced.visitLdcInsn(value);
+  }
+
+  @Override
+  public void visitIincInsn(int var, int increment) {
+    super.visitIincInsn(var, increment);
+    traced.visitIincInsn(var, increment);
+  }
+
+  @Override
+  public void visitTableSwitchInsn(int min, int max, Label dflt, Label... labels) {
+    super.visitTableSwitchInsn(min, max, dflt, labels);
+    traced.visitTableSwitchInsn(min, max, copy(dflt), copy(labels));
+  }
+
+  @Override
+  public void visitLookupSwitchInsn(Label dflt, int[] keys, Label[] labels) {
+    super.visitLookupSwitchInsn(dflt, keys, labels);
+    traced.visitLookupSwitchInsn(copy(dflt), keys, copy(labels));
+  }
+
+  @Override
+  public void visitMultiANewArrayInsn(String desc, int dims) {
+    super.visitMultiANewArrayInsn(desc, dims);
+    traced.visitMultiANewArrayInsn(desc, dims);
+  }
+
+  @Override
+  public void visitTryCatchBlock(Label start, Label end, Label handler, String type) {
+    super.visitTryCatchBlock(start, end, handler, type);
+    traced.visitTryCatchBlock(copy(start), copy(end), copy(handler), type);
+  }
+
+  @Override
+  public void visitLocalVariable(String name, String desc, String signature, Label start, Label end, int index) {
+    super.visitLocalVariable(name, desc, signature, start, end, index);
+    traced.visitLocalVariable(name, desc, signature, copy(start), copy(end), index);
+  }
+
+  @Override
+  public void visitLineNumber(int line, Label start) {
+    super.visitLineNumber(line, start);
+    traced.visitLineNumber(line, copy(start));
+  }
+
+  @Override
+  public void visitMaxs(int maxStack, int maxLocals) {
+    super.visitMaxs(maxStack, maxLocals);
+    traced.visitMaxs(maxStack, maxLocals);
+  }
+
+  @Override
+  public void visitEnd() {
+    super.visitEnd();
+    traced.visitEnd();
+  }
+
+  /**
+   * Starts a method with a call to its fully traced copy, made
+   * when {@link edu.berkeley.cs.jqf.instrument.tracing.FullTracing#enabled}
+   * is set.
+   */
+  static class Dispatcher extends MethodVisitor {
+    private final String className;
+    private final String name;
+    private final String desc;
+    private final boolean isStatic;
+    private final boolean isInterface;
+
+    Dispatcher(MethodVisitor mv, String className, String name, String desc, int access, boolean isInterface) {
+      super(ASM8, mv);
+      this.className = className;
+      this.name = name;
+      this.desc = desc;
+      this.isStatic = (access & ACC_STATIC) != 0;
+      this.isInterface = isInterface;
+    }
+
+    @Override
+    public void visitCode() {
+      super.visitCode();
+      Label untraced = new Label();
+      mv.visitFieldInsn(GETSTATIC, FULL_TRACING, "enabled", "Z");
+      mv.visitJumpInsn(IFEQ, untraced);
+      int var = 0;
+      if (!isStatic) {
+        mv.visitVarInsn(ALOAD, var++);
+      }
+      for (Type arg : Type.getArgumentTypes(desc)) {
+        mv.visitVarInsn(arg.getOpcode(ILOAD), var);
+        var += arg.getSize();
+      }
+      mv.visitMethodInsn(isStatic ? INVOKESTATIC : INVOKESPECIAL, className, name + TRACED_SUFFIX, desc, isInterface);
+      mv.visitInsn(Type.getReturnType(desc).getOpcode(IRETURN));
+      mv.visitLabel(untraced);
+    }
+  }
+}
@@ -0,0 +1,223 @@
+package janala.instrument;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+
+/**
+ * A cache of instrumented classes, stored in a single pack file that
+ * can be shared by several JVMs.
+ *
+ * <p>Entries are keyed by a SHA-256 hash of the class name, the original
+ * class bytes, and a fingerprint of the instrumentation (such as the
+ * configuration and JQF version), so a lookup never needs to compare
+ * the original bytes. The pack file is append-only: a header followed
+ * by records of the form <code>[key][length][crc][bytes]</code>. Each
+ * JVM memory-maps the file and indexes the records that it has seen.
+ * Lookups of indexed classes take no locks; a miss re-scans only the
+ * new tail of the file, and only if the file has changed size.</p>
+ *
+ * <p>Records are appended while holding an exclusive lock on the file,
+ * so several JVMs can read and write the same pack concurrently.
+ * A record that was not completely written (e.g. because a JVM was
+ * killed) fails its checksum and is overwritten by the next append.</p>
+ */
+public class InstrumentationCache {
+  /** The name of the pack file in the cache directory. */
+  public static final String PACK_FILE = "jqf-instrumented.pack";
+
+  private static final byte[] MAGIC = "JQFPACK1".getBytes(StandardCharsets.US_ASCII);
+  private static final int KEY_SIZE = 32;
+  private static final int RECORD_HEADER_SIZE = KEY_SIZE + 8;
+
+  private final File file;
+  private final byte[] fingerprint;
+  private final Map<ByteBuffer, Integer> index = new ConcurrentHashMap<>();
+
+  // The mapped pack file, as of the last refresh; it is replaced before new records are indexed
+  private volatile MappedByteBuffer mapped;
+  // The end of the last valid record seen; guarded by this
+  private int scanned;
+
+  /**
+   * Opens or creates a pack file in a directory.
+   *
+   * @param dir         the cache directory
+   * @param fingerprint identifies the instrumentation; entries created
+   *                    with a different fingerprint are never returned
+   * @throws IOException if the pack file cannot be opened
+   */
+  public InstrumentationCache(File dir, String fingerprint) throws IOException {
+    dir.mkdirs();
+    this.file = new File(dir, PACK_FILE);
+    this.fingerprint = fingerprint.getBytes(StandardCharsets.UTF_8);
+    try (RandomAccessFile raf = new RandomAccessFile(file, "rw");
+         FileChannel channel = raf.getChannel()) {
+      synchronized (InstrumentationCache.class) {
+        try (FileLock lock = channel.lock()) {
+          if (channel.size() < MAGIC.length) {
+            channel.truncate(0);
+            channel.write(ByteBuffer.wrap(MAGIC), 0);
+          }
+        }
+      }
+    }
+    this.scanned = MAGIC.length;
+    refresh();
+  }
+
+  /**
+   * Computes the key of a class.
+   *
+   * @param cname the internal name of the class
+   * @param bytes the original bytes of the class
+   * @return the key under which its instrumented bytes are cached
+   */
+  public byte[] key(String cname, byte[] bytes) {
+    try {
+      MessageDigest digest = MessageDigest.getInstance("SHA-256");
+      digest.update(fingerprint);
+      digest.update((byte) 0);
+      digest.update(cname.getBytes(StandardCharsets.UTF_8));
+      digest.update((byte) 0);
+      digest.update(bytes);
+      return digest.digest();
+    } catch (NoSuchAlgorithmException e) {
+      throw new AssertionError(e);
+    }
+  }
+
+  /**
+   * Looks up the instrumented bytes of a class.
+   *
+   * @param key the key returned by {@link #key(String, byte[])}
+   * @return the instrumented bytes, or <code>null</code> if not cached
+   * @throws IOException if the pack file cannot be read
+   */
+  public byte[] get(byte[] key) throws IOException {
+    Integer offset = index.get(ByteBuffer.wrap(key));
+    if (offset == null) {
+      // Another JVM may have added it since we last looked
+      if (Math.min(file.length(), Integer.MAX_VALUE) == mapped.capacity()) {
+        return null;
+      }
+      synchronized (this) {
+        refresh();
+      }
+      offset = index.get(ByteBuffer.wrap(key));
+      if (offset == null) {
+        return null;
+      }
+    }
+    // The record was indexed after the mapping that contains it was published
+    MappedByteBuffer mapped = this.mapped;
+    int length = mapped.getInt(offset + KEY_SIZE);
+    byte[] bytes = new byte[length];
+    ByteBuffer data = mapped.duplicate();
+    data.position(offset + RECORD_HEADER_SIZE);
+    data.get(bytes);
+    return bytes;
+  }
+
+  /**
+   * Adds the instrumented bytes of a class.
+   *
+   * @param key   the key returned by {@link #key(String, byte[])}
+   * @param bytes the instrumented bytes
+   * @throws IOException if the pack file cannot be written
+   */
+  public synchronized void put(byte[] key, byte[] bytes) throws IOException {
+    ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_SIZE + bytes.length);
+    record.put(key);
+    record.putInt(bytes.length);
+    record.putInt(checksum(ByteBuffer.wrap(bytes)));
+    record.put(bytes);
+    record.flip();
+
+    // File locks are held by the whole JVM, so other caches in this JVM must wait their turn
+    synchronized (InstrumentationCache.class) {
+      try (RandomAccessFile raf = new RandomAccessFile(file, "rw");
+           FileChannel channel = raf.getChannel();
+           FileLock lock = channel.lock()) {
+        refresh(channel);
+        if (index.containsKey(ByteBuffer.wrap(key))) {
+          return; // Added by someone else
+        }
+        // Append after the last valid record, dropping any partial record
+        long end = scanned;
+        if ((long) end + record.remaining() > Integer.MAX_VALUE) {
+          return; // The pack is full
+        }
+        channel.truncate(end);
+        while (record.hasRemaining()) {
+          channel.write(record, end + record.position());
+        }
+        channel.force(false);
+        refresh(channel);
+      }
+    }
+  }
+
+  /**
+   * Returns the number of classes in the cache, as of the last lookup.
+   *
+   * @return the number of cached classes
+   */
+  public int size() {
+    return index.size();
+  }
+
+  private void refresh() throws IOException {
+    try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+         FileChannel channel = raf.getChannel()) {
+      refresh(channel);
+    }
+  }
+
+  /* Maps the file again if its size has changed, and indexes any new records. */
+  private void refresh(FileChannel channel) throws IOException {
+    long size = Math.min(channel.size(), Integer.MAX_VALUE);
+    MappedByteBuffer mapped = this.mapped;
+    if (mapped == null || size != mapped.capacity()) {
+      // A partial record at the end may have been replaced by a shorter one
+      mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+      this.mapped = mapped;
+    }
+    int limit = mapped.capacity();
+    while (scanned + RECORD_HEADER_SIZE <= limit) {
+      int length = mapped.getInt(scanned + KEY_SIZE);
+      int crc = mapped.getInt(scanned + KEY_SIZE + 4);
+      if (length < 0 || scanned + RECORD_HEADER_SIZE + length > limit) {
+        break; // Incomplete record
+      }
+      ByteBuffer data = mapped.duplicate();
+      data.position(scanned + RECORD_HEADER_SIZE);
+      data.limit(scanned + RECORD_HEADER_SIZE + length);
+      if (checksum(data) != crc) {
+        break; // Corrupted record
+      }
+      byte[] key = new byte[KEY_SIZE];
+      ByteBuffer keyData = mapped.duplicate();
+      keyData.position(scanned);
+      keyData.get(key);
+      index.putIfAbsent(ByteBuffer.wrap(key), scanned);
+      scanned += RECORD_HEADER_SIZE + length;
+    }
+  }
+
+  private static int checksum(ByteBuffer data) {
+    CRC32 crc = new CRC32();
+    crc.update(data);
+    return (int) crc.getValue();
+  }
+}
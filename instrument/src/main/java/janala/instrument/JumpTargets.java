@@ -0,0 +1,105 @@
+package janala.instrument;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+/**
+ * The labels of each method of a class that can be reached other
+ * than by falling through, i.e. that start a new basic block.
+ *
+ * <p>Most labels only mark line numbers or local variable ranges.
+ * Labels are identified by the order in which a {@link ClassReader}
+ * visits them, so the same class must be visited with the same
+ * parsing options when the result is used.</p>
+ */
+public class JumpTargets {
+  private final Map<String, BitSet> targets;
+
+  private JumpTargets(Map<String, BitSet> targets) {
+    this.targets = targets;
+  }
+
+  /**
+   * Finds the jump targets of all methods of a class.
+   *
+   * @param cr    the reader of the class
+   * @param flags the parsing options with which the class will be visited
+   * @return the jump targets of each method
+   */
+  public static JumpTargets of(ClassReader cr, int flags) {
+    Map<String, BitSet> targets = new HashMap<>();
+    cr.accept(new ClassVisitor(Opcodes.ASM8) {
+      @Override
+      public MethodVisitor visitMethod(int access, String name, String desc, String signature, String[] exceptions) {
+        return new MethodVisitor(Opcodes.ASM8) {
+          private final List<Label> labels = new ArrayList<>();
+          private final Set<Label> jumpedTo = new HashSet<>();
+
+          @Override
+          public void visitLabel(Label label) {
+            labels.add(label);
+          }
+
+          @Override
+          public void visitJumpInsn(int opcode, Label label) {
+            jumpedTo.add(label);
+          }
+
+          @Override
+          public void visitTableSwitchInsn(int min, int max, Label dflt, Label... labels) {
+            jumpedTo.add(dflt);
+            jumpedTo.addAll(Arrays.asList(labels));
+          }
+
+          @Override
+          public void visitLookupSwitchInsn(Label dflt, int[] keys, Label[] labels) {
+            jumpedTo.add(dflt);
+            jumpedTo.addAll(Arrays.asList(labels));
+          }
+
+          @Override
+          public void visitTryCatchBlock(Label start, Label end, Label handler, String type) {
+            jumpedTo.add(handler);
+          }
+
+          @Override
+          public void visitEnd() {
+            BitSet bits = new BitSet(labels.size());
+            for (int i = 0; i < labels.size(); i++) {
+              if (jumpedTo.contains(labels.get(i))) {
+                bits.set(i);
+              }
+            }
+            targets.put(name + desc, bits);
+          }
+        };
+      }
+    }, flags);
+    return new JumpTargets(targets);
+  }
+
+  /**
+   * Returns the jump targets of a method.
+   *
+   * @param name the name of the method
+   * @param desc the descriptor of the method
+   * @return a set whose bit <code>i</code> is set if the <code>i</code>-th
+   *         label visited in the method is a jump target, or <code>null</code>
+   *         if the method has no code
+   */
+  public BitSet get(String name, String desc) {
+    return targets.get(name + desc);
+  }
+}
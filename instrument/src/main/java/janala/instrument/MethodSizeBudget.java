@@ -0,0 +1,208 @@
+package janala.instrument;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.objectweb.asm.ClassReader;
+
+/**
+ * Keeps the instrumented methods of a class within a code-size budget.
+ *
+ * <p>Instrumentation can inflate a method many times over. Methods that
+ * grow beyond HotSpot's <code>HugeMethodLimit</code> are never JIT-compiled,
+ * and methods that grow beyond the class-file limit cannot be written
+ * at all; nor can methods with more instructions than Janala has
+ * instruction ids for. A method that exceeds the budget is instrumented again at
+ * a lighter {@link Level}: first with coverage-only probes, and
+ * then not at all. Methods that are over the budget even without
+ * instrumentation are only downgraded if they hit the class-file limit.</p>
+ *
+ * <p>Each downgrade is recorded, and a summary is printed when the JVM
+ * exits.</p>
+ */
+public class MethodSizeBudget {
+  /** HotSpot does not JIT-compile methods with more bytecode than this. */
+  public static final int HUGE_METHOD_LIMIT = 8000;
+
+  /** The class-file format limits the bytecode of a method to this many bytes. */
+  public static final int MAX_CODE_SIZE = 65535;
+
+  /** How a method is instrumented, from heaviest to lightest. */
+  public enum Level {
+    /** Instrumented as configured. */
+    FULL,
+    /** Only branches and calls are traced (see <code>janala.coverageOnly</code>). */
+    COVERAGE_ONLY,
+    /** Not instrumented. */
+    NONE
+  }
+
+  private static final ConcurrentLinkedQueue<String> downgrades = new ConcurrentLinkedQueue<>();
+  private static boolean summaryScheduled = false;
+
+  private final String className;
+  private final int budget;
+  private final boolean canUseCoverageOnly;
+  private final Map<String, Integer> originalSizes;
+  private final Map<String, Level> levels = new HashMap<>();
+  private final Map<String, String> reasons = new HashMap<>();
+
+  /**
+   * Creates a budget for the methods of a class.
+   *
+   * @param className          the internal name of the class
+   * @param original           the original bytes of the class
+   * @param budget             the maximum size of an instrumented method,
+   *                           or 0 to only enforce the class-file limit
+   * @param canUseCoverageOnly whether methods can fall back to coverage-only
+   *                           instrumentation before not being instrumented
+   */
+  public MethodSizeBudget(String className, byte[] original, int budget, boolean canUseCoverageOnly) {
+    this.className = className;
+    this.budget = budget > 0 ? Math.min(budget, MAX_CODE_SIZE) : MAX_CODE_SIZE;
+    this.canUseCoverageOnly = canUseCoverageOnly;
+    this.originalSizes = budget > 0 ? codeSizes(original) : new HashMap<>();
+  }
+
+  /**
+   * Returns how a method should be instrumented.
+   *
+   * @param name the name of the method
+   * @param desc the descriptor of the method
+   * @return the instrumentation level of the method
+   */
+  public Level getLevel(String name, String desc) {
+    return levels.getOrDefault(name + desc, Level.FULL);
+  }
+
+  /**
+   * Lowers the instrumentation level of a method that could not be
+   * instrumented, e.g. because it hit the class-file limit.
+   *
+   * @param name   the name of the method
+   * @param desc   the descriptor of the method
+   * @param reason why the method could not be instrumented
+   * @return whether the level was lowered; if not, the method cannot be made smaller
+   */
+  public boolean downgrade(String name, String desc, String reason) {
+    return downgrade(name + desc, reason);
+  }
+
+  /**
+   * Lowers the instrumentation level of methods that exceed the budget.
+   *
+   * @param instrumented the instrumented bytes of the class
+   * @return whether the level of any method was lowered, in which
+   *         case the class should be instrumented again
+   */
+  public boolean checkSizes(byte[] instrumented) {
+    if (budget == MAX_CODE_SIZE) {
+      return false; // Too large methods cannot be written
+    }
+    boolean downgraded = false;
+    for (Map.Entry<String, Integer> e : codeSizes(instrumented).entrySet()) {
+      Integer originalSize = originalSizes.get(e.getKey());
+      // Methods that were over the budget to begin with gain nothing from a downgrade
+      if (originalSize != null && originalSize <= budget && e.getValue() > budget) {
+        downgraded |= downgrade(e.getKey(), e.getValue() + " bytes exceed the budget of " + budget);
+      }
+    }
+    return downgraded;
+  }
+
+  private boolean downgrade(String method, String reason) {
+    Level level = levels.getOrDefault(method, Level.FULL);
+    if (level == Level.FULL && canUseCoverageOnly) {
+      level = Level.COVERAGE_ONLY;
+    } else if (level != Level.NONE) {
+      level = Level.NONE;
+    } else {
+      return false;
+    }
+    levels.put(method, level);
+    reasons.put(method, reason);
+    return true;
+  }
+
+  /**
+   * Records the downgrades of this class for the summary.
+   */
+  public void report() {
+    if (levels.isEmpty()) {
+      return;
+    }
+    for (Map.Entry<String, Level> e : levels.entrySet()) {
+      downgrades.add(className + "." + e.getKey() + " -> " + e.getValue() + " (" + reasons.get(e.getKey()) + ")");
+    }
+    synchronized (MethodSizeBudget.class) {
+      if (!summaryScheduled) {
+        summaryScheduled = true;
+        Runtime.getRuntime().addShutdownHook(new Thread(MethodSizeBudget::printSummary));
+      }
+    }
+  }
+
+  /**
+   * Returns the downgrades made so far, one per line.
+   *
+   * @return descriptions of the methods that were instrumented at a lighter level
+   */
+  public static List<String> getDowngrades() {
+    return new ArrayList<>(downgrades);
+  }
+
+  private static void printSummary() {
+    List<String> lines = getDowngrades();
+    System.err.println("[INFO] Instrumented " + lines.size() + " method(s) with lighter probes to fit the size budget:");
+    for (String line : lines) {
+      System.err.println("[INFO]   " + line);
+    }
+  }
+
+  /**
+   * Returns the bytecode size of each method of a class.
+   *
+   * @param bytes the bytes of the class
+   * @return a map from method name and descriptor to code size
+   */
+  public static Map<String, Integer> codeSizes(byte[] bytes) {
+    Map<String, Integer> sizes = new HashMap<>();
+    ClassReader cr = new ClassReader(bytes);
+    char[] buf = new char[cr.getMaxStringLength()];
+    int offset = cr.header + 6;
+    offset += 2 + 2 * cr.readUnsignedShort(offset); // interfaces
+    int fieldsCount = cr.readUnsignedShort(offset);
+    offset += 2;
+    for (int i = 0; i < fieldsCount; i++) {
+      offset = skipAttributes(cr, offset + 6, cr.readUnsignedShort(offset + 6));
+    }
+    int methodsCount = cr.readUnsignedShort(offset);
+    offset += 2;
+    for (int i = 0; i < methodsCount; i++) {
+      String method = cr.readUTF8(offset + 2, buf) + cr.readUTF8(offset + 4, buf);
+      int attributesCount = cr.readUnsignedShort(offset + 6);
+      offset += 8;
+      for (int j = 0; j < attributesCount; j++) {
+        int length = cr.readInt(offset + 2);
+        if ("Code".equals(cr.readUTF8(offset, buf))) {
+          // max_stack and max_locals come before code_length
+          sizes.put(method, cr.readInt(offset + 10));
+        }
+        offset += 6 + length;
+      }
+    }
+    return sizes;
+  }
+
+  /* Returns the offset after the attributes that follow the attribute count at offset. */
+  private static int skipAttributes(ClassReader cr, int offset, int count) {
+    offset += 2;
+    for (int i = 0; i < count; i++) {
+      offset += 6 + cr.readInt(offset + 2);
+    }
+    return offset;
+  }
+}
@@ -0,0 +1,139 @@
+package janala.instrument;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A registry of fast coverage probes that were not emitted because
+ * they always have the same count as another probe.
+ *
+ * <p>When probes are minimized (see <code>janala.minimizeProbes</code>),
+ * a probe that is always executed together with an earlier probe of the
+ * same basic block is not emitted. Its coverage id is still reserved,
+ * and registered here as an alias of the earlier probe, so that the full
+ * coverage can be rebuilt from the counts of the emitted probes.</p>
+ *
+ * <p>Similarly, the taken arm of a branch whose block starts with a probe
+ * is not emitted, since its count is that of the block's probe minus that
+ * of the arm that was not taken. Such differences are registered here too.
+ * Unlike aliases, they must be computed for every run, since the novelty
+ * of a taken arm cannot be told from the counts of the other two probes
+ * once they have been bucketed.</p>
+ */
+public class ProbeAliases {
+  private static final Map<Integer, int[]> aliases = new HashMap<>();
+  private static final Map<Integer, Integer> representatives = new HashMap<>();
+
+  // Looked up after every run, so these are read without locking
+  private static final Map<Integer, int[]> differences = new ConcurrentHashMap<>();
+  private static final Map<Integer, int[]> operands = new ConcurrentHashMap<>();
+  private static volatile boolean hasDifferences = false;
+
+  /**
+   * Records that a probe always has the same count as another.
+   *
+   * @param alias          the coverage id of the probe that was not emitted
+   * @param representative the coverage id of a probe that was emitted
+   */
+  public static synchronized void register(int alias, int representative) {
+    Integer existing = representatives.putIfAbsent(alias, representative);
+    if (existing != null) {
+      return; // Registered again, e.g. when re-reading instrumented classes
+    }
+    int[] list = aliases.get(representative);
+    if (list == null) {
+      list = new int[] { alias };
+    } else {
+      list = Arrays.copyOf(list, list.length + 1);
+      list[list.length - 1] = alias;
+    }
+    aliases.put(representative, list);
+  }
+
+  /**
+   * Records that a probe always counts the difference of two others.
+   *
+   * @param derived    the coverage id of the probe that was not emitted
+   * @param minuend    the coverage id of a probe that runs at least as often
+   * @param subtrahend the coverage id of a probe that runs whenever the
+   *                   minuend does but the derived probe does not
+   */
+  public static synchronized void registerDifference(int derived, int minuend, int subtrahend) {
+    if (operands.putIfAbsent(derived, new int[] { minuend, subtrahend }) != null) {
+      return; // Registered again, e.g. when re-reading instrumented classes
+    }
+    int[] list = differences.get(minuend);
+    if (list == null) {
+      list = new int[] { derived, subtrahend };
+    } else {
+      list = Arrays.copyOf(list, list.length + 2);
+      list[list.length - 2] = derived;
+      list[list.length - 1] = subtrahend;
+    }
+    differences.put(minuend, list);
+    hasDifferences = true;
+  }
+
+  /**
+   * Returns whether any differences have been registered.
+   *
+   * @return whether any branch arms were minimized away
+   */
+  public static boolean hasDifferences() {
+    return hasDifferences;
+  }
+
+  /**
+   * Returns the probes whose counts are derived from a given probe.
+   *
+   * @param minuend the coverage id of an emitted probe
+   * @return pairs of the coverage ids of a derived probe and of the probe
+   *         whose count is subtracted from that of <code>minuend</code>,
+   *         or <code>null</code> if none
+   */
+  public static int[] getDifferences(int minuend) {
+    return differences.get(minuend);
+  }
+
+  /**
+   * Returns the probes whose difference is counted by a probe that was not emitted.
+   *
+   * @param derived the coverage id of a probe
+   * @return the coverage ids of its minuend and subtrahend,
+   *         or <code>null</code> if it was emitted
+   */
+  public static int[] getDifference(int derived) {
+    return operands.get(derived);
+  }
+
+  /**
+   * Returns whether any aliases have been registered.
+   *
+   * @return whether any probes were minimized away
+   */
+  public static synchronized boolean hasAliases() {
+    return !aliases.isEmpty();
+  }
+
+  /**
+   * Returns the probes that have the same count as a given probe.
+   *
+   * @param representative the coverage id of an emitted probe
+   * @return the coverage ids of its aliases, or <code>null</code> if none
+   */
+  public static synchronized int[] getAliases(int representative) {
+    return aliases.get(representative);
+  }
+
+  /**
+   * Returns the probe whose count is used for a probe that was not emitted.
+   *
+   * @param alias the coverage id of a probe
+   * @return the coverage id of its representative, or -1 if it was emitted
+   */
+  public static synchronized int getRepresentative(int alias) {
+    return representatives.getOrDefault(alias, -1);
+  }
+}
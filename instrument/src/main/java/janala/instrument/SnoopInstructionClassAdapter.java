@@ -2,17 +2,138 @@
 package janala.instrument;
 
 import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.Label;
 import org.objectweb.asm.MethodVisitor;
 import org.objectweb.asm.Opcodes;
 
 
 public class SnoopInstructionClassAdapter extends ClassVisitor {
+  /** Name of the static field that holds the probe array of a class with inline probes. */
+  public static final String PROBES_FIELD = "$jqf$probes";
+
+  /** Name of the static method that returns the probe array of a class with inline probes. */
+  public static final String PROBES_METHOD = "$jqf$getProbes";
+
   private final String className;
   private String superName;
+  private int classVersion;
+  private boolean isInterface;
+  private boolean inlineProbes;
+  private int probeBase;
+  private final GlobalStateForInstrumentation instrumentationState;
+  private final MethodSizeBudget budget;
+  private JumpTargets jumpTargets;
+  private boolean hybrid = Config.instance.hybridInstrumentation;
+  private String lastMethodName;
+  private String lastMethodDesc;
 
   public SnoopInstructionClassAdapter(ClassVisitor cv, String className) {
+    this(cv, className, false);
+  }
+
+  /**
+   * Creates a class adapter.
+   *
+   * <p>If <code>inlineProbes</code> is set, then fast coverage probes
+   * increment a static probe array of the class directly, instead of
+   * invoking {@link edu.berkeley.cs.jqf.instrument.tracing.FastCoverageSnoop}.
+   * This requires adding a field and a method to the class, so it cannot
+   * be used when re-transforming a class that has already been loaded.
+   * Interfaces, which cannot have mutable static fields, always fall back
+   * to the fast coverage callbacks.</p>
+   *
+   * @param cv           the visitor to delegate to
+   * @param className    the internal name of the class
+   * @param inlineProbes whether to use inline probes
+   */
+  public SnoopInstructionClassAdapter(ClassVisitor cv, String className, boolean inlineProbes) {
+    this(cv, className, inlineProbes, GlobalStateForInstrumentation.instance);
+  }
+
+  /**
+   * Creates a class adapter that assigns instruction ids from the given state.
+   *
+   * <p>Janala instruction ids only depend on the class being instrumented,
+   * so classes can be instrumented concurrently if each one is given its
+   * own state. Fast coverage ids are shared by all states, and must be
+   * assigned to one class at a time so that they are contiguous.</p>
+   *
+   * @param cv           the visitor to delegate to
+   * @param className    the internal name of the class
+   * @param inlineProbes whether to use inline probes
+   * @param instrumentationState the state from which to assign ids
+   */
+  public SnoopInstructionClassAdapter(ClassVisitor cv, String className, boolean inlineProbes,
+                                      GlobalStateForInstrumentation instrumentationState) {
+    this(cv, className, inlineProbes, instrumentationState, null);
+  }
+
+  /**
+   * Creates a class adapter that instruments each method at the level
+   * chosen by a size budget.
+   *
+   * @param cv           the visitor to delegate to
+   * @param className    the internal name of the class
+   * @param inlineProbes whether to use inline probes
+   * @param instrumentationState the state from which to assign ids
+   * @param budget       the budget of the class, or <code>null</code>
+   *                     to instrument all methods fully
+   */
+  public SnoopInstructionClassAdapter(ClassVisitor cv, String className, boolean inlineProbes,
+                                      GlobalStateForInstrumentation instrumentationState,
+                                      MethodSizeBudget budget) {
     super(Opcodes.ASM8, cv);
     this.className = className;
+    this.inlineProbes = inlineProbes;
+    this.instrumentationState = instrumentationState;
+    this.budget = budget;
+  }
+
+  /**
+   * Omits fast coverage probes that always have the same count as
+   * another probe of their basic block (see <code>janala.minimizeProbes</code>).
+   *
+   * @param jumpTargets the jump targets of the class, found by a reader
+   *                    with the same parsing options as the one that
+   *                    this adapter is visited by
+   */
+  public void minimizeProbes(JumpTargets jumpTargets) {
+    this.jumpTargets = jumpTargets;
+  }
+
+  /**
+   * Sets whether methods get both fast coverage probes and a fully
+   * traced copy (see {@link HybridMethodAdapter}), which is the case
+   * with <code>janala.hybrid=true</code>.
+   *
+   * @param hybrid whether to use hybrid instrumentation
+   */
+  public void setHybrid(boolean hybrid) {
+    this.hybrid = hybrid;
+  }
+
+  private FastCoverageMethodAdapter minimized(FastCoverageMethodAdapter mv, String name, String desc) {
+    if (jumpTargets != null) {
+      mv.minimizeProbes(jumpTargets.get(name, desc));
+    }
+    return mv;
+  }
+
+  /* Instruments a method with fast probes, and adds a copy of it that is also fully traced. */
+  private MethodVisitor hybridAdapter(MethodVisitor mv, int access, String name, String desc, String[] exceptions) {
+    MethodVisitor dispatcher = new HybridMethodAdapter.Dispatcher(mv, className, name, desc, access, isInterface);
+    FastCoverageMethodAdapter fast = minimized(inlineProbes ?
+        new FastCoverageMethodAdapter(dispatcher, className, name, desc, superName, instrumentationState, probeBase) :
+        new FastCoverageMethodAdapter(dispatcher, className, name, desc, superName, instrumentationState), name, desc);
+
+    MethodVisitor copy = cv.visitMethod(HybridMethodAdapter.copyAccess(access),
+        name + HybridMethodAdapter.TRACED_SUFFIX, desc, null, exceptions);
+    // Janala sees the original instructions, and the fast probes go straight to the copy
+    MethodVisitor janala = new SnoopInstructionMethodAdapter(copy, className, name, desc, superName,
+        instrumentationState);
+    FastCoverageMethodAdapter traced = minimized(new FastCoverageMethodAdapter(janala, copy, fast, name, desc),
+        name, desc);
+    return new HybridMethodAdapter(fast, traced);
   }
 
   @Override
@@ -24,21 +145,87 @@ public class SnoopInstructionClassAdapter extends ClassVisitor {
                     String[] interfaces) {
     assert name.equals(this.className);
     this.superName = superName;
+    this.classVersion = version;
+    this.isInterface = (access & Opcodes.ACC_INTERFACE) != 0;
+    if (isInterface) {
+      inlineProbes = false;
+    }
+    // The transformer instruments one class at a time with fast coverage, so the ids of this class will be contiguous
+    this.probeBase = instrumentationState.getFastCoverageId() + 1;
     cv.visit(version, access, name, signature, superName, interfaces);
+    if (inlineProbes) {
+      cv.visitField(Opcodes.ACC_PRIVATE | Opcodes.ACC_STATIC | Opcodes.ACC_TRANSIENT | Opcodes.ACC_SYNTHETIC,
+              PROBES_FIELD, "[I", null, null).visitEnd();
+    }
   }
 
   @Override
   public MethodVisitor visitMethod(int access, String name, String desc,
       String signature, String[] exceptions) {
+    lastMethodName = name;
+    lastMethodDesc = desc;
     MethodVisitor mv = cv.visitMethod(access, name, desc, signature, exceptions);
+    MethodSizeBudget.Level level = budget == null ? MethodSizeBudget.Level.FULL : budget.getLevel(name, desc);
     if (mv != null) {
-      if(Config.instance.useFastCoverageInstrumentation){
-        return new FastCoverageMethodAdapter(mv, className, name, desc, superName, GlobalStateForInstrumentation.instance);
+      if (level == MethodSizeBudget.Level.NONE) {
+        return mv;
+      } else if (level == MethodSizeBudget.Level.COVERAGE_ONLY) {
+        return new SnoopInstructionMethodAdapter(mv, className, name, desc, superName,
+                instrumentationState, true);
+      } else if (hybrid && HybridMethodAdapter.canCopy(classVersion, isInterface, access, name)) {
+        return hybridAdapter(mv, access, name, desc, exceptions);
+      } else if (inlineProbes) {
+        return minimized(new FastCoverageMethodAdapter(mv, className, name, desc, superName,
+                instrumentationState, probeBase), name, desc);
+      } else if(Config.instance.useFastCoverageInstrumentation){
+        return minimized(new FastCoverageMethodAdapter(mv, className, name, desc, superName,
+                instrumentationState), name, desc);
       }else {
         return new SnoopInstructionMethodAdapter(mv, className, name, desc, superName,
-                GlobalStateForInstrumentation.instance);
+                instrumentationState);
       }
     }
     return null;
   }
+
+  /** Returns the name of the method being visited, or <code>null</code> if none has been. */
+  String getLastMethodName() {
+    return lastMethodName;
+  }
+
+  /** Returns the descriptor of the method being visited, or <code>null</code> if none has been. */
+  String getLastMethodDesc() {
+    return lastMethodDesc;
+  }
+
+  @Override
+  public void visitEnd() {
+    int numProbes = instrumentationState.getFastCoverageId() - probeBase + 1;
+    if (inlineProbes && numProbes > 0) {
+      addProbesMethod(numProbes);
+    }
+    cv.visitEnd();
+  }
+
+  /* Adds a method that returns the probe array, registering it on first use. */
+  private void addProbesMethod(int numProbes) {
+    MethodVisitor mv = cv.visitMethod(Opcodes.ACC_PRIVATE | Opcodes.ACC_STATIC | Opcodes.ACC_SYNTHETIC,
+            PROBES_METHOD, "()[I", null, null);
+    mv.visitCode();
+    Label initialized = new Label();
+    mv.visitFieldInsn(Opcodes.GETSTATIC, className, PROBES_FIELD, "[I");
+    mv.visitInsn(Opcodes.DUP);
+    mv.visitJumpInsn(Opcodes.IFNONNULL, initialized);
+    mv.visitInsn(Opcodes.POP);
+    Utils.addBipushInsn(mv, probeBase);
+    Utils.addBipushInsn(mv, numProbes);
+    mv.visitMethodInsn(Opcodes.INVOKESTATIC, FastCoverageMethodAdapter.FAST_COVERAGE_SNOOP,
+            "registerProbes", "(II)[I", false);
+    mv.visitInsn(Opcodes.DUP);
+    mv.visitFieldInsn(Opcodes.PUTSTATIC, className, PROBES_FIELD, "[I");
+    mv.visitLabel(initialized);
+    mv.visitInsn(Opcodes.ARETURN);
+    mv.visitMaxs(0, 0);
+    mv.visitEnd();
+  }
 }
@@ -21,11 +21,25 @@ public class SnoopInstructionMethodAdapter extends MethodVisitor implements Opco
   private final String superName;
 
   private final GlobalStateForInstrumentation instrumentationState;
+  private final boolean coverageOnly;
 
   public SnoopInstructionMethodAdapter(MethodVisitor mv, String className,
       String methodName, String descriptor, String superName,
       GlobalStateForInstrumentation instrumentationState) {
+    this(mv, className, methodName, descriptor, superName, instrumentationState,
+        Config.instance.coverageOnly);
+  }
+
+  /**
+   * Creates a method adapter that, if <code>coverageOnly</code> is set, logs
+   * the outcome of each branch and switch with a single BRANCH call, instead
+   * of logging the instruction along with the value that it tested.
+   */
+  public SnoopInstructionMethodAdapter(MethodVisitor mv, String className,
+      String methodName, String descriptor, String superName,
+      GlobalStateForInstrumentation instrumentationState, boolean coverageOnly) {
     super(ASM8, mv);
+    this.coverageOnly = coverageOnly;
     this.isInit = methodName.equals("<init>");
     this.isSuperInitCalled = false;
     this.className = className;
@@ -818,12 +832,32 @@ public class SnoopInstructionMethodAdapter extends MethodVisitor implements Opco
     }
   }
 
+  /** Add a BRANCH call that logs the arm taken by a branch or switch. */
+  private void addBranchInsn(int iid, int arm) {
+    addBipushInsn(mv, iid);
+    addBipushInsn(mv, lastLineNumber);
+    addBipushInsn(mv, arm);
+    mv.visitMethodInsn(INVOKESTATIC, Config.instance.analysisClass, "BRANCH", "(III)V", false);
+  }
+
   private void addConditionalJumpInstrumentation(int opcode, Label finalBranchTarget,
                                                  String instMethodName, String instMethodDesc) {
     int iid = instrumentationState.incAndGetId();
     Label intermediateBranchTarget = new Label();
     Label fallthrough = new Label();
 
+    if (coverageOnly) {
+      // Log each outcome with a single call
+      mv.visitJumpInsn(opcode, intermediateBranchTarget);
+      addBranchInsn(iid, 0);
+      mv.visitJumpInsn(GOTO, fallthrough);
+      mv.visitLabel(intermediateBranchTarget);
+      addBranchInsn(iid, 1);
+      mv.visitJumpInsn(GOTO, finalBranchTarget);
+      mv.visitLabel(fallthrough);
+      return;
+    }
+
     // Perform the original jump, but branch to intermediate label
     mv.visitJumpInsn(opcode, intermediateBranchTarget);
     // If we did not jump, skip to the fallthrough
@@ -970,8 +1004,47 @@ public class SnoopInstructionMethodAdapter extends MethodVisitor implements Opco
 
 
 
+  /**
+   * Add code at new labels for each arm of a switch that logs the arm with
+   * a BRANCH call before jumping to the original target. Arms are numbered
+   * as ThreadTracer numbers them for TABLESWITCH and LOOKUPSWITCH, and the
+   * default arm is -1.
+   */
+  private void addSwitchArmInstrumentation(int iid, Label dflt, Label dfltArm,
+                                           Label[] labels, Label[] armLabels, int[] arms) {
+    for (int i = 0; i < labels.length; i++) {
+      mv.visitLabel(armLabels[i]);
+      addBranchInsn(iid, arms[i]);
+      mv.visitJumpInsn(GOTO, labels[i]);
+    }
+    mv.visitLabel(dfltArm);
+    addBranchInsn(iid, -1);
+    mv.visitJumpInsn(GOTO, dflt);
+  }
+
+  private static Label[] newLabels(int n) {
+    Label[] labels = new Label[n];
+    for (int i = 0; i < n; i++) {
+      labels[i] = new Label();
+    }
+    return labels;
+  }
+
   @Override
   public void visitTableSwitchInsn(int min, int max, Label dflt, Label... labels) {
+    if (coverageOnly) {
+      int iid = instrumentationState.incAndGetId();
+      int[] arms = new int[labels.length];
+      for (int i = 0; i < labels.length; i++) {
+        int value = min + i;
+        arms[i] = value >= 0 && value < labels.length ? value : -1;
+      }
+      Label[] armLabels = newLabels(labels.length);
+      Label dfltArm = new Label();
+      mv.visitTableSwitchInsn(min, max, dfltArm, armLabels);
+      addSwitchArmInstrumentation(iid, dflt, dfltArm, labels, armLabels, arms);
+      return;
+    }
     // Save operand value
     addValueReadInsn(mv, "I", "GETVALUE_");
     // Log switch instruction
@@ -996,6 +1069,18 @@ public class SnoopInstructionMethodAdapter extends MethodVisitor implements Opco
 
   @Override
   public void visitLookupSwitchInsn(Label dflt, int[] keys, Label[] labels) {
+    if (coverageOnly) {
+      int iid = instrumentationState.incAndGetId();
+      int[] arms = new int[labels.length];
+      for (int i = 0; i < labels.length; i++) {
+        arms[i] = i;
+      }
+      Label[] armLabels = newLabels(labels.length);
+      Label dfltArm = new Label();
+      mv.visitLookupSwitchInsn(dfltArm, keys, armLabels);
+      addSwitchArmInstrumentation(iid, dflt, dfltArm, labels, armLabels, arms);
+      return;
+    }
     // Save operand value
     addValueReadInsn(mv, "I", "GETVALUE_");
     // Log switch instruction
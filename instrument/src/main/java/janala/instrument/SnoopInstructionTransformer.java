@@ -1,20 +1,17 @@
 package janala.instrument;
 
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.lang.instrument.ClassFileTransformer;
 import java.lang.instrument.IllegalClassFormatException;
 import java.lang.instrument.Instrumentation;
-import java.nio.file.Files;
 import java.security.ProtectionDomain;
-import java.util.Arrays;
 import java.util.Map;
 import java.util.TreeMap;
 
 import org.objectweb.asm.ClassReader;
-import org.objectweb.asm.ClassVisitor;
 import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodTooLargeException;
 
 @SuppressWarnings("unused") // Registered via -javaagent
 public class SnoopInstructionTransformer implements ClassFileTransformer {
@@ -23,6 +20,8 @@ public class SnoopInstructionTransformer implements ClassFileTransformer {
   private static String[] banned = {"[", "java/lang", "org/eclipse/collections", "edu/berkeley/cs/jqf/fuzz/util", "janala", "org/objectweb/asm", "sun", "jdk", "java/util/function"};
   private static String[] excludes = Config.instance.excludeInst;
   private static String[] includes = Config.instance.includeInst;
+  private static final InstrumentationCache diskCache = openDiskCache();
+
   public static void premain(String agentArgs, Instrumentation inst) throws ClassNotFoundException {
 
     preloadClasses();
@@ -81,7 +80,7 @@ public class SnoopInstructionTransformer implements ClassFileTransformer {
   }
 
   @Override
-  synchronized public byte[] transform(ClassLoader loader, String cname, Class<?> classBeingRedefined,
+  public byte[] transform(ClassLoader loader, String cname, Class<?> classBeingRedefined,
       ProtectionDomain d, byte[] cbuf)
     throws IllegalClassFormatException {
 
@@ -97,36 +96,34 @@ public class SnoopInstructionTransformer implements ClassFileTransformer {
         print("* ");
       }
       print("Instrumenting: " + cname + "... ");
-      GlobalStateForInstrumentation.instance.setCid(cname.hashCode());
-
-      if (instDir != null) {
-        File cachedFile = new File(instDir + "/" + cname + ".instrumented.class");
-        File referenceFile = new File(instDir + "/" + cname + ".original.class");
-        if (cachedFile.exists() && referenceFile.exists()) {
-          try {
-            byte[] origBytes = Files.readAllBytes(referenceFile.toPath());
-            if (Arrays.equals(cbuf, origBytes)) {
-              byte[] instBytes = Files.readAllBytes(cachedFile.toPath());
-              println(" Found in disk-cache!");
-              return instBytes;
-            }
-          } catch (IOException e) {
-            print(" <cache error> ");
+
+      // Fast coverage ids depend on the order in which classes are loaded, so they are not cached
+      InstrumentationCache cache = Config.instance.useFastCoverageInstrumentation ? null : diskCache;
+      byte[] key = null;
+      if (cache != null) {
+        try {
+          key = cache.key(cname, cbuf);
+          byte[] instBytes = cache.get(key);
+          if (instBytes != null) {
+            println(" Found in disk-cache!");
+            return instBytes;
           }
+        } catch (IOException e) {
+          print(" <cache error> ");
         }
       }
 
       byte[] ret = cbuf;
       try {
-
-        ClassReader cr = new ClassReader(cbuf);
-        ClassWriter cw = new SafeClassWriter(cr,  loader,
-                ClassWriter.COMPUTE_FRAMES | ClassWriter.COMPUTE_MAXS);
-        ClassVisitor cv = new SnoopInstructionClassAdapter(cw, cname);
-
-        cr.accept(cv, 0);
-
-        ret = cw.toByteArray();
+        if (Config.instance.useFastCoverageInstrumentation) {
+          // Fast coverage ids are global, and each class needs a contiguous range of them
+          synchronized (GlobalStateForInstrumentation.instance) {
+            ret = instrument(loader, cname, classBeingRedefined, cbuf, GlobalStateForInstrumentation.instance);
+          }
+        } else {
+          // Janala ids only depend on the class name, so classes can be instrumented in parallel
+          ret = instrument(loader, cname, classBeingRedefined, cbuf, new GlobalStateForInstrumentation());
+        }
       } catch (Throwable e) {
         println("\n[WARNING] Could not instrument " + cname);
         if (verbose) {
@@ -137,18 +134,9 @@ public class SnoopInstructionTransformer implements ClassFileTransformer {
 
       println("Done!");
 
-      if (instDir != null) {
+      if (key != null) {
         try {
-          File cachedFile = new File(instDir + "/" + cname + ".instrumented.class");
-          File referenceFile = new File(instDir + "/" + cname + ".original.class");
-          File parent = new File(cachedFile.getParent());
-          parent.mkdirs();
-          try(FileOutputStream out = new FileOutputStream(cachedFile)) {
-            out.write(ret);
-          }
-          try(FileOutputStream out = new FileOutputStream(referenceFile)) {
-            out.write(cbuf);
-          }
+          cache.put(key, ret);
         } catch(Exception e) {
           e.printStackTrace();
         }
@@ -159,6 +147,109 @@ public class SnoopInstructionTransformer implements ClassFileTransformer {
     }
   }
 
+  private static byte[] instrument(ClassLoader loader, String cname, Class<?> classBeingRedefined,
+      byte[] cbuf, GlobalStateForInstrumentation state) {
+    // Coverage-only probes feed the same tracer as full Janala instrumentation, but not fast coverage
+    boolean canUseCoverageOnly = !Config.instance.useFastCoverageInstrumentation && !Config.instance.coverageOnly;
+    MethodSizeBudget budget = new MethodSizeBudget(cname, cbuf, Config.instance.methodSizeBudget, canUseCoverageOnly);
+    JumpTargets jumpTargets = Config.instance.minimizeProbes ? JumpTargets.of(new ClassReader(cbuf), 0) : null;
+    while (true) {
+      state.setCid(cname.hashCode());
+      ClassReader cr = new ClassReader(cbuf);
+      ClassWriter cw = new SafeClassWriter(cr,  loader,
+              ClassWriter.COMPUTE_FRAMES | ClassWriter.COMPUTE_MAXS);
+      // Classes that are already loaded cannot be given a probe array
+      boolean inlineProbes = Config.instance.useInlineProbes && classBeingRedefined == null;
+      SnoopInstructionClassAdapter cv = new SnoopInstructionClassAdapter(cw, cname, inlineProbes, state, budget);
+      if (jumpTargets != null) {
+        cv.minimizeProbes(jumpTargets);
+      }
+
+      try {
+        cr.accept(cv, 0);
+      } catch (IllegalArgumentException e) {
+        // Janala ran out of instruction ids in the method being visited
+        if (cv.getLastMethodName() != null && budget.downgrade(cv.getLastMethodName(), cv.getLastMethodDesc(),
+            "too many instructions for instruction ids")) {
+          print("<" + cv.getLastMethodName() + " has too many instructions, retrying> ");
+          continue;
+        }
+        throw e;
+      }
+
+      byte[] ret;
+      try {
+        ret = cw.toByteArray();
+      } catch (MethodTooLargeException e) {
+        if (budget.downgrade(e.getMethodName(), e.getDescriptor(),
+            e.getCodeSize() + " bytes exceed the class-file limit")) {
+          print("<" + e.getMethodName() + " too large, retrying> ");
+          continue;
+        }
+        throw e;
+      }
+      if (budget.checkSizes(ret)) {
+        print("<over budget, retrying> ");
+        continue;
+      }
+      budget.report();
+      return ret;
+    }
+  }
+
+  private static InstrumentationCache openDiskCache() {
+    if (instDir == null) {
+      return null;
+    }
+    try {
+      return new InstrumentationCache(new File(instDir), fingerprint());
+    } catch (IOException e) {
+      println("[WARNING] Could not open instrumentation cache in " + instDir);
+      if (verbose) {
+        e.printStackTrace();
+      }
+      return null;
+    }
+  }
+
+  /**
+   * Returns whether instrumentation assigns ids from a counter shared by all
+   * classes (i.e. fast coverage), rather than from each class's name.
+   *
+   * @return whether ids depend on the order in which classes are instrumented
+   */
+  public static boolean usesGlobalIds() {
+    return Config.instance.useFastCoverageInstrumentation;
+  }
+
+  /**
+   * Identifies the instrumentation performed by this JQF build and configuration.
+   *
+   * @return a string that changes whenever instrumented bytes may change
+   */
+  public static String fingerprint() {
+    StringBuilder sb = new StringBuilder();
+    sb.append(Config.instance.analysisClass).append(';')
+        .append(Config.instance.instrumentHeapLoad).append(';')
+        .append(Config.instance.instrumentAlloc).append(';')
+        .append(Config.instance.coverageOnly).append(';')
+        .append(Config.instance.useFastCoverageInstrumentation).append(';')
+        .append(Config.instance.useInlineProbes).append(';')
+        .append(Config.instance.methodSizeBudget).append(';')
+        .append(Config.instance.minimizeProbes).append(';')
+        .append(Config.instance.hybridInstrumentation).append(';')
+        .append(SnoopInstructionTransformer.class.getPackage().getImplementationVersion());
+    // Snapshot versions are not bumped on every build, so also identify the jar itself
+    try {
+      File jar = new File(SnoopInstructionTransformer.class.getProtectionDomain()
+          .getCodeSource().getLocation().toURI());
+      sb.append(';').append(jar.length()).append(';').append(jar.lastModified());
+    } catch (Exception e) {
+      // Fall back to the version alone
+    }
+    return sb.toString();
+  }
+
   private static void print(String str) {
     if (verbose) {
       System.out.print(str);
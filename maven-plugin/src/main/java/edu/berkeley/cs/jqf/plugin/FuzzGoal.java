@@ -132,6 +132,17 @@ public class FuzzGoal extends AbstractMojo {
     @Parameter(property="includes")
     private String includes;
 
+    /**
+     * Directory of classes instrumented ahead of time by the goal
+     * <code>jqf:instrument</code>.
+     *
+     * <p>Classes whose original bytecode and instrumentation configuration
+     * match those recorded in this directory are loaded without being
+     * instrumented again. Other classes are instrumented as usual.</p>
+     */
+    @Parameter(property="instrumentedDir")
+    private String instrumentedDir;
+
     /**
      * The duration of time for which to run fuzzing.
      *
@@ -279,6 +290,31 @@ public class FuzzGoal extends AbstractMojo {
     @Parameter(property="runTimeout")
     private int runTimeout;
 
+    /**
+     * The number of worker threads that run trials concurrently.
+     *
+     * <p>Multiple workers share a single corpus and coverage map, and
+     * require the test method to be safe to run from several threads
+     * at once. Only supported by the Zest engine.</p>
+     *
+     * <p>If not provided, defaults to 1.</p>
+     */
+    @Parameter(property="workers")
+    private int workers;
+
+    /**
+     * Whether to resume a previous fuzzing campaign.
+     *
+     * <p>If this property is set to true and the output directory contains
+     * a checkpoint from a previous run, then the saved corpus, coverage and
+     * failures are reloaded instead of being deleted, and fuzzing continues
+     * where it left off. Only supported by the Zest engine.</p>
+     *
+     * <p>If not provided, defaults to {@code false}.</p>
+     */
+    @Parameter(property="resume")
+    private boolean resume;
+
     /**
      * Whether to bound size of inputs being mutated by the fuzzer.
      *
@@ -382,6 +418,9 @@ public class FuzzGoal extends AbstractMojo {
         if (includes != null) {
             System.setProperty("janala.includes", includes);
         }
+        if (instrumentedDir != null) {
+            System.setProperty("jqf.instrumentedDir", instrumentedDir);
+        }
 
         // Configure Zest Guidance
         if (saveAll) {
@@ -402,6 +441,12 @@ public class FuzzGoal extends AbstractMojo {
         if (fixedSizeInputs) {
             System.setProperty("jqf.ei.GENERATE_EOF_WHEN_OUT", String.valueOf(true));
         }
+        if (resume) {
+            System.setProperty("jqf.ei.RESUME", "true");
+        }
+        if (workers > 1) {
+            System.setProperty("jqf.ei.WORKERS", String.valueOf(workers));
+        }
 
         Duration duration = null;
         if (time != null && !time.isEmpty()) {
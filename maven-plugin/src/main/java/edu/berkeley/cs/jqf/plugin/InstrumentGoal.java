@@ -0,0 +1,118 @@
+/*
+ * Copyright (c) 2017-2018 The Regents of the University of California
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ * notice, this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the
+ * documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.berkeley.cs.jqf.plugin;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import edu.berkeley.cs.jqf.instrument.AheadOfTimeInstrumenter;
+import org.apache.maven.artifact.DependencyResolutionRequiredException;
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+import org.apache.maven.plugins.annotations.ResolutionScope;
+import org.apache.maven.project.MavenProject;
+
+/**
+ * Maven plugin for instrumenting the test classpath ahead of time.
+ *
+ * <p>The instrumented classes can be reused by later invocations of
+ * <code>jqf:fuzz</code> and <code>jqf:repro</code> on the same
+ * classpath by setting their <code>instrumentedDir</code> property
+ * to the output directory of this goal.</p>
+ */
+@Mojo(name="instrument",
+        requiresDependencyResolution=ResolutionScope.TEST)
+public class InstrumentGoal extends AbstractMojo {
+
+    @Parameter(defaultValue="${project}", required=true, readonly=true)
+    MavenProject project;
+
+    /**
+     * The directory in which to write the instrumented classes.
+     *
+     * <p>If not provided, defaults to <code>target/jqf-instrumented</code>.</p>
+     */
+    @Parameter(property="instrumentedDir", defaultValue="${project.build.directory}/jqf-instrumented")
+    private File instrumentedDir;
+
+    /**
+     * Comma-separated list of FQN prefixes to exclude from
+     * coverage instrumentation.
+     *
+     * <p>This must match the property of the same name given to
+     * the goals that use the instrumented classes.</p>
+     */
+    @Parameter(property="excludes")
+    private String excludes;
+
+    /**
+     * Comma-separated list of FQN prefixes to forcibly include,
+     * even if they match an exclude.
+     *
+     * <p>This must match the property of the same name given to
+     * the goals that use the instrumented classes.</p>
+     */
+    @Parameter(property="includes")
+    private String includes;
+
+    /**
+     * The number of classes to instrument concurrently.
+     *
+     * <p>If not provided, defaults to the number of available processors.</p>
+     */
+    @Parameter(property="threads")
+    private int threads;
+
+    @Override
+    public void execute() throws MojoExecutionException {
+        // Configure classes to instrument
+        if (excludes != null) {
+            System.setProperty("janala.excludes", excludes);
+        }
+        if (includes != null) {
+            System.setProperty("janala.includes", includes);
+        }
+
+        int numThreads = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        try {
+            List<String> classpathElements = project.getTestClasspathElements();
+            AheadOfTimeInstrumenter instrumenter = new AheadOfTimeInstrumenter(
+                    classpathElements.toArray(new String[0]), instrumentedDir, numThreads);
+            int count = instrumenter.instrument();
+            getLog().info("Instrumented " + count + " classes into " + instrumentedDir);
+        } catch (DependencyResolutionRequiredException e) {
+            throw new MojoExecutionException("Could not get project classpath", e);
+        } catch (IOException e) {
+            throw new MojoExecutionException("Could not instrument project classpath", e);
+        }
+    }
+}
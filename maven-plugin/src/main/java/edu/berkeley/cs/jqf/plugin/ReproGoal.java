@@ -138,6 +138,17 @@ public class ReproGoal extends AbstractMojo {
     @Parameter(property="includes")
     private String includes;
 
+    /**
+     * Directory of classes instrumented ahead of time by the goal
+     * <code>jqf:instrument</code>.
+     *
+     * <p>Classes whose original bytecode and instrumentation configuration
+     * match those recorded in this directory are loaded without being
+     * instrumented again. Other classes are instrumented as usual.</p>
+     */
+    @Parameter(property="instrumentedDir")
+    private String instrumentedDir;
+
     /**
      * Whether to print the args to each test case.
      *
@@ -257,6 +268,9 @@ public class ReproGoal extends AbstractMojo {
         if (includes != null) {
             System.setProperty("janala.includes", includes);
         }
+        if (instrumentedDir != null) {
+            System.setProperty("jqf.instrumentedDir", instrumentedDir);
+        }
 
         try {
             List<String> classpathElements = project.getTestClasspathElements();